@@ -0,0 +1,384 @@
+#include "AudioProcessor.h"
+
+#include <algorithm>
+#include <cmath>
+
+AudioProcessor::AudioProcessor()
+        : AudioProcessor(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS) {}
+
+AudioProcessor::AudioProcessor(const BandEdges* edges, int bandCount, FilterBankType filterBankType, int wolaFftSize)
+        : mAmplification(2.5f),
+          mWolaFftSize(wolaFftSize),
+          mFilterBankType(filterBankType),
+          mFilterBank(DEFAULT_SAMPLE_RATE, edges, bandCount),
+          mCrossoverFilterBank(DEFAULT_SAMPLE_RATE, edges, bandCount),
+          mWolaFilterBank(DEFAULT_SAMPLE_RATE, edges, bandCount, wolaFftSize),
+          mCoefficientRate(filterBankType == FilterBankType::Wola ? mWolaFilterBank.getFrameRate()
+                                                                  : static_cast<float>(DEFAULT_SAMPLE_RATE)),
+          mParameterSets(makeDefaultParameterSet(bandCount, mCoefficientRate)) {
+    std::copy(edges, edges + bandCount, mEdges.begin());
+    mControlIntervals.fill(1);
+    designFilterBanks();
+    configureFeedbackCanceller();
+    mCoefficients = mParameterSets.readBuffer().coefficients;
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        mEnvelopes[ear].fill(0.0f);
+        mBandGains[ear].fill(1.0f);
+        for (int band = 0; band < MAX_BANDS; ++band) {
+            mControlStates[ear][band].reset(mCoefficients[ear][band].gainLinear);
+        }
+    }
+    prepare(kDefaultMaxFramesPerCallback);
+}
+
+void AudioProcessor::prepare(int32_t maxFramesPerCallback) {
+    mMaxFramesPerCallback = std::max(maxFramesPerCallback, 1);
+    allocateBuffers();
+}
+
+void AudioProcessor::setSampleRate(int32_t streamSampleRate, bool internalResampling) {
+    const int bandCount = getBandCount();
+    float highestEdge = 0.0f;
+    for (int band = 0; band < bandCount; ++band) {
+        highestEdge = std::max(highestEdge, mEdges[band].high);
+    }
+    mSampleRate = streamSampleRate;
+    mInternalResampling = internalResampling;
+    mMonoDetector = MonoDetector(streamSampleRate / kMonoDetectionWindowsPerSecond);
+    mResampler = PolyphaseResampler(internalResampling ? PolyphaseResampler::chooseFactor(highestEdge, streamSampleRate) : 1);
+    designFilterBanks();
+    republishParameters();
+    allocateBuffers();
+    mNoiseReducer.configure(getProcessingSampleRate());
+    mLimiter.configure(static_cast<float>(streamSampleRate), mLimiterLookAhead);
+    configureFeedbackCanceller();
+}
+
+void AudioProcessor::setFeedbackPath(float bulkDelaySeconds, float lengthSeconds) {
+    mFeedbackBulkDelay = bulkDelaySeconds;
+    mFeedbackPathLength = lengthSeconds;
+    configureFeedbackCanceller();
+}
+
+void AudioProcessor::configureFeedbackCanceller() {
+    const float rate = static_cast<float>(mSampleRate);
+    mFeedbackCanceller.configure(static_cast<int32_t>(std::lround(mFeedbackPathLength * rate)),
+                                 static_cast<int32_t>(std::lround(mFeedbackBulkDelay * rate)));
+}
+
+void AudioProcessor::setLimiterLookAhead(float lookAheadSeconds) {
+    mLimiterLookAhead = lookAheadSeconds;
+    mLimiter.configure(static_cast<float>(mSampleRate), lookAheadSeconds);
+}
+
+bool AudioProcessor::reconfigure(int32_t streamSampleRate, bool internalResampling, int32_t maxFramesPerCallback) {
+    if (streamSampleRate != mSampleRate || internalResampling != mInternalResampling) {
+        setSampleRate(streamSampleRate, internalResampling);
+        prepare(maxFramesPerCallback);
+        return false;
+    }
+    if (maxFramesPerCallback > mMaxFramesPerCallback) {
+        prepare(maxFramesPerCallback);
+    }
+    return true;
+}
+
+bool AudioProcessor::setControlIntervals(const int* controlIntervals, int bandCount) {
+    if (bandCount != getBandCount()) {
+        return false;
+    }
+    for (int band = 0; band < bandCount; ++band) {
+        if (controlIntervals[band] < 1 || controlIntervals[band] > MAX_CONTROL_INTERVAL) {
+            return false;
+        }
+    }
+    if (mFilterBankType != FilterBankType::Wola) {
+        std::copy(controlIntervals, controlIntervals + bandCount, mControlIntervals.begin());
+        republishParameters();
+    }
+    return true;
+}
+
+void AudioProcessor::republishParameters() {
+    mParameterSets.update();
+    ParameterSet& parameterSet = mParameterSets.writeBuffer();
+    parameterSet.wdrc = mParameterSets.readBuffer().wdrc;
+    computeCoefficients(parameterSet, getBandCount(), mCoefficientRate, mControlIntervals.data());
+    mParameterSets.publish();
+    mParameterSets.update();
+    mCoefficients = mParameterSets.readBuffer().coefficients;
+    mSmoothingActive = false;
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        mEnvelopes[ear].fill(0.0f);
+        for (int band = 0; band < MAX_BANDS; ++band) {
+            mControlStates[ear][band].reset(mCoefficients[ear][band].gainLinear);
+        }
+    }
+}
+
+void AudioProcessor::designFilterBanks() {
+    const int bandCount = getBandCount();
+    const float rate = getProcessingSampleRate();
+    BandEdges edges[MAX_BANDS];
+    fitBandEdgesToSampleRate(mEdges.data(), bandCount, rate, edges);
+    mFilterBank = FilterBank(rate, edges, bandCount);
+    mCrossoverFilterBank = CrossoverFilterBank(rate, edges, bandCount);
+    mWolaFilterBank = WolaFilterBank(rate, edges, bandCount, mWolaFftSize);
+    mCoefficientRate = mFilterBankType == FilterBankType::Wola ? mWolaFilterBank.getFrameRate() : rate;
+}
+
+void AudioProcessor::allocateBuffers() {
+    mEarInputBuffer.assign(NUM_EARS * mMaxFramesPerCallback, 0.0f);
+    mBandBuffer.assign(FilterBank::kMaxLanes * mMaxFramesPerCallback, 0.0f);
+    mEarOutputBuffer.assign(NUM_EARS * mMaxFramesPerCallback, 0.0f);
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        mEarInput[ear] = mEarInputBuffer.data() + ear * mMaxFramesPerCallback;
+        mEarOutput[ear] = mEarOutputBuffer.data() + ear * mMaxFramesPerCallback;
+    }
+
+    // A decimated block is never longer than the stream block it came from
+    const int factor = mResampler.getFactor();
+    if (factor > 1) {
+        const int32_t resampledFrames = PolyphaseResampler::maxDecimatedFrames(mMaxFramesPerCallback, factor);
+        mResampledBuffer.assign(2 * NUM_EARS * resampledFrames, 0.0f);
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            mResampledInput[ear] = mResampledBuffer.data() + ear * resampledFrames;
+            mResampledOutput[ear] = mResampledBuffer.data() + (NUM_EARS + ear) * resampledFrames;
+        }
+        mResampler.prepare(mMaxFramesPerCallback);
+    } else {
+        mResampledBuffer.clear();
+        mResampledInput.fill(nullptr);
+        mResampledOutput.fill(nullptr);
+    }
+}
+
+void AudioProcessor::process(const float* input, float* output, int32_t numFrames, int32_t channelCount) {
+    ScopedFlushDenormals flushDenormals;
+
+    // The canceller restarts when turned on, as it has missed the output while off
+    const bool cancelFeedback = mFeedbackCancellationEnabled.load(std::memory_order_relaxed);
+    if (cancelFeedback && !mFeedbackCancellationActive) {
+        mFeedbackCanceller.reset();
+    }
+    mFeedbackCancellationActive = cancelFeedback;
+
+    // Each chunk's output must reach the canceller before its estimate needs it
+    const int32_t chunkFrames = cancelFeedback ? std::min(mMaxFramesPerCallback, mFeedbackCanceller.getMaxBlockFrames())
+                                               : mMaxFramesPerCallback;
+    for (int32_t offset = 0; offset < numFrames; offset += chunkFrames) {
+        const int32_t frames = std::min(chunkFrames, numFrames - offset);
+        processBlock(input + offset * channelCount, output + offset * channelCount, frames, channelCount);
+    }
+    mBlocksProcessed.fetch_add(1, std::memory_order_relaxed);
+}
+
+void AudioProcessor::processBlock(const float* input, float* output, int32_t numFrames, int32_t channelCount) {
+    smoothParameters(numFrames);
+    const float maxInputSample = deinterleave(input, numFrames, channelCount, mEarInput.data());
+    const bool mono = chooseMonoInput(numFrames, channelCount);
+    if (mFeedbackCancellationActive) {
+        mFeedbackCanceller.cancel(mEarInput.data(), numFrames);
+    }
+
+    if (mResampler.getFactor() > 1) {
+        const int32_t resampledFrames = mResampler.decimate(mEarInput.data(), numFrames, mResampledInput.data());
+        processAtProcessingRate(mResampledInput.data(), mResampledOutput.data(), resampledFrames, mono);
+        mResampler.interpolate(mResampledOutput.data(), resampledFrames, mEarOutput.data(), numFrames);
+    } else {
+        processAtProcessingRate(mEarInput.data(), mEarOutput.data(), numFrames, mono);
+    }
+    if (mFeedbackCancellationActive) {
+        const float probeNoiseLevel = mProbeNoiseLevel.load(std::memory_order_relaxed);
+        if (probeNoiseLevel > 0.0f) {
+            mFeedbackCanceller.addProbeNoise(mEarOutput.data(), numFrames, probeNoiseLevel / mAmplification);
+        }
+    }
+    mLimiter.process(mEarOutput.data(), numFrames, mAmplification);
+    if (mFeedbackCancellationActive) {
+        mFeedbackCanceller.addReference(mEarOutput.data(), numFrames);
+    }
+    const float maxOutputSample = interleave(mEarOutput.data(), numFrames, output, channelCount);
+
+    updatePeak(mPeakInput, maxInputSample);
+    updatePeak(mPeakOutput, maxOutputSample);
+}
+
+bool AudioProcessor::chooseMonoInput(int32_t numFrames, int32_t channelCount) {
+    // The WOLA bank transforms both ears in one FFT, so there is nothing to share
+    if (mFilterBankType == FilterBankType::Wola) {
+        return false;
+    }
+    bool mono;
+    switch (mInputChannelMode.load(std::memory_order_relaxed)) {
+        case InputChannelMode::Stereo:
+            mono = channelCount < 2;
+            break;
+        case InputChannelMode::Mono:
+            mono = true;
+            break;
+        default:
+            mono = channelCount < 2 || mMonoDetector.process(mEarInput[0], mEarInput[1], numFrames);
+            break;
+    }
+
+    // The right ear's filters sat idle while mono; resume them from the left ear's state
+    if (mMonoInput && !mono) {
+        mFilterBank.copyLeftStateToRight();
+        mCrossoverFilterBank.copyLeftStateToRight();
+    }
+    if (mono != mMonoInput) {
+        mMonoInput = mono;
+        mMonoInputActive.store(mono, std::memory_order_relaxed);
+    }
+    return mono;
+}
+
+void AudioProcessor::processAtProcessingRate(float* const* earInput, float* const* earOutput, int32_t numFrames,
+                                             bool mono) {
+    // The noise floors restart when turned on, as they went untracked while off, and the squelch
+    // starts open; with both off the band gains rest at 1
+    const bool reduceNoise = mNoiseReductionEnabled.load(std::memory_order_relaxed);
+    const bool squelch = mSquelch.isEnabled();
+    if (reduceNoise && !mNoiseReductionActive) {
+        mNoiseReducer.reset();
+    }
+    if (squelch && !mSquelchActive) {
+        mSquelch.reset();
+    }
+    if (!reduceNoise && !squelch && (mNoiseReductionActive || mSquelchActive)) {
+        for (std::array<float, MAX_BANDS>& earGains : mBandGains) {
+            earGains.fill(1.0f);
+        }
+    }
+    mNoiseReductionActive = reduceNoise;
+    mSquelchActive = squelch;
+
+    if (mFilterBankType == FilterBankType::Wola) {
+        // Analysis, per-band WDRC and synthesis all happen in the frequency domain; noise reduction
+        // and squelch gains from the previous block scale the bands alongside WDRC
+        const bool bandGains = reduceNoise || squelch;
+        mWolaFilterBank.processBlock(earInput, earOutput, numFrames, mEnvelopes, mCoefficients,
+                                     bandGains ? &mBandGains : nullptr);
+        if (bandGains) {
+            updateBandGains(numFrames, mBandGains);
+        }
+    } else {
+        processBands(earInput, earOutput, numFrames, mono);
+    }
+}
+
+void AudioProcessor::processBands(float* const* earInput, float* const* earOutput, int32_t numFrames, bool mono) {
+    // Split each ear into bands, or only the left one for mono input, then apply WDRC band by band
+    const int bandCount = mFilterBank.getBandCount();
+    const int laneCount = mFilterBank.getLaneCount();
+    const int lanesPerEar = mFilterBank.getLanesPerEar();
+    if (mFilterBankType == FilterBankType::Crossover) {
+        mCrossoverFilterBank.processBlock(earInput, mBandBuffer.data(), numFrames, mono);
+    } else {
+        mFilterBank.processBlock(earInput, mBandBuffer.data(), numFrames, mono);
+    }
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        for (int band = 0; band < bandCount; ++band) {
+            const int lane = ear * lanesPerEar + band;
+            if (mControlIntervals[band] > 1) {
+                applyWDRCBlockInterpolated(mBandBuffer.data() + lane, numFrames, laneCount, mControlIntervals[band],
+                                           mEnvelopes[ear][band], mControlStates[ear][band], mCoefficients[ear][band]);
+            } else {
+                applyWDRCBlock(mBandBuffer.data() + lane, numFrames, laneCount,
+                               mEnvelopes[ear][band], mCoefficients[ear][band]);
+            }
+        }
+    }
+    if (mNoiseReductionActive || mSquelchActive) {
+        BandGains gains;
+        updateBandGains(numFrames, gains);
+        rampBandGains(mBandBuffer.data(), numFrames, laneCount, lanesPerEar, bandCount, mBandGains, gains);
+        mBandGains = gains;
+    }
+
+    if (mFilterBankType == FilterBankType::Crossover) {
+        mCrossoverFilterBank.sumBands(mBandBuffer.data(), numFrames, earOutput);
+    } else {
+        sumBands(mBandBuffer.data(), numFrames, laneCount, lanesPerEar, bandCount, earOutput);
+    }
+}
+
+void AudioProcessor::updateBandGains(int32_t numFrames, BandGains& gains) {
+    const int bandCount = getBandCount();
+    if (mNoiseReductionActive) {
+        mNoiseReducer.update(mEnvelopes, bandCount, numFrames, mNoiseReductionFloor.load(std::memory_order_relaxed));
+    }
+    if (mSquelchActive) {
+        mSquelch.update(mEnvelopes, bandCount);
+    }
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        for (int band = 0; band < bandCount; ++band) {
+            const float noiseReductionGain = mNoiseReductionActive ? mNoiseReducer.getGains()[ear][band] : 1.0f;
+            const float squelchGain = mSquelchActive ? mSquelch.getGains()[ear][band] : 1.0f;
+            gains[ear][band] = noiseReductionGain * squelchGain;
+        }
+    }
+}
+
+bool AudioProcessor::updateParams(const WDRCParams* leftParams, const WDRCParams* rightParams, int bandCount) {
+    if (bandCount != getBandCount()) {
+        return false;
+    }
+    ParameterSet& parameterSet = mParameterSets.writeBuffer();
+    std::copy(leftParams, leftParams + bandCount, parameterSet.wdrc[0].begin());
+    std::copy(rightParams, rightParams + bandCount, parameterSet.wdrc[1].begin());
+    computeCoefficients(parameterSet, bandCount, mCoefficientRate, mControlIntervals.data());
+    mParameterSets.publish();
+    return true;
+}
+
+AudioProcessor::ParameterSet AudioProcessor::makeDefaultParameterSet(int bandCount, float coefficientRate) {
+    ParameterSet parameterSet{};
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        for (int i = 0; i < bandCount; ++i) {
+            // Spread the four-band defaults across however many bands there are
+            const float position = bandCount > 1 ? i * (DEFAULT_NUM_BANDS - 1.0f) / (bandCount - 1.0f) : 0.0f;
+            parameterSet.wdrc[ear][i] = {-40.0f + position * 5.0f, 3.0f + position * 0.5f, 0.01f, 0.1f, 10.0f};
+        }
+    }
+    computeCoefficients(parameterSet, bandCount, coefficientRate, nullptr);
+    return parameterSet;
+}
+
+void AudioProcessor::computeCoefficients(ParameterSet& parameterSet, int bandCount, float coefficientRate,
+                                         const int* controlIntervals) {
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        for (int band = 0; band < bandCount; ++band) {
+            const float bandRate = controlIntervals ? coefficientRate / controlIntervals[band] : coefficientRate;
+            parameterSet.coefficients[ear][band] = computeWDRCCoefficients(parameterSet.wdrc[ear][band], bandRate);
+        }
+    }
+}
+
+void AudioProcessor::smoothParameters(int32_t numFrames) {
+    if (mParameterSets.update()) {
+        mSmoothingActive = true;
+    }
+    if (!mSmoothingActive) {
+        return;
+    }
+
+    // One-pole glide evaluated once per block
+    const float amount = std::min(1.0f, numFrames / (kParamSmoothingTime * mSampleRate));
+    const ParameterSet& target = mParameterSets.readBuffer();
+    const int bandCount = getBandCount();
+    bool settled = true;
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        for (int band = 0; band < bandCount; ++band) {
+            settled &= smoothWDRCCoefficients(mCoefficients[ear][band], target.coefficients[ear][band], amount);
+        }
+    }
+    mSmoothingActive = !settled;
+}
+
+void AudioProcessor::updatePeak(std::atomic<float>& peak, float value) {
+    float current = peak.load(std::memory_order_relaxed);
+    while (value > current && !peak.compare_exchange_weak(current, value, std::memory_order_relaxed)) {
+    }
+}
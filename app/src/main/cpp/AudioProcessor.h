@@ -0,0 +1,362 @@
+/**
+ * Real-time DSP core of the hearing amplifier.
+ *
+ * AudioProcessor owns the per-ear band filters, WDRC state and per-block statistics, and is independent of
+ * Oboe and JNI so it can be exercised by host-side tests. Everything reachable from process() is
+ * real-time safe: no heap allocation, no logging and no locking. All memory is set up by the
+ * constructor and prepare(), which must be called before the streams start.
+ *
+ * The number of bands (MIN_BANDS..MAX_BANDS), their edges and the FilterBankType that splits the
+ * input into them (with its frame size in WOLA mode) are fixed at construction; per-band storage is
+ * sized for MAX_BANDS so no layout change ever allocates.
+ *
+ * Filters and WDRC time constants are designed for DEFAULT_SAMPLE_RATE until setSampleRate() redesigns
+ * them for the rate the streams actually opened at. Optionally the DSP then runs at an integer
+ * fraction of that rate behind a PolyphaseResampler, which divides the per-frame work.
+ *
+ * When both input channels carry the same signal the bands are split once and fanned out to both ears'
+ * WDRC (InputChannelMode), halving the filter bank cost; the WOLA bank already transforms both ears
+ * in one FFT and ignores this.
+ *
+ * Each band's WDRC envelope and gain run either per sample or, to save work, at a per-band control
+ * rate with linear gain interpolation (setControlIntervals()).
+ *
+ * Optionally a NoiseReducer turns each band down by its Wiener gain, from a noise floor tracked on
+ * the WDRC envelopes by minimum statistics (setNoiseReductionEnabled()), and a Squelch expands bands
+ * whose envelope stays below a kneepoint, with hysteresis, so microphone self-noise is not amplified
+ * (setSquelch()). Both gains are ramped across the block in one pass.
+ *
+ * Optionally a FeedbackCanceller subtracts each ear's own output, as it leaks back into the microphone,
+ * from the input before anything else runs, with low-level probe noise in the output to help it adapt
+ * (setFeedbackCancellationEnabled()). It adds no latency, but while it runs blocks are processed in
+ * chunks no longer than its bulk delay allows.
+ *
+ * The summed output of each ear goes through a PeakLimiter that holds it under that ear's maximum
+ * power output (MPO) ceiling, looking a short, configurable time ahead instead of clipping.
+ *
+ * process() flushes subnormal floats to zero while it runs (ScopedFlushDenormals), so filter states
+ * decaying in silence never fall onto the CPU's slow path.
+ *
+ * Audio is processed a block at a time, one stage after another (see ProcessingStages.h), using
+ * planar scratch buffers sized by prepare().
+ *
+ * Parameter updates are published through a TripleBuffer, so the audio thread never waits for the
+ * writer and never sees a half-written set. The audio thread then glides its working coefficients
+ * toward the new set block by block to avoid audible gain steps.
+ */
+
+#ifndef HEARINGAMP_AUDIOPROCESSOR_H
+#define HEARINGAMP_AUDIOPROCESSOR_H
+
+#include <algorithm>
+#include <array>
+#include <atomic>
+#include <cmath>
+#include <cstdint>
+#include <vector>
+
+#include "CrossoverFilterBank.h"
+#include "DspConstants.h"
+#include "FeedbackCanceller.h"
+#include "FilterBank.h"
+#include "FlushDenormals.h"
+#include "MonoDetector.h"
+#include "NoiseReducer.h"
+#include "PeakLimiter.h"
+#include "PolyphaseResampler.h"
+#include "ProcessingStages.h"
+#include "Squelch.h"
+#include "TripleBuffer.h"
+#include "WDRC.h"
+#include "WolaFilterBank.h"
+
+class AudioProcessor {
+public:
+    // Scratch size used until prepare() is called
+    static constexpr int32_t kDefaultMaxFramesPerCallback = 256;
+
+    // Default four-band layout
+    AudioProcessor();
+
+    // Custom layout; edges must satisfy isValidBandLayout() and wolaFftSize isValidWolaFftSize().
+    // wolaFftSize only matters for FilterBankType::Wola.
+    AudioProcessor(const BandEdges* edges, int bandCount, FilterBankType filterBankType = FilterBankType::Bandpass,
+                   int wolaFftSize = DEFAULT_WOLA_FFT_SIZE);
+
+    // Size the scratch buffers for the largest block the streams can deliver. Not real-time safe.
+    void prepare(int32_t maxFramesPerCallback);
+
+    // Redesign filters and WDRC coefficients for the stream rate, keeping the current parameters.
+    // With internalResampling the DSP runs at the lowest integer fraction of the rate that still
+    // carries the highest band edge. Band edges above MAX_BAND_EDGE_FRACTION of the processing rate
+    // are clamped. Not real-time safe: must not run concurrently with process() or updateParams().
+    void setSampleRate(int32_t streamSampleRate, bool internalResampling);
+
+    // Adapt to newly opened streams, such as after a device disconnect. If the rate and resampling
+    // are unchanged the filter and envelope state carries over and the scratch buffers only grow
+    // (which restarts the short resampler history); otherwise this is setSampleRate() and prepare(),
+    // and returns false. Not real-time safe.
+    bool reconfigure(int32_t streamSampleRate, bool internalResampling, int32_t maxFramesPerCallback);
+
+    // Set the output limiter's look-ahead, at most PeakLimiter::kMaxLookAheadFrames stream frames;
+    // PeakLimiter::kDefaultLookAheadSeconds by default and 0 for none. Not real-time safe: must not run
+    // concurrently with process().
+    void setLimiterLookAhead(float lookAheadSeconds);
+
+    // Set an ear's maximum power output as a peak level in dBFS, at most 0 (full scale). Safe to call
+    // from any thread while processing.
+    void setOutputCeilingDb(int ear, float ceilingDb) {
+        mLimiter.setCeiling(ear, std::pow(10.0f, std::min(ceilingDb, 0.0f) / 20.0f));
+    }
+
+    float getOutputCeilingDb(int ear) const {
+        return 20.0f * std::log10(mLimiter.getCeiling(ear));
+    }
+
+    // Model each ear's feedback path as bulkDelaySeconds of pure delay (at least the longest block the
+    // canceller sees plus one of its blocks) followed by lengthSeconds of adaptive filter, both limited
+    // to what FeedbackCanceller holds. The defaults suit a round trip of 5 to 25 ms. Not real-time
+    // safe: must not run concurrently with process().
+    void setFeedbackPath(float bulkDelaySeconds, float lengthSeconds);
+
+    // Turn adaptive feedback cancellation on or off; off by default. Turning it on starts adapting
+    // from scratch. Safe to call from any thread while processing.
+    void setFeedbackCancellationEnabled(bool enabled) {
+        mFeedbackCancellationEnabled.store(enabled, std::memory_order_relaxed);
+    }
+
+    bool isFeedbackCancellationEnabled() const {
+        return mFeedbackCancellationEnabled.load(std::memory_order_relaxed);
+    }
+
+    // Set the RMS level in dBFS of the white noise mixed into the output while feedback cancellation
+    // runs; -infinity (the default) for none. Safe to call from any thread while processing.
+    void setProbeNoiseLevelDb(float levelDb) {
+        mProbeNoiseLevel.store(std::pow(10.0f, std::min(levelDb, 0.0f) / 20.0f), std::memory_order_relaxed);
+    }
+
+    // Turn per-band noise reduction on or off; off by default. Turning it on starts tracking the
+    // noise floors from scratch, which takes NoiseReducer::kWindowSeconds. Safe to call from any
+    // thread while processing.
+    void setNoiseReductionEnabled(bool enabled) {
+        mNoiseReductionEnabled.store(enabled, std::memory_order_relaxed);
+    }
+
+    bool isNoiseReductionEnabled() const {
+        return mNoiseReductionEnabled.load(std::memory_order_relaxed);
+    }
+
+    // Set the most noise reduction turns a band down, in dB (0 to 40); 12 by default. Safe to call
+    // from any thread while processing.
+    void setNoiseReductionDepthDb(float depthDb) {
+        mNoiseReductionFloor.store(std::pow(10.0f, -std::clamp(depthDb, 0.0f, 40.0f) / 20.0f), std::memory_order_relaxed);
+    }
+
+    // Expand each band whose envelope falls below kneepointDb (dBFS; -infinity, the default, for
+    // none) at ratio (1 to Squelch::kMaxRatio), holding the expansion until the envelope is
+    // hysteresisDb above the kneepoint (see Squelch). Safe to call while processing, but callers must
+    // not invoke this from more than one thread at a time.
+    void setSquelch(float kneepointDb, float ratio, float hysteresisDb) {
+        mSquelch.setParameters(kneepointDb, ratio, hysteresisDb);
+    }
+
+    bool isSquelchEnabled() const {
+        return mSquelch.isEnabled();
+    }
+
+    // Compute each band's WDRC envelope and gain once per controlIntervals[band] frames (1 to
+    // MAX_CONTROL_INTERVAL), ramping the gain linearly in between; 1 keeps the per-sample law.
+    // WOLA mode already runs WDRC once per hop and ignores this. Returns false for a wrong band
+    // count or interval. Not real-time safe: must not run concurrently with process() or updateParams().
+    bool setControlIntervals(const int* controlIntervals, int bandCount);
+
+    // Process interleaved frames; input and output may alias. Real-time safe.
+    // Channel 0 feeds the left ear and channel 1 the right; a mono stream feeds both ears
+    // and outputs the left result, and channels beyond the second repeat the right ear.
+    // Blocks larger than the prepared size are processed in chunks.
+    void process(const float* input, float* output, int32_t numFrames, int32_t channelCount);
+
+    // Choose whether the input channels are split separately, once for both ears, or automatically;
+    // InputChannelMode::Auto by default. Safe to call from any thread while processing.
+    void setInputChannelMode(InputChannelMode mode) {
+        mInputChannelMode.store(mode, std::memory_order_relaxed);
+    }
+
+    InputChannelMode getInputChannelMode() const {
+        return mInputChannelMode.load(std::memory_order_relaxed);
+    }
+
+    // Whether the last block was split once for both ears; safe to call from any thread
+    bool isMonoInputActive() const {
+        return mMonoInputActive.load(std::memory_order_relaxed);
+    }
+
+    // Update WDRC parameters for both ears; bandCount must match getBandCount(). Wait-free for
+    // the audio thread; callers must not invoke this from more than one thread at a time.
+    bool updateParams(const WDRCParams* leftParams, const WDRCParams* rightParams, int bandCount);
+
+    int getBandCount() const {
+        return mFilterBank.getBandCount();
+    }
+
+    FilterBankType getFilterBankType() const {
+        return mFilterBankType;
+    }
+
+    int32_t getSampleRate() const {
+        return mSampleRate;
+    }
+
+    // Rate the filter banks and WDRC run at: the stream rate divided by getResampleFactor()
+    float getProcessingSampleRate() const {
+        return static_cast<float>(mSampleRate) / static_cast<float>(mResampler.getFactor());
+    }
+
+    int getResampleFactor() const {
+        return mResampler.getFactor();
+    }
+
+    // Stream frames of delay added by resampling, the limiter's look-ahead and, in WOLA mode, the
+    // analysis frame; the IIR banks add only their group delay
+    int getProcessingLatencyFrames() const {
+        const int wolaFrames = mFilterBankType == FilterBankType::Wola ? mWolaFilterBank.getLatencyFrames() : 0;
+        return wolaFrames * mResampler.getFactor() + mResampler.getLatencyFrames() + mLimiter.getLatencyFrames();
+    }
+
+    int32_t getMaxFramesPerCallback() const {
+        return mMaxFramesPerCallback;
+    }
+
+    // Peak absolute input/output since the previous call; safe to call from any thread
+    float consumePeakInput() {
+        return mPeakInput.exchange(0.0f, std::memory_order_relaxed);
+    }
+
+    float consumePeakOutput() {
+        return mPeakOutput.exchange(0.0f, std::memory_order_relaxed);
+    }
+
+    uint64_t getBlocksProcessed() const {
+        return mBlocksProcessed.load(std::memory_order_relaxed);
+    }
+
+private:
+    // Time constant of the glide from one parameter set to the next, in seconds
+    static constexpr float kParamSmoothingTime = 0.02f;
+
+    // Noise reduction depth until setNoiseReductionDepthDb(): -12 dB
+    static constexpr float kDefaultNoiseReductionFloor = 0.25f;
+
+    // Feedback path modelled until setFeedbackPath(), in seconds
+    static constexpr float kDefaultFeedbackBulkDelay = 0.005f;
+    static constexpr float kDefaultFeedbackPathLength = 0.02f;
+
+    // MonoDetector windows per second of stream audio
+    static constexpr int32_t kMonoDetectionWindowsPerSecond = 10;
+
+    // Everything the audio thread needs from one parameter update
+    struct ParameterSet {
+        std::array<std::array<WDRCParams, MAX_BANDS>, NUM_EARS> wdrc;  // [0] for left, [1] for right
+        std::array<std::array<WDRCCoefficients, MAX_BANDS>, NUM_EARS> coefficients;
+    };
+
+    // Run every stage over a block no larger than the prepared size
+    void processBlock(const float* input, float* output, int32_t numFrames, int32_t channelCount);
+
+    // Whether to split this block once for both ears, following the mode and the detector
+    bool chooseMonoInput(int32_t numFrames, int32_t channelCount);
+
+    using BandGains = std::array<std::array<float, MAX_BANDS>, NUM_EARS>;
+
+    // Filter bank and WDRC stages at the processing rate, from earInput into earOutput
+    void processAtProcessingRate(float* const* earInput, float* const* earOutput, int32_t numFrames, bool mono);
+
+    // Split earInput into bands with the IIR bank (only the left ear for mono input), apply WDRC and
+    // sum into earOutput
+    void processBands(float* const* earInput, float* const* earOutput, int32_t numFrames, bool mono);
+
+    // Update noise reduction and squelch from the envelopes after numFrames more frames and combine
+    // their gains into gains
+    void updateBandGains(int32_t numFrames, BandGains& gains);
+
+    // Size the feedback canceller's path model for the stream rate; not real-time safe
+    void configureFeedbackCanceller();
+
+    // (Re)design the filter banks for the processing rate and size every buffer; not real-time safe
+    void designFilterBanks();
+    void allocateBuffers();
+
+    // Default WDRC parameters used until the first update
+    static ParameterSet makeDefaultParameterSet(int bandCount, float coefficientRate);
+
+    // Derive the coefficient sets of a parameter set from its WDRC parameters, for envelopes
+    // updated coefficientRate / controlIntervals[band] times per second (null for every sample)
+    static void computeCoefficients(ParameterSet& parameterSet, int bandCount, float coefficientRate,
+                                    const int* controlIntervals);
+
+    // Recompute the latest parameters after a rate change and make them current without a glide;
+    // not real-time safe
+    void republishParameters();
+
+    // Pick up newly published parameters and glide the working coefficients toward them
+    void smoothParameters(int32_t numFrames);
+
+    // Raise a peak meter without losing a concurrent reset
+    static void updatePeak(std::atomic<float>& peak, float value);
+
+    float mAmplification;
+    std::array<BandEdges, MAX_BANDS> mEdges;  // As requested, before fitting to the processing rate
+    int mWolaFftSize;
+    int32_t mSampleRate = DEFAULT_SAMPLE_RATE;
+    bool mInternalResampling = false;
+    PolyphaseResampler mResampler;
+    FilterBankType mFilterBankType;
+    FilterBank mFilterBank;                  // Also defines the band block layout for both types
+    CrossoverFilterBank mCrossoverFilterBank;
+    WolaFilterBank mWolaFilterBank;
+    FeedbackCanceller mFeedbackCanceller;
+    float mFeedbackBulkDelay = kDefaultFeedbackBulkDelay;
+    float mFeedbackPathLength = kDefaultFeedbackPathLength;
+    std::atomic<bool> mFeedbackCancellationEnabled{false};
+    bool mFeedbackCancellationActive = false;  // Audio thread's copy, taken once per process() call
+    std::atomic<float> mProbeNoiseLevel{0.0f};  // Linear RMS at the output
+    NoiseReducer mNoiseReducer;
+    std::atomic<bool> mNoiseReductionEnabled{false};
+    bool mNoiseReductionActive = false;         // Audio thread's copy, taken once per block
+    std::atomic<float> mNoiseReductionFloor{kDefaultNoiseReductionFloor};  // Smallest linear band gain
+    Squelch mSquelch;
+    bool mSquelchActive = false;                // Audio thread's copy, taken once per block
+    BandGains mBandGains;                       // Noise reduction and squelch gains reached by the last block
+    PeakLimiter mLimiter;
+    float mLimiterLookAhead = PeakLimiter::kDefaultLookAheadSeconds;
+    float mCoefficientRate;                  // Processing rate, or the WOLA frame rate in WOLA mode
+    TripleBuffer<ParameterSet> mParameterSets;
+    std::array<std::array<WDRCCoefficients, MAX_BANDS>, NUM_EARS> mCoefficients;  // Working set, audio thread only
+    bool mSmoothingActive = false;
+    std::array<std::array<float, MAX_BANDS>, NUM_EARS> mEnvelopes;  // [0] for left, [1] for right
+    std::array<std::array<WDRCControlState, MAX_BANDS>, NUM_EARS> mControlStates;  // Control-rate WDRC per band
+    std::array<int, MAX_BANDS> mControlIntervals;
+    std::atomic<InputChannelMode> mInputChannelMode{InputChannelMode::Auto};
+    MonoDetector mMonoDetector;
+    bool mMonoInput = false;                 // Audio thread's choice for the previous block
+    std::atomic<bool> mMonoInputActive{false};
+    int32_t mMaxFramesPerCallback = 0;
+
+    // Planar scratch buffers: deinterleaved input, lane-interleaved bands, summed output per ear
+    std::vector<float> mEarInputBuffer;
+    std::vector<float> mBandBuffer;
+    std::vector<float> mEarOutputBuffer;
+    std::array<float*, NUM_EARS> mEarInput{};
+    std::array<float*, NUM_EARS> mEarOutput{};
+
+    // Per-ear buffers at the processing rate, used only when resampling
+    std::vector<float> mResampledBuffer;
+    std::array<float*, NUM_EARS> mResampledInput{};
+    std::array<float*, NUM_EARS> mResampledOutput{};
+
+    std::atomic<float> mPeakInput{0.0f};
+    std::atomic<float> mPeakOutput{0.0f};
+    std::atomic<uint64_t> mBlocksProcessed{0};
+};
+
+#endif // HEARINGAMP_AUDIOPROCESSOR_H
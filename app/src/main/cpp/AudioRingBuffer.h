@@ -0,0 +1,142 @@
+/**
+ * Lock-free single-producer / single-consumer ring buffer for audio samples.
+ *
+ * The input callback is the only writer and the output callback is the only reader, so the
+ * read and write positions can be plain atomics: neither side ever takes a lock or waits.
+ * Positions are free-running counters masked into a power-of-two buffer, and data is moved
+ * with at most two bulk copies per call.
+ *
+ * When the writer finds the buffer full the excess samples are dropped (overflow), and when the
+ * reader finds it short it returns what is available (underflow). Both events are counted so the
+ * behaviour under load can be inspected from a non-real-time thread.
+ *
+ * The storage is allocated once at the largest capacity, but the writer treats the buffer as full
+ * at a limit that can be changed at runtime, so the latency it can build up follows the stream
+ * buffer size without reallocating.
+ */
+
+#ifndef HEARINGAMP_AUDIORINGBUFFER_H
+#define HEARINGAMP_AUDIORINGBUFFER_H
+
+#include <algorithm>
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+#include <cstring>
+#include <vector>
+
+class AudioRingBuffer {
+public:
+    // Capacity is rounded up to the next power of two so positions can be masked
+    explicit AudioRingBuffer(size_t capacity)
+            : mCapacity(roundUpToPowerOfTwo(capacity)),
+              mMask(mCapacity - 1),
+              mBuffer(mCapacity, 0.0f),
+              mLimit(mCapacity) {}
+
+    // Write up to size samples; returns the number written. Never blocks.
+    size_t write(const float* data, size_t size) {
+        if (!data || size == 0) {
+            return 0;
+        }
+        const size_t writeIndex = mWriteIndex.load(std::memory_order_relaxed);
+        const size_t readIndex = mReadIndex.load(std::memory_order_acquire);
+        const size_t fill = writeIndex - readIndex;
+        const size_t limit = mLimit.load(std::memory_order_relaxed);
+        const size_t available = limit > fill ? limit - fill : 0;
+        const size_t toWrite = std::min(size, available);
+        if (toWrite < size) {
+            mOverflowCount.fetch_add(1, std::memory_order_relaxed);
+        }
+
+        const size_t start = writeIndex & mMask;
+        const size_t firstPart = std::min(toWrite, mCapacity - start);
+        std::memcpy(mBuffer.data() + start, data, firstPart * sizeof(float));
+        std::memcpy(mBuffer.data(), data + firstPart, (toWrite - firstPart) * sizeof(float));
+
+        mWriteIndex.store(writeIndex + toWrite, std::memory_order_release);
+        return toWrite;
+    }
+
+    // Read up to size samples; returns the number read. Never blocks.
+    size_t read(float* data, size_t size) {
+        if (!data || size == 0) {
+            return 0;
+        }
+        const size_t readIndex = mReadIndex.load(std::memory_order_relaxed);
+        const size_t writeIndex = mWriteIndex.load(std::memory_order_acquire);
+        const size_t toRead = std::min(size, writeIndex - readIndex);
+        if (toRead < size) {
+            mUnderflowCount.fetch_add(1, std::memory_order_relaxed);
+        }
+
+        const size_t start = readIndex & mMask;
+        const size_t firstPart = std::min(toRead, mCapacity - start);
+        std::memcpy(data, mBuffer.data() + start, firstPart * sizeof(float));
+        std::memcpy(data + firstPart, mBuffer.data(), (toRead - firstPart) * sizeof(float));
+
+        mReadIndex.store(readIndex + toRead, std::memory_order_release);
+        return toRead;
+    }
+
+    // Drop everything queued without counting an underflow; returns the number of samples dropped.
+    // Called from the consumer thread only, like read().
+    size_t discard() {
+        const size_t readIndex = mReadIndex.load(std::memory_order_relaxed);
+        const size_t writeIndex = mWriteIndex.load(std::memory_order_acquire);
+        mReadIndex.store(writeIndex, std::memory_order_release);
+        return writeIndex - readIndex;
+    }
+
+    // Current fill level in samples; safe to call from any thread
+    size_t size() const {
+        const size_t readIndex = mReadIndex.load(std::memory_order_acquire);
+        const size_t writeIndex = mWriteIndex.load(std::memory_order_acquire);
+        return writeIndex - readIndex;
+    }
+
+    size_t capacity() const {
+        return mCapacity;
+    }
+
+    // Fill level at which writes start dropping samples, clamped to capacity(); safe to call from any thread
+    void setLimit(size_t limit) {
+        mLimit.store(std::min(limit, mCapacity), std::memory_order_relaxed);
+    }
+
+    size_t limit() const {
+        return mLimit.load(std::memory_order_relaxed);
+    }
+
+    // Number of writes that could not store all of their samples
+    uint64_t overflowCount() const {
+        return mOverflowCount.load(std::memory_order_relaxed);
+    }
+
+    // Number of reads that could not return all of the requested samples
+    uint64_t underflowCount() const {
+        return mUnderflowCount.load(std::memory_order_relaxed);
+    }
+
+private:
+    static size_t roundUpToPowerOfTwo(size_t value) {
+        size_t result = 1;
+        while (result < value) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    const size_t mCapacity;
+    const size_t mMask;
+    std::vector<float> mBuffer;
+    std::atomic<size_t> mLimit;
+
+    // Keep the producer and consumer positions on separate cache lines
+    alignas(64) std::atomic<size_t> mWriteIndex{0};
+    alignas(64) std::atomic<size_t> mReadIndex{0};
+    alignas(64) std::atomic<uint64_t> mOverflowCount{0};
+    std::atomic<uint64_t> mUnderflowCount{0};
+};
+
+#endif // HEARINGAMP_AUDIORINGBUFFER_H
@@ -0,0 +1,89 @@
+/**
+ * Digital biquad bandpass filter used to split the input into frequency bands.
+ *
+ * BiquadCoefficients holds the a0-normalized designs shared by BandpassFilter, the vectorized
+ * FilterBank and the CrossoverFilterBank; BandpassFilter remains as the scalar single-channel
+ * reference.
+ */
+
+#ifndef HEARINGAMP_BANDPASSFILTER_H
+#define HEARINGAMP_BANDPASSFILTER_H
+
+#include <cmath>
+
+// Biquad coefficients normalized so that a0 == 1
+struct BiquadCoefficients {
+    float b0, b1, b2, a1, a2;
+
+    // Constant-peak-gain bandpass centred between lowFreq and highFreq
+    static BiquadCoefficients bandpass(float sampleRate, float lowFreq, float highFreq) {
+        // Calculate filter coefficients using bilinear transform
+        float w0 = 2 * M_PI * (lowFreq + highFreq) / 2 / sampleRate;
+        float bw = (highFreq - lowFreq) / (lowFreq + highFreq);
+        float q = 1 / (2 * sinh(log(2) / 2 * bw * w0 / sin(w0)));
+        float alpha = sin(w0) / (2 * q);
+        float a0 = 1 + alpha;
+
+        return {alpha / a0, 0.0f, -alpha / a0, -2 * static_cast<float>(cos(w0)) / a0, (1 - alpha) / a0};
+    }
+
+    // Second-order lowpass with cutoff frequency and quality factor q
+    static BiquadCoefficients lowpass(float sampleRate, float frequency, float q) {
+        const double w0 = 2 * M_PI * frequency / sampleRate;
+        const double alpha = sin(w0) / (2 * q);
+        const double cosW0 = cos(w0);
+        const double a0 = 1 + alpha;
+        return normalized((1 - cosW0) / 2, 1 - cosW0, (1 - cosW0) / 2, a0, -2 * cosW0, 1 - alpha);
+    }
+
+    // Second-order highpass with cutoff frequency and quality factor q
+    static BiquadCoefficients highpass(float sampleRate, float frequency, float q) {
+        const double w0 = 2 * M_PI * frequency / sampleRate;
+        const double alpha = sin(w0) / (2 * q);
+        const double cosW0 = cos(w0);
+        const double a0 = 1 + alpha;
+        return normalized((1 + cosW0) / 2, -(1 + cosW0), (1 + cosW0) / 2, a0, -2 * cosW0, 1 - alpha);
+    }
+
+    // Second-order allpass with unit magnitude and a 180 degree phase shift at frequency
+    static BiquadCoefficients allpass(float sampleRate, float frequency, float q) {
+        const double w0 = 2 * M_PI * frequency / sampleRate;
+        const double alpha = sin(w0) / (2 * q);
+        const double cosW0 = cos(w0);
+        const double a0 = 1 + alpha;
+        return normalized(1 - alpha, -2 * cosW0, 1 + alpha, a0, -2 * cosW0, 1 - alpha);
+    }
+
+private:
+    static BiquadCoefficients normalized(double b0, double b1, double b2, double a0, double a1, double a2) {
+        return {static_cast<float>(b0 / a0), static_cast<float>(b1 / a0), static_cast<float>(b2 / a0),
+                static_cast<float>(a1 / a0), static_cast<float>(a2 / a0)};
+    }
+};
+
+// BandpassFilter class for implementing a digital biquad bandpass filter
+class BandpassFilter {
+public:
+    // Constructor: initialize the filter with given parameters
+    BandpassFilter(float sampleRate, float lowFreq, float highFreq)
+            : mCoefficients(BiquadCoefficients::bandpass(sampleRate, lowFreq, highFreq)) {
+        x1 = x2 = y1 = y2 = 0;
+    }
+
+    // Process a single input sample through the filter
+    float process(float input) {
+        const BiquadCoefficients& c = mCoefficients;
+        float output = c.b0 * input + c.b1 * x1 + c.b2 * x2 - c.a1 * y1 - c.a2 * y2;
+        x2 = x1;
+        x1 = input;
+        y2 = y1;
+        y1 = output;
+        return output;
+    }
+
+private:
+    BiquadCoefficients mCoefficients; // Filter coefficients
+    float x1, x2, y1, y2; // State variables
+};
+
+#endif // HEARINGAMP_BANDPASSFILTER_H
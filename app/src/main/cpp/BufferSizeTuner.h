@@ -0,0 +1,72 @@
+/**
+ * Finds the smallest stream buffer, in bursts, that plays without glitches on this device.
+ *
+ * update() is fed the number of glitches (XRuns, ring buffer underflows and overflows, duplex
+ * underruns) seen during each tuning interval. Any glitch grows the buffer by one burst at once.
+ * After a long enough clean stretch the tuner tries one burst less; if that glitches within the
+ * probation period it goes back up and waits twice as long before trying again, so a device that
+ * sits on the edge settles at the stable size instead of glitching at every attempt.
+ *
+ * The tuner is plain state with no threads or atomics; the engine calls it from its telemetry
+ * thread and applies the result to the output stream and the ring buffer.
+ */
+
+#ifndef HEARINGAMP_BUFFERSIZETUNER_H
+#define HEARINGAMP_BUFFERSIZETUNER_H
+
+#include <algorithm>
+#include <cstdint>
+
+class BufferSizeTuner {
+public:
+    // Clean intervals before the first attempt to shrink, and the most that backing off can reach
+    static constexpr int kInitialStableIntervals = 40;
+    static constexpr int kMaxStableIntervals = 4800;     // 20 minutes at the engine's 250 ms interval
+
+    // Intervals after shrinking during which a glitch counts against the smaller size
+    static constexpr int kProbationIntervals = 8;
+
+    explicit BufferSizeTuner(int maxBursts = 1, int initialBursts = 1)
+            : mMaxBursts(std::max(maxBursts, 1)),
+              mBursts(std::clamp(initialBursts, 1, mMaxBursts)) {}
+
+    // Account for one interval and return the buffer size to use from now on, in bursts
+    int update(uint64_t glitches) {
+        if (glitches > 0) {
+            if (mProbationLeft > 0) {
+                mStableIntervalsNeeded = std::min(2 * mStableIntervalsNeeded, kMaxStableIntervals);
+            }
+            mBursts = std::min(mBursts + 1, mMaxBursts);
+            mCleanIntervals = 0;
+            mProbationLeft = 0;
+            return mBursts;
+        }
+
+        if (mProbationLeft > 0) {
+            --mProbationLeft;
+        }
+        if (++mCleanIntervals >= mStableIntervalsNeeded && mBursts > 1) {
+            --mBursts;
+            mCleanIntervals = 0;
+            mProbationLeft = kProbationIntervals;
+        }
+        return mBursts;
+    }
+
+    int getBursts() const {
+        return mBursts;
+    }
+
+    int getMaxBursts() const {
+        return mMaxBursts;
+    }
+
+private:
+    int mMaxBursts;
+    int mBursts;
+    int mCleanIntervals = 0;
+    int mProbationLeft = 0;
+    int mStableIntervalsNeeded = kInitialStableIntervals;
+};
+
+#endif // HEARINGAMP_BUFFERSIZETUNER_H
@@ -0,0 +1,93 @@
+/**
+ * Callback timing statistics recorded on the audio thread and read from any other thread.
+ *
+ * Each processing callback adds its duration to a histogram with power-of-two buckets, a running
+ * total and a worst case. Every field is an independent relaxed atomic, so a reader sees each
+ * counter whole but not necessarily all counters from the same instant; for a diagnostics display
+ * polled a few times a second that is good enough and costs the audio thread no synchronisation.
+ *
+ * PerformanceCounter lists the slots of the snapshot handed to Java through
+ * nativeGetPerformanceCounters(); AudioProcessingService mirrors the indices as STAT_ constants.
+ */
+
+#ifndef HEARINGAMP_CALLBACKSTATISTICS_H
+#define HEARINGAMP_CALLBACKSTATISTICS_H
+
+#include <array>
+#include <atomic>
+#include <cstdint>
+
+class CallbackStatistics {
+public:
+    // Bucket 0 holds callbacks under kFirstBucketNanos, each further bucket twice the range of the
+    // previous one, and the last bucket everything from 16 ms up
+    static constexpr int kHistogramBuckets = 12;
+    static constexpr int64_t kFirstBucketNanos = 16000;
+
+    // Record one callback; only one thread may call this
+    void record(int64_t nanos) {
+        mCallbacks.fetch_add(1, std::memory_order_relaxed);
+        mTotalNanos.fetch_add(static_cast<uint64_t>(nanos), std::memory_order_relaxed);
+        mHistogram[bucketFor(nanos)].fetch_add(1, std::memory_order_relaxed);
+        if (static_cast<uint64_t>(nanos) > mWorstNanos.load(std::memory_order_relaxed)) {
+            mWorstNanos.store(static_cast<uint64_t>(nanos), std::memory_order_relaxed);
+        }
+    }
+
+    static int bucketFor(int64_t nanos) {
+        int bucket = 0;
+        for (int64_t limit = kFirstBucketNanos; nanos >= limit && bucket < kHistogramBuckets - 1; limit *= 2) {
+            ++bucket;
+        }
+        return bucket;
+    }
+
+    // Exclusive upper limit of a bucket; the last bucket has none
+    static int64_t bucketLimitNanos(int bucket) {
+        return kFirstBucketNanos << bucket;
+    }
+
+    uint64_t getCallbackCount() const {
+        return mCallbacks.load(std::memory_order_relaxed);
+    }
+
+    uint64_t getTotalNanos() const {
+        return mTotalNanos.load(std::memory_order_relaxed);
+    }
+
+    uint64_t getWorstNanos() const {
+        return mWorstNanos.load(std::memory_order_relaxed);
+    }
+
+    uint64_t getBucketCount(int bucket) const {
+        return mHistogram[bucket].load(std::memory_order_relaxed);
+    }
+
+private:
+    std::atomic<uint64_t> mCallbacks{0};
+    std::atomic<uint64_t> mTotalNanos{0};
+    std::atomic<uint64_t> mWorstNanos{0};
+    std::array<std::atomic<uint64_t>, kHistogramBuckets> mHistogram{};
+};
+
+// Slots of the performance counter snapshot; counts are cumulative since the engine started
+enum PerformanceCounter : int {
+    kCounterCallbacks = 0,          // Processing callbacks
+    kCounterTotalCallbackNanos,     // Sum of their durations
+    kCounterWorstCallbackNanos,
+    kCounterRingOverflows,          // Two-callback mode: input writes that found the ring full
+    kCounterRingUnderflows,         // Two-callback mode: output reads that found the ring short
+    kCounterDuplexUnderruns,        // Full-duplex mode: input reads that came up short
+    kCounterRingFillFrames,
+    kCounterRingCapacityFrames,
+    kCounterInputXRuns,             // Oboe getXRunCount(), or -1 if unsupported
+    kCounterOutputXRuns,
+    kCounterLatencyMicros,          // Mic-to-speaker latency, or -1 if not yet known
+    kCounterDroppedTelemetry,       // Telemetry events dropped because a queue was full
+    kCounterStreamRecoveries,       // Streams reopened after a disconnect
+    kCounterLastRestoreMicros,      // Disconnect to sound restored for the latest recovery, or -1 if none
+    kCounterHistogram,              // First of CallbackStatistics::kHistogramBuckets bucket counts
+    kCounterCount = kCounterHistogram + CallbackStatistics::kHistogramBuckets
+};
+
+#endif // HEARINGAMP_CALLBACKSTATISTICS_H
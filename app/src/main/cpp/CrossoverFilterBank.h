@@ -0,0 +1,179 @@
+/**
+ * Per-ear Linkwitz-Riley crossover tree that splits the input into bands summing to a flat response.
+ *
+ * Adjacent bands share one fourth-order Linkwitz-Riley split (two cascaded Butterworth biquads on
+ * each side). The lowest split runs on the input; each further split runs on the highpass output of
+ * the previous one, so an added band costs one more split instead of one more full bandpass.
+ * Band 0 therefore extends down to DC and the last band up to Nyquist, and each crossover sits at
+ * the geometric mean of the neighbouring band edges.
+ *
+ * The lowpass and highpass of an LR4 split add up to a second-order allpass, so bands that did not
+ * pass through a later split are delayed by that split's allpass while they are summed. sumBands()
+ * does this Horner-style, one allpass per split, which makes the unity-gain sum an allpass: flat
+ * magnitude with no gaps or ripple at the crossovers, and no 1 / bandCount headroom loss.
+ *
+ * The band block uses the same lane layout as FilterBank, so the WDRC stage is shared. Each ear's
+ * tree is serial across bands, so it runs scalar with the filter state of one split in registers
+ * for the whole block.
+ */
+
+#ifndef HEARINGAMP_CROSSOVERFILTERBANK_H
+#define HEARINGAMP_CROSSOVERFILTERBANK_H
+
+#include <algorithm>
+#include <array>
+#include <cmath>
+#include <cstdint>
+#include <iterator>
+
+#include "BandpassFilter.h"
+#include "DspConstants.h"
+#include "FilterBank.h"
+
+class CrossoverFilterBank {
+public:
+    // Butterworth quality factor; two cascaded sections form a Linkwitz-Riley split
+    static constexpr float kButterworthQ = 0.70710678f;
+
+    // Design bandCount - 1 crossovers per ear; edges must satisfy isValidBandLayout()
+    CrossoverFilterBank(float sampleRate, const BandEdges* edges, int bandCount)
+            : mBandCount(bandCount),
+              mLanesPerEar(FilterBank::lanesPerEarFor(bandCount)),
+              mLaneCount(NUM_EARS * mLanesPerEar) {
+        for (int split = 0; split < bandCount - 1; ++split) {
+            const float frequency = crossoverFrequency(edges[split], edges[split + 1]);
+            mSplits[split].lowpass = BiquadCoefficients::lowpass(sampleRate, frequency, kButterworthQ);
+            mSplits[split].highpass = BiquadCoefficients::highpass(sampleRate, frequency, kButterworthQ);
+            mSplits[split].allpass = BiquadCoefficients::allpass(sampleRate, frequency, kButterworthQ);
+        }
+        reset();
+    }
+
+    // Crossover between two adjacent bands, at the geometric mean of the edges they share
+    static float crossoverFrequency(const BandEdges& lower, const BandEdges& upper) {
+        return std::sqrt(lower.high * upper.low);
+    }
+
+    // Clear the filter state of every split
+    void reset() {
+        for (auto& earState : mState) {
+            earState.fill(SplitState{});
+        }
+    }
+
+    int getBandCount() const {
+        return mBandCount;
+    }
+
+    // Same layout as FilterBank: bands of the right ear start this many lanes in
+    int getLanesPerEar() const {
+        return mLanesPerEar;
+    }
+
+    int getLaneCount() const {
+        return mLaneCount;
+    }
+
+    // Split a block: earInput[ear][frame] feeds bandBlock[frame * getLaneCount() + ear * getLanesPerEar() + band].
+    // The last band's lane carries the remaining highpass signal from split to split. For mono input
+    // only the left ear is split and each finished band is also stored to the right ear's lane.
+    void processBlock(const float* const* earInput, float* bandBlock, int32_t numFrames, bool monoInput = false) {
+        const int splitEars = monoInput ? 1 : NUM_EARS;
+        for (int ear = 0; ear < splitEars; ++ear) {
+            float* bands = bandBlock + ear * mLanesPerEar;
+            float* remainder = bands + mBandCount - 1;
+            for (int split = 0; split < mBandCount - 1; ++split) {
+                const float* input = split == 0 ? earInput[ear] : remainder;
+                const int32_t inputStride = split == 0 ? 1 : mLaneCount;
+                const Split& c = mSplits[split];
+                SplitState state = mState[ear][split];
+                float* low = bands + split;
+                const bool lastSplit = split == mBandCount - 2;
+                for (int32_t frame = 0; frame < numFrames; ++frame) {
+                    const float x = input[frame * inputStride];
+                    const float lowpassed = runBiquad(c.lowpass, runBiquad(c.lowpass, x, state.lowpass[0]), state.lowpass[1]);
+                    const float highpassed = runBiquad(c.highpass, runBiquad(c.highpass, x, state.highpass[0]), state.highpass[1]);
+                    low[frame * mLaneCount] = lowpassed;
+                    remainder[frame * mLaneCount] = highpassed;
+                    if (monoInput) {
+                        low[frame * mLaneCount + mLanesPerEar] = lowpassed;
+                        if (lastSplit) {
+                            remainder[frame * mLaneCount + mLanesPerEar] = highpassed;
+                        }
+                    }
+                }
+                mState[ear][split] = state;
+            }
+        }
+    }
+
+    // Give the right ear the left ear's split state after mono splitting. The allpass state belongs to
+    // summing, which runs for both ears either way, and is kept.
+    void copyLeftStateToRight() {
+        for (int split = 0; split < mBandCount - 1; ++split) {
+            std::copy(std::begin(mState[0][split].lowpass), std::end(mState[0][split].lowpass),
+                      std::begin(mState[1][split].lowpass));
+            std::copy(std::begin(mState[0][split].highpass), std::end(mState[0][split].highpass),
+                      std::begin(mState[1][split].highpass));
+        }
+    }
+
+    // Sum each ear's bands at unity gain, phase-aligning lower bands with the allpass of every
+    // split they did not pass through
+    void sumBands(const float* bandBlock, int32_t numFrames, float* const* earOutput) {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            const float* bands = bandBlock + ear * mLanesPerEar;
+            float* output = earOutput[ear];
+            for (int32_t frame = 0; frame < numFrames; ++frame) {
+                output[frame] = bands[frame * mLaneCount];
+            }
+            // Bands 0..band-1 have not passed through split `band`, which separates band from band + 1
+            for (int band = 1; band < mBandCount - 1; ++band) {
+                const BiquadCoefficients& c = mSplits[band].allpass;
+                BiquadState state = mState[ear][band].allpass;
+                for (int32_t frame = 0; frame < numFrames; ++frame) {
+                    output[frame] = runBiquad(c, output[frame], state) + bands[frame * mLaneCount + band];
+                }
+                mState[ear][band].allpass = state;
+            }
+            for (int32_t frame = 0; frame < numFrames; ++frame) {
+                output[frame] += bands[frame * mLaneCount + mBandCount - 1];
+            }
+        }
+    }
+
+private:
+    struct BiquadState {
+        float s1 = 0.0f;
+        float s2 = 0.0f;
+    };
+
+    // Two-section lowpass and highpass of one split, plus its allpass for summing
+    struct Split {
+        BiquadCoefficients lowpass;
+        BiquadCoefficients highpass;
+        BiquadCoefficients allpass;
+    };
+
+    struct SplitState {
+        BiquadState lowpass[2];
+        BiquadState highpass[2];
+        BiquadState allpass;
+    };
+
+    // Transposed direct form II, as in FilterBank
+    static float runBiquad(const BiquadCoefficients& c, float x, BiquadState& state) {
+        const float y = c.b0 * x + state.s1;
+        state.s1 = c.b1 * x - c.a1 * y + state.s2;
+        state.s2 = c.b2 * x - c.a2 * y;
+        return y;
+    }
+
+    int mBandCount;
+    int mLanesPerEar;
+    int mLaneCount;
+    std::array<Split, MAX_BANDS - 1> mSplits{};
+    std::array<std::array<SplitState, MAX_BANDS - 1>, NUM_EARS> mState;
+};
+
+#endif // HEARINGAMP_CROSSOVERFILTERBANK_H
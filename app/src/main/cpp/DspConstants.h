@@ -0,0 +1,104 @@
+/**
+ * Constants shared by the native DSP components.
+ */
+
+#ifndef HEARINGAMP_DSPCONSTANTS_H
+#define HEARINGAMP_DSPCONSTANTS_H
+
+#include <algorithm>
+#include <array>
+#include <cmath>
+
+// Define constants for audio processing
+constexpr int DEFAULT_SAMPLE_RATE = 48000;
+constexpr int DEFAULT_NUM_BANDS = 4;
+constexpr int MIN_BANDS = 4;
+constexpr int MAX_BANDS = 16;
+constexpr int NUM_EARS = 2;
+
+// Highest band edge as a fraction of the sample rate the bands are designed for; leaves room for
+// the filter skirts and the resampler's transition band below Nyquist
+constexpr float MAX_BAND_EDGE_FRACTION = 0.45f;
+
+// Longest WDRC control interval in frames; 1 computes envelope and gain for every sample
+constexpr int MAX_CONTROL_INTERVAL = 32;
+
+// WOLA frame sizes: longer frames resolve frequency more finely but add latency
+constexpr int DEFAULT_WOLA_FFT_SIZE = 128;
+constexpr int MIN_WOLA_FFT_SIZE = 32;
+constexpr int MAX_WOLA_FFT_SIZE = 512;
+
+// How the input is split into bands
+enum class FilterBankType {
+    Bandpass = 0,   // Independent overlapping bandpasses (FilterBank), summed with 1 / bandCount
+    Crossover = 1,  // Linkwitz-Riley crossover tree (CrossoverFilterBank), sums to a flat response
+    Wola = 2        // Weighted overlap-add FFT bank (WolaFilterBank), fixed cost for any band count
+};
+
+// Whether the two input channels are filtered separately or once for both ears
+enum class InputChannelMode {
+    Stereo = 0,  // Each ear's bands come from its own input channel
+    Mono = 1,    // Channel 0 is split once and its bands feed both ears' WDRC; channel 1 is ignored
+    Auto = 2     // Mono while MonoDetector finds the channels effectively identical, stereo otherwise
+};
+
+// Lower and upper edge of a band in Hz
+struct BandEdges {
+    float low;
+    float high;
+};
+
+// Default band layout: 250-750, 751-1500, 1501-3000 and 3001-8000 Hz
+constexpr std::array<BandEdges, DEFAULT_NUM_BANDS> DEFAULT_BAND_EDGES = {{
+        {250.0f, 750.0f},
+        {751.0f, 1500.0f},
+        {1501.0f, 3000.0f},
+        {3001.0f, 8000.0f}
+}};
+
+// Fill edges with bandCount contiguous, logarithmically spaced bands covering lowest..highest Hz
+inline void makeLogSpacedBandEdges(int bandCount, float lowest, float highest, BandEdges* edges) {
+    const float ratio = std::pow(highest / lowest, 1.0f / static_cast<float>(bandCount));
+    float low = lowest;
+    for (int band = 0; band < bandCount; ++band) {
+        const float high = band == bandCount - 1 ? highest : low * ratio;
+        edges[band] = {low, high};
+        low = high;
+    }
+}
+
+// Check a band layout: MIN_BANDS..MAX_BANDS bands, each with 0 < low < high < Nyquist
+inline bool isValidBandLayout(const BandEdges* edges, int bandCount, float sampleRate) {
+    if (edges == nullptr || bandCount < MIN_BANDS || bandCount > MAX_BANDS) {
+        return false;
+    }
+    for (int band = 0; band < bandCount; ++band) {
+        if (!(edges[band].low > 0.0f && edges[band].low < edges[band].high && edges[band].high < sampleRate / 2)) {
+            return false;
+        }
+    }
+    return true;
+}
+
+// Copy edges, clamping them below MAX_BAND_EDGE_FRACTION of sampleRate for streams too slow to
+// carry the whole layout; a band pushed past the limit keeps at least its upper octave
+inline void fitBandEdgesToSampleRate(const BandEdges* edges, int bandCount, float sampleRate, BandEdges* fitted) {
+    const float highest = MAX_BAND_EDGE_FRACTION * sampleRate;
+    for (int band = 0; band < bandCount; ++band) {
+        const float high = std::min(edges[band].high, highest);
+        fitted[band] = {std::min(edges[band].low, 0.5f * high), high};
+    }
+}
+
+// Check a WOLA frame size: a power of two from MIN_WOLA_FFT_SIZE to MAX_WOLA_FFT_SIZE
+inline bool isValidWolaFftSize(int fftSize) {
+    return fftSize >= MIN_WOLA_FFT_SIZE && fftSize <= MAX_WOLA_FFT_SIZE && (fftSize & (fftSize - 1)) == 0;
+}
+
+// Check a filter bank type passed as an integer, such as from Java, before casting it to FilterBankType
+inline bool isValidFilterBankType(int type) {
+    return type == static_cast<int>(FilterBankType::Bandpass) || type == static_cast<int>(FilterBankType::Crossover)
+           || type == static_cast<int>(FilterBankType::Wola);
+}
+
+#endif // HEARINGAMP_DSPCONSTANTS_H
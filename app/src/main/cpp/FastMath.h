@@ -0,0 +1,61 @@
+/**
+ * Fast base-2 logarithm and exponential for the real-time gain computation.
+ *
+ * Both work on the IEEE-754 exponent directly and use a short polynomial for the fraction,
+ * giving close to full float precision over the audio range at a fraction of the cost of
+ * std::log2/std::exp2. Inputs to fastLog2 must be positive and normal.
+ */
+
+#ifndef HEARINGAMP_FASTMATH_H
+#define HEARINGAMP_FASTMATH_H
+
+#include <algorithm>
+#include <cstdint>
+#include <cstring>
+
+// log2(x) for positive normal x
+inline float fastLog2(float x) {
+    uint32_t bits;
+    std::memcpy(&bits, &x, sizeof(bits));
+    int32_t exponent = static_cast<int32_t>((bits >> 23) & 0xFF) - 127;
+
+    // Map the mantissa into [sqrt(0.5), sqrt(2)) so the series below converges quickly
+    bits = (bits & 0x007FFFFF) | 0x3F800000;
+    if (bits > 0x3FB504F3) {
+        bits -= 0x00800000;
+        ++exponent;
+    }
+    float mantissa;
+    std::memcpy(&mantissa, &bits, sizeof(mantissa));
+
+    // ln(m) = 2 * atanh((m - 1) / (m + 1))
+    const float s = (mantissa - 1.0f) / (mantissa + 1.0f);
+    const float s2 = s * s;
+    const float lnMantissa = 2.0f * s * (1.0f + s2 * (1.0f / 3.0f + s2 * (1.0f / 5.0f + s2 * (1.0f / 7.0f))));
+    return static_cast<float>(exponent) + lnMantissa * 1.44269504f;
+}
+
+// 2^x, saturating to the smallest and largest normal floats
+inline float fastExp2(float x) {
+    x = std::min(std::max(x, -126.0f), 127.0f);
+
+    // Round to nearest by adding 1.5 * 2^23, which leaves the integer part in the low mantissa bits
+    // and the fraction in [-0.5, 0.5] without a branch or a float-to-int conversion
+    const float shifted = x + 12582912.0f;
+    const float rounded = shifted - 12582912.0f;
+    uint32_t shiftedBits;
+    std::memcpy(&shiftedBits, &shifted, sizeof(shiftedBits));
+    const int32_t integerPart = static_cast<int32_t>(shiftedBits & 0x007FFFFF) - 0x00400000;
+
+    const float f = (x - rounded) * 0.69314718f;
+    const float fraction = 1.0f + f * (1.0f + f * (0.5f + f * (1.0f / 6.0f + f * (1.0f / 24.0f
+                                                 + f * (1.0f / 120.0f + f * (1.0f / 720.0f))))));
+
+    // The clamp above keeps the biased exponent within [1, 254]
+    const uint32_t scaleBits = static_cast<uint32_t>(integerPart + 127) << 23;
+    float scale;
+    std::memcpy(&scale, &scaleBits, sizeof(scale));
+    return fraction * scale;
+}
+
+#endif // HEARINGAMP_FASTMATH_H
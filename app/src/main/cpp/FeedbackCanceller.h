@@ -0,0 +1,370 @@
+/**
+ * Adaptive feedback canceller for both ears: a partitioned-block frequency-domain NLMS filter.
+ *
+ * Each ear's microphone picks up that ear's own output after the round trip through the device and
+ * the acoustic path. The canceller models that path as a bulk delay followed by an adaptive FIR
+ * filter of up to kMaxFilterFrames taps, subtracts the filtered output history from the microphone
+ * samples and adapts the filter to minimise what is left. The cross paths (left output into the
+ * right microphone and the reverse) are not modelled.
+ *
+ * The filter is split into partitions of kBlockFrames taps and runs as overlap-save in the
+ * frequency domain, once per block of kBlockFrames frames: one FFT of the newest reference block,
+ * one complex multiply-accumulate per partition and bin for the estimate and one for the update,
+ * an inverse FFT for the estimate and an FFT of the error. Both ears share every transform, the
+ * left ear in the real part and the right in the imaginary part. The update is normalised per bin
+ * by the power of the reference the whole filter spans, and one partition per block is constrained
+ * back to a linear (not circular) convolution, so the cost per frame grows only by the
+ * multiply-accumulates as the filter gets longer.
+ *
+ * The estimate for a block is computed when the block starts, from reference samples at least the
+ * bulk delay old, so cancellation adds no latency. That reference must already have been output:
+ * callers process at most getMaxBlockFrames() frames between cancel() and addReference().
+ *
+ * With a loud output the microphone signal and the output are strongly correlated, which biases the
+ * adaptation. addProbeNoise() mixes low-level white noise into the output as an uncorrelated
+ * excitation the filter can identify the path from.
+ *
+ * All storage is fixed-size; cancel(), addReference() and addProbeNoise() are real-time safe.
+ */
+
+#ifndef HEARINGAMP_FEEDBACKCANCELLER_H
+#define HEARINGAMP_FEEDBACKCANCELLER_H
+
+#include <algorithm>
+#include <array>
+#include <cmath>
+#include <cstdint>
+
+#include "DspConstants.h"
+#include "Fft.h"
+
+class FeedbackCanceller {
+public:
+    static constexpr int32_t kBlockFrames = 32;
+    static constexpr int kMaxPartitions = 32;
+    static constexpr int32_t kMaxFilterFrames = kBlockFrames * kMaxPartitions;
+    static constexpr int32_t kHistoryFrames = 4096;    // Output history, a power of two
+    static constexpr int32_t kMinBulkDelayFrames = 2 * kBlockFrames;
+    static constexpr int32_t kMaxBulkDelayFrames = kHistoryFrames - 2 * kBlockFrames;
+    static constexpr float kStepSize = 0.05f;
+
+    FeedbackCanceller() : mFft(kFftSize) {
+        configure(kMaxFilterFrames, kMinBulkDelayFrames);
+    }
+
+    // Model paths of filterFrames taps (rounded up to whole blocks, at most kMaxFilterFrames) that
+    // start bulkDelayFrames (kMinBulkDelayFrames..kMaxBulkDelayFrames) after the output, and clear
+    // the state. Not real-time safe: must not run concurrently with the other calls.
+    void configure(int32_t filterFrames, int32_t bulkDelayFrames) {
+        mPartitions = std::clamp((filterFrames + kBlockFrames - 1) / kBlockFrames, 1, kMaxPartitions);
+        mBulkDelayFrames = std::clamp(bulkDelayFrames, kMinBulkDelayFrames, kMaxBulkDelayFrames);
+        reset();
+    }
+
+    // Forget the modelled paths and the output history; real-time safe
+    void reset() {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            mHistory[ear].fill(0.0f);
+            mEstimate[ear].fill(0.0f);
+            mPower[ear].fill(0.0f);
+            for (int partition = 0; partition < kMaxPartitions; ++partition) {
+                mPartitionPower[ear][partition].fill(0.0f);
+                mSpectrumReal[ear][partition].fill(0.0f);
+                mSpectrumImag[ear][partition].fill(0.0f);
+                mWeightReal[ear][partition].fill(0.0f);
+                mWeightImag[ear][partition].fill(0.0f);
+            }
+        }
+        mNewestPartition = 0;
+        mConstrainedPartition = 0;
+        mInputFrames = 0;
+        mOutputFrames = 0;
+        mBlockFill = 0;
+    }
+
+    int32_t getFilterFrames() const {
+        return mPartitions * kBlockFrames;
+    }
+
+    int32_t getBulkDelayFrames() const {
+        return mBulkDelayFrames;
+    }
+
+    // Most frames that may pass through cancel() before their output is given to addReference()
+    int32_t getMaxBlockFrames() const {
+        return mBulkDelayFrames - kBlockFrames;
+    }
+
+    // Subtract the estimated feedback from each ear's microphone samples in place, adapting the filter
+    // at every completed block
+    void cancel(float* const* earInput, int32_t numFrames) {
+        int32_t frame = 0;
+        while (frame < numFrames) {
+            if (mBlockFill == 0) {
+                startBlock();
+            }
+            const int32_t count = std::min(numFrames - frame, kBlockFrames - mBlockFill);
+            for (int ear = 0; ear < NUM_EARS; ++ear) {
+                float* samples = earInput[ear] + frame;
+                const float* estimate = mEstimate[ear].data() + mBlockFill;
+                float* error = mError[ear].data() + mBlockFill;
+                for (int32_t i = 0; i < count; ++i) {
+                    error[i] = samples[i] - estimate[i];
+                    samples[i] = error[i];
+                }
+            }
+            mBlockFill += count;
+            frame += count;
+            if (mBlockFill == kBlockFrames) {
+                adapt();
+                mBlockFill = 0;
+                mInputFrames += kBlockFrames;
+            }
+        }
+    }
+
+    // Record what each ear's output carried, frame for frame with the microphone input given to cancel()
+    void addReference(const float* const* earOutput, int32_t numFrames) {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            for (int32_t frame = 0; frame < numFrames; ++frame) {
+                mHistory[ear][(mOutputFrames + frame) & kHistoryMask] = earOutput[ear][frame];
+            }
+        }
+        mOutputFrames += static_cast<uint32_t>(numFrames);
+    }
+
+    // Mix independent white noise of the given RMS level into each ear's samples
+    void addProbeNoise(float* const* earSamples, int32_t numFrames, float rmsLevel) {
+        // Uniform noise on [-a, a] has an RMS level of a / sqrt(3)
+        const float scale = rmsLevel * std::sqrt(3.0f) / 8388608.0f;
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            for (int32_t frame = 0; frame < numFrames; ++frame) {
+                mNoiseState = mNoiseState * 1664525u + 1013904223u;
+                earSamples[ear][frame] += scale * (static_cast<float>(mNoiseState >> 8) - 8388608.0f);
+            }
+        }
+    }
+
+    // Copy an ear's modelled path, getFilterFrames() taps starting at the bulk delay, into taps. Not
+    // real-time safe.
+    void getImpulseResponse(int ear, float* taps) {
+        const float scale = 1.0f / static_cast<float>(kFftSize);
+        for (int partition = 0; partition < mPartitions; ++partition) {
+            toTimeDomain(partition);
+            const float* part = ear == 0 ? mReal.data() : mImag.data();
+            for (int32_t i = 0; i < kBlockFrames; ++i) {
+                taps[partition * kBlockFrames + i] = scale * part[i];
+            }
+        }
+    }
+
+private:
+    static constexpr int kFftSize = 2 * kBlockFrames;
+    static constexpr int kBins = kFftSize / 2 + 1;
+    static constexpr uint32_t kHistoryMask = kHistoryFrames - 1;
+
+    // Smallest bin power the update is normalised by, that of a reference at -60 dBFS, and the
+    // fraction of the mean bin power added to every bin. The output is band-limited, so bins outside
+    // its bands hold little more than probe noise; without the relative floor their step would be
+    // large enough for the constraint to spread their misadjustment into the loud bins.
+    static constexpr float kPowerFloor = kFftSize * 1e-6f;
+    static constexpr float kRelativePowerFloor = 0.1f;
+
+    using Bins = std::array<float, kBins>;
+    using Partitions = std::array<Bins, kMaxPartitions>;
+
+    // Transform the reference blocks the new input block is cancelled against into the newest
+    // partition, and compute the block's estimate from all partitions
+    void startBlock() {
+        float* real = mReal.data();
+        float* imag = mImag.data();
+        const uint32_t start = mInputFrames - kBlockFrames - static_cast<uint32_t>(mBulkDelayFrames);
+        for (int i = 0; i < kFftSize; ++i) {
+            real[i] = mHistory[0][(start + i) & kHistoryMask];
+            imag[i] = mHistory[1][(start + i) & kHistoryMask];
+        }
+        mFft.forward(real, imag);
+
+        mNewestPartition = mNewestPartition + 1 < mPartitions ? mNewestPartition + 1 : 0;
+        for (int bin = 0; bin < kBins; ++bin) {
+            const int mirror = (kFftSize - bin) & (kFftSize - 1);
+            const float leftReal = 0.5f * (real[bin] + real[mirror]);
+            const float leftImag = 0.5f * (imag[bin] - imag[mirror]);
+            const float rightReal = 0.5f * (imag[bin] + imag[mirror]);
+            const float rightImag = 0.5f * (real[mirror] - real[bin]);
+            mSpectrumReal[0][mNewestPartition][bin] = leftReal;
+            mSpectrumImag[0][mNewestPartition][bin] = leftImag;
+            mSpectrumReal[1][mNewestPartition][bin] = rightReal;
+            mSpectrumImag[1][mNewestPartition][bin] = rightImag;
+        }
+
+        // Reference power per bin over all partitions: the newest replaces the oldest in the running
+        // sum, which is recomputed once per pass through the partitions so rounding cannot accumulate
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            const float* newestReal = mSpectrumReal[ear][mNewestPartition].data();
+            const float* newestImag = mSpectrumImag[ear][mNewestPartition].data();
+            float* oldestPower = mPartitionPower[ear][mNewestPartition].data();
+            float* power = mPower[ear].data();
+            for (int bin = 0; bin < kBins; ++bin) {
+                const float newestPower = newestReal[bin] * newestReal[bin] + newestImag[bin] * newestImag[bin];
+                power[bin] += newestPower - oldestPower[bin];
+                oldestPower[bin] = newestPower;
+            }
+            if (mNewestPartition == 0) {
+                mPower[ear].fill(0.0f);
+                for (int partition = 0; partition < mPartitions; ++partition) {
+                    for (int bin = 0; bin < kBins; ++bin) {
+                        power[bin] += mPartitionPower[ear][partition][bin];
+                    }
+                }
+            }
+        }
+
+        // Estimate spectrum: sum over partitions of weights times the reference that many blocks back
+        Bins estimateReal[NUM_EARS] = {};
+        Bins estimateImag[NUM_EARS] = {};
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            int spectrum = mNewestPartition;
+            for (int partition = 0; partition < mPartitions; ++partition) {
+                const float* weightReal = mWeightReal[ear][partition].data();
+                const float* weightImag = mWeightImag[ear][partition].data();
+                const float* spectrumReal = mSpectrumReal[ear][spectrum].data();
+                const float* spectrumImag = mSpectrumImag[ear][spectrum].data();
+                for (int bin = 0; bin < kBins; ++bin) {
+                    estimateReal[ear][bin] += weightReal[bin] * spectrumReal[bin] - weightImag[bin] * spectrumImag[bin];
+                    estimateImag[ear][bin] += weightReal[bin] * spectrumImag[bin] + weightImag[bin] * spectrumReal[bin];
+                }
+                spectrum = spectrum > 0 ? spectrum - 1 : mPartitions - 1;
+            }
+        }
+        combineEars(estimateReal, estimateImag);
+        mFft.inverse(real, imag);
+
+        // Overlap-save: only the second half is a linear convolution
+        const float scale = 1.0f / static_cast<float>(kFftSize);
+        for (int32_t i = 0; i < kBlockFrames; ++i) {
+            mEstimate[0][i] = scale * real[kBlockFrames + i];
+            mEstimate[1][i] = scale * imag[kBlockFrames + i];
+        }
+    }
+
+    // Update every partition from the error of the finished block, then constrain one of them
+    void adapt() {
+        float* real = mReal.data();
+        float* imag = mImag.data();
+        for (int32_t i = 0; i < kBlockFrames; ++i) {
+            real[i] = 0.0f;
+            imag[i] = 0.0f;
+            real[kBlockFrames + i] = mError[0][i];
+            imag[kBlockFrames + i] = mError[1][i];
+        }
+        mFft.forward(real, imag);
+
+        // Error per bin, normalised by the reference power the filter spans plus the floors
+        float powerFloor[NUM_EARS];
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            float total = 0.0f;
+            for (int bin = 0; bin < kBins; ++bin) {
+                total += mPower[ear][bin];
+            }
+            powerFloor[ear] = std::max(static_cast<float>(mPartitions) * kPowerFloor,
+                                       kRelativePowerFloor * std::max(total, 0.0f) / kBins);
+        }
+        Bins stepReal[NUM_EARS];
+        Bins stepImag[NUM_EARS];
+        for (int bin = 0; bin < kBins; ++bin) {
+            const int mirror = (kFftSize - bin) & (kFftSize - 1);
+            const float leftStep = kStepSize / (std::max(mPower[0][bin], 0.0f) + powerFloor[0]);
+            const float rightStep = kStepSize / (std::max(mPower[1][bin], 0.0f) + powerFloor[1]);
+            stepReal[0][bin] = leftStep * 0.5f * (real[bin] + real[mirror]);
+            stepImag[0][bin] = leftStep * 0.5f * (imag[bin] - imag[mirror]);
+            stepReal[1][bin] = rightStep * 0.5f * (imag[bin] + imag[mirror]);
+            stepImag[1][bin] = rightStep * 0.5f * (real[mirror] - real[bin]);
+        }
+
+        // Gradient: the conjugate reference times the error
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            int spectrum = mNewestPartition;
+            for (int partition = 0; partition < mPartitions; ++partition) {
+                float* weightReal = mWeightReal[ear][partition].data();
+                float* weightImag = mWeightImag[ear][partition].data();
+                const float* spectrumReal = mSpectrumReal[ear][spectrum].data();
+                const float* spectrumImag = mSpectrumImag[ear][spectrum].data();
+                for (int bin = 0; bin < kBins; ++bin) {
+                    weightReal[bin] += spectrumReal[bin] * stepReal[ear][bin] + spectrumImag[bin] * stepImag[ear][bin];
+                    weightImag[bin] += spectrumReal[bin] * stepImag[ear][bin] - spectrumImag[bin] * stepReal[ear][bin];
+                }
+                spectrum = spectrum > 0 ? spectrum - 1 : mPartitions - 1;
+            }
+        }
+
+        // Unconstrained updates let taps wrap around the partition; clearing the second half of one
+        // partition per block keeps each a linear convolution of kBlockFrames taps
+        const int partition = mConstrainedPartition;
+        toTimeDomain(partition);
+        const float scale = 1.0f / static_cast<float>(kFftSize);
+        for (int i = 0; i < kBlockFrames; ++i) {
+            real[i] *= scale;
+            imag[i] *= scale;
+            real[kBlockFrames + i] = 0.0f;
+            imag[kBlockFrames + i] = 0.0f;
+        }
+        mFft.forward(real, imag);
+        for (int bin = 0; bin < kBins; ++bin) {
+            const int mirror = (kFftSize - bin) & (kFftSize - 1);
+            mWeightReal[0][partition][bin] = 0.5f * (real[bin] + real[mirror]);
+            mWeightImag[0][partition][bin] = 0.5f * (imag[bin] - imag[mirror]);
+            mWeightReal[1][partition][bin] = 0.5f * (imag[bin] + imag[mirror]);
+            mWeightImag[1][partition][bin] = 0.5f * (real[mirror] - real[bin]);
+        }
+        mConstrainedPartition = partition + 1 < mPartitions ? partition + 1 : 0;
+    }
+
+    // Inverse transform a partition's weights into mReal (left ear) and mImag (right ear), unscaled
+    void toTimeDomain(int partition) {
+        Bins weightReal[NUM_EARS] = {mWeightReal[0][partition], mWeightReal[1][partition]};
+        Bins weightImag[NUM_EARS] = {mWeightImag[0][partition], mWeightImag[1][partition]};
+        combineEars(weightReal, weightImag);
+        mFft.inverse(mReal.data(), mImag.data());
+    }
+
+    // Pack the one-sided spectra of two real signals into one full spectrum in mReal and mImag,
+    // the left ear's signal as the real part and the right's as the imaginary part
+    void combineEars(const Bins* spectrumReal, const Bins* spectrumImag) {
+        for (int bin = 0; bin < kBins; ++bin) {
+            const int mirror = (kFftSize - bin) & (kFftSize - 1);
+            const float leftReal = spectrumReal[0][bin];
+            const float leftImag = spectrumImag[0][bin];
+            const float rightReal = spectrumReal[1][bin];
+            const float rightImag = spectrumImag[1][bin];
+            mReal[bin] = leftReal - rightImag;
+            mImag[bin] = leftImag + rightReal;
+            mReal[mirror] = leftReal + rightImag;
+            mImag[mirror] = rightReal - leftImag;
+        }
+    }
+
+    Fft mFft;
+    int mPartitions = kMaxPartitions;
+    int32_t mBulkDelayFrames = kMinBulkDelayFrames;
+    int mNewestPartition = 0;          // Partition slot holding the newest reference spectrum
+    int mConstrainedPartition = 0;     // Weights constrained after the next update
+    uint32_t mInputFrames = 0;         // Microphone frames in completed blocks, wrapping
+    uint32_t mOutputFrames = 0;        // Reference frames recorded, wrapping
+    int32_t mBlockFill = 0;            // Frames of the current block already cancelled
+    uint32_t mNoiseState = 22222;
+
+    std::array<std::array<float, kHistoryFrames>, NUM_EARS> mHistory;   // Output ring, by frame number
+    std::array<std::array<float, kBlockFrames>, NUM_EARS> mEstimate;    // Feedback estimate for the current block
+    std::array<std::array<float, kBlockFrames>, NUM_EARS> mError;       // Cancelled input of the current block
+    std::array<Bins, NUM_EARS> mPower;                                  // Reference power per bin, all partitions
+    std::array<Partitions, NUM_EARS> mSpectrumReal;                     // Reference spectra, newest first from
+    std::array<Partitions, NUM_EARS> mSpectrumImag;                     //   mNewestPartition backwards
+    std::array<Partitions, NUM_EARS> mWeightReal;                       // Filter weights per partition
+    std::array<Partitions, NUM_EARS> mWeightImag;
+    std::array<Partitions, NUM_EARS> mPartitionPower;                   // Reference power per partition and bin
+    std::array<float, kFftSize> mReal{};
+    std::array<float, kFftSize> mImag{};
+};
+
+#endif // HEARINGAMP_FEEDBACKCANCELLER_H
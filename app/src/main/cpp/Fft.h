@@ -0,0 +1,95 @@
+/**
+ * In-place radix-2 complex FFT with precomputed twiddles, for the frequency-domain stages.
+ *
+ * The transform works on split real and imaginary arrays of a power-of-two size up to kMaxSize.
+ * Tables live in fixed arrays filled by the constructor, so forward() and inverse() are real-time
+ * safe. Neither direction scales its output; a forward/inverse round trip multiplies by getSize().
+ */
+
+#ifndef HEARINGAMP_FFT_H
+#define HEARINGAMP_FFT_H
+
+#include <array>
+#include <cmath>
+#include <cstdint>
+#include <utility>
+
+class Fft {
+public:
+    static constexpr int kMaxSize = 1024;
+
+    // Size must satisfy isValidSize()
+    explicit Fft(int size) : mSize(size) {
+        int bits = 0;
+        while ((1 << bits) < size) {
+            ++bits;
+        }
+        for (int i = 0; i < size; ++i) {
+            int reversed = 0;
+            for (int bit = 0; bit < bits; ++bit) {
+                reversed |= ((i >> bit) & 1) << (bits - 1 - bit);
+            }
+            mBitReverse[i] = static_cast<uint16_t>(reversed);
+        }
+        for (int i = 0; i < size / 2; ++i) {
+            const double angle = -2.0 * M_PI * i / size;
+            mTwiddleReal[i] = static_cast<float>(std::cos(angle));
+            mTwiddleImag[i] = static_cast<float>(std::sin(angle));
+        }
+    }
+
+    // Powers of two from 2 to kMaxSize
+    static constexpr bool isValidSize(int size) {
+        return size >= 2 && size <= kMaxSize && (size & (size - 1)) == 0;
+    }
+
+    int getSize() const {
+        return mSize;
+    }
+
+    // X[k] = sum x[n] e^(-2 pi i k n / N)
+    void forward(float* real, float* imag) const {
+        transform(real, imag, 1.0f);
+    }
+
+    // x[n] = sum X[k] e^(+2 pi i k n / N), without the 1 / N
+    void inverse(float* real, float* imag) const {
+        transform(real, imag, -1.0f);
+    }
+
+private:
+    // Iterative decimation in time; direction flips the sign of the twiddle angle
+    void transform(float* real, float* imag, float direction) const {
+        for (int i = 0; i < mSize; ++i) {
+            const int j = mBitReverse[i];
+            if (j > i) {
+                std::swap(real[i], real[j]);
+                std::swap(imag[i], imag[j]);
+            }
+        }
+        for (int half = 1; half < mSize; half *= 2) {
+            const int twiddleStep = mSize / (2 * half);
+            for (int start = 0; start < mSize; start += 2 * half) {
+                for (int k = 0; k < half; ++k) {
+                    const float wr = mTwiddleReal[k * twiddleStep];
+                    const float wi = direction * mTwiddleImag[k * twiddleStep];
+                    const int a = start + k;
+                    const int b = a + half;
+                    const float tr = wr * real[b] - wi * imag[b];
+                    const float ti = wr * imag[b] + wi * real[b];
+                    real[b] = real[a] - tr;
+                    imag[b] = imag[a] - ti;
+                    real[a] += tr;
+                    imag[a] += ti;
+                }
+            }
+        }
+    }
+
+    int mSize;
+    std::array<uint16_t, kMaxSize> mBitReverse{};
+    std::array<float, kMaxSize / 2> mTwiddleReal{};
+    std::array<float, kMaxSize / 2> mTwiddleImag{};
+};
+
+#endif // HEARINGAMP_FFT_H
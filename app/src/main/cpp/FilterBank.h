@@ -0,0 +1,218 @@
+/**
+ * Per-ear biquad bandpass filter bank with SIMD processing.
+ *
+ * Each ear has its own set of biquads, so left and right filter state never mix. The band count
+ * (MIN_BANDS..MAX_BANDS) and edges are chosen at construction and the filters designed at runtime.
+ * Coefficients and state are stored structure-of-arrays with one lane per (ear, band) pair, laid
+ * out as lane = ear * getLanesPerEar() + band, where each ear's lanes are padded to a multiple of
+ * four with silent filters. A group of four lanes therefore holds bands of one ear only and is
+ * processed as one vector: NEON on ARM, SSE on x86, with a scalar fallback that runs the same
+ * transposed direct form II recurrence lane by lane. Processing is block-wise so filter state stays
+ * in registers for a whole callback.
+ */
+
+#ifndef HEARINGAMP_FILTERBANK_H
+#define HEARINGAMP_FILTERBANK_H
+
+#include <algorithm>
+#include <array>
+#include <cstdint>
+
+#include "BandpassFilter.h"
+#include "DspConstants.h"
+
+#if defined(__ARM_NEON) || defined(__ARM_NEON__)
+#include <arm_neon.h>
+#define HEARINGAMP_HAS_NEON 1
+#endif
+
+#if defined(__SSE2__) || defined(_M_X64)
+#include <emmintrin.h>
+#define HEARINGAMP_HAS_SSE 1
+#endif
+
+// Instruction set used for filter bank processing
+enum class SimdBackend {
+    Scalar,
+    Sse,
+    Neon
+};
+
+#if defined(HEARINGAMP_HAS_NEON)
+constexpr SimdBackend kNativeSimdBackend = SimdBackend::Neon;
+#elif defined(HEARINGAMP_HAS_SSE)
+constexpr SimdBackend kNativeSimdBackend = SimdBackend::Sse;
+#else
+constexpr SimdBackend kNativeSimdBackend = SimdBackend::Scalar;
+#endif
+
+class FilterBank {
+public:
+    static constexpr int kLanesPerVector = 4;
+    static constexpr int kMaxLanes = NUM_EARS * MAX_BANDS;
+
+    static_assert(MAX_BANDS % kLanesPerVector == 0, "padded lanes must fit in the fixed storage");
+
+    // Design bandCount bandpass filters per ear; edges must satisfy isValidBandLayout()
+    FilterBank(float sampleRate, const BandEdges* edges, int bandCount)
+            : mBandCount(bandCount),
+              mLanesPerEar(lanesPerEarFor(bandCount)),
+              mLaneCount(NUM_EARS * mLanesPerEar) {
+        // Padding lanes keep all-zero coefficients and always output silence
+        mB0.fill(0.0f);
+        mB1.fill(0.0f);
+        mB2.fill(0.0f);
+        mA1.fill(0.0f);
+        mA2.fill(0.0f);
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            for (int band = 0; band < bandCount; ++band) {
+                BiquadCoefficients c = BiquadCoefficients::bandpass(sampleRate, edges[band].low, edges[band].high);
+                const int lane = ear * mLanesPerEar + band;
+                mB0[lane] = c.b0;
+                mB1[lane] = c.b1;
+                mB2[lane] = c.b2;
+                mA1[lane] = c.a1;
+                mA2[lane] = c.a2;
+            }
+        }
+        reset();
+    }
+
+    // Lanes per ear for bandCount bands: the band count rounded up to whole vectors
+    static constexpr int lanesPerEarFor(int bandCount) {
+        return (bandCount + kLanesPerVector - 1) / kLanesPerVector * kLanesPerVector;
+    }
+
+    // Clear the filter state of every lane
+    void reset() {
+        mS1.fill(0.0f);
+        mS2.fill(0.0f);
+    }
+
+    int getBandCount() const {
+        return mBandCount;
+    }
+
+    // Distance between the first lanes of the two ears, a multiple of kLanesPerVector
+    int getLanesPerEar() const {
+        return mLanesPerEar;
+    }
+
+    // Lanes per frame in the block written by processBlock()
+    int getLaneCount() const {
+        return mLaneCount;
+    }
+
+    // Filter a block: earInput[ear][frame] feeds bandBlock[frame * getLaneCount() + ear * getLanesPerEar() + band].
+    // Each vector of lanes keeps its state in registers for the whole block. For mono input only the
+    // left ear is filtered and each result is stored to both ears' lanes; the right ear's state is left alone.
+    template <SimdBackend backend = kNativeSimdBackend>
+    void processBlock(const float* const* earInput, float* bandBlock, int32_t numFrames, bool monoInput = false);
+
+    // Give the right ear the left ear's filter state, so that stereo filtering resumes after mono
+    // filtering as if the right ear had been filtered all along
+    void copyLeftStateToRight() {
+        std::copy(mS1.begin(), mS1.begin() + mLanesPerEar, mS1.begin() + mLanesPerEar);
+        std::copy(mS2.begin(), mS2.begin() + mLanesPerEar, mS2.begin() + mLanesPerEar);
+    }
+
+private:
+    int mBandCount;
+    int mLanesPerEar;
+    int mLaneCount;
+    alignas(16) std::array<float, kMaxLanes> mB0;
+    alignas(16) std::array<float, kMaxLanes> mB1;
+    alignas(16) std::array<float, kMaxLanes> mB2;
+    alignas(16) std::array<float, kMaxLanes> mA1;
+    alignas(16) std::array<float, kMaxLanes> mA2;
+    alignas(16) std::array<float, kMaxLanes> mS1;
+    alignas(16) std::array<float, kMaxLanes> mS2;
+};
+
+template <>
+inline void FilterBank::processBlock<SimdBackend::Scalar>(const float* const* earInput, float* bandBlock,
+                                                          int32_t numFrames, bool monoInput) {
+    const int filteredLanes = monoInput ? mLanesPerEar : mLaneCount;
+    for (int lane = 0; lane < filteredLanes; ++lane) {
+        const float* x = earInput[lane / mLanesPerEar];
+        const float b0 = mB0[lane], b1 = mB1[lane], b2 = mB2[lane], a1 = mA1[lane], a2 = mA2[lane];
+        float s1 = mS1[lane];
+        float s2 = mS2[lane];
+        float* output = bandBlock + lane;
+        for (int32_t frame = 0; frame < numFrames; ++frame) {
+            const float y = b0 * x[frame] + s1;
+            s1 = b1 * x[frame] - a1 * y + s2;
+            s2 = b2 * x[frame] - a2 * y;
+            output[frame * mLaneCount] = y;
+            if (monoInput) {
+                output[frame * mLaneCount + mLanesPerEar] = y;
+            }
+        }
+        mS1[lane] = s1;
+        mS2[lane] = s2;
+    }
+}
+
+#if defined(HEARINGAMP_HAS_SSE)
+template <>
+inline void FilterBank::processBlock<SimdBackend::Sse>(const float* const* earInput, float* bandBlock,
+                                                       int32_t numFrames, bool monoInput) {
+    const int filteredLanes = monoInput ? mLanesPerEar : mLaneCount;
+    for (int lane = 0; lane < filteredLanes; lane += kLanesPerVector) {
+        const float* x = earInput[lane / mLanesPerEar];
+        const __m128 b0 = _mm_load_ps(&mB0[lane]);
+        const __m128 b1 = _mm_load_ps(&mB1[lane]);
+        const __m128 b2 = _mm_load_ps(&mB2[lane]);
+        const __m128 a1 = _mm_load_ps(&mA1[lane]);
+        const __m128 a2 = _mm_load_ps(&mA2[lane]);
+        __m128 s1 = _mm_load_ps(&mS1[lane]);
+        __m128 s2 = _mm_load_ps(&mS2[lane]);
+        float* output = bandBlock + lane;
+        for (int32_t frame = 0; frame < numFrames; ++frame) {
+            const __m128 xv = _mm_set1_ps(x[frame]);
+            const __m128 y = _mm_add_ps(_mm_mul_ps(b0, xv), s1);
+            s1 = _mm_add_ps(_mm_sub_ps(_mm_mul_ps(b1, xv), _mm_mul_ps(a1, y)), s2);
+            s2 = _mm_sub_ps(_mm_mul_ps(b2, xv), _mm_mul_ps(a2, y));
+            _mm_storeu_ps(output + frame * mLaneCount, y);
+            if (monoInput) {
+                _mm_storeu_ps(output + frame * mLaneCount + mLanesPerEar, y);
+            }
+        }
+        _mm_store_ps(&mS1[lane], s1);
+        _mm_store_ps(&mS2[lane], s2);
+    }
+}
+#endif
+
+#if defined(HEARINGAMP_HAS_NEON)
+template <>
+inline void FilterBank::processBlock<SimdBackend::Neon>(const float* const* earInput, float* bandBlock,
+                                                        int32_t numFrames, bool monoInput) {
+    const int filteredLanes = monoInput ? mLanesPerEar : mLaneCount;
+    for (int lane = 0; lane < filteredLanes; lane += kLanesPerVector) {
+        const float* x = earInput[lane / mLanesPerEar];
+        const float32x4_t b0 = vld1q_f32(&mB0[lane]);
+        const float32x4_t b1 = vld1q_f32(&mB1[lane]);
+        const float32x4_t b2 = vld1q_f32(&mB2[lane]);
+        const float32x4_t a1 = vld1q_f32(&mA1[lane]);
+        const float32x4_t a2 = vld1q_f32(&mA2[lane]);
+        float32x4_t s1 = vld1q_f32(&mS1[lane]);
+        float32x4_t s2 = vld1q_f32(&mS2[lane]);
+        float* output = bandBlock + lane;
+        for (int32_t frame = 0; frame < numFrames; ++frame) {
+            const float32x4_t xv = vdupq_n_f32(x[frame]);
+            const float32x4_t y = vmlaq_f32(s1, b0, xv);
+            s1 = vmlsq_f32(vmlaq_f32(s2, b1, xv), a1, y);
+            s2 = vmlsq_f32(vmulq_f32(b2, xv), a2, y);
+            vst1q_f32(output + frame * mLaneCount, y);
+            if (monoInput) {
+                vst1q_f32(output + frame * mLaneCount + mLanesPerEar, y);
+            }
+        }
+        vst1q_f32(&mS1[lane], s1);
+        vst1q_f32(&mS2[lane], s2);
+    }
+}
+#endif
+
+#endif // HEARINGAMP_FILTERBANK_H
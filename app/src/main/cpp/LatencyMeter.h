@@ -0,0 +1,190 @@
+/**
+ * Round-trip latency measurement with a maximum length sequence (MLS) probe.
+ *
+ * While a measurement runs, the processing callback hands its blocks to process() instead of the
+ * AudioProcessor: the output carries one MLS burst at the start of every period and silence
+ * otherwise, and the microphone input is captured alongside. Once every repetition is captured,
+ * analyse() cross-correlates each period of the capture with the sequence. The lag of the peak is
+ * the round trip from the frame the callback wrote to the frame it read back, through the output
+ * path, the air or the earpiece coupling, and the input path.
+ *
+ * An MLS correlates with itself to a single sharp peak, so the probe can stay quiet and still
+ * stand out of noise by about 10 * log10(kMlsLength) dB. A repetition whose peak does not clear
+ * kMinPeakToNoise times the RMS of the whole correlation is discarded rather than guessed at.
+ *
+ * start() and analyse() allocate and must run off the audio thread; process() is real-time safe.
+ * The audio thread touches the capture buffer only while the state is Measuring, which start()
+ * enters after the buffer is ready and process() leaves when it is full.
+ */
+
+#ifndef HEARINGAMP_LATENCYMETER_H
+#define HEARINGAMP_LATENCYMETER_H
+
+#include <algorithm>
+#include <array>
+#include <atomic>
+#include <cmath>
+#include <cstdint>
+#include <vector>
+
+class LatencyMeter {
+public:
+    static constexpr int kMlsOrder = 11;
+    static constexpr int kMlsLength = (1 << kMlsOrder) - 1;   // 43 ms at 48 kHz
+    static constexpr float kProbeAmplitude = 0.1f;
+    static constexpr int kMaxRepetitions = 20;
+
+    // Each repetition listens this long, which bounds the measurable latency to the period minus the
+    // sequence length
+    static constexpr float kPeriodSeconds = 0.5f;
+    static constexpr float kMinPeakToNoise = 8.0f;
+
+    struct Result {
+        int repetitions = 0;
+        int validRepetitions = 0;
+        double meanMillis = 0.0;
+        double minMillis = 0.0;
+        double maxMillis = 0.0;
+        double jitterMillis = 0.0;    // Standard deviation across valid repetitions
+    };
+
+    LatencyMeter() {
+        // Fibonacci LFSR for the primitive polynomial x^11 + x^9 + 1, mapped to +-1
+        uint32_t state = 1;
+        for (int i = 0; i < kMlsLength; ++i) {
+            mSequence[i] = (state & 1u) ? 1.0f : -1.0f;
+            const uint32_t feedback = ((state >> 10) ^ (state >> 8)) & 1u;
+            state = ((state << 1) | feedback) & ((1u << kMlsOrder) - 1);
+        }
+    }
+
+    // Allocate the capture and arm a measurement of repetitions periods. Not real-time safe.
+    // Returns false if a measurement is already under way or the arguments are out of range.
+    bool start(int32_t sampleRate, int repetitions) {
+        if (mState.load(std::memory_order_acquire) != State::Idle
+            || sampleRate <= 0 || repetitions < 1 || repetitions > kMaxRepetitions) {
+            return false;
+        }
+        mSampleRate = sampleRate;
+        mRepetitions = repetitions;
+        mPeriodFrames = std::max(static_cast<int32_t>(kPeriodSeconds * sampleRate), 2 * kMlsLength);
+        mCapture.assign(static_cast<size_t>(repetitions) * mPeriodFrames, 0.0f);
+        mPosition = 0;
+        mState.store(State::Measuring, std::memory_order_release);
+        return true;
+    }
+
+    // True while process() should replace the normal processing
+    bool isMeasuring() const {
+        return mState.load(std::memory_order_acquire) == State::Measuring;
+    }
+
+    // True once every repetition is captured and analyse() can run
+    bool isFinished() const {
+        return mState.load(std::memory_order_acquire) == State::Finished;
+    }
+
+    // Audio thread: capture the first channel of interleaved input and write the probe to every
+    // channel of output. Input and output may alias. Frames past the end of the measurement are silent.
+    void process(const float* input, float* output, int32_t numFrames, int32_t channelCount) {
+        if (!isMeasuring()) {
+            std::fill(output, output + numFrames * channelCount, 0.0f);
+            return;
+        }
+        const int32_t total = static_cast<int32_t>(mCapture.size());
+        for (int32_t frame = 0; frame < numFrames; ++frame) {
+            float sample = 0.0f;
+            if (mPosition < total) {
+                mCapture[mPosition] = input[frame * channelCount];
+                const int32_t phase = mPosition % mPeriodFrames;
+                sample = phase < kMlsLength ? kProbeAmplitude * mSequence[phase] : 0.0f;
+                ++mPosition;
+            }
+            std::fill(output + frame * channelCount, output + (frame + 1) * channelCount, sample);
+        }
+        if (mPosition == total) {
+            mState.store(State::Finished, std::memory_order_release);
+        }
+    }
+
+    // Correlate each captured period with the probe and summarise the lags, then return to idle.
+    // Call only once isFinished(); takes up to about a second for kMaxRepetitions.
+    Result analyse() {
+        Result result;
+        result.repetitions = mRepetitions;
+        if (!isFinished()) {
+            return result;
+        }
+
+        const int32_t lagCount = mPeriodFrames - kMlsLength + 1;
+        std::vector<double> lags;
+        for (int repetition = 0; repetition < mRepetitions; ++repetition) {
+            const float* segment = mCapture.data() + static_cast<size_t>(repetition) * mPeriodFrames;
+            int32_t peakLag = 0;
+            double peak = 0.0;
+            double sumSquares = 0.0;
+            for (int32_t lag = 0; lag < lagCount; ++lag) {
+                const double c = correlate(segment + lag);
+                sumSquares += c * c;
+                if (std::fabs(c) > peak) {
+                    peak = std::fabs(c);
+                    peakLag = lag;
+                }
+            }
+            const double noise = std::sqrt(sumSquares / lagCount);
+            if (peak > 0.0 && peak >= kMinPeakToNoise * noise) {
+                lags.push_back(peakLag);
+            }
+        }
+
+        result.validRepetitions = static_cast<int>(lags.size());
+        if (!lags.empty()) {
+            const double millisPerFrame = 1000.0 / mSampleRate;
+            double sum = 0.0;
+            for (double lag : lags) {
+                sum += lag;
+            }
+            const double mean = sum / lags.size();
+            double variance = 0.0;
+            for (double lag : lags) {
+                variance += (lag - mean) * (lag - mean);
+            }
+            variance /= lags.size();
+            result.meanMillis = mean * millisPerFrame;
+            result.minMillis = *std::min_element(lags.begin(), lags.end()) * millisPerFrame;
+            result.maxMillis = *std::max_element(lags.begin(), lags.end()) * millisPerFrame;
+            result.jitterMillis = std::sqrt(variance) * millisPerFrame;
+        }
+        mState.store(State::Idle, std::memory_order_release);
+        return result;
+    }
+
+    const std::array<float, kMlsLength>& getSequence() const {
+        return mSequence;
+    }
+
+private:
+    enum class State {
+        Idle,
+        Measuring,
+        Finished
+    };
+
+    double correlate(const float* window) const {
+        double sum = 0.0;
+        for (int i = 0; i < kMlsLength; ++i) {
+            sum += mSequence[i] * window[i];
+        }
+        return sum;
+    }
+
+    std::array<float, kMlsLength> mSequence{};
+    std::atomic<State> mState{State::Idle};
+    int32_t mSampleRate = 0;
+    int mRepetitions = 0;
+    int32_t mPeriodFrames = 0;
+    int32_t mPosition = 0;            // Frames captured so far; audio thread only while Measuring
+    std::vector<float> mCapture;
+};
+
+#endif // HEARINGAMP_LATENCYMETER_H
@@ -0,0 +1,86 @@
+/**
+ * Decides whether the two input channels carry effectively the same signal.
+ *
+ * Many phones deliver one microphone on both channels, or two channels that differ by far less than
+ * anything audible after compression. Filtering such input once and fanning the bands out to both
+ * ears' WDRC halves the filter bank cost (AudioProcessor, InputChannelMode::Auto).
+ *
+ * The detector compares the energy of the left-right difference with the energy of the signal. It
+ * switches to mono only after kWindowsToEnterMono consecutive windows with a difference below
+ * kMaxDifferenceRatio, but back to stereo within the block in which a difference appears, so a real
+ * second channel is never dropped for longer than one callback. Windows too quiet to judge leave
+ * the decision as it was.
+ *
+ * Plain arithmetic with no allocation; runs on the audio thread.
+ */
+
+#ifndef HEARINGAMP_MONODETECTOR_H
+#define HEARINGAMP_MONODETECTOR_H
+
+#include <cstdint>
+
+class MonoDetector {
+public:
+    static constexpr float kMaxDifferenceRatio = 1e-3f;       // -30 dB of difference relative to the signal
+    static constexpr float kSilenceEnergyPerFrame = 1e-10f;   // -100 dBFS; quieter windows decide nothing
+    static constexpr int kWindowsToEnterMono = 5;
+
+    explicit MonoDetector(int32_t windowFrames = 4800)
+            : mWindowFrames(windowFrames > 0 ? windowFrames : 1) {}
+
+    // Account for a block of both ears' input and return whether the input is currently mono
+    bool process(const float* left, const float* right, int32_t numFrames) {
+        for (int32_t frame = 0; frame < numFrames; ++frame) {
+            const float difference = left[frame] - right[frame];
+            mDifferenceEnergy += difference * difference;
+            mEnergy += left[frame] * left[frame] + right[frame] * right[frame];
+        }
+        mFrames += numFrames;
+
+        if (mMono && differs()) {
+            mMono = false;
+            mMonoWindows = 0;
+            startWindow();
+        } else if (mFrames >= mWindowFrames) {
+            if (mEnergy > kSilenceEnergyPerFrame * mFrames) {
+                if (differs()) {
+                    mMonoWindows = 0;
+                } else if (++mMonoWindows >= kWindowsToEnterMono) {
+                    mMono = true;
+                }
+            }
+            startWindow();
+        }
+        return mMono;
+    }
+
+    bool isMono() const {
+        return mMono;
+    }
+
+    void reset() {
+        mMono = false;
+        mMonoWindows = 0;
+        startWindow();
+    }
+
+private:
+    bool differs() const {
+        return mDifferenceEnergy > kMaxDifferenceRatio * mEnergy + kSilenceEnergyPerFrame * mFrames;
+    }
+
+    void startWindow() {
+        mDifferenceEnergy = 0.0f;
+        mEnergy = 0.0f;
+        mFrames = 0;
+    }
+
+    int32_t mWindowFrames;
+    float mDifferenceEnergy = 0.0f;
+    float mEnergy = 0.0f;
+    int32_t mFrames = 0;
+    int mMonoWindows = 0;
+    bool mMono = false;
+};
+
+#endif // HEARINGAMP_MONODETECTOR_H
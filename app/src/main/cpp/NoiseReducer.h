@@ -0,0 +1,122 @@
+/**
+ * Per-band noise reduction for both ears from the WDRC band envelopes.
+ *
+ * The noise floor of each band is tracked by minimum statistics: the lowest envelope power over a
+ * window of kWindowSeconds, kept as the minima of kSubwindows sub-windows so the window slides
+ * without storing every value, and scaled up by kBiasCompensation because the minimum of a
+ * fluctuating noise envelope lies below its mean. Speech rarely fills a band for longer than the
+ * window, so the minimum follows the noise through it, and a rising noise floor is found within one
+ * window.
+ *
+ * Each band then gets the Wiener gain for its signal-to-noise ratio, 1 - noise / power, no lower
+ * than the caller's floor. Bands dominated by noise are turned down by up to that floor while bands
+ * carrying speech keep nearly all their gain.
+ *
+ * The stage works on envelopes the filter bank and WDRC already produce, once per block, so it
+ * costs a few operations per band and block; the caller applies the gains (rampBandGains() in the
+ * IIR modes, the WOLA band gains otherwise).
+ *
+ * All storage is fixed-size; update() is real-time safe.
+ */
+
+#ifndef HEARINGAMP_NOISEREDUCER_H
+#define HEARINGAMP_NOISEREDUCER_H
+
+#include <algorithm>
+#include <array>
+#include <cmath>
+#include <cstdint>
+#include <limits>
+
+#include "DspConstants.h"
+
+class NoiseReducer {
+public:
+    using EarGains = std::array<std::array<float, MAX_BANDS>, NUM_EARS>;
+
+    static constexpr float kWindowSeconds = 1.5f;     // Minimum search window
+    static constexpr int kSubwindows = 8;
+    static constexpr float kBiasCompensation = 1.5f;  // Mean over minimum of a noise envelope's power
+
+    explicit NoiseReducer(float sampleRate = DEFAULT_SAMPLE_RATE) {
+        configure(sampleRate);
+    }
+
+    // Set the rate update() counts frames at and clear the state. Not real-time safe: must not run
+    // concurrently with the other calls.
+    void configure(float sampleRate) {
+        mSubwindowFrames = std::max(static_cast<int32_t>(sampleRate * kWindowSeconds / kSubwindows), 1);
+        reset();
+    }
+
+    // Forget the noise floors and return every gain to 1
+    void reset() {
+        constexpr float kUnknown = std::numeric_limits<float>::max();
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            for (BandState& state : mBands[ear]) {
+                state.minima.fill(kUnknown);
+                state.subwindowMinimum = kUnknown;
+                state.windowMinimum = kUnknown;
+            }
+            mGains[ear].fill(1.0f);
+        }
+        mSubwindow = 0;
+        mSubwindowElapsed = 0;
+    }
+
+    // Track each band's noise floor from its envelope after numFrames more frames and compute its
+    // gain, at least minGain. Real-time safe.
+    void update(const EarGains& envelopes, int bandCount, int32_t numFrames, float minGain) {
+        mSubwindowElapsed += numFrames;
+        const bool subwindowEnded = mSubwindowElapsed >= mSubwindowFrames;
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            for (int band = 0; band < bandCount; ++band) {
+                BandState& state = mBands[ear][band];
+                const float power = envelopes[ear][band] * envelopes[ear][band];
+                state.subwindowMinimum = std::min(state.subwindowMinimum, power);
+                const float noise = kBiasCompensation * std::min(state.windowMinimum, state.subwindowMinimum);
+
+                const float wienerGain = power > noise ? 1.0f - noise / power : 0.0f;
+                mGains[ear][band] = std::max(wienerGain, minGain);
+
+                // The finished sub-window replaces the oldest; the window minimum is taken again
+                if (subwindowEnded) {
+                    state.minima[mSubwindow] = state.subwindowMinimum;
+                    state.subwindowMinimum = power;
+                    state.windowMinimum = *std::min_element(state.minima.begin(), state.minima.end());
+                }
+            }
+        }
+        if (subwindowEnded) {
+            mSubwindow = mSubwindow + 1 < kSubwindows ? mSubwindow + 1 : 0;
+            mSubwindowElapsed -= mSubwindowFrames;
+        }
+    }
+
+    // Gain of every band after the last update()
+    const EarGains& getGains() const {
+        return mGains;
+    }
+
+    // Estimated noise floor of a band as an envelope level, or 0 before the first update()
+    float getNoiseLevel(int ear, int band) const {
+        const BandState& state = mBands[ear][band];
+        const float minimum = std::min(state.windowMinimum, state.subwindowMinimum);
+        return minimum < std::numeric_limits<float>::max() ? std::sqrt(kBiasCompensation * minimum) : 0.0f;
+    }
+
+private:
+    struct BandState {
+        std::array<float, kSubwindows> minima;  // Minimum envelope power of each finished sub-window
+        float subwindowMinimum;                 // Minimum so far in the current sub-window
+        float windowMinimum;                    // Minimum over the finished sub-windows
+    };
+
+    std::array<std::array<BandState, MAX_BANDS>, NUM_EARS> mBands;
+    EarGains mGains;
+    int32_t mSubwindowFrames = 1;
+    int mSubwindow = 0;              // Slot the current sub-window's minimum goes into
+    int32_t mSubwindowElapsed = 0;   // Frames of the current sub-window so far
+};
+
+#endif // HEARINGAMP_NOISEREDUCER_H
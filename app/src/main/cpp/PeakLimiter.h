@@ -0,0 +1,180 @@
+/**
+ * Per-ear look-ahead peak limiter that holds each ear's output below its maximum power output (MPO)
+ * ceiling without clipping the waveform.
+ *
+ * Each ear's output is delayed by getLatencyFrames() frames (the look-ahead). For every frame entering
+ * the delay the limiter knows the largest peak in the window of look-ahead + 1 frames, tracked with a
+ * monotonic queue of candidate maxima so each frame costs O(1) amortized, and from it the gain that
+ * keeps that window under the ceiling. That gain takes effect at once and recovers with a release time
+ * constant, then a moving average over the same window smooths the attack into a ramp that is complete
+ * when the peak leaves the delay. Every gain averaged for a delayed frame is at most the gain its own
+ * peak requires, so no frame exceeds the ceiling; a final clamp only absorbs rounding and the frames
+ * already in flight when a ceiling is lowered.
+ *
+ * Storage is fixed-size, so nothing allocates. process() is real-time safe, and the ceilings may be
+ * changed from any thread while it runs.
+ */
+
+#ifndef HEARINGAMP_PEAKLIMITER_H
+#define HEARINGAMP_PEAKLIMITER_H
+
+#include <algorithm>
+#include <array>
+#include <atomic>
+#include <cmath>
+#include <cstdint>
+
+#include "DspConstants.h"
+
+class PeakLimiter {
+public:
+    static constexpr int32_t kMaxLookAheadFrames = 511;
+    static constexpr float kDefaultLookAheadSeconds = 0.001f;
+    static constexpr float kReleaseTime = 0.05f;     // Seconds for the gain to recover by 1 - 1/e
+    static constexpr float kMinCeiling = 0.001f;     // -60 dBFS
+
+    explicit PeakLimiter(float sampleRate = DEFAULT_SAMPLE_RATE, float lookAheadSeconds = kDefaultLookAheadSeconds) {
+        for (std::atomic<float>& ceiling : mCeilings) {
+            ceiling.store(1.0f, std::memory_order_relaxed);
+        }
+        configure(sampleRate, lookAheadSeconds);
+    }
+
+    // Choose the look-ahead, rounded to frames and capped at kMaxLookAheadFrames, and clear the
+    // state. Not real-time safe: must not run concurrently with process().
+    void configure(float sampleRate, float lookAheadSeconds) {
+        const long frames = std::lround(std::max(lookAheadSeconds, 0.0f) * sampleRate);
+        mLookAheadFrames = static_cast<int32_t>(std::min<long>(frames, kMaxLookAheadFrames));
+        mWindowFrames = mLookAheadFrames + 1;
+        mReleaseCoefficient = 1.0f - std::exp(-1.0f / (sampleRate * kReleaseTime));
+        reset();
+    }
+
+    void reset() {
+        for (EarState& ear : mEars) {
+            ear.delay.fill(0.0f);
+            ear.gains.fill(1.0f);
+            ear.gainSum = static_cast<float>(mWindowFrames);
+            ear.releasedGain = 1.0f;
+            ear.peakHead = 0;
+            ear.peakCount = 0;
+        }
+        mPosition = 0;
+        mFrameCount = 0;
+    }
+
+    // Frames of delay the look-ahead adds
+    int32_t getLatencyFrames() const {
+        return mLookAheadFrames;
+    }
+
+    // Set an ear's ceiling as a linear peak level, limited to kMinCeiling..1 (full scale). Safe to
+    // call from any thread; takes effect from the next block.
+    void setCeiling(int ear, float ceiling) {
+        mCeilings[ear].store(std::clamp(ceiling, kMinCeiling, 1.0f), std::memory_order_relaxed);
+    }
+
+    float getCeiling(int ear) const {
+        return mCeilings[ear].load(std::memory_order_relaxed);
+    }
+
+    // Scale each ear's samples by gain and limit them in place; the output lags the input by
+    // getLatencyFrames(). Real-time safe.
+    void process(float* const* earSamples, int32_t numFrames, float gain) {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            processEar(mEars[ear], earSamples[ear], numFrames, gain, mCeilings[ear].load(std::memory_order_relaxed));
+        }
+        mPosition = static_cast<int32_t>((mPosition + numFrames) % mWindowFrames);
+        mFrameCount += static_cast<uint32_t>(numFrames);
+    }
+
+private:
+    static constexpr int32_t kMaxWindowFrames = kMaxLookAheadFrames + 1;
+
+    struct EarState {
+        std::array<float, kMaxWindowFrames> delay;         // The last mWindowFrames scaled input frames
+        std::array<float, kMaxWindowFrames> gains;         // The last mWindowFrames released gains
+        std::array<float, kMaxWindowFrames> peakValues;    // Queue of window maxima candidates, decreasing
+        std::array<uint32_t, kMaxWindowFrames> peakFrames; // Frame number each candidate entered at
+        float gainSum;
+        float releasedGain;
+        int32_t peakHead;
+        int32_t peakCount;
+    };
+
+    void processEar(EarState& state, float* samples, int32_t numFrames, float gain, float ceiling) const {
+        const int32_t window = mWindowFrames;
+        const float averageScale = 1.0f / static_cast<float>(window);
+        const float releaseCoefficient = mReleaseCoefficient;
+        auto wrap = [window](int32_t index) {
+            return index >= window ? index - window : index;
+        };
+        // Scalars live in locals for the block; samples could otherwise alias them
+        float* delay = state.delay.data();
+        float* gains = state.gains.data();
+        float* peakValues = state.peakValues.data();
+        uint32_t* peakFrames = state.peakFrames.data();
+        float gainSum = state.gainSum;
+        float releasedGain = state.releasedGain;
+        int32_t peakHead = state.peakHead;
+        int32_t peakCount = state.peakCount;
+        int32_t position = mPosition;
+        uint32_t frameCount = mFrameCount;
+        for (int32_t frame = 0; frame < numFrames; ++frame) {
+            const float input = samples[frame] * gain;
+            const float level = std::abs(input);
+
+            // Sliding window maximum: the oldest candidate leaves once it falls out of the window, and
+            // candidates no larger than the new level can never be the maximum again
+            if (peakCount > 0 && frameCount - peakFrames[peakHead] >= static_cast<uint32_t>(window)) {
+                peakHead = wrap(peakHead + 1);
+                --peakCount;
+            }
+            while (peakCount > 0 && peakValues[wrap(peakHead + peakCount - 1)] <= level) {
+                --peakCount;
+            }
+            const int32_t tail = wrap(peakHead + peakCount);
+            peakValues[tail] = level;
+            peakFrames[tail] = frameCount;
+            ++peakCount;
+            const float peak = peakValues[peakHead];
+
+            // Instant attack to the gain the window needs, release toward it otherwise
+            const float required = peak > ceiling ? ceiling / peak : 1.0f;
+            releasedGain = required < releasedGain ? required : releasedGain + releaseCoefficient * (required - releasedGain);
+
+            // Moving average of the released gain over the window; the sum is recomputed once per
+            // pass through the ring so rounding cannot accumulate
+            gainSum += releasedGain - gains[position];
+            gains[position] = releasedGain;
+            if (position == window - 1) {
+                gainSum = 0.0f;
+                for (int32_t i = 0; i < window; ++i) {
+                    gainSum += gains[i];
+                }
+            }
+
+            // The frame leaving the delay is the oldest one in the window
+            delay[position] = input;
+            const int32_t oldest = wrap(position + 1);
+            samples[frame] = std::clamp(delay[oldest] * gainSum * averageScale, -ceiling, ceiling);
+
+            position = oldest;
+            ++frameCount;
+        }
+        state.gainSum = gainSum;
+        state.releasedGain = releasedGain;
+        state.peakHead = peakHead;
+        state.peakCount = peakCount;
+    }
+
+    std::array<EarState, NUM_EARS> mEars;
+    std::array<std::atomic<float>, NUM_EARS> mCeilings;
+    int32_t mLookAheadFrames = 0;
+    int32_t mWindowFrames = 1;
+    float mReleaseCoefficient = 0.0f;
+    int32_t mPosition = 0;       // Ring index of the next frame, shared by both ears
+    uint32_t mFrameCount = 0;    // Frames processed, wrapping; numbers the peak candidates
+};
+
+#endif // HEARINGAMP_PEAKLIMITER_H
@@ -0,0 +1,214 @@
+/**
+ * Integer-factor polyphase resampler that lets the DSP run below the stream rate.
+ *
+ * decimate() lowpass-filters both ears and keeps every factor-th frame, evaluating the filter only
+ * for the frames it keeps. interpolate() brings the processed frames back to the stream rate with
+ * the same filter split into factor phases, so each output frame costs kTapsPerPhase multiplies.
+ *
+ * The anti-aliasing filter is a Kaiser-windowed sinc cutting off at the internal Nyquist frequency.
+ * Content between MAX_BAND_EDGE_FRACTION of the internal rate and its Nyquist frequency may alias,
+ * but only onto frequencies above the highest band edge.
+ *
+ * Stream blocks need not be multiples of the factor: interpolated frames pass through a small FIFO
+ * primed with factor - 1 frames of silence, so every block gets exactly as many frames back as it
+ * delivered. The whole round trip delays the signal by getLatencyFrames() stream frames.
+ */
+
+#ifndef HEARINGAMP_POLYPHASERESAMPLER_H
+#define HEARINGAMP_POLYPHASERESAMPLER_H
+
+#include <algorithm>
+#include <array>
+#include <cmath>
+#include <cstdint>
+#include <vector>
+
+#include "DspConstants.h"
+
+class PolyphaseResampler {
+public:
+    static constexpr int kMaxFactor = 4;
+    static constexpr int kTapsPerPhase = 32;
+    static constexpr int kMaxTaps = kMaxFactor * kTapsPerPhase;
+
+    // Kaiser window shape; about 50 dB of stopband attenuation
+    static constexpr double kKaiserBeta = 5.0;
+
+    // Factor 1 passes audio straight through; otherwise 2..kMaxFactor
+    explicit PolyphaseResampler(int factor = 1)
+            : mFactor(factor),
+              mTapCount(factor * kTapsPerPhase) {
+        if (factor > 1) {
+            designFilter();
+        }
+        reset();
+    }
+
+    // Size the output FIFO for the largest stream block. Not real-time safe.
+    void prepare(int32_t maxFramesPerCallback) {
+        mFifoCapacity = maxFramesPerCallback + 2 * mFactor;
+        mFifoBuffer.assign(NUM_EARS * mFifoCapacity, 0.0f);
+        reset();
+    }
+
+    // Clear the filter history and prime the FIFO
+    void reset() {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            mDecimatorHistory[ear].fill(0.0f);
+            mInterpolatorHistory[ear].fill(0.0f);
+        }
+        std::fill(mFifoBuffer.begin(), mFifoBuffer.end(), 0.0f);
+        mDecimatorPosition = 0;
+        mDecimatorPhase = 0;
+        mInterpolatorPosition = 0;
+        mFifoFill = getFifoPrimingFrames();
+    }
+
+    int getFactor() const {
+        return mFactor;
+    }
+
+    // Stream frames of delay from decimate() input to interpolate() output: mTapCount - factor for
+    // the two filters, aligned on the decimator's phase, plus the factor - 1 frames of silence the
+    // FIFO holds before the first interpolated frame
+    int getLatencyFrames() const {
+        return mFactor > 1 ? (mTapCount - mFactor) + getFifoPrimingFrames() : 0;
+    }
+
+    // Frames of silence the output FIFO starts with
+    int getFifoPrimingFrames() const {
+        return mFactor - 1;
+    }
+
+    // Largest internal block that decimate() produces from numFrames stream frames
+    static int32_t maxDecimatedFrames(int32_t numFrames, int factor) {
+        return numFrames / factor + 1;
+    }
+
+    // Largest factor up to kMaxFactor whose internal rate still carries highestEdge with
+    // MAX_BAND_EDGE_FRACTION headroom; 1 if none does
+    static int chooseFactor(float highestEdge, int32_t streamSampleRate) {
+        for (int factor = kMaxFactor; factor > 1; --factor) {
+            if (highestEdge <= MAX_BAND_EDGE_FRACTION * static_cast<float>(streamSampleRate) / factor) {
+                return factor;
+            }
+        }
+        return 1;
+    }
+
+    // Filter and downsample numFrames stream frames per ear; returns the internal frames written
+    int32_t decimate(const float* const* earInput, int32_t numFrames, float* const* internalOutput) {
+        int32_t produced = 0;
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            float* history = mDecimatorHistory[ear].data();
+            int position = mDecimatorPosition;
+            int phase = mDecimatorPhase;
+            produced = 0;
+            for (int32_t frame = 0; frame < numFrames; ++frame) {
+                // Each sample is stored twice so the latest mTapCount are always contiguous
+                history[position] = earInput[ear][frame];
+                history[position + mTapCount] = earInput[ear][frame];
+                position = position + 1 == mTapCount ? 0 : position + 1;
+                if (++phase == mFactor) {
+                    phase = 0;
+                    const float* window = history + position;
+                    float sum = 0.0f;
+                    for (int tap = 0; tap < mTapCount; ++tap) {
+                        sum += mTaps[tap] * window[tap];
+                    }
+                    internalOutput[ear][produced++] = sum;
+                }
+            }
+            if (ear == NUM_EARS - 1) {
+                mDecimatorPosition = position;
+                mDecimatorPhase = phase;
+            }
+        }
+        return produced;
+    }
+
+    // Upsample internalFrames per ear into the FIFO and pop exactly numFrames stream frames
+    void interpolate(const float* const* internalInput, int32_t internalFrames,
+                     float* const* earOutput, int32_t numFrames) {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            float* history = mInterpolatorHistory[ear].data();
+            float* fifo = mFifoBuffer.data() + ear * mFifoCapacity;
+            int position = mInterpolatorPosition;
+            int32_t fill = mFifoFill;
+            for (int32_t frame = 0; frame < internalFrames; ++frame) {
+                history[position] = internalInput[ear][frame];
+                history[position + kTapsPerPhase] = internalInput[ear][frame];
+                position = position + 1 == kTapsPerPhase ? 0 : position + 1;
+                const float* window = history + position;
+                for (int phase = 0; phase < mFactor; ++phase) {
+                    const float* taps = mPhaseTaps[phase].data();
+                    float sum = 0.0f;
+                    for (int tap = 0; tap < kTapsPerPhase; ++tap) {
+                        sum += taps[tap] * window[tap];
+                    }
+                    fifo[fill++] = sum;
+                }
+            }
+            std::copy(fifo, fifo + numFrames, earOutput[ear]);
+            std::copy(fifo + numFrames, fifo + fill, fifo);
+            if (ear == NUM_EARS - 1) {
+                mInterpolatorPosition = position;
+                mFifoFill = fill - numFrames;
+            }
+        }
+    }
+
+private:
+    // Windowed-sinc lowpass at the internal Nyquist frequency with unity gain at DC, stored
+    // time-reversed for decimation and split into phases, scaled by the factor, for interpolation
+    void designFilter() {
+        std::array<double, kMaxTaps> taps{};
+        const double cutoff = 0.5 / mFactor;
+        const double centre = (mTapCount - 1) / 2.0;
+        double sum = 0.0;
+        for (int tap = 0; tap < mTapCount; ++tap) {
+            const double t = tap - centre;
+            const double sinc = t == 0.0 ? 1.0 : std::sin(2.0 * M_PI * cutoff * t) / (2.0 * M_PI * cutoff * t);
+            const double position = 2.0 * tap / (mTapCount - 1) - 1.0;
+            const double window = besselI0(kKaiserBeta * std::sqrt(1.0 - position * position)) / besselI0(kKaiserBeta);
+            taps[tap] = 2.0 * cutoff * sinc * window;
+            sum += taps[tap];
+        }
+        for (int tap = 0; tap < mTapCount; ++tap) {
+            mTaps[mTapCount - 1 - tap] = static_cast<float>(taps[tap] / sum);
+        }
+        for (int phase = 0; phase < mFactor; ++phase) {
+            for (int tap = 0; tap < kTapsPerPhase; ++tap) {
+                mPhaseTaps[phase][kTapsPerPhase - 1 - tap] = static_cast<float>(mFactor * taps[tap * mFactor + phase] / sum);
+            }
+        }
+    }
+
+    // Zeroth-order modified Bessel function of the first kind, by its power series
+    static double besselI0(double x) {
+        double term = 1.0;
+        double sum = 1.0;
+        for (int k = 1; k < 32; ++k) {
+            term *= (x / (2.0 * k)) * (x / (2.0 * k));
+            sum += term;
+        }
+        return sum;
+    }
+
+    int mFactor;
+    int mTapCount;
+    std::array<float, kMaxTaps> mTaps{};                                       // Time-reversed
+    std::array<std::array<float, kTapsPerPhase>, kMaxFactor> mPhaseTaps{};     // Time-reversed, per phase
+    std::array<std::array<float, 2 * kMaxTaps>, NUM_EARS> mDecimatorHistory;
+    std::array<std::array<float, 2 * kTapsPerPhase>, NUM_EARS> mInterpolatorHistory;
+    int mDecimatorPosition = 0;
+    int mDecimatorPhase = 0;
+    int mInterpolatorPosition = 0;
+
+    // Interpolated frames not yet handed out, per ear
+    std::vector<float> mFifoBuffer;
+    int32_t mFifoCapacity = 0;
+    int32_t mFifoFill = 0;
+};
+
+#endif // HEARINGAMP_POLYPHASERESAMPLER_H
@@ -0,0 +1,76 @@
+#include "ProcessingCost.h"
+
+#include <algorithm>
+#include <chrono>
+#include <cmath>
+#include <vector>
+
+#include "AudioProcessor.h"
+
+ProcessingCost measureProcessingCost(int bandCount, int32_t framesPerCallback, int32_t sampleRate,
+                                     int32_t channelCount, int durationMillis, FilterBankType filterBankType,
+                                     int wolaFftSize, bool internalResampling) {
+    using Clock = std::chrono::steady_clock;
+
+    BandEdges edges[MAX_BANDS];
+    makeLogSpacedBandEdges(bandCount, 250.0f, 8000.0f, edges);
+    AudioProcessor processor(edges, bandCount, filterBankType, wolaFftSize);
+    processor.setSampleRate(sampleRate, internalResampling);
+    processor.prepare(framesPerCallback);
+
+    // Broadband test signal loud enough to keep every band compressing
+    std::vector<float> input(framesPerCallback * channelCount);
+    std::vector<float> output(input.size());
+    uint32_t noiseState = 22222;
+    for (float& sample : input) {
+        noiseState = noiseState * 1664525u + 1013904223u;
+        sample = 0.5f * (static_cast<float>(noiseState >> 8) / 8388608.0f - 1.0f);
+    }
+
+    double totalNanos = 0.0;
+    double worstNanos = 0.0;
+    long callbacks = 0;
+    const Clock::time_point end = Clock::now() + std::chrono::milliseconds(durationMillis);
+    do {
+        const Clock::time_point start = Clock::now();
+        processor.process(input.data(), output.data(), framesPerCallback, channelCount);
+        const double nanos = std::chrono::duration<double, std::nano>(Clock::now() - start).count();
+        totalNanos += nanos;
+        worstNanos = std::max(worstNanos, nanos);
+        ++callbacks;
+    } while (Clock::now() < end);
+
+    ProcessingCost cost{};
+    cost.bandCount = bandCount;
+    cost.nanosPerCallback = totalNanos / callbacks;
+    cost.worstNanos = worstNanos;
+    cost.nanosPerBand = cost.nanosPerCallback / bandCount;
+    cost.deadlineFraction = cost.nanosPerCallback / (1e9 * framesPerCallback / sampleRate);
+    return cost;
+}
+
+int chooseSustainableBandCount(int32_t framesPerCallback, int32_t sampleRate, int32_t channelCount,
+                               double maxDeadlineFraction, int durationMillis, FilterBankType filterBankType,
+                               int wolaFftSize, bool internalResampling, ProcessingCostCallback onMeasured) {
+    auto fits = [&](int bandCount) {
+        const ProcessingCost cost = measureProcessingCost(bandCount, framesPerCallback, sampleRate, channelCount,
+                                                          durationMillis, filterBankType, wolaFftSize,
+                                                          internalResampling);
+        if (onMeasured) {
+            onMeasured(cost);
+        }
+        return cost.deadlineFraction <= maxDeadlineFraction;
+    };
+
+    // Coarse steps up to the first count that does not fit, then single bands below it
+    int chosen = MIN_BANDS;
+    int bandCount = MIN_BANDS;
+    while (bandCount <= MAX_BANDS && fits(bandCount)) {
+        chosen = bandCount;
+        bandCount += 4;
+    }
+    for (int single = chosen + 1; single < std::min(bandCount, MAX_BANDS + 1) && fits(single); ++single) {
+        chosen = single;
+    }
+    return chosen;
+}
@@ -0,0 +1,43 @@
+/**
+ * Offline measurement of AudioProcessor CPU cost per band count.
+ *
+ * A device can time the processor on synthetic audio before opening streams and pick the largest
+ * band count whose cost fits comfortably inside the callback deadline.
+ */
+
+#ifndef HEARINGAMP_PROCESSINGCOST_H
+#define HEARINGAMP_PROCESSINGCOST_H
+
+#include <cstdint>
+
+#include "DspConstants.h"
+
+// Measured cost of running the AudioProcessor with a given band count
+struct ProcessingCost {
+    int bandCount;
+    double nanosPerCallback;  // Average processing time of one callback
+    double worstNanos;        // Slowest callback seen during the measurement
+    double nanosPerBand;      // nanosPerCallback / bandCount
+    double deadlineFraction;  // nanosPerCallback / callback period
+};
+
+// Time a bandCount-band processor (log-spaced 250-8000 Hz) designed for sampleRate for about
+// durationMillis. Not real-time safe.
+ProcessingCost measureProcessingCost(int bandCount, int32_t framesPerCallback, int32_t sampleRate,
+                                     int32_t channelCount, int durationMillis,
+                                     FilterBankType filterBankType = FilterBankType::Bandpass,
+                                     int wolaFftSize = DEFAULT_WOLA_FFT_SIZE, bool internalResampling = false);
+
+// Called with each cost chooseSustainableBandCount() measures, such as to log it
+using ProcessingCostCallback = void (*)(const ProcessingCost& cost);
+
+// Largest band count from MIN_BANDS to MAX_BANDS whose measured cost stays within
+// maxDeadlineFraction of the callback period; MIN_BANDS if none does. Counts are tried in steps of
+// four until one does not fit, then one by one above the last that did, so at most seven are timed.
+int chooseSustainableBandCount(int32_t framesPerCallback, int32_t sampleRate, int32_t channelCount,
+                               double maxDeadlineFraction, int durationMillis,
+                               FilterBankType filterBankType = FilterBankType::Bandpass,
+                               int wolaFftSize = DEFAULT_WOLA_FFT_SIZE, bool internalResampling = false,
+                               ProcessingCostCallback onMeasured = nullptr);
+
+#endif // HEARINGAMP_PROCESSINGCOST_H
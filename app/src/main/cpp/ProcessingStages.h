@@ -0,0 +1,102 @@
+/**
+ * Block processing stages of the AudioProcessor pipeline.
+ *
+ * A callback block goes through deinterleave -> FilterBank::processBlock -> applyWDRCBlock per band
+ * -> rampBandGains (noise reduction and squelch, when on) -> sumBands -> PeakLimiter::process
+ * -> interleave. In crossover mode CrossoverFilterBank provides both the split and the summing
+ * stage, and in WOLA mode WolaFilterBank replaces everything between deinterleave and the limiter.
+ * Each stage loops over the whole block before the next one runs, so its state stays in registers,
+ * and each can be timed on its own by the host benchmarks.
+ */
+
+#ifndef HEARINGAMP_PROCESSINGSTAGES_H
+#define HEARINGAMP_PROCESSINGSTAGES_H
+
+#include <algorithm>
+#include <array>
+#include <cmath>
+#include <cstdint>
+
+#include "DspConstants.h"
+
+// Split interleaved frames into one buffer per ear and return the peak absolute input.
+// Channel 0 feeds the left ear and channel 1 the right; a mono stream feeds both ears.
+inline float deinterleave(const float* input, int32_t numFrames, int32_t channelCount, float* const* earBuffers) {
+    const int32_t rightChannel = channelCount > 1 ? 1 : 0;
+    float peak = 0.0f;
+    for (int32_t frame = 0; frame < numFrames; ++frame) {
+        const float left = input[frame * channelCount];
+        const float right = input[frame * channelCount + rightChannel];
+        earBuffers[0][frame] = left;
+        earBuffers[1][frame] = right;
+        peak = std::max(peak, std::max(std::abs(left), std::abs(right)));
+    }
+    return peak;
+}
+
+// Scale each ear's bandCount bands of a lane-interleaved block by a gain ramping linearly from
+// fromGains[ear][band] to toGains[ear][band], reached on the last frame. Frames are laneCount
+// floats apart and the right ear's bands start lanesPerEar lanes in.
+inline void rampBandGains(float* bandBlock, int32_t numFrames, int32_t laneCount, int32_t lanesPerEar,
+                          int32_t bandCount,
+                          const std::array<std::array<float, MAX_BANDS>, NUM_EARS>& fromGains,
+                          const std::array<std::array<float, MAX_BANDS>, NUM_EARS>& toGains) {
+    if (numFrames <= 0) {
+        return;
+    }
+    float gains[NUM_EARS][MAX_BANDS];
+    float steps[NUM_EARS][MAX_BANDS];
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        for (int band = 0; band < bandCount; ++band) {
+            gains[ear][band] = fromGains[ear][band];
+            steps[ear][band] = (toGains[ear][band] - fromGains[ear][band]) / static_cast<float>(numFrames);
+        }
+    }
+    for (int32_t frame = 0; frame < numFrames; ++frame) {
+        float* lanes = bandBlock + frame * laneCount;
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            for (int band = 0; band < bandCount; ++band) {
+                gains[ear][band] += steps[ear][band];
+                lanes[ear * lanesPerEar + band] *= gains[ear][band];
+            }
+        }
+    }
+}
+
+// Sum each ear's bandCount bands from a lane-interleaved block, scaled by 1 / bandCount.
+// Frames are laneCount floats apart and the right ear's bands start lanesPerEar lanes in.
+inline void sumBands(const float* bandBlock, int32_t numFrames, int32_t laneCount, int32_t lanesPerEar,
+                     int32_t bandCount, float* const* earOutput) {
+    const float scale = 1.0f / static_cast<float>(bandCount);
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        const float* bands = bandBlock + ear * lanesPerEar;
+        float* output = earOutput[ear];
+        for (int32_t frame = 0; frame < numFrames; ++frame) {
+            const float* frameBands = bands + frame * laneCount;
+            float sum = 0.0f;
+            for (int32_t band = 0; band < bandCount; ++band) {
+                sum += frameBands[band];
+            }
+            output[frame] = sum * scale;
+        }
+    }
+}
+
+// Interleave each ear's output into the stream buffer and return the output peak.
+// A mono stream receives the left ear, and channels beyond the second repeat the right ear.
+inline float interleave(const float* const* earOutput, int32_t numFrames, float* output, int32_t channelCount) {
+    float peak = 0.0f;
+    for (int32_t frame = 0; frame < numFrames; ++frame) {
+        const float left = earOutput[0][frame];
+        const float right = earOutput[1][frame];
+        float* outputFrame = output + frame * channelCount;
+        outputFrame[0] = left;
+        for (int32_t channel = 1; channel < channelCount; ++channel) {
+            outputFrame[channel] = right;
+        }
+        peak = std::max(peak, std::max(std::abs(left), channelCount > 1 ? std::abs(right) : 0.0f));
+    }
+    return peak;
+}
+
+#endif // HEARINGAMP_PROCESSINGSTAGES_H
@@ -0,0 +1,75 @@
+/**
+ * Conversion between the sample format a stream negotiated and the float samples the DSP works on.
+ *
+ * The engine asks Oboe for the device's native format so that the framework does not convert on
+ * either side of the HAL, which can also keep a stream off the low-latency MMAP path. The callback
+ * then converts only at its edges through SampleFormat<Sample>: float streams are processed in place
+ * with no copies at all, and int16 streams go through a float scratch buffer.
+ *
+ * All functions are real-time safe.
+ */
+
+#ifndef HEARINGAMP_SAMPLEFORMAT_H
+#define HEARINGAMP_SAMPLEFORMAT_H
+
+#include <algorithm>
+#include <cmath>
+#include <cstddef>
+#include <cstdint>
+
+template <typename Sample>
+struct SampleFormat;
+
+template <>
+struct SampleFormat<float> {
+    // Float samples to read from; float streams need no conversion, so this is the samples themselves
+    static const float* toFloat(const float* samples, float* /* scratch */, size_t /* count */) {
+        return samples;
+    }
+
+    // Where to produce float output for samples; float streams are written directly
+    static float* workBuffer(float* samples, float* /* scratch */) {
+        return samples;
+    }
+
+    // Store count float samples; nothing to do when they were produced in place
+    static void fromFloat(const float* input, float* samples, size_t count) {
+        if (input != samples) {
+            std::copy(input, input + count, samples);
+        }
+    }
+
+    static void fill(float* samples, size_t count) {
+        std::fill(samples, samples + count, 0.0f);
+    }
+};
+
+template <>
+struct SampleFormat<int16_t> {
+    static constexpr float kScale = 32768.0f;
+
+    static const float* toFloat(const int16_t* samples, float* scratch, size_t count) {
+        for (size_t i = 0; i < count; ++i) {
+            scratch[i] = samples[i] * (1.0f / kScale);
+        }
+        return scratch;
+    }
+
+    static float* workBuffer(int16_t* /* samples */, float* scratch) {
+        return scratch;
+    }
+
+    // Round to the nearest step and saturate, so an overshoot clips instead of wrapping around
+    static void fromFloat(const float* input, int16_t* samples, size_t count) {
+        for (size_t i = 0; i < count; ++i) {
+            const float scaled = std::clamp(input[i] * kScale, -kScale, kScale - 1.0f);
+            samples[i] = static_cast<int16_t>(std::lrintf(scaled));
+        }
+    }
+
+    static void fill(int16_t* samples, size_t count) {
+        std::fill(samples, samples + count, static_cast<int16_t>(0));
+    }
+};
+
+#endif // HEARINGAMP_SAMPLEFORMAT_H
@@ -0,0 +1,124 @@
+/**
+ * Per-band downward expander with hysteresis, to keep microphone self-noise and quiet-room hiss from
+ * being amplified.
+ *
+ * A band whose envelope falls below the kneepoint closes: its gain then falls by ratio - 1 dB per dB
+ * the envelope lies below the kneepoint raised by the hysteresis, so it drops by (ratio - 1) times
+ * the hysteresis at once and further as the level keeps falling. It opens again only once the
+ * envelope reaches that raised kneepoint, where the closed gain has climbed back to 1. Noise
+ * hovering around the kneepoint therefore stays turned down instead of fluttering in and out of
+ * expansion, and speech rising out of it is released without a step.
+ *
+ * Unlike the expansion segment of the WDRC curve this runs once per band and block, on the envelope
+ * WDRC leaves behind: one comparison for the state and, only while closed, one logarithm and one
+ * exponential. The gain never falls below kMinGain, so it stays a normal float.
+ *
+ * All storage is fixed-size; update() is real-time safe. The parameters are published together
+ * through a TripleBuffer, so they may be changed from another thread while it runs and update()
+ * never sees a kneepoint from one call with the hysteresis or ratio of another.
+ */
+
+#ifndef HEARINGAMP_SQUELCH_H
+#define HEARINGAMP_SQUELCH_H
+
+#include <algorithm>
+#include <array>
+#include <atomic>
+#include <cmath>
+#include <cstdint>
+
+#include "DspConstants.h"
+#include "FastMath.h"
+#include "TripleBuffer.h"
+
+class Squelch {
+public:
+    using EarGains = std::array<std::array<float, MAX_BANDS>, NUM_EARS>;
+
+    static constexpr float kMinGain = 0.001f;  // -60 dB
+    static constexpr float kMaxRatio = 10.0f;
+    static constexpr float kMaxHysteresisDb = 20.0f;
+
+    Squelch() {
+        reset();
+    }
+
+    // Close bands below kneepointDb (envelope level in dBFS; -infinity turns the squelch off) and
+    // expand them at ratio (1 to kMaxRatio) below the kneepoint raised by hysteresisDb (0 to
+    // kMaxHysteresisDb). Takes effect from the next block; callers must not invoke this from more
+    // than one thread at a time.
+    void setParameters(float kneepointDb, float ratio, float hysteresisDb) {
+        const float kneepointLog2 = kneepointDb * static_cast<float>(M_LN10 / (20.0 * M_LN2));
+        const float hysteresisLog2 = std::clamp(hysteresisDb, 0.0f, kMaxHysteresisDb) * static_cast<float>(M_LN10 / (20.0 * M_LN2));
+        Parameters& parameters = mParameters.writeBuffer();
+        parameters.closeLevel = std::exp2(kneepointLog2);
+        parameters.openLevelLog2 = kneepointLog2 + hysteresisLog2;
+        parameters.exponent = std::clamp(ratio, 1.0f, kMaxRatio) - 1.0f;
+        mParameters.publish();
+        mEnabled.store(parameters.closeLevel > 0.0f, std::memory_order_relaxed);
+    }
+
+    // Safe to call from any thread
+    bool isEnabled() const {
+        return mEnabled.load(std::memory_order_relaxed);
+    }
+
+    // Open every band
+    void reset() {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            mClosed[ear].fill(false);
+            mGains[ear].fill(1.0f);
+        }
+    }
+
+    // Open or close each band from its envelope and compute its gain. Real-time safe.
+    void update(const EarGains& envelopes, int bandCount) {
+        mParameters.update();
+        const Parameters& parameters = mParameters.readBuffer();
+        const float closeLevel = parameters.closeLevel;
+        const float openLevelLog2 = parameters.openLevelLog2;
+        const float exponent = parameters.exponent;
+        if (closeLevel <= 0.0f) {
+            reset();
+            return;
+        }
+        const float openLevel = fastExp2(openLevelLog2);
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            for (int band = 0; band < bandCount; ++band) {
+                const float envelope = envelopes[ear][band];
+                bool& closed = mClosed[ear][band];
+                closed = closed ? envelope < openLevel : envelope < closeLevel;
+                if (closed) {
+                    // Envelopes that decayed below the normal range count as the smallest normal level
+                    const float levelLog2 = fastLog2(std::max(envelope, 1e-30f));
+                    mGains[ear][band] = std::max(fastExp2(exponent * (levelLog2 - openLevelLog2)), kMinGain);
+                } else {
+                    mGains[ear][band] = 1.0f;
+                }
+            }
+        }
+    }
+
+    // Gain of every band after the last update()
+    const EarGains& getGains() const {
+        return mGains;
+    }
+
+    bool isClosed(int ear, int band) const {
+        return mClosed[ear][band];
+    }
+
+private:
+    struct Parameters {
+        float closeLevel = 0.0f;      // Envelope below which an open band closes; 0 never
+        float openLevelLog2 = 0.0f;   // log2 of the envelope at which a closed band opens
+        float exponent = 1.0f;        // ratio - 1
+    };
+
+    std::array<std::array<bool, MAX_BANDS>, NUM_EARS> mClosed;
+    EarGains mGains;
+    TripleBuffer<Parameters> mParameters;
+    std::atomic<bool> mEnabled{false};
+};
+
+#endif // HEARINGAMP_SQUELCH_H
@@ -0,0 +1,154 @@
+/**
+ * Reopens the audio streams on a background thread after a device disconnect.
+ *
+ * Plugging in a headset or any other routing change disconnects the Oboe streams, and Oboe reports
+ * it through the error callback of each one. requestRecovery() only flags the request and wakes the
+ * worker, so it is safe from those callbacks. The worker waits kSettleDelay for the other stream's
+ * error to arrive, then asks the RecoverableStreams to reopen everything, retrying up to kMaxAttempts
+ * times kRetryDelay apart while the new route comes up. The time from the first request to a
+ * successful reopen is kept as the time until sound was restored.
+ *
+ * The engine and its DSP state are untouched; only the streams are replaced.
+ */
+
+#ifndef HEARINGAMP_STREAMRECOVERY_H
+#define HEARINGAMP_STREAMRECOVERY_H
+
+#include <atomic>
+#include <chrono>
+#include <condition_variable>
+#include <cstdint>
+#include <mutex>
+#include <thread>
+
+// What the recovery needs from the owner of the streams; the host test fakes it
+class RecoverableStreams {
+public:
+    virtual ~RecoverableStreams() = default;
+
+    // Close whatever is left of the old streams and open and start new ones; true on success.
+    // Runs on the recovery thread and should give up early once recovery.isStopping().
+    virtual bool reopenStreams() = 0;
+};
+
+class StreamRecovery {
+public:
+    static constexpr int kMaxAttempts = 5;
+    static constexpr std::chrono::milliseconds kSettleDelay{20};
+    static constexpr std::chrono::milliseconds kRetryDelay{200};
+
+    explicit StreamRecovery(RecoverableStreams& streams)
+            : mStreams(streams),
+              mThread(&StreamRecovery::run, this) {}
+
+    ~StreamRecovery() {
+        stop();
+    }
+
+    // Ask for the streams to be reopened. Never blocks for long; requests made before the worker
+    // gets to them are merged into one.
+    void requestRecovery() {
+        {
+            std::lock_guard<std::mutex> lock(mMutex);
+            if (mStopping || mRequested) {
+                return;
+            }
+            mRequested = true;
+            mRequestTime = std::chrono::steady_clock::now();
+        }
+        mWake.notify_one();
+    }
+
+    // Abandon any recovery in progress and join the worker; later requests are ignored
+    void stop() {
+        {
+            std::lock_guard<std::mutex> lock(mMutex);
+            mStopping = true;
+        }
+        mWake.notify_one();
+        if (mThread.joinable()) {
+            mThread.join();
+        }
+    }
+
+    bool isStopping() const {
+        std::lock_guard<std::mutex> lock(mMutex);
+        return mStopping;
+    }
+
+    // True from a request until the reopen succeeds or is given up
+    bool isRecovering() const {
+        std::lock_guard<std::mutex> lock(mMutex);
+        return mRequested || mReopening;
+    }
+
+    uint64_t getRecoveryCount() const {
+        return mRecoveries.load(std::memory_order_relaxed);
+    }
+
+    // Recoveries abandoned after kMaxAttempts failed reopens
+    uint64_t getFailureCount() const {
+        return mFailures.load(std::memory_order_relaxed);
+    }
+
+    // Time from the request to the reopened streams for the latest successful recovery, or -1
+    int64_t getLastRestoreMicros() const {
+        return mLastRestoreMicros.load(std::memory_order_relaxed);
+    }
+
+private:
+    void run() {
+        std::unique_lock<std::mutex> lock(mMutex);
+        while (true) {
+            mWake.wait(lock, [this] { return mStopping || mRequested; });
+            if (mStopping) {
+                return;
+            }
+
+            // Both streams usually report the disconnect together; let the second report merge in
+            if (mWake.wait_for(lock, kSettleDelay, [this] { return mStopping; })) {
+                return;
+            }
+            const auto requestTime = mRequestTime;
+            mRequested = false;
+            mReopening = true;
+
+            bool reopened = false;
+            for (int attempt = 0; attempt < kMaxAttempts && !reopened && !mStopping; ++attempt) {
+                if (attempt > 0 && mWake.wait_for(lock, kRetryDelay, [this] { return mStopping; })) {
+                    break;
+                }
+                lock.unlock();
+                reopened = mStreams.reopenStreams();
+                lock.lock();
+            }
+
+            if (reopened) {
+                const auto restoreTime = std::chrono::steady_clock::now() - requestTime;
+                mLastRestoreMicros.store(
+                        std::chrono::duration_cast<std::chrono::microseconds>(restoreTime).count(),
+                        std::memory_order_relaxed);
+                mRecoveries.fetch_add(1, std::memory_order_relaxed);
+            } else if (!mStopping) {
+                mFailures.fetch_add(1, std::memory_order_relaxed);
+            }
+            mReopening = false;
+        }
+    }
+
+    RecoverableStreams& mStreams;
+    mutable std::mutex mMutex;
+    std::condition_variable mWake;
+    bool mStopping = false;
+    bool mRequested = false;
+    bool mReopening = false;
+    std::chrono::steady_clock::time_point mRequestTime;
+
+    std::atomic<uint64_t> mRecoveries{0};
+    std::atomic<uint64_t> mFailures{0};
+    std::atomic<int64_t> mLastRestoreMicros{-1};
+
+    std::thread mThread;  // Last, so it starts once everything it uses is constructed
+};
+
+#endif // HEARINGAMP_STREAMRECOVERY_H
@@ -0,0 +1,104 @@
+/**
+ * Lock-free single-producer / single-consumer queue of fixed-size telemetry events.
+ *
+ * The audio callbacks must not log, so they describe noteworthy events (ring buffer overflows and
+ * underflows, duplex underruns, missed deadlines) as small records pushed here, and a low-priority
+ * thread pops and logs them later. Storage is allocated once by the constructor; push() and pop()
+ * only copy a record and move an atomic position.
+ *
+ * A push that finds the queue full drops the event instead of waiting and counts the drop, so a
+ * stalled consumer can cost telemetry but never audio.
+ */
+
+#ifndef HEARINGAMP_TELEMETRYQUEUE_H
+#define HEARINGAMP_TELEMETRYQUEUE_H
+
+#include <atomic>
+#include <cstddef>
+#include <cstdint>
+#include <vector>
+
+enum class TelemetryEventType : uint8_t {
+    RingOverflow = 0,    // Input callback found the ring buffer full; frames = frames dropped
+    RingUnderflow,       // Output callback found the ring buffer short; frames = frames of silence
+    DuplexUnderrun,      // Full-duplex input read came up short; frames = frames of silence
+    DeadlineMiss,        // Processing took longer than the callback lasts; frames = callback size
+    Count
+};
+
+struct TelemetryEvent {
+    TelemetryEventType type;
+    int32_t frames;
+    int64_t timestampNanos;   // steady_clock time the event was recorded
+    int64_t value;            // Type-specific; processing nanoseconds for DeadlineMiss
+};
+
+class TelemetryQueue {
+public:
+    // Capacity is rounded up to the next power of two so positions can be masked
+    explicit TelemetryQueue(size_t capacity)
+            : mCapacity(roundUpToPowerOfTwo(capacity)),
+              mMask(mCapacity - 1),
+              mEvents(mCapacity) {}
+
+    // Producer side: store one event, or count it as dropped if the queue is full. Never blocks.
+    bool push(const TelemetryEvent& event) {
+        const size_t writeIndex = mWriteIndex.load(std::memory_order_relaxed);
+        const size_t readIndex = mReadIndex.load(std::memory_order_acquire);
+        if (writeIndex - readIndex == mCapacity) {
+            mDroppedCount.fetch_add(1, std::memory_order_relaxed);
+            return false;
+        }
+        mEvents[writeIndex & mMask] = event;
+        mWriteIndex.store(writeIndex + 1, std::memory_order_release);
+        return true;
+    }
+
+    // Consumer side: take the oldest event; returns false if there is none. Never blocks.
+    bool pop(TelemetryEvent& event) {
+        const size_t readIndex = mReadIndex.load(std::memory_order_relaxed);
+        const size_t writeIndex = mWriteIndex.load(std::memory_order_acquire);
+        if (readIndex == writeIndex) {
+            return false;
+        }
+        event = mEvents[readIndex & mMask];
+        mReadIndex.store(readIndex + 1, std::memory_order_release);
+        return true;
+    }
+
+    // Events waiting to be popped; safe to call from any thread
+    size_t size() const {
+        const size_t readIndex = mReadIndex.load(std::memory_order_acquire);
+        const size_t writeIndex = mWriteIndex.load(std::memory_order_acquire);
+        return writeIndex - readIndex;
+    }
+
+    size_t capacity() const {
+        return mCapacity;
+    }
+
+    // Number of events dropped because the queue was full
+    uint64_t droppedCount() const {
+        return mDroppedCount.load(std::memory_order_relaxed);
+    }
+
+private:
+    static size_t roundUpToPowerOfTwo(size_t value) {
+        size_t result = 1;
+        while (result < value) {
+            result <<= 1;
+        }
+        return result;
+    }
+
+    const size_t mCapacity;
+    const size_t mMask;
+    std::vector<TelemetryEvent> mEvents;
+
+    // Keep the producer and consumer positions on separate cache lines
+    alignas(64) std::atomic<size_t> mWriteIndex{0};
+    alignas(64) std::atomic<size_t> mReadIndex{0};
+    alignas(64) std::atomic<uint64_t> mDroppedCount{0};
+};
+
+#endif // HEARINGAMP_TELEMETRYQUEUE_H
@@ -0,0 +1,60 @@
+/**
+ * Wait-free triple buffer for publishing values from one writer thread to one reader thread.
+ *
+ * The writer fills writeBuffer() and calls publish(); the reader calls update() and then reads
+ * readBuffer(). Three slots rotate through an atomic index exchange, so neither side ever waits,
+ * the reader always sees a complete value, and intermediate values may be skipped if the writer
+ * publishes faster than the reader updates.
+ */
+
+#ifndef HEARINGAMP_TRIPLEBUFFER_H
+#define HEARINGAMP_TRIPLEBUFFER_H
+
+#include <array>
+#include <atomic>
+#include <cstdint>
+
+template <typename T>
+class TripleBuffer {
+public:
+    explicit TripleBuffer(const T& initial = T()) {
+        mBuffers.fill(initial);
+    }
+
+    // Slot owned by the writer until the next publish()
+    T& writeBuffer() {
+        return mBuffers[mWriteIndex];
+    }
+
+    // Make the write slot visible to the reader and take over the previously shared slot
+    void publish() {
+        const uint8_t previous = mShared.exchange(mWriteIndex | kDirtyBit, std::memory_order_acq_rel);
+        mWriteIndex = previous & kIndexMask;
+    }
+
+    // Pick up the latest published value, if any; returns true when readBuffer() changed
+    bool update() {
+        if ((mShared.load(std::memory_order_relaxed) & kDirtyBit) == 0) {
+            return false;
+        }
+        const uint8_t previous = mShared.exchange(mReadIndex, std::memory_order_acq_rel);
+        mReadIndex = previous & kIndexMask;
+        return true;
+    }
+
+    // Slot owned by the reader until the next update()
+    const T& readBuffer() const {
+        return mBuffers[mReadIndex];
+    }
+
+private:
+    static constexpr uint8_t kIndexMask = 0x3;
+    static constexpr uint8_t kDirtyBit = 0x4;
+
+    std::array<T, 3> mBuffers;
+    uint8_t mWriteIndex = 0;
+    uint8_t mReadIndex = 1;
+    alignas(64) std::atomic<uint8_t> mShared{2};
+};
+
+#endif // HEARINGAMP_TRIPLEBUFFER_H
@@ -0,0 +1,276 @@
+/**
+ * Wide Dynamic Range Compression (WDRC) parameter definitions shared by the engine and JNI layer.
+ *
+ * WDRCParams holds the user-facing settings. The gain curve has up to four segments: expansion below
+ * a noise kneepoint, linear gain, compression above the threshold and limiting above a top kneepoint.
+ * WDRCCoefficients holds the values the audio thread needs, derived once per parameter update off the
+ * audio thread, including a WDRCGainTable of the whole curve, so the per-sample work is a few
+ * multiplies and one interpolated table lookup whatever the shape of the curve.
+ * applyWDRCBlockInterpolated() moves that work to a control rate of one gain lookup per sub-block.
+ */
+
+#ifndef HEARINGAMP_WDRC_H
+#define HEARINGAMP_WDRC_H
+
+#include <algorithm>
+#include <array>
+#include <cmath>
+#include <cstdint>
+#include <cstring>
+
+#include "FastMath.h"
+
+// Envelope levels in dB re full scale covered by the gain table; kneepoints at or beyond them
+// disable expansion and limiting
+constexpr float WDRC_MIN_LEVEL_DB = -120.0f;
+constexpr float WDRC_MAX_LEVEL_DB = 24.0f;
+
+// Structure to hold Wide Dynamic Range Compression (WDRC) parameters
+struct WDRCParams {
+    float threshold;    // Compression threshold in dB
+    float ratio;        // Compression ratio
+    float attack_time;  // Attack time in seconds
+    float release_time; // Release time in seconds
+    float gain;         // Gain in dB
+    float expansion_threshold = WDRC_MIN_LEVEL_DB;  // Noise kneepoint in dB; below it the gain falls
+    float expansion_ratio = 1.0f;                   // Expansion ratio; 1 disables expansion
+    float limit_threshold = WDRC_MAX_LEVEL_DB;      // Limiting kneepoint in dB; above it the output level stays put
+};
+
+// Linear gain of a whole curve sampled at envelope levels an eighth of an octave (about 0.75 dB)
+// apart, from 2^kMinExponent (WDRC_MIN_LEVEL_DB) up kOctaves octaves (WDRC_MAX_LEVEL_DB). The
+// steps are the float's exponent and top three mantissa bits, so lookup() finds its entry from
+// the envelope's bits without a logarithm and interpolates linearly to the next one. Levels
+// outside the range use the gain at its ends.
+struct WDRCGainTable {
+    static constexpr int kMinExponent = -20;
+    static constexpr int kOctaves = 24;
+    static constexpr int kStepsPerOctave = 8;
+    static constexpr int kSize = kOctaves * kStepsPerOctave + 1;
+
+    std::array<float, kSize> gains;
+
+    // Envelope level of entry index
+    static float levelOf(int index) {
+        const int step = index % kStepsPerOctave;
+        return std::ldexp(1.0f + static_cast<float>(step) / kStepsPerOctave, kMinExponent + index / kStepsPerOctave);
+    }
+
+    // Gain for a non-negative envelope level; real-time safe
+    float lookup(float envelope) const {
+        // Float bits of a positive value grow with its log2 in 2^23 steps per octave, linearly in between
+        constexpr float kStepsPerBit = 1.0f / (1 << (23 - 3));
+        constexpr float kFirstStep = static_cast<float>((127 + kMinExponent) * kStepsPerOctave);
+        static_assert(kStepsPerOctave == 1 << 3, "kStepsPerBit assumes three mantissa bits per step");
+
+        int32_t bits;
+        std::memcpy(&bits, &envelope, sizeof(bits));
+        const float position = std::min(std::max(static_cast<float>(bits) * kStepsPerBit - kFirstStep, 0.0f),
+                                        static_cast<float>(kSize - 1));
+        const int index = std::min(static_cast<int>(position), kSize - 2);
+        const float fraction = position - static_cast<float>(index);
+        return gains[index] + fraction * (gains[index + 1] - gains[index]);
+    }
+};
+
+// Per-band values derived from WDRCParams for a given sample rate
+struct WDRCCoefficients {
+    float alphaAttack;          // Envelope smoothing when the level rises
+    float alphaRelease;         // Envelope smoothing when the level falls
+    float gainLinear;           // Make-up gain applied below threshold
+    float thresholdLinear;      // Envelope level where compression starts
+    float gainLog2;             // Make-up gain as log2 of the linear gain
+    float thresholdLog2;        // Threshold as log2 of the linear level
+    float compressionExponent;  // 1 / ratio - 1, the slope of the gain above threshold
+    float expansionThresholdLinear;  // Envelope level where expansion starts, downwards
+    float expansionThresholdLog2;    // Expansion kneepoint as log2 of the linear level
+    float expansionExponent;         // expansion_ratio - 1, how fast the gain falls below the kneepoint
+    float limitThresholdLog2;        // Limiting kneepoint as log2 of the linear level
+    bool gainTableValid;             // False while the fields above glide away from the table
+    WDRCGainTable gainTable;         // The curve the audio thread applies while it is valid
+};
+
+// Total linear gain of the curve for an envelope level, computed in the log2 domain. Exact but
+// slower than the table; used to build it.
+inline float computeWDRCGain(const WDRCCoefficients& coefficients, float envelope) {
+    // Expansion attenuates by at most this much (120 dB), so the gain stays a normal float
+    constexpr float kMinExpansionLog2 = -20.0f;
+
+    if (envelope <= coefficients.thresholdLinear && envelope >= coefficients.expansionThresholdLinear) {
+        return coefficients.gainLinear;
+    }
+    const float levelLog2 = fastLog2(std::max(envelope, 1e-30f));
+    if (envelope < coefficients.expansionThresholdLinear) {
+        const float levelBelowKnee = coefficients.expansionThresholdLog2 - levelLog2;
+        return fastExp2(coefficients.gainLog2 - std::min(coefficients.expansionExponent * levelBelowKnee, -kMinExpansionLog2));
+    }
+    // Compression up to the limiting kneepoint; above it each step up in level is a step down in gain
+    const float compressedLevel = std::min(levelLog2, coefficients.limitThresholdLog2);
+    const float levelAboveLimit = std::max(levelLog2 - coefficients.limitThresholdLog2, 0.0f);
+    return fastExp2(coefficients.gainLog2 + coefficients.compressionExponent * (compressedLevel - coefficients.thresholdLog2)
+                    - levelAboveLimit);
+}
+
+// Sample the curve into the coefficients' gain table; not real-time safe
+inline void buildWDRCGainTable(WDRCCoefficients& coefficients) {
+    for (int i = 0; i < WDRCGainTable::kSize; ++i) {
+        coefficients.gainTable.gains[i] = computeWDRCGain(coefficients, WDRCGainTable::levelOf(i));
+    }
+    coefficients.gainTableValid = true;
+}
+
+// Derive the audio-thread coefficients; not real-time safe because of std::exp/std::pow and the table.
+// The kneepoints are kept in order: expansion <= compression threshold <= limiting.
+inline WDRCCoefficients computeWDRCCoefficients(const WDRCParams& params, float sampleRate) {
+    // Ratios below 1:1 would expand instead of compress, so they are treated as linear
+    const float ratio = std::max(params.ratio, 1.0f);
+    const float expansionRatio = std::max(params.expansion_ratio, 1.0f);
+    const float expansionThreshold = std::min(params.expansion_threshold, params.threshold);
+    const float limitThreshold = std::max(params.limit_threshold, params.threshold);
+
+    WDRCCoefficients coefficients{};
+    coefficients.alphaAttack = std::exp(-1.0f / (sampleRate * params.attack_time));
+    coefficients.alphaRelease = std::exp(-1.0f / (sampleRate * params.release_time));
+    coefficients.gainLinear = std::pow(10.0f, params.gain / 20.0f);
+    coefficients.thresholdLinear = std::pow(10.0f, params.threshold / 20.0f);
+    coefficients.gainLog2 = std::log2(coefficients.gainLinear);
+    coefficients.thresholdLog2 = std::log2(coefficients.thresholdLinear);
+    coefficients.compressionExponent = 1.0f / ratio - 1.0f;
+    coefficients.expansionThresholdLinear = std::pow(10.0f, expansionThreshold / 20.0f);
+    coefficients.expansionThresholdLog2 = std::log2(coefficients.expansionThresholdLinear);
+    coefficients.expansionExponent = expansionRatio - 1.0f;
+    coefficients.limitThresholdLog2 = std::log2(std::pow(10.0f, limitThreshold / 20.0f));
+    buildWDRCGainTable(coefficients);
+    return coefficients;
+}
+
+// Gain the audio thread applies for the current envelope level: from the table, or from the curve
+// itself while parameters glide
+inline float lookupWDRCGain(const WDRCCoefficients& coefficients, float envelope) {
+    return coefficients.gainTableValid ? coefficients.gainTable.lookup(envelope) : computeWDRCGain(coefficients, envelope);
+}
+
+// Move the gain-law coefficients of current a fraction amount (0..1] of the way toward target,
+// in the log domain so steps are even in dB. Rebuilding the table each block would cost far more
+// than the glide, so until current has reached target the gain is computed from the curve per
+// sample, and then target's table takes over. Attack and release take effect immediately.
+// Returns true once current has reached target.
+inline bool smoothWDRCCoefficients(WDRCCoefficients& current, const WDRCCoefficients& target, float amount) {
+    // Differences below this (in log2 units, about 0.0006 dB) snap to the target
+    constexpr float kSettledLog2 = 1e-4f;
+
+    current.alphaAttack = target.alphaAttack;
+    current.alphaRelease = target.alphaRelease;
+
+    const float gainStep = target.gainLog2 - current.gainLog2;
+    const float thresholdStep = target.thresholdLog2 - current.thresholdLog2;
+    const float exponentStep = target.compressionExponent - current.compressionExponent;
+    const float expansionThresholdStep = target.expansionThresholdLog2 - current.expansionThresholdLog2;
+    const float expansionExponentStep = target.expansionExponent - current.expansionExponent;
+    const float limitThresholdStep = target.limitThresholdLog2 - current.limitThresholdLog2;
+    const bool settled = std::abs(gainStep) < kSettledLog2 && std::abs(thresholdStep) < kSettledLog2
+                         && std::abs(exponentStep) < kSettledLog2 && std::abs(expansionThresholdStep) < kSettledLog2
+                         && std::abs(expansionExponentStep) < kSettledLog2 && std::abs(limitThresholdStep) < kSettledLog2;
+    if (settled) {
+        current = target;
+        return true;
+    }
+
+    current.gainLog2 += amount * gainStep;
+    current.thresholdLog2 += amount * thresholdStep;
+    current.compressionExponent += amount * exponentStep;
+    current.expansionThresholdLog2 += amount * expansionThresholdStep;
+    current.expansionExponent += amount * expansionExponentStep;
+    current.limitThresholdLog2 += amount * limitThresholdStep;
+    current.gainLinear = fastExp2(current.gainLog2);
+    current.thresholdLinear = fastExp2(current.thresholdLog2);
+    current.expansionThresholdLinear = fastExp2(current.expansionThresholdLog2);
+    current.gainTableValid = false;
+    return false;
+}
+
+// Run the envelope follower and gain law over one band of a block, in place.
+// Samples are stride floats apart; the envelope carries over between blocks.
+inline void applyWDRCBlock(float* samples, int32_t numFrames, int32_t stride, float& envelope,
+                           const WDRCCoefficients& coefficients) {
+    float currentEnvelope = envelope;
+    for (int32_t frame = 0; frame < numFrames; ++frame) {
+        float& sample = samples[frame * stride];
+
+        // Envelope detection
+        const float inputLevel = std::abs(sample);
+        const float alpha = inputLevel > currentEnvelope ? coefficients.alphaAttack : coefficients.alphaRelease;
+        currentEnvelope = alpha * currentEnvelope + (1.0f - alpha) * inputLevel;
+
+        // Apply the gain curve
+        sample *= lookupWDRCGain(coefficients, currentEnvelope);
+    }
+    envelope = currentEnvelope;
+}
+
+// Control-rate WDRC state of one band, carried over between blocks so control points land every
+// interval frames whatever the block boundaries
+struct WDRCControlState {
+    float gain = 1.0f;      // Gain applied to the last frame
+    float step = 0.0f;      // Per-frame change ramping the gain toward the last control point's
+    float levelSum = 0.0f;  // Absolute level summed over the frames of the current sub-block so far
+    int32_t phase = 0;      // Frames of the current sub-block seen so far
+
+    // Start a fresh sub-block at the given gain
+    void reset(float initialGain) {
+        gain = initialGain;
+        step = 0.0f;
+        levelSum = 0.0f;
+        phase = 0;
+    }
+};
+
+// Control-rate variant of applyWDRCBlock: the envelope follows the mean absolute level of each
+// sub-block of interval frames, and on the sub-block's last frame, its control point, the gain
+// starts a linear ramp that reaches the new gain interval frames later. Sub-blocks run on across
+// block boundaries, so coefficients derived at sampleRate / interval hold for any block size.
+// With an interval of 1 this matches applyWDRCBlock.
+inline void applyWDRCBlockInterpolated(float* samples, int32_t numFrames, int32_t stride, int32_t interval,
+                                       float& envelope, WDRCControlState& state,
+                                       const WDRCCoefficients& coefficients) {
+    float currentEnvelope = envelope;
+    float gain = state.gain;
+    float step = state.step;
+    float levelSum = state.levelSum;
+    int32_t phase = state.phase;
+    int32_t frame = 0;
+    while (frame < numFrames) {
+        // Frames before the next control point continue the ramp
+        const int32_t run = std::min(interval - 1 - phase, numFrames - frame);
+        for (int32_t end = frame + run; frame < end; ++frame) {
+            float& sample = samples[frame * stride];
+            levelSum += std::abs(sample);
+            gain += step;
+            sample *= gain;
+        }
+        phase += run;
+        if (frame == numFrames) {
+            break;
+        }
+
+        // Control point: envelope detection once per sub-block, then ramp toward the new gain
+        float& sample = samples[frame * stride];
+        levelSum += std::abs(sample);
+        const float inputLevel = levelSum / static_cast<float>(interval);
+        const float alpha = inputLevel > currentEnvelope ? coefficients.alphaAttack : coefficients.alphaRelease;
+        currentEnvelope = alpha * currentEnvelope + (1.0f - alpha) * inputLevel;
+        step = (lookupWDRCGain(coefficients, currentEnvelope) - gain) / static_cast<float>(interval);
+        gain += step;
+        sample *= gain;
+        levelSum = 0.0f;
+        phase = 0;
+        ++frame;
+    }
+    envelope = currentEnvelope;
+    state.gain = gain;
+    state.step = step;
+    state.levelSum = levelSum;
+    state.phase = phase;
+}
+
+#endif // HEARINGAMP_WDRC_H
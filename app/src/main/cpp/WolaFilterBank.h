@@ -0,0 +1,217 @@
+/**
+ * Weighted overlap-add (WOLA) FFT filter bank with per-band WDRC for both ears.
+ *
+ * Each hop of fftSize / 2 frames, the last fftSize input frames are windowed with a periodic
+ * square-root Hann window, transformed, scaled per bin by the gain of the band the bin belongs to,
+ * transformed back, windowed again and overlap-added. At unity gain the squared window sums to
+ * one, so the output is the input delayed by fftSize frames (getLatencyFrames()).
+ *
+ * Both ears share one complex FFT: the left ear is the real part and the right ear the imaginary
+ * part, and their spectra are separated by conjugate symmetry. The transform cost depends only on
+ * fftSize, so unlike FilterBank and CrossoverFilterBank, adding bands adds almost nothing. Larger
+ * frames resolve the low bands more finely at the price of latency; a band narrower than the bin
+ * spacing may receive no bins at all.
+ *
+ * Bins are assigned to bands like the CrossoverFilterBank splits them: band 0 reaches down to DC,
+ * the last band up to Nyquist, and adjacent bands meet at the geometric mean of their edges. The
+ * WDRC envelope of a band follows its RMS level once per hop, so its coefficients must be derived
+ * at getFrameRate() rather than at the sample rate.
+ */
+
+#ifndef HEARINGAMP_WOLAFILTERBANK_H
+#define HEARINGAMP_WOLAFILTERBANK_H
+
+#include <algorithm>
+#include <array>
+#include <cmath>
+#include <cstdint>
+
+#include "CrossoverFilterBank.h"
+#include "DspConstants.h"
+#include "Fft.h"
+#include "WDRC.h"
+
+class WolaFilterBank {
+public:
+    using EarEnvelopes = std::array<std::array<float, MAX_BANDS>, NUM_EARS>;
+    using EarCoefficients = std::array<std::array<WDRCCoefficients, MAX_BANDS>, NUM_EARS>;
+
+    // Edges must satisfy isValidBandLayout() and fftSize isValidWolaFftSize()
+    WolaFilterBank(float sampleRate, const BandEdges* edges, int bandCount, int fftSize)
+            : mFft(fftSize),
+              mSampleRate(sampleRate),
+              mBandCount(bandCount),
+              mFftSize(fftSize),
+              mHopSize(fftSize / 2) {
+        for (int n = 0; n < fftSize; ++n) {
+            mWindow[n] = static_cast<float>(std::sqrt(0.5 * (1.0 - std::cos(2.0 * M_PI * n / fftSize))));
+        }
+
+        // Windowed mean square from one-sided bins: interior bins stand for their mirror image too,
+        // and the window's own mean square is one half
+        const int binCount = fftSize / 2 + 1;
+        for (int bin = 0; bin < binCount; ++bin) {
+            const float sides = (bin == 0 || bin == fftSize / 2) ? 1.0f : 2.0f;
+            mBinEnergyScale[bin] = sides * 2.0f / (static_cast<float>(fftSize) * static_cast<float>(fftSize));
+
+            const float frequency = bin * sampleRate / fftSize;
+            int band = 0;
+            while (band < bandCount - 1
+                   && frequency >= CrossoverFilterBank::crossoverFrequency(edges[band], edges[band + 1])) {
+                ++band;
+            }
+            mBinBand[bin] = static_cast<uint8_t>(band);
+        }
+        reset();
+    }
+
+    // Clear the overlap history; the output restarts from silence
+    void reset() {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            mInput[ear].fill(0.0f);
+            mOverlap[ear].fill(0.0f);
+            mOutput[ear].fill(0.0f);
+        }
+        mFill = mFftSize - mHopSize;
+    }
+
+    int getBandCount() const {
+        return mBandCount;
+    }
+
+    int getFftSize() const {
+        return mFftSize;
+    }
+
+    int getHopSize() const {
+        return mHopSize;
+    }
+
+    // Delay from input to output in frames
+    int getLatencyFrames() const {
+        return mFftSize;
+    }
+
+    // Rate at which band envelopes update, for deriving WDRC coefficients
+    float getFrameRate() const {
+        return mSampleRate / static_cast<float>(mHopSize);
+    }
+
+    // Compress and resynthesize a block from earInput[ear][frame] into earOutput[ear][frame],
+    // updating envelopes with coefficients once per hop. bandGains, unless null, scales each band
+    // on top of its WDRC gain. Input and output may not alias.
+    void processBlock(const float* const* earInput, float* const* earOutput, int32_t numFrames,
+                      EarEnvelopes& envelopes, const EarCoefficients& coefficients,
+                      const EarEnvelopes* bandGains = nullptr) {
+        int32_t frame = 0;
+        while (frame < numFrames) {
+            const int32_t count = std::min(numFrames - frame, static_cast<int32_t>(mFftSize - mFill));
+            const int32_t readPosition = mFill - (mFftSize - mHopSize);
+            for (int ear = 0; ear < NUM_EARS; ++ear) {
+                std::copy(earInput[ear] + frame, earInput[ear] + frame + count, mInput[ear].data() + mFill);
+                std::copy(mOutput[ear].data() + readPosition, mOutput[ear].data() + readPosition + count,
+                          earOutput[ear] + frame);
+            }
+            mFill += count;
+            frame += count;
+            if (mFill == mFftSize) {
+                processFrame(envelopes, coefficients, bandGains);
+                mFill = mFftSize - mHopSize;
+            }
+        }
+    }
+
+private:
+    static constexpr int kMaxBins = MAX_WOLA_FFT_SIZE / 2 + 1;
+
+    // Analyse, compress and resynthesize the fftSize frames in mInput, then advance by one hop
+    void processFrame(EarEnvelopes& envelopes, const EarCoefficients& coefficients, const EarEnvelopes* bandGains) {
+        const int n = mFftSize;
+        const int mask = n - 1;
+        const int binCount = n / 2 + 1;
+        float* real = mReal.data();
+        float* imag = mImag.data();
+        for (int i = 0; i < n; ++i) {
+            real[i] = mWindow[i] * mInput[0][i];
+            imag[i] = mWindow[i] * mInput[1][i];
+        }
+        mFft.forward(real, imag);
+
+        // Band levels: the left spectrum is (Z[k] + conj(Z[n - k])) / 2, the right (Z[k] - conj(Z[n - k])) / 2i
+        std::array<std::array<float, MAX_BANDS>, NUM_EARS> bandEnergy{};
+        for (int bin = 0; bin < binCount; ++bin) {
+            const int mirror = (n - bin) & mask;
+            const float leftReal = 0.5f * (real[bin] + real[mirror]);
+            const float leftImag = 0.5f * (imag[bin] - imag[mirror]);
+            const float rightReal = 0.5f * (imag[bin] + imag[mirror]);
+            const float rightImag = 0.5f * (real[mirror] - real[bin]);
+            const int band = mBinBand[bin];
+            bandEnergy[0][band] += mBinEnergyScale[bin] * (leftReal * leftReal + leftImag * leftImag);
+            bandEnergy[1][band] += mBinEnergyScale[bin] * (rightReal * rightReal + rightImag * rightImag);
+        }
+
+        // Envelope follower and gain law once per band and hop
+        std::array<std::array<float, MAX_BANDS>, NUM_EARS> bandGain;
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            for (int band = 0; band < mBandCount; ++band) {
+                const WDRCCoefficients& c = coefficients[ear][band];
+                const float level = std::sqrt(bandEnergy[ear][band]);
+                float& envelope = envelopes[ear][band];
+                const float alpha = level > envelope ? c.alphaAttack : c.alphaRelease;
+                envelope = alpha * envelope + (1.0f - alpha) * level;
+                bandGain[ear][band] = lookupWDRCGain(c, envelope);
+                if (bandGains) {
+                    bandGain[ear][band] *= (*bandGains)[ear][band];
+                }
+            }
+        }
+
+        // Scale each ear's bin and its mirror by the band gain, recombining into one spectrum
+        for (int bin = 0; bin < binCount; ++bin) {
+            const int mirror = (n - bin) & mask;
+            const int band = mBinBand[bin];
+            const float leftGain = 0.5f * bandGain[0][band];
+            const float rightGain = 0.5f * bandGain[1][band];
+            const float leftReal = leftGain * (real[bin] + real[mirror]);
+            const float leftImag = leftGain * (imag[bin] - imag[mirror]);
+            const float rightReal = rightGain * (imag[bin] + imag[mirror]);
+            const float rightImag = rightGain * (real[mirror] - real[bin]);
+            real[bin] = leftReal - rightImag;
+            imag[bin] = leftImag + rightReal;
+            real[mirror] = leftReal + rightImag;
+            imag[mirror] = rightReal - leftImag;
+        }
+        mFft.inverse(real, imag);
+
+        // Overlap-add the windowed frame; its first hop is now complete
+        const float scale = 1.0f / static_cast<float>(n);
+        for (int i = 0; i < n; ++i) {
+            mOverlap[0][i] += scale * mWindow[i] * real[i];
+            mOverlap[1][i] += scale * mWindow[i] * imag[i];
+        }
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            std::copy(mOverlap[ear].begin(), mOverlap[ear].begin() + mHopSize, mOutput[ear].begin());
+            std::copy(mOverlap[ear].begin() + mHopSize, mOverlap[ear].begin() + n, mOverlap[ear].begin());
+            std::fill(mOverlap[ear].begin() + n - mHopSize, mOverlap[ear].begin() + n, 0.0f);
+            std::copy(mInput[ear].begin() + mHopSize, mInput[ear].begin() + n, mInput[ear].begin());
+        }
+    }
+
+    Fft mFft;
+    float mSampleRate;
+    int mBandCount;
+    int mFftSize;
+    int mHopSize;
+    int mFill = 0;  // Frames of the next analysis frame already in mInput
+
+    std::array<float, MAX_WOLA_FFT_SIZE> mWindow{};
+    std::array<float, kMaxBins> mBinEnergyScale{};
+    std::array<uint8_t, kMaxBins> mBinBand{};
+    std::array<std::array<float, MAX_WOLA_FFT_SIZE>, NUM_EARS> mInput;    // Last fftSize input frames
+    std::array<std::array<float, MAX_WOLA_FFT_SIZE>, NUM_EARS> mOverlap;  // Overlap-add accumulator
+    std::array<std::array<float, MAX_WOLA_FFT_SIZE / 2>, NUM_EARS> mOutput;  // Finished hop being played out
+    std::array<float, MAX_WOLA_FFT_SIZE> mReal{};
+    std::array<float, MAX_WOLA_FFT_SIZE> mImag{};
+};
+
+#endif // HEARINGAMP_WOLAFILTERBANK_H
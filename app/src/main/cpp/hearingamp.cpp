@@ -2,18 +2,60 @@
  * Hearing Amplification Engine
  *
  * This code implements a real-time hearing amplification system for Android devices using the Oboe library.
- * It uses a multi-band approach, splitting the audio into four frequency ranges:
+ * It uses a multi-band approach, by default splitting the audio into four frequency ranges:
  * 1. 250-750 Hz
  * 2. 751-1500 Hz
  * 3. 1501-3000 Hz
  * 4. 3001-8000 Hz
+ * The band count (4 to 16) and edges can instead be chosen when the engine starts.
  *
  * Key components and features:
- * - Digital biquad bandpass filters separate the input audio into frequency bands.
- * - Each band is processed independently using Wide Dynamic Range Compression (WDRC).
- * - WDRC parameters (threshold, ratio, attack time, release time, and gain) are configurable for each band.
- * - The AudioRingBuffer class allows for thread-safe audio data transfer between input and output streams.
- * - The HearingAmpEngine class is the core processor, implementing oboe::AudioStreamCallback for real-time processing.
+ * - Digital biquad bandpass filters separate the input audio into frequency bands, with separate filter
+ *   state per ear processed in SIMD lanes (NEON on ARM, SSE on x86, scalar elsewhere). Alternatively a
+ *   Linkwitz-Riley crossover tree splits the audio into bands that sum back to a flat response, or a
+ *   weighted overlap-add FFT filter bank compresses the bands in the frequency domain at a cost that does
+ *   not grow with the band count.
+ * - Filters and WDRC time constants are designed for the rate the streams actually open at. Optionally a
+ *   polyphase resampler runs the DSP at a lower internal rate, such as 24 kHz for an 8 kHz top band.
+ * - Each band is processed independently using Wide Dynamic Range Compression (WDRC), optionally computing
+ *   envelope and gain only once per few samples per band and interpolating the gain in between.
+ * - WDRC parameters (threshold, ratio, attack time, release time, and gain) are configurable for each band, as
+ *   are an expansion segment below a noise kneepoint and a limiting segment at the top of the curve. The whole
+ *   curve is precomputed into a gain table per band when parameters change, so any shape costs one lookup.
+ * - A lock-free AudioRingBuffer moves processed audio from the input callback to the output callback
+ *   without blocking either real-time thread.
+ * - In full-duplex mode the output callback reads the input stream directly, so capture, processing and
+ *   playback happen in one callback with no intermediate buffering; two callbacks remain as a fallback.
+ * - When both input channels carry the same signal, as with a single microphone, the bands are split once and
+ *   fanned out to both ears' WDRC (MonoDetector), halving the filter bank cost.
+ * - A look-ahead peak limiter holds each ear's output under its own maximum power output (MPO) ceiling by
+ *   ramping the gain down ahead of loud peaks instead of clipping them (PeakLimiter).
+ * - Optionally each band is turned down by its Wiener gain against a noise floor tracked with minimum statistics
+ *   on the WDRC envelopes, which costs no extra filtering or FFTs (NoiseReducer).
+ * - Optionally bands whose envelope falls below a kneepoint are expanded downward, with hysteresis so noise
+ *   hovering around the kneepoint does not flutter (Squelch).
+ * - Subnormal floats are flushed to zero on the audio thread for each callback, so filter states decaying in
+ *   silence do not slow it down (ScopedFlushDenormals).
+ * - Optionally an adaptive feedback canceller, a partitioned-block frequency-domain NLMS filter per ear,
+ *   subtracts the output leaking back into the microphone before it can howl, with optional probe noise
+ *   to decorrelate the output from the input it adapts on (FeedbackCanceller).
+ * - Streams open in the device's native sample format when the engine can convert it (int16 or float), so the
+ *   framework does not convert; int16 samples are converted to and from float only at the callback edges.
+ * - The AudioProcessor class is the core DSP, free of Oboe and JNI so it can be tested on the host.
+ * - The HearingAmpEngine class implements oboe::AudioStreamCallback and feeds the streams through the AudioProcessor
+ *   without allocating, logging or locking on the audio thread.
+ * - Underruns, overflows and missed deadlines are pushed as fixed-size records onto lock-free TelemetryQueues,
+ *   which a low-priority thread drains to logcat; when a queue is full the event is dropped, never waited for.
+ * - A callback duration histogram and the underrun, XRun, buffer fill and latency counters can be polled as one
+ *   snapshot through nativeGetPerformanceCounters() for a live diagnostics display.
+ * - The output buffer starts at one burst (or the size saved for the device) and a tuner grows it on XRuns and
+ *   underruns and shrinks it after long glitch-free stretches, keeping the lowest latency that plays cleanly.
+ * - When a headset is plugged in or unplugged, or the route changes otherwise, the disconnected streams are
+ *   reopened on a background thread (StreamRecovery) while the engine and its filter and envelope state stay.
+ * - Pausing keeps the streams running on silence, so resuming is a single flag flip that is heard within one
+ *   buffer; the Java service releases the device only after it has been paused for a while.
+ * - A measurement mode briefly replaces the processed output with an MLS probe and cross-correlates it with the
+ *   captured input to measure the actual round-trip latency and its jitter (LatencyMeter).
  * - JNI functions bridge the Android Java code with the native C++ audio processing, allowing control over:
  *   - Starting and stopping the engine
  *   - Updating audio parameters
@@ -31,9 +73,20 @@
 #include <atomic>
 #include <thread>
 #include <array>
-#include <condition_variable>
 #include <chrono>
+#include <condition_variable>
 #include <memory>
+#include <sys/resource.h>
+
+#include "AudioProcessor.h"
+#include "AudioRingBuffer.h"
+#include "BufferSizeTuner.h"
+#include "CallbackStatistics.h"
+#include "LatencyMeter.h"
+#include "ProcessingCost.h"
+#include "SampleFormat.h"
+#include "StreamRecovery.h"
+#include "TelemetryQueue.h"
 
 // Define logging macros for different severity levels
 #define LOGE(...) __android_log_print(ANDROID_LOG_ERROR, "hearingamp", __VA_ARGS__)
@@ -42,21 +95,10 @@
 #define LOGD(...) __android_log_print(ANDROID_LOG_DEBUG, "hearingamp", __VA_ARGS__)
 #define LOGV(...) __android_log_print(ANDROID_LOG_VERBOSE, "hearingamp", __VA_ARGS__)
 
-// Define constants for audio processing
-constexpr int DEFAULT_SAMPLE_RATE = 48000;
+// Define constants for stream configuration
 constexpr int DEFAULT_CHANNEL_COUNT = 2;
 constexpr int FRAMES_PER_CALLBACK = 16;
-constexpr int BUFFER_SIZE_FRAMES = 64;
-constexpr int NUM_BANDS = 4;
-
-// Structure to hold Wide Dynamic Range Compression (WDRC) parameters
-struct WDRCParams {
-    float threshold;    // Compression threshold in dB
-    float ratio;        // Compression ratio
-    float attack_time;  // Attack time in seconds
-    float release_time; // Release time in seconds
-    float gain;         // Gain in dB
-};
+constexpr int MAX_RING_FRAMES = 4096;  // Ring storage; the tuner limits how much of it is used
 
 // Global error flag for thread-safe error handling
 std::atomic<bool> gErrorFlag{false};
@@ -71,368 +113,879 @@ bool checkAndResetErrorFlag() {
     return gErrorFlag.exchange(false, std::memory_order_relaxed);
 }
 
-// AudioRingBuffer class for managing audio data between threads
-class AudioRingBuffer {
+class HearingAmpEngine;
+
+// Global engine and stream pointers
+static HearingAmpEngine *engine = nullptr;
+static std::shared_ptr<oboe::AudioStream> inputStream;
+static std::shared_ptr<oboe::AudioStream> outputStream;
+
+// Serializes creating and destroying the engine and streams against the JNI queries that read them,
+// which the Java side may call from a different thread than start and stop
+static std::mutex gEngineMutex;
+
+// Stream mode and format choice asked for at start, which recovery reopens with; guarded by gEngineMutex
+static bool gRequestedFullDuplex = true;
+static bool gRequestedNativeFormat = true;
+
+static void closeStreams();
+static oboe::Result openStreamsWithFallback(bool fullDuplex);
+
+// HearingAmpEngine class: connects the Oboe streams to the AudioProcessor.
+// onAudioReady is real-time safe: it never allocates, logs or locks. Scratch buffers are sized once
+// in prepareBuffers() when the streams open, counters live in members readable from other threads, and
+// events worth logging go onto a TelemetryQueue per callback thread for mTelemetryThread to log.
+// Disconnected streams are reopened by mRecovery through reopenStreams().
+class HearingAmpEngine : public oboe::AudioStreamCallback, private RecoverableStreams {
 public:
-    AudioRingBuffer(size_t capacity) : mCapacity(capacity), mBuffer(capacity) {}
+    // initialBufferBursts is the output buffer size to start from, such as one saved by an earlier run;
+    // 0 starts from a single burst
+    HearingAmpEngine(const BandEdges* edges, int bandCount, FilterBankType filterBankType, int wolaFftSize,
+                     bool internalResampling, int initialBufferBursts)
+            : mProcessor(edges, bandCount, filterBankType, wolaFftSize),
+              mInternalResampling(internalResampling),
+              mOutputBuffer(MAX_RING_FRAMES * DEFAULT_CHANNEL_COUNT),
+              mInputTelemetry(kTelemetryCapacity),
+              mOutputTelemetry(kTelemetryCapacity),
+              mBufferBursts(std::max(initialBufferBursts, 1)),
+              mRecovery(*this) {
+        mTelemetryThread = std::thread(&HearingAmpEngine::drainTelemetry, this);
+        LOGD("HearingAmpEngine constructed with MAX_RING_FRAMES=%d, FRAMES_PER_CALLBACK=%d, bands=%d, initial buffer %d bursts",
+             MAX_RING_FRAMES, FRAMES_PER_CALLBACK, bandCount, mBufferBursts.load());
+    }
 
-    // Write data to the buffer
-    void write(const float* data, size_t size) {
-        if (!data) {
-            LOGE("Attempting to write null data to AudioRingBuffer");
-            setErrorFlag();
-            return;
+    // The streams must be closed first so no callback is still pushing telemetry
+    ~HearingAmpEngine() override {
+        mRecovery.stop();
+        {
+            std::lock_guard<std::mutex> lock(mTelemetryMutex);
+            mTelemetryRunning = false;
         }
-        std::lock_guard<std::mutex> lock(mMutex);
-        for (size_t i = 0; i < size; ++i) {
-            mBuffer[mWriteIndex] = data[i];
-            mWriteIndex = (mWriteIndex + 1) % mCapacity;
-            if (mSize < mCapacity) {
-                ++mSize;
-            } else {
-                mReadIndex = (mReadIndex + 1) % mCapacity;
-            }
+        mTelemetryWake.notify_one();
+        mTelemetryThread.join();
+    }
+
+    // Callback function for processing audio data
+    oboe::DataCallbackResult onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) override {
+        // Check for errors
+        if (checkAndResetErrorFlag() || !stream || !audioData) {
+            return oboe::DataCallbackResult::Stop;
+        }
+
+        // Both streams share the format the input negotiated (see openAndStartStreams)
+        if (stream->getFormat() == oboe::AudioFormat::I16) {
+            return processAudio(stream, static_cast<int16_t*>(audioData), numFrames);
         }
-        mCondVar.notify_one();
+        return processAudio(stream, static_cast<float*>(audioData), numFrames);
     }
 
-    // Read data from the buffer
-    size_t read(float* data, size_t size) {
-        if (!data) {
-            LOGE("Attempting to read into null buffer from AudioRingBuffer");
-            setErrorFlag();
-            return 0;
+    // Allocate scratch buffers for the largest callback the streams can deliver, with conversion buffers if the
+    // streams do not carry float samples. Call before starting streams.
+    // The filters and WDRC time constants are redesigned if the streams opened at a different rate; streams
+    // reopened at the same rate keep the filter and envelope state.
+    void prepareBuffers(int32_t maxFramesPerCallback, int32_t channelCount, int32_t sampleRate, bool convertSamples) {
+        bool keptState;
+        {
+            std::lock_guard<std::mutex> lock(mParamMutex);
+            keptState = mProcessor.reconfigure(sampleRate, mInternalResampling, maxFramesPerCallback);
         }
-        std::unique_lock<std::mutex> lock(mMutex);
-        if (!mCondVar.wait_for(lock, std::chrono::milliseconds(100), [this] { return mSize > 0; })) {
-            LOGW("Timeout waiting for data in AudioRingBuffer");
-            return 0;
+        mScratchBuffer.assign(mProcessor.getMaxFramesPerCallback() * channelCount, 0.0f);
+        mInputConversion.assign(convertSamples ? mScratchBuffer.size() : 0, 0.0f);
+        mOutputConversion.assign(convertSamples ? mScratchBuffer.size() : 0, 0.0f);
+        LOGD("Scratch buffers prepared for %d frames x %d channels; processing at %.0f Hz (stream %d Hz)%s",
+             mProcessor.getMaxFramesPerCallback(), channelCount, mProcessor.getProcessingSampleRate(), sampleRate,
+             keptState ? ", DSP state kept" : "");
+    }
+
+    // Oboe closed a stream after an error, typically a disconnect on a routing change. Not a real-time
+    // callback. Errors from streams that were already replaced are ignored.
+    void onErrorAfterClose(oboe::AudioStream* stream, oboe::Result error) override {
+        {
+            std::lock_guard<std::mutex> lock(mStreamMutex);
+            if (stream == nullptr || (stream != mTunedInput && stream != mTunedOutput)) {
+                return;
+            }
         }
-        size_t read = std::min(size, mSize);
-        for (size_t i = 0; i < read; ++i) {
-            data[i] = mBuffer[mReadIndex];
-            mReadIndex = (mReadIndex + 1) % mCapacity;
+        LOGW("%s stream closed after error %s, reopening",
+             stream->getDirection() == oboe::Direction::Input ? "Input" : "Output", oboe::convertToText(error));
+        mRecovery.requestRecovery();
+    }
+
+    // Set the WDRC control interval of each band; call before the streams start
+    bool setControlIntervals(const int* controlIntervals, int bandCount) {
+        std::lock_guard<std::mutex> lock(mParamMutex);
+        return mProcessor.setControlIntervals(controlIntervals, bandCount);
+    }
+
+    // Set the output limiter's look-ahead in seconds; call before the streams start
+    void setLimiterLookAhead(float lookAheadSeconds) {
+        std::lock_guard<std::mutex> lock(mParamMutex);
+        mProcessor.setLimiterLookAhead(lookAheadSeconds);
+    }
+
+    // Set the feedback path the canceller models, in seconds; call before the streams start
+    void setFeedbackPath(float bulkDelaySeconds, float lengthSeconds) {
+        std::lock_guard<std::mutex> lock(mParamMutex);
+        mProcessor.setFeedbackPath(bulkDelaySeconds, lengthSeconds);
+    }
+
+    // Turn feedback cancellation on or off with the probe noise level in dBFS; takes effect from the
+    // next callback
+    void setFeedbackCancellation(bool enabled, float probeNoiseDb) {
+        mProcessor.setProbeNoiseLevelDb(probeNoiseDb);
+        mProcessor.setFeedbackCancellationEnabled(enabled);
+        LOGD("Feedback cancellation %s, probe noise %.1f dBFS", enabled ? "on" : "off", probeNoiseDb);
+    }
+
+    // Turn noise reduction on or off with its maximum attenuation in dB; takes effect from the next callback
+    void setNoiseReduction(bool enabled, float depthDb) {
+        mProcessor.setNoiseReductionDepthDb(depthDb);
+        mProcessor.setNoiseReductionEnabled(enabled);
+        LOGD("Noise reduction %s, depth %.1f dB", enabled ? "on" : "off", depthDb);
+    }
+
+    // Set the squelch kneepoint in dBFS (-infinity for off), expansion ratio and hysteresis in dB;
+    // takes effect from the next callback
+    void setSquelch(float kneepointDb, float ratio, float hysteresisDb) {
+        mProcessor.setSquelch(kneepointDb, ratio, hysteresisDb);
+        LOGD("Squelch kneepoint %.1f dBFS, ratio %.1f, hysteresis %.1f dB", kneepointDb, ratio, hysteresisDb);
+    }
+
+    // Set each ear's maximum power output in dBFS; takes effect from the next callback
+    void setOutputCeilings(float leftDb, float rightDb) {
+        mProcessor.setOutputCeilingDb(0, leftDb);
+        mProcessor.setOutputCeilingDb(1, rightDb);
+        LOGD("Output ceilings set to %.1f / %.1f dBFS", mProcessor.getOutputCeilingDb(0), mProcessor.getOutputCeilingDb(1));
+    }
+
+    // Update WDRC parameters for both ears.
+    // mParamMutex only serializes JNI writers; the audio thread picks up the new set without locking.
+    bool updateParams(const WDRCParams* leftParams, const WDRCParams* rightParams, int bandCount) {
+        std::lock_guard<std::mutex> lock(mParamMutex);
+        if (!mProcessor.updateParams(leftParams, rightParams, bandCount)) {
+            LOGE("Expected %d bands of WDRC parameters, got %d", mProcessor.getBandCount(), bandCount);
+            return false;
         }
-        mSize -= read;
-        return read;
+        LOGD("WDRC parameters updated for both ears");
+        return true;
     }
 
-    // Get the current size of the buffer
-    size_t size() const {
-        std::lock_guard<std::mutex> lock(mMutex);
-        return mSize;
+    int getBandCount() const {
+        return mProcessor.getBandCount();
     }
 
-private:
-    std::vector<float> mBuffer;
-    size_t mCapacity;
-    size_t mSize = 0;
-    size_t mReadIndex = 0;
-    size_t mWriteIndex = 0;
-    mutable std::mutex mMutex;
-    std::condition_variable mCondVar;
-};
+    // Choose whether the input is filtered per ear, once for both ears, or by detection; takes effect
+    // from the next callback
+    void setInputChannelMode(InputChannelMode mode) {
+        mProcessor.setInputChannelMode(mode);
+    }
 
-// BandpassFilter class for implementing a digital biquad bandpass filter
-class BandpassFilter {
-public:
-    // Constructor: initialize the filter with given parameters
-    BandpassFilter(float sampleRate, float lowFreq, float highFreq) {
-        // Calculate filter coefficients using bilinear transform
-        float w0 = 2 * M_PI * (lowFreq + highFreq) / 2 / sampleRate;
-        float bw = (highFreq - lowFreq) / (lowFreq + highFreq);
-        float q = 1 / (2 * sinh(log(2) / 2 * bw * w0 / sin(w0)));
-        float alpha = sin(w0) / (2 * q);
-
-        b0 = alpha;
-        b1 = 0;
-        b2 = -alpha;
-        a0 = 1 + alpha;
-        a1 = -2 * cos(w0);
-        a2 = 1 - alpha;
-
-        x1 = x2 = y1 = y2 = 0;
-    }
-
-    // Process a single input sample through the filter
-    float process(float input) {
-        float output = (b0 * input + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2) / a0;
-        x2 = x1;
-        x1 = input;
-        y2 = y1;
-        y1 = output;
-        return output;
+    bool isMonoInputActive() const {
+        return mProcessor.isMonoInputActive();
     }
 
-private:
-    float b0, b1, b2, a0, a1, a2; // Filter coefficients
-    float x1, x2, y1, y2; // State variables
-};
+    // Stream frames of delay the processing itself adds (resampling, the limiter look-ahead and the WOLA frame)
+    int getProcessingLatencyFrames() const {
+        return mProcessor.getProcessingLatencyFrames();
+    }
 
-// HearingAmpEngine class: core audio processing engine
-class HearingAmpEngine : public oboe::AudioStreamCallback {
-public:
-    HearingAmpEngine()
-            : mInputBuffer(BUFFER_SIZE_FRAMES * DEFAULT_CHANNEL_COUNT),
-              mOutputBuffer(BUFFER_SIZE_FRAMES * DEFAULT_CHANNEL_COUNT),
-              mAmplification(2.5f),
-              mFilters{
-                      BandpassFilter(DEFAULT_SAMPLE_RATE, 250, 750),
-                      BandpassFilter(DEFAULT_SAMPLE_RATE, 751, 1500),
-                      BandpassFilter(DEFAULT_SAMPLE_RATE, 1501, 3000),
-                      BandpassFilter(DEFAULT_SAMPLE_RATE, 3001, 8000)
-              } {
-        setupWDRC();
-        LOGD("HearingAmpEngine constructed with BUFFER_SIZE_FRAMES=%d, FRAMES_PER_CALLBACK=%d", BUFFER_SIZE_FRAMES, FRAMES_PER_CALLBACK);
+    // Start a round-trip latency measurement of the given number of repetitions; see LatencyMeter.
+    // Returns false if one is already running or the arguments are out of range.
+    bool startLatencyMeasurement(int32_t sampleRate, int repetitions) {
+        return mLatencyMeter.start(sampleRate, repetitions);
     }
 
-    // Callback function for processing audio data
-    oboe::DataCallbackResult onAudioReady(oboe::AudioStream *stream, void *audioData, int32_t numFrames) override {
-        // Check for errors
-        if (checkAndResetErrorFlag()) {
-            LOGE("Error detected, stopping audio processing");
-            return oboe::DataCallbackResult::Stop;
+    bool isLatencyMeasurementFinished() const {
+        return mLatencyMeter.isFinished();
+    }
+
+    // Analyse a finished measurement; the audio thread has already returned to normal processing
+    LatencyMeter::Result finishLatencyMeasurement() {
+        return mLatencyMeter.analyse();
+    }
+
+    // Pause processing: the streams keep running and output silence until startProcessing()
+    void stopProcessing() {
+        mIsProcessing.store(false, std::memory_order_release);
+    }
+
+    // Resume processing; the next callback of either stream processes audio again
+    void startProcessing() {
+        mIsProcessing.store(true, std::memory_order_release);
+    }
+
+    // Route input through the output callback instead of a separate input callback.
+    // The input stream must be opened without a callback; pass nullptr to return to two-callback mode.
+    // Uses the scratch buffer from prepareBuffers() to drain input backlog.
+    void setFullDuplexInput(oboe::AudioStream* inputStream) {
+        mFullDuplexInput = inputStream;
+        mDuplexDrainCallbacks = inputStream != nullptr ? kDuplexDrainCallbacks : 0;
+    }
+
+    bool isFullDuplex() const {
+        return mFullDuplexInput != nullptr;
+    }
+
+    // Hand the opened streams to the buffer size tuner, which applies the current size right away and
+    // retunes it from the telemetry thread. Pass nullptrs before closing the streams.
+    void attachStreams(oboe::AudioStream* input, oboe::AudioStream* output) {
+        std::lock_guard<std::mutex> lock(mStreamMutex);
+        mTunedInput = input;
+        mTunedOutput = output;
+        if (output == nullptr) {
+            return;
         }
+        mInputDisconnected.store(false, std::memory_order_relaxed);
+        mFramesPerBurst = std::max(output->getFramesPerBurst(), 1);
+        mTunedChannelCount = output->getChannelCount();
+        const int maxBursts = std::min(output->getBufferCapacityInFrames(), MAX_RING_FRAMES) / mFramesPerBurst - 1;
+        mBufferTuner = BufferSizeTuner(maxBursts, mBufferBursts.load(std::memory_order_relaxed));
+        mTuningWarmUp = true;
+        applyBufferSize();
+    }
 
-        if (!stream || !audioData) {
-            LOGE("Invalid stream or audioData in onAudioReady");
-            return oboe::DataCallbackResult::Stop;
+    // Output buffer size in bursts the tuner has settled on so far, for saving across runs
+    int getBufferBursts() const {
+        return mBufferBursts.load(std::memory_order_relaxed);
+    }
+
+    // Frames of processed or captured audio queued between the microphone and the output callback
+    int64_t getQueuedFrames(int32_t channelCount) const {
+        if (mFullDuplexInput != nullptr) {
+            auto available = mFullDuplexInput->getAvailableFrames();
+            return available ? available.value() : 0;
         }
+        return channelCount > 0 ? static_cast<int64_t>(mOutputBuffer.size() / channelCount) : 0;
+    }
 
-        float *data = static_cast<float*>(audioData);
-        int32_t channelCount = stream->getChannelCount();
-        size_t totalFrames = numFrames * channelCount;
+    // Fill the engine's slots of a kCounterCount snapshot; the stream XRun and latency slots are left
+    // to the caller. Safe to call from any thread while the streams run.
+    void getPerformanceCounters(int64_t* counters, int32_t channelCount) const {
+        counters[kCounterCallbacks] = static_cast<int64_t>(mCallbackStatistics.getCallbackCount());
+        counters[kCounterTotalCallbackNanos] = static_cast<int64_t>(mCallbackStatistics.getTotalNanos());
+        counters[kCounterWorstCallbackNanos] = static_cast<int64_t>(mCallbackStatistics.getWorstNanos());
+        counters[kCounterRingOverflows] = static_cast<int64_t>(mOutputBuffer.overflowCount());
+        counters[kCounterRingUnderflows] = static_cast<int64_t>(mOutputBuffer.underflowCount());
+        counters[kCounterDuplexUnderruns] = static_cast<int64_t>(mDuplexUnderruns.load(std::memory_order_relaxed));
+        counters[kCounterRingFillFrames] = getQueuedFrames(channelCount);
+        counters[kCounterRingCapacityFrames] = channelCount > 0
+                ? static_cast<int64_t>(mOutputBuffer.limit() / channelCount) : 0;
+        counters[kCounterDroppedTelemetry] = static_cast<int64_t>(
+                mInputTelemetry.droppedCount() + mOutputTelemetry.droppedCount());
+        counters[kCounterStreamRecoveries] = static_cast<int64_t>(mRecovery.getRecoveryCount());
+        counters[kCounterLastRestoreMicros] = mRecovery.getLastRestoreMicros();
+        for (int bucket = 0; bucket < CallbackStatistics::kHistogramBuckets; ++bucket) {
+            counters[kCounterHistogram + bucket] = static_cast<int64_t>(mCallbackStatistics.getBucketCount(bucket));
+        }
+    }
 
-        if (!mIsProcessing) {
-            LOGD("Processing stopped, returning Stop");
-            return oboe::DataCallbackResult::Stop;
+    // Log callback statistics gathered since the engine started; must not be called from the audio thread
+    void logStatistics() {
+        uint64_t callbacks = mCallbackStatistics.getCallbackCount();
+        if (callbacks > 0) {
+            double nanosPerCallback = static_cast<double>(mCallbackStatistics.getTotalNanos()) / callbacks;
+            LOGD("Processing cost: %.0f ns/callback (worst %llu), %.0f ns/band (%d bands)",
+                 nanosPerCallback, static_cast<unsigned long long>(mCallbackStatistics.getWorstNanos()),
+                 nanosPerCallback / mProcessor.getBandCount(), mProcessor.getBandCount());
         }
+        LOGD("Audio processing: Callbacks=%llu, MaxInput=%.4f, MaxOutput=%.4f, BufferFill=%zu/%zu, Overflows=%llu, Underflows=%llu, DuplexUnderruns=%llu",
+             static_cast<unsigned long long>(mProcessor.getBlocksProcessed()),
+             mProcessor.consumePeakInput(), mProcessor.consumePeakOutput(),
+             mOutputBuffer.size(), mOutputBuffer.limit(),
+             static_cast<unsigned long long>(mOutputBuffer.overflowCount()),
+             static_cast<unsigned long long>(mOutputBuffer.underflowCount()),
+             static_cast<unsigned long long>(mDuplexUnderruns.load(std::memory_order_relaxed)));
+    }
 
-        static int callbackCounter = 0;
-        static float maxInputSample = 0.0f;
-        static float maxOutputSample = 0.0f;
+private:
+    // Number of initial output callbacks that discard input backlog in full-duplex mode
+    static constexpr int kDuplexDrainCallbacks = 8;
 
-        if (stream->getDirection() == oboe::Direction::Input) {
-            // Process input audio
-            std::vector<float> processedBuffer(totalFrames, 0.0f);
-
-            for (int i = 0; i < numFrames; ++i) {
-                for (int channel = 0; channel < channelCount; ++channel) {
-                    size_t index = i * channelCount + channel;
-                    if (index >= totalFrames || index >= processedBuffer.size()) {
-                        LOGE("Buffer overflow in input processing: index=%zu, totalFrames=%zu, bufferSize=%zu",
-                             index, totalFrames, processedBuffer.size());
-                        return oboe::DataCallbackResult::Stop;
-                    }
-                    float sample = data[index];
-                    maxInputSample = std::max(maxInputSample, std::abs(sample));
-
-                    // Apply bandpass filters and WDRC
-                    float processedSample = 0.0f;
-                    for (int band = 0; band < NUM_BANDS; ++band) {
-                        float filteredSample = mFilters[band].process(sample);
-                        processedSample += applyWDRC(filteredSample, band, channel) / NUM_BANDS;
-                    }
-                    processedSample = std::clamp(processedSample * mAmplification, -1.0f, 1.0f);
-                    processedBuffer[index] = processedSample;
-                    maxOutputSample = std::max(maxOutputSample, std::abs(processedSample));
-                }
+    // Events each callback thread can record between two drains before dropping
+    static constexpr size_t kTelemetryCapacity = 256;
+
+    // How often the telemetry thread wakes, and its nice value (Android's background priority)
+    static constexpr std::chrono::milliseconds kTelemetryDrainInterval{250};
+    static constexpr int kTelemetryNiceValue = 10;
+
+    AudioProcessor mProcessor;
+    bool mInternalResampling;
+    AudioRingBuffer mOutputBuffer;
+    std::vector<float> mScratchBuffer;
+    std::vector<float> mInputConversion;    // Input callback's float copy of int16 samples
+    std::vector<float> mOutputConversion;   // Output callback's float samples before conversion to int16
+    std::mutex mParamMutex;
+    std::atomic<bool> mIsProcessing{true};
+
+    oboe::AudioStream* mFullDuplexInput = nullptr;
+    int mDuplexDrainCallbacks = 0;
+    std::atomic<uint64_t> mDuplexUnderruns{0};
+    CallbackStatistics mCallbackStatistics;
+    LatencyMeter mLatencyMeter;
+
+    TelemetryQueue mInputTelemetry;   // Pushed only by the input callback
+    TelemetryQueue mOutputTelemetry;  // Pushed only by the output callback
+    std::thread mTelemetryThread;
+    std::mutex mTelemetryMutex;       // Guards mTelemetryRunning; never touched by the audio threads
+    std::condition_variable mTelemetryWake;
+    bool mTelemetryRunning = true;
+
+    // Buffer size tuning, done on the telemetry thread; mStreamMutex guards the stream pointers against closing
+    std::mutex mStreamMutex;
+    oboe::AudioStream* mTunedInput = nullptr;
+    oboe::AudioStream* mTunedOutput = nullptr;
+    BufferSizeTuner mBufferTuner;
+    int32_t mFramesPerBurst = 1;
+    int32_t mTunedChannelCount = DEFAULT_CHANNEL_COUNT;
+    bool mTuningWarmUp = true;
+    uint64_t mLastGlitchCount = 0;
+    std::atomic<int> mBufferBursts;
+
+    // Set by the full-duplex reader, whose input stream has no error callback of its own
+    std::atomic<bool> mInputDisconnected{false};
+    uint64_t mReportedRecoveries = 0;
+    StreamRecovery mRecovery;  // Last, so its thread starts once everything it uses is constructed
+
+    static int64_t nowNanos() {
+        return std::chrono::duration_cast<std::chrono::nanoseconds>(
+                std::chrono::steady_clock::now().time_since_epoch()).count();
+    }
+
+    // Telemetry thread: at low priority, periodically log what the callbacks recorded until destruction
+    void drainTelemetry() {
+        // On Linux the nice value belongs to the calling thread, so this leaves the process alone
+        setpriority(PRIO_PROCESS, 0, kTelemetryNiceValue);
+        uint64_t reportedDrops = 0;
+        std::unique_lock<std::mutex> lock(mTelemetryMutex);
+        while (true) {
+            const bool running = !mTelemetryWake.wait_for(lock, kTelemetryDrainInterval,
+                                                          [this] { return !mTelemetryRunning; });
+            lock.unlock();
+            logTelemetry(mInputTelemetry, "input");
+            logTelemetry(mOutputTelemetry, "output");
+            tuneBufferSize();
+            checkRecovery();
+            const uint64_t drops = mInputTelemetry.droppedCount() + mOutputTelemetry.droppedCount();
+            if (drops != reportedDrops) {
+                LOGW("Telemetry queues full: %llu events dropped",
+                     static_cast<unsigned long long>(drops - reportedDrops));
+                reportedDrops = drops;
             }
+            if (!running) {
+                return;
+            }
+            lock.lock();
+        }
+    }
 
-            mOutputBuffer.write(processedBuffer.data(), processedBuffer.size());
+    // The body of onAudioReady for streams of the given sample format. The DSP works on floats, so
+    // int16 samples are converted at the edges through the conversion buffer of the callback's thread;
+    // float samples are processed in place as they are.
+    template <typename Sample>
+    oboe::DataCallbackResult processAudio(oboe::AudioStream* stream, Sample* data, int32_t numFrames) {
+        using Format = SampleFormat<Sample>;
+        int32_t channelCount = stream->getChannelCount();
 
-            // Log processing statistics periodically
-            if (++callbackCounter % 100 == 0) {
-                LOGD("Audio processing: MaxInput=%.4f, MaxOutput=%.4f, Frames=%d, BufferSize=%zu",
-                     maxInputSample, maxOutputSample, numFrames, mOutputBuffer.size());
-                maxInputSample = 0.0f;
-                maxOutputSample = 0.0f;
+        if (!mIsProcessing.load(std::memory_order_acquire)) {
+            outputStandbySilence(stream, data, numFrames, channelCount);
+            return oboe::DataCallbackResult::Continue;
+        }
+
+        // Each callback thread is the only producer of its own queue
+        const bool isInput = stream->getDirection() == oboe::Direction::Input;
+        TelemetryQueue& telemetry = isInput ? mInputTelemetry : mOutputTelemetry;
+
+        // While a latency measurement runs the probe replaces the processed audio
+        const bool measuring = mLatencyMeter.isMeasuring();
+
+        const int64_t processingStart = nowNanos();
+        const int32_t maxFrames = mProcessor.getMaxFramesPerCallback();
+        if (isInput) {
+            // Process input audio in scratch-sized chunks and hand it to the output callback
+            int32_t droppedFrames = 0;
+            for (int32_t offset = 0; offset < numFrames; offset += maxFrames) {
+                int32_t frames = std::min(maxFrames, numFrames - offset);
+                const float* input = Format::toFloat(data + offset * channelCount, mInputConversion.data(),
+                                                     frames * channelCount);
+                if (measuring) {
+                    mLatencyMeter.process(input, mScratchBuffer.data(), frames, channelCount);
+                } else {
+                    mProcessor.process(input, mScratchBuffer.data(), frames, channelCount);
+                }
+                size_t written = mOutputBuffer.write(mScratchBuffer.data(), frames * channelCount);
+                droppedFrames += frames - static_cast<int32_t>(written / channelCount);
             }
-        } else if (stream->getDirection() == oboe::Direction::Output) {
-            // Handle output audio
-            size_t framesRead = mOutputBuffer.read(data, totalFrames);
-            if (framesRead < totalFrames) {
-                std::fill(data + framesRead, data + totalFrames, 0.0f);
-                LOGW("Buffer underrun: read %zu frames, expected %zu", framesRead, totalFrames);
+            if (droppedFrames > 0) {
+                telemetry.push({TelemetryEventType::RingOverflow, droppedFrames, processingStart, 0});
+            }
+        } else if (mFullDuplexInput != nullptr) {
+            // Full-duplex: pull exactly numFrames from the input stream and process them in place
+            readFullDuplexInput(data, numFrames, channelCount, processingStart);
+            for (int32_t offset = 0; offset < numFrames; offset += maxFrames) {
+                const int32_t frames = std::min(maxFrames, numFrames - offset);
+                Sample* samples = data + offset * channelCount;
+                float* work = Format::workBuffer(samples, mOutputConversion.data());
+                const float* input = Format::toFloat(samples, work, frames * channelCount);
+                if (measuring) {
+                    mLatencyMeter.process(input, work, frames, channelCount);
+                } else {
+                    mProcessor.process(input, work, frames, channelCount);
+                }
+                Format::fromFloat(work, samples, frames * channelCount);
             }
         } else {
-            LOGE("Unknown stream direction");
-            return oboe::DataCallbackResult::Stop;
+            // Output half of the two-callback mode: nothing to process, so nothing to time.
+            // A callback never exceeds the buffer capacity the conversion buffer was sized for.
+            size_t totalSamples = numFrames * channelCount;
+            float* work = Format::workBuffer(data, mOutputConversion.data());
+            size_t samplesRead = mOutputBuffer.read(work, totalSamples);
+            if (samplesRead < totalSamples) {
+                std::fill(work + samplesRead, work + totalSamples, 0.0f);
+                telemetry.push({TelemetryEventType::RingUnderflow,
+                                static_cast<int32_t>((totalSamples - samplesRead) / channelCount), processingStart, 0});
+            }
+            Format::fromFloat(work, data, totalSamples);
+            return oboe::DataCallbackResult::Continue;
+        }
+
+        const int64_t processingNanos = nowNanos() - processingStart;
+        mCallbackStatistics.record(processingNanos);
+
+        // Processing that outlasts the audio it produced will eventually glitch
+        const int32_t sampleRate = stream->getSampleRate();
+        if (sampleRate > 0 && processingNanos * sampleRate > static_cast<int64_t>(numFrames) * 1000000000LL) {
+            telemetry.push({TelemetryEventType::DeadlineMiss, numFrames, processingStart, processingNanos});
         }
 
         return oboe::DataCallbackResult::Continue;
     }
 
-    // Update WDRC parameters for both ears
-    void updateParams(const std::array<WDRCParams, NUM_BANDS>& leftParams, const std::array<WDRCParams, NUM_BANDS>& rightParams) {
-        std::lock_guard<std::mutex> lock(mParamMutex);
-        mWDRCParams[0] = leftParams;
-        mWDRCParams[1] = rightParams;
-        LOGD("WDRC parameters updated for both ears");
+    // Standby while paused: discard the input so that resuming starts from fresh audio, and play silence.
+    // In two-callback mode the output callback empties the ring buffer, so no stale audio is left in it.
+    template <typename Sample>
+    void outputStandbySilence(oboe::AudioStream* stream, Sample* data, int32_t numFrames, int32_t channelCount) {
+        if (stream->getDirection() == oboe::Direction::Input) {
+            return;
+        }
+        if (mFullDuplexInput != nullptr) {
+            drainFullDuplexInput();
+        } else {
+            mOutputBuffer.discard();
+        }
+        SampleFormat<Sample>::fill(data, static_cast<size_t>(numFrames) * channelCount);
     }
 
-    // Stop audio processing
-    void stopProcessing() {
-        std::lock_guard<std::mutex> lock(mProcessingMutex);
-        mIsProcessing = false;
+    // Request recovery for a full-duplex input disconnect and report recoveries that completed
+    void checkRecovery() {
+        if (mInputDisconnected.exchange(false, std::memory_order_relaxed)) {
+            LOGW("Full-duplex input stream disconnected, reopening");
+            mRecovery.requestRecovery();
+        }
+        const uint64_t recoveries = mRecovery.getRecoveryCount();
+        if (recoveries != mReportedRecoveries) {
+            mReportedRecoveries = recoveries;
+            LOGI("Streams recovered; sound restored %.1f ms after the disconnect",
+                 mRecovery.getLastRestoreMicros() / 1000.0);
+        }
     }
 
-    // Start audio processing
-    void startProcessing() {
-        std::lock_guard<std::mutex> lock(mProcessingMutex);
-        mIsProcessing = true;
+    // RecoverableStreams: replace the streams on the recovery thread, keeping this engine
+    bool reopenStreams() override {
+        // Deleting the engine stops recovery while holding gEngineMutex, so never block on it here
+        std::unique_lock<std::mutex> lock(gEngineMutex, std::defer_lock);
+        while (!lock.try_lock()) {
+            if (mRecovery.isStopping()) {
+                return false;
+            }
+            std::this_thread::sleep_for(std::chrono::milliseconds(5));
+        }
+        if (engine != this) {
+            return false;
+        }
+        closeStreams();
+        oboe::Result result = openStreamsWithFallback(gRequestedFullDuplex);
+        if (result != oboe::Result::OK) {
+            LOGW("Reopening streams failed: %s", oboe::convertToText(result));
+            return false;
+        }
+        return true;
     }
 
-private:
-    AudioRingBuffer mInputBuffer;
-    AudioRingBuffer mOutputBuffer;
-    float mAmplification;
-    std::array<BandpassFilter, NUM_BANDS> mFilters;
-    std::array<std::array<WDRCParams, NUM_BANDS>, 2> mWDRCParams;  // [0] for left, [1] for right
-    std::mutex mParamMutex;
-    std::array<std::array<float, NUM_BANDS>, 2> mEnvelopes;  // [0] for left, [1] for right
-    std::atomic<bool> mIsProcessing{true};
-    std::mutex mProcessingMutex;
-
-    // Initialize WDRC parameters
-    void setupWDRC() {
-        for (int ear = 0; ear < 2; ++ear) {
-            for (int i = 0; i < NUM_BANDS; ++i) {
-                mWDRCParams[ear][i] = {-40.0f + i * 5.0f, 3.0f + i * 0.5f, 0.01f, 0.1f, 10.0f};
-                mEnvelopes[ear][i] = 0.0f;
+    // Glitches of any kind so far: XRuns reported by the streams and the engine's own under- and overflows
+    uint64_t countGlitches() const {
+        uint64_t glitches = mOutputBuffer.overflowCount() + mOutputBuffer.underflowCount()
+                + mDuplexUnderruns.load(std::memory_order_relaxed);
+        for (oboe::AudioStream* stream : {mTunedInput, mTunedOutput}) {
+            auto xRuns = stream->getXRunCount();
+            if (xRuns) {
+                glitches += static_cast<uint64_t>(xRuns.value());
             }
         }
+        return glitches;
     }
 
-    // Apply Wide Dynamic Range Compression (WDRC) to a sample
-    float applyWDRC(float input, int band, int channel) {
-        if (band < 0 || band >= NUM_BANDS || channel < 0 || channel >= 2) {
-            LOGE("Invalid band or channel in applyWDRC: band=%d, channel=%d", band, channel);
-            setErrorFlag();
-            return input;
+    // Feed the glitches since the previous interval to the tuner and apply any new size
+    void tuneBufferSize() {
+        std::lock_guard<std::mutex> lock(mStreamMutex);
+        if (mTunedOutput == nullptr) {
+            return;
         }
+        // Streams glitch while they start, so the first interval only sets the baseline
+        const uint64_t glitches = countGlitches();
+        if (mTuningWarmUp) {
+            mTuningWarmUp = false;
+            mLastGlitchCount = glitches;
+            return;
+        }
+        const int previousBursts = mBufferTuner.getBursts();
+        const int bursts = mBufferTuner.update(glitches - mLastGlitchCount);
+        mLastGlitchCount = glitches;
+        if (bursts != previousBursts) {
+            applyBufferSize();
+            LOGI("Output buffer %s to %d bursts (%d frames)", bursts > previousBursts ? "raised" : "lowered",
+                 bursts, bursts * mFramesPerBurst);
+        }
+    }
 
-        float& envelope = mEnvelopes[channel][band];
-        const WDRCParams& params = mWDRCParams[channel][band];
-
-        // Calculate attack and release coefficients
-        float alphaAttack = std::exp(-1.0f / (DEFAULT_SAMPLE_RATE * params.attack_time));
-        float alphaRelease = std::exp(-1.0f / (DEFAULT_SAMPLE_RATE * params.release_time));
-
-        // Envelope detection
-        float inputLevel = std::abs(input);
-        float alpha = inputLevel > envelope ? alphaAttack : alphaRelease;
-        envelope = alpha * envelope + (1.0f - alpha) * inputLevel;
+    // Size the output stream buffer to the tuner's choice and let the ring hold one burst more
+    void applyBufferSize() {
+        const int bursts = mBufferTuner.getBursts();
+        mTunedOutput->setBufferSizeInFrames(bursts * mFramesPerBurst);
+        mOutputBuffer.setLimit(static_cast<size_t>((bursts + 1) * mFramesPerBurst * mTunedChannelCount));
+        mBufferBursts.store(bursts, std::memory_order_relaxed);
+    }
 
-        // Apply compression
-        float gainLinear = std::pow(10.0f, params.gain / 20.0f);
-        float thresholdLinear = std::pow(10.0f, params.threshold / 20.0f);
-        float compressionGain = 1.0f;
+    // Log the events in one queue, one line per event type so a burst of underruns stays readable
+    static void logTelemetry(TelemetryQueue& queue, const char* callback) {
+        constexpr int kTypeCount = static_cast<int>(TelemetryEventType::Count);
+        std::array<TelemetryEvent, kTypeCount> worst{};
+        std::array<int, kTypeCount> counts{};
+        std::array<int64_t, kTypeCount> totalFrames{};
+        std::array<int64_t, kTypeCount> firstNanos{};
+        TelemetryEvent event;
+        while (queue.pop(event)) {
+            const int type = static_cast<int>(event.type);
+            const bool worse = event.type == TelemetryEventType::DeadlineMiss
+                    ? event.value > worst[type].value : event.frames > worst[type].frames;
+            if (counts[type] == 0) {
+                firstNanos[type] = event.timestampNanos;
+            }
+            if (counts[type] == 0 || worse) {
+                worst[type] = event;
+            }
+            ++counts[type];
+            totalFrames[type] += event.frames;
+        }
 
-        if (envelope > thresholdLinear) {
-            compressionGain = std::pow(envelope / thresholdLinear, 1.0f / params.ratio - 1.0f);
+        static constexpr const char* kNames[kTypeCount] = {
+                "Ring buffer overflow", "Ring buffer underflow", "Full-duplex underrun", "Missed deadline"};
+        const int64_t now = nowNanos();
+        for (int type = 0; type < kTypeCount; ++type) {
+            if (counts[type] == 0) {
+                continue;
+            }
+            const double firstMillisAgo = (now - firstNanos[type]) / 1e6;
+            if (static_cast<TelemetryEventType>(type) == TelemetryEventType::DeadlineMiss) {
+                LOGW("%s x%d in %s callback since %.0f ms ago (worst %.0f us for %d frames)", kNames[type],
+                     counts[type], callback, firstMillisAgo, worst[type].value / 1000.0, worst[type].frames);
+            } else {
+                LOGW("%s x%d in %s callback since %.0f ms ago (%lld frames in total, worst %d)", kNames[type],
+                     counts[type], callback, firstMillisAgo, static_cast<long long>(totalFrames[type]),
+                     worst[type].frames);
+            }
         }
+    }
 
-        float output = input * gainLinear * compressionGain;
+    // Read and drop everything the full-duplex input has buffered, through the scratch buffer
+    void drainFullDuplexInput() {
+        int32_t scratchFrames = mProcessor.getMaxFramesPerCallback();
+        oboe::ResultWithValue<int32_t> drained(0);
+        do {
+            drained = mFullDuplexInput->read(mScratchBuffer.data(), scratchFrames, 0);
+        } while (drained && drained.value() == scratchFrames);
+        if (!drained && drained.error() == oboe::Result::ErrorDisconnected) {
+            mInputDisconnected.store(true, std::memory_order_relaxed);
+        }
+    }
 
-        // Log significant changes in compression gain
-        static float lastCompressionGain[NUM_BANDS][2] = {{1.0f}};
-        if (std::abs(compressionGain - lastCompressionGain[band][channel]) > 0.1f) {
-            LOGD("WDRC: Band=%d, Channel=%d, Threshold=%.2f, Ratio=%.2f, Gain=%.2f, CompGain=%.2f",
-                 band, channel, params.threshold, params.ratio, params.gain, compressionGain);
-            lastCompressionGain[band][channel] = compressionGain;
+    // Non-blocking read of exactly numFrames from the full-duplex input; missing frames become silence
+    template <typename Sample>
+    void readFullDuplexInput(Sample* data, int32_t numFrames, int32_t channelCount, int64_t timestampNanos) {
+        // Drop whatever piled up in the input before the output started so latency starts minimal
+        if (mDuplexDrainCallbacks > 0) {
+            --mDuplexDrainCallbacks;
+            drainFullDuplexInput();
         }
 
-        return output;
+        int32_t framesRead = 0;
+        auto result = mFullDuplexInput->read(data, numFrames, 0);
+        if (result) {
+            framesRead = result.value();
+        } else if (result.error() == oboe::Result::ErrorDisconnected) {
+            mInputDisconnected.store(true, std::memory_order_relaxed);
+        }
+        if (framesRead < numFrames) {
+            SampleFormat<Sample>::fill(data + framesRead * channelCount, static_cast<size_t>(numFrames - framesRead) * channelCount);
+            mDuplexUnderruns.fetch_add(1, std::memory_order_relaxed);
+            mOutputTelemetry.push({TelemetryEventType::DuplexUnderrun, numFrames - framesRead, timestampNanos, 0});
+        }
     }
 };
 
-// Global engine and stream pointers
-static HearingAmpEngine *engine = nullptr;
-static std::shared_ptr<oboe::AudioStream> inputStream;
-static std::shared_ptr<oboe::AudioStream> outputStream;
-
-// JNI function to start audio processing
-extern "C" JNIEXPORT jint JNICALL
-Java_com_auditapp_hearingamp_AudioProcessingService_nativeStartAudioProcessing(JNIEnv *env, jobject /* this */) {
-    LOGD("Starting audio processing");
+// Mic-to-speaker latency and its parts, in milliseconds
+struct LatencyEstimate {
+    double input;
+    double output;
+    double queued;
+    double processing;
+    double total;
+};
 
-    // Check if engine already exists and stop it if necessary
-    if (engine != nullptr) {
-        LOGW("Engine already exists, stopping previous instance");
-        engine->stopProcessing();
-        delete engine;
+// Estimate the current latency from the stream timestamps; fails until both streams report one
+static oboe::Result estimateLatency(LatencyEstimate& estimate) {
+    auto inputLatency = inputStream->calculateLatencyMillis();
+    if (!inputLatency) {
+        return inputLatency.error();
+    }
+    auto outputLatency = outputStream->calculateLatencyMillis();
+    if (!outputLatency) {
+        return outputLatency.error();
     }
 
-    // Create a new HearingAmpEngine instance
-    try {
-        engine = new HearingAmpEngine();
-    } catch (const std::exception& e) {
-        LOGE("Failed to create HearingAmpEngine: %s", e.what());
-        return -1;
+    // Audio waiting between the two streams and inside the WOLA frame adds to the hardware latencies
+    int32_t sampleRate = outputStream->getSampleRate();
+    int64_t queuedFrames = engine->getQueuedFrames(outputStream->getChannelCount());
+    estimate.input = inputLatency.value();
+    estimate.output = outputLatency.value();
+    estimate.queued = sampleRate > 0 ? queuedFrames * 1000.0 / sampleRate : 0.0;
+    estimate.processing = sampleRate > 0 ? engine->getProcessingLatencyFrames() * 1000.0 / sampleRate : 0.0;
+    estimate.total = estimate.input + estimate.output + estimate.queued + estimate.processing;
+    return oboe::Result::OK;
+}
+
+// Close and release both streams, output first, tolerating streams that were never opened
+static void closeStreams() {
+    if (engine) {
+        engine->attachStreams(nullptr, nullptr);
+    }
+    if (outputStream) {
+        outputStream->requestStop();
+        outputStream->close();
+        outputStream.reset();
     }
+    if (inputStream) {
+        inputStream->requestStop();
+        inputStream->close();
+        inputStream.reset();
+    }
+}
 
+// Open and start the input and output streams.
+// In full-duplex mode the input stream has no callback and is read from the output callback;
+// otherwise both streams share the engine callback and exchange audio through the ring buffer.
+// With nativeFormat the input takes the device's own sample format if the engine can convert it (int16
+// or float), so the framework does not convert; the output then asks for the same format.
+static oboe::Result openAndStartStreams(bool fullDuplex, bool nativeFormat) {
     oboe::AudioStreamBuilder builder;
 
     // Set up input stream
     builder.setDirection(oboe::Direction::Input)
             ->setPerformanceMode(oboe::PerformanceMode::LowLatency)
             ->setSharingMode(oboe::SharingMode::Exclusive)
-            ->setFormat(oboe::AudioFormat::Float)
+            ->setFormat(nativeFormat ? oboe::AudioFormat::Unspecified : oboe::AudioFormat::Float)
             ->setChannelCount(DEFAULT_CHANNEL_COUNT)
             ->setSampleRate(DEFAULT_SAMPLE_RATE)
             ->setFramesPerCallback(FRAMES_PER_CALLBACK)
-            ->setCallback(engine);
+            ->setCallback(fullDuplex ? nullptr : engine);
 
     // Open input stream
     oboe::Result result = builder.openStream(inputStream);
+    if (result == oboe::Result::OK && inputStream->getFormat() != oboe::AudioFormat::I16 &&
+        inputStream->getFormat() != oboe::AudioFormat::Float) {
+        LOGI("Native input format %s not supported by the engine, reopening as float",
+             oboe::convertToText(inputStream->getFormat()));
+        inputStream->close();
+        inputStream.reset();
+        builder.setFormat(oboe::AudioFormat::Float);
+        result = builder.openStream(inputStream);
+    }
     if (result != oboe::Result::OK) {
         LOGE("Failed to open input stream. Error: %s", oboe::convertToText(result));
-        delete engine;
-        engine = nullptr;
-        return -1;
+        return result;
     }
 
     int actualSampleRate = inputStream->getSampleRate();
     int actualChannelCount = inputStream->getChannelCount();
+    oboe::AudioFormat actualFormat = inputStream->getFormat();
 
-    LOGI("Input stream opened with sample rate: %d, channels: %d", actualSampleRate, actualChannelCount);
+    LOGI("Input stream opened with sample rate: %d, channels: %d, format: %s", actualSampleRate, actualChannelCount,
+         oboe::convertToText(actualFormat));
 
     // Set up output stream with matching configuration
     builder.setDirection(oboe::Direction::Output)
             ->setPerformanceMode(oboe::PerformanceMode::LowLatency)
+            ->setFormat(actualFormat)
             ->setSampleRate(actualSampleRate)
-            ->setChannelCount(actualChannelCount);
+            ->setChannelCount(actualChannelCount)
+            ->setCallback(engine);
 
     // Open output stream
     result = builder.openStream(outputStream);
     if (result != oboe::Result::OK) {
         LOGE("Failed to open output stream. Error: %s", oboe::convertToText(result));
-        inputStream->close();
-        delete engine;
-        engine = nullptr;
-        return -1;
+        closeStreams();
+        return result;
+    }
+
+    LOGI("Output stream opened with sample rate: %d, channels: %d, format: %s", outputStream->getSampleRate(),
+         outputStream->getChannelCount(), oboe::convertToText(outputStream->getFormat()));
+    if (outputStream->getFormat() != actualFormat) {
+        LOGE("Output stream format %s differs from the input's %s", oboe::convertToText(outputStream->getFormat()),
+             oboe::convertToText(actualFormat));
+        closeStreams();
+        return oboe::Result::ErrorInvalidFormat;
     }
 
-    LOGI("Output stream opened with sample rate: %d, channels: %d", outputStream->getSampleRate(), outputStream->getChannelCount());
+    // Size scratch buffers for the largest burst either stream can deliver
+    int32_t maxFrames = std::max(outputStream->getBufferCapacityInFrames(), inputStream->getBufferCapacityInFrames());
+    engine->prepareBuffers(std::max(maxFrames, FRAMES_PER_CALLBACK), actualChannelCount, actualSampleRate,
+                           actualFormat != oboe::AudioFormat::Float);
+    engine->setFullDuplexInput(fullDuplex ? inputStream.get() : nullptr);
+    engine->attachStreams(inputStream.get(), outputStream.get());
 
-    // Start both streams
+    // Start both streams, input first so the full-duplex reader finds data waiting
     result = inputStream->requestStart();
     if (result != oboe::Result::OK) {
         LOGE("Failed to start input stream. Error: %s", oboe::convertToText(result));
-        inputStream->close();
-        outputStream->close();
-        delete engine;
-        engine = nullptr;
-        return -1;
+        engine->setFullDuplexInput(nullptr);
+        closeStreams();
+        return result;
     }
 
     result = outputStream->requestStart();
     if (result != oboe::Result::OK) {
         LOGE("Failed to start output stream. Error: %s", oboe::convertToText(result));
-        inputStream->requestStop();
-        inputStream->close();
-        outputStream->close();
+        engine->setFullDuplexInput(nullptr);
+        closeStreams();
+        return result;
+    }
+
+    return oboe::Result::OK;
+}
+
+// Open and start the streams in the requested mode, falling back to two callbacks if full duplex fails.
+// Used at start and again by stream recovery.
+static oboe::Result openStreamsWithFallback(bool fullDuplex) {
+    oboe::Result result = openAndStartStreams(fullDuplex, gRequestedNativeFormat);
+    if (result != oboe::Result::OK && fullDuplex) {
+        LOGW("Full-duplex mode unavailable, falling back to separate input and output callbacks");
+        result = openAndStartStreams(false, gRequestedNativeFormat);
+    }
+    if (result != oboe::Result::OK && gRequestedNativeFormat) {
+        LOGW("Streams in the native format unavailable, falling back to float");
+        result = openAndStartStreams(false, false);
+    }
+    return result;
+}
+
+// JNI function to start audio processing
+extern "C" JNIEXPORT jint JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeStartAudioProcessing(JNIEnv *env, jobject /* this */,
+                                                                               jboolean fullDuplex,
+                                                                               jint filterBankType,
+                                                                               jint wolaFftSize,
+                                                                               jboolean internalResampling,
+                                                                               jfloatArray bandBoundaries,
+                                                                               jintArray controlIntervals,
+                                                                               jint initialBufferBursts,
+                                                                               jboolean nativeFormat,
+                                                                               jfloat limiterLookAheadMillis,
+                                                                               jfloat feedbackDelayMillis,
+                                                                               jfloat feedbackPathMillis) {
+    LOGD("Starting audio processing (fullDuplex=%d, filterBankType=%d, wolaFftSize=%d, internalResampling=%d, initialBufferBursts=%d, nativeFormat=%d, limiterLookAheadMillis=%.2f, feedbackDelayMillis=%.2f, feedbackPathMillis=%.2f)",
+         fullDuplex, filterBankType, wolaFftSize, internalResampling, initialBufferBursts, nativeFormat, limiterLookAheadMillis,
+         feedbackDelayMillis, feedbackPathMillis);
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+
+    if (!isValidFilterBankType(filterBankType)) {
+        LOGE("Unknown filter bank type %d", filterBankType);
+        return -1;
+    }
+    if (!isValidWolaFftSize(wolaFftSize)) {
+        LOGE("WOLA FFT size %d is not a power of two from %d to %d", wolaFftSize, MIN_WOLA_FFT_SIZE, MAX_WOLA_FFT_SIZE);
+        return -1;
+    }
+    if (!(limiterLookAheadMillis >= 0.0f)) {
+        LOGE("Limiter look-ahead %.2f ms is negative", limiterLookAheadMillis);
+        return -1;
+    }
+    if (!(feedbackDelayMillis >= 0.0f) || !(feedbackPathMillis > 0.0f)) {
+        LOGE("Invalid feedback path: %.2f ms delay, %.2f ms long", feedbackDelayMillis, feedbackPathMillis);
+        return -1;
+    }
+
+    // Band layout: null for the default bands, otherwise bandCount + 1 ascending boundaries in Hz
+    BandEdges edges[MAX_BANDS];
+    int bandCount = DEFAULT_NUM_BANDS;
+    std::copy(DEFAULT_BAND_EDGES.begin(), DEFAULT_BAND_EDGES.end(), edges);
+    if (bandBoundaries != nullptr) {
+        bandCount = env->GetArrayLength(bandBoundaries) - 1;
+        if (bandCount < MIN_BANDS || bandCount > MAX_BANDS) {
+            LOGE("Band count %d outside %d-%d", bandCount, MIN_BANDS, MAX_BANDS);
+            return -1;
+        }
+        jfloat boundaries[MAX_BANDS + 1];
+        env->GetFloatArrayRegion(bandBoundaries, 0, bandCount + 1, boundaries);
+        for (int band = 0; band < bandCount; ++band) {
+            edges[band] = {boundaries[band], boundaries[band + 1]};
+        }
+    }
+    if (!isValidBandLayout(edges, bandCount, DEFAULT_SAMPLE_RATE)) {
+        LOGE("Invalid band layout with %d bands", bandCount);
+        return -1;
+    }
+
+    // WDRC control interval per band: null for every sample, otherwise one entry per band
+    jint intervals[MAX_BANDS];
+    std::fill(intervals, intervals + MAX_BANDS, 1);
+    if (controlIntervals != nullptr) {
+        if (env->GetArrayLength(controlIntervals) != bandCount) {
+            LOGE("Expected %d control intervals, got %d", bandCount, env->GetArrayLength(controlIntervals));
+            return -1;
+        }
+        env->GetIntArrayRegion(controlIntervals, 0, bandCount, intervals);
+        for (int band = 0; band < bandCount; ++band) {
+            if (intervals[band] < 1 || intervals[band] > MAX_CONTROL_INTERVAL) {
+                LOGE("Control interval %d of band %d outside 1-%d", intervals[band], band, MAX_CONTROL_INTERVAL);
+                return -1;
+            }
+        }
+    }
+
+    // Check if engine already exists and stop it if necessary
+    if (engine != nullptr) {
+        LOGW("Engine already exists, stopping previous instance");
+        engine->stopProcessing();
+        closeStreams();
+        delete engine;
+    }
+
+    // Create a new HearingAmpEngine instance
+    try {
+        engine = new HearingAmpEngine(edges, bandCount, static_cast<FilterBankType>(filterBankType), wolaFftSize,
+                                      internalResampling, initialBufferBursts);
+        engine->setControlIntervals(intervals, bandCount);
+        engine->setLimiterLookAhead(limiterLookAheadMillis / 1000.0f);
+        engine->setFeedbackPath(feedbackDelayMillis / 1000.0f, feedbackPathMillis / 1000.0f);
+    } catch (const std::exception& e) {
+        LOGE("Failed to create HearingAmpEngine: %s", e.what());
+        return -1;
+    }
+
+    gRequestedFullDuplex = fullDuplex;
+    gRequestedNativeFormat = nativeFormat;
+    oboe::Result result = openStreamsWithFallback(fullDuplex);
+    if (result != oboe::Result::OK) {
         delete engine;
         engine = nullptr;
         return -1;
@@ -440,16 +993,225 @@ Java_com_auditapp_hearingamp_AudioProcessingService_nativeStartAudioProcessing(J
 
     engine->startProcessing();
 
-    LOGD("Audio processing started successfully");
+    LOGD("Audio processing started successfully in %s mode with %s samples",
+         engine->isFullDuplex() ? "full-duplex" : "two-callback", oboe::convertToText(outputStream->getFormat()));
     return 0;
 }
 
+// JNI function to report the current mic-to-speaker latency in milliseconds, or -1 if unknown
+extern "C" JNIEXPORT jdouble JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeGetLatencyMillis(JNIEnv *env, jobject /* this */) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    if (engine == nullptr || !inputStream || !outputStream) {
+        return -1.0;
+    }
+
+    LatencyEstimate latency;
+    oboe::Result result = estimateLatency(latency);
+    if (result != oboe::Result::OK) {
+        LOGW("Latency not available yet: %s", oboe::convertToText(result));
+        return -1.0;
+    }
+
+    LOGI("Mic-to-speaker latency (%s): %.2f ms (input=%.2f, output=%.2f, queued=%.2f, processing=%.2f)",
+         engine->isFullDuplex() ? "full-duplex" : "two-callback",
+         latency.total, latency.input, latency.output, latency.queued, latency.processing);
+    return latency.total;
+}
+
+// JNI function to copy a snapshot of the engine's performance counters into a caller-provided array of at
+// least kCounterCount longs (see PerformanceCounter). Allocates nothing and logs nothing, so it can be polled.
+// Returns false if the engine is not running or the array is too short.
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeGetPerformanceCounters(JNIEnv *env, jobject /* this */,
+                                                                                 jlongArray counters) {
+    if (counters == nullptr || env->GetArrayLength(counters) < kCounterCount) {
+        return JNI_FALSE;
+    }
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    if (engine == nullptr || !inputStream || !outputStream) {
+        return JNI_FALSE;
+    }
+
+    jlong snapshot[kCounterCount];
+    engine->getPerformanceCounters(snapshot, outputStream->getChannelCount());
+    auto inputXRuns = inputStream->getXRunCount();
+    auto outputXRuns = outputStream->getXRunCount();
+    snapshot[kCounterInputXRuns] = inputXRuns ? inputXRuns.value() : -1;
+    snapshot[kCounterOutputXRuns] = outputXRuns ? outputXRuns.value() : -1;
+    LatencyEstimate latency;
+    snapshot[kCounterLatencyMicros] = estimateLatency(latency) == oboe::Result::OK
+            ? static_cast<int64_t>(latency.total * 1000.0) : -1;
+    env->SetLongArrayRegion(counters, 0, kCounterCount, snapshot);
+    return JNI_TRUE;
+}
+
+// JNI function to measure the round-trip latency with repetitions MLS probes, which replace the amplified output
+// for about half a second each. Blocks until the measurement is analysed, so call it off the main thread.
+// On success fills result with {repetitions, validRepetitions, meanMillis, minMillis, maxMillis, jitterMillis,
+// processingMillis}, where processingMillis is the DSP latency that the probe bypasses.
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeMeasureRoundTripLatency(JNIEnv *env, jobject /* this */,
+                                                                                  jint repetitions,
+                                                                                  jdoubleArray result) {
+    constexpr int kResultCount = 7;
+    if (result == nullptr || env->GetArrayLength(result) < kResultCount) {
+        return JNI_FALSE;
+    }
+
+    HearingAmpEngine* measuredEngine;
+    int32_t sampleRate;
+    {
+        std::lock_guard<std::mutex> lock(gEngineMutex);
+        if (engine == nullptr || !inputStream || !outputStream) {
+            return JNI_FALSE;
+        }
+        sampleRate = outputStream->getSampleRate();
+        if (!engine->startLatencyMeasurement(sampleRate, repetitions)) {
+            LOGE("Cannot start a latency measurement of %d repetitions", repetitions);
+            return JNI_FALSE;
+        }
+        measuredEngine = engine;
+    }
+    LOGD("Measuring round-trip latency over %d repetitions", repetitions);
+
+    // Poll without holding the lock so the streams can still be stopped; give up if they are
+    const auto timeout = std::chrono::steady_clock::now()
+            + std::chrono::milliseconds(static_cast<int64_t>(repetitions * LatencyMeter::kPeriodSeconds * 1000) + 2000);
+    while (true) {
+        std::this_thread::sleep_for(std::chrono::milliseconds(50));
+        std::lock_guard<std::mutex> lock(gEngineMutex);
+        if (engine != measuredEngine) {
+            LOGW("Engine stopped during the latency measurement");
+            return JNI_FALSE;
+        }
+        if (engine->isLatencyMeasurementFinished()) {
+            break;
+        }
+        if (std::chrono::steady_clock::now() > timeout) {
+            LOGE("Latency measurement timed out; are the streams running?");
+            return JNI_FALSE;
+        }
+    }
+
+    LatencyMeter::Result measurement;
+    double processingMillis;
+    {
+        std::lock_guard<std::mutex> lock(gEngineMutex);
+        if (engine != measuredEngine) {
+            return JNI_FALSE;
+        }
+        measurement = engine->finishLatencyMeasurement();
+        processingMillis = engine->getProcessingLatencyFrames() * 1000.0 / sampleRate;
+    }
+    LOGI("Round-trip latency: %.2f ms (min %.2f, max %.2f, jitter %.2f) from %d of %d repetitions, plus %.2f ms processing",
+         measurement.meanMillis, measurement.minMillis, measurement.maxMillis, measurement.jitterMillis,
+         measurement.validRepetitions, measurement.repetitions, processingMillis);
+
+    const jdouble values[kResultCount] = {
+            static_cast<jdouble>(measurement.repetitions), static_cast<jdouble>(measurement.validRepetitions),
+            measurement.meanMillis, measurement.minMillis, measurement.maxMillis, measurement.jitterMillis,
+            processingMillis};
+    env->SetDoubleArrayRegion(result, 0, kResultCount, values);
+    return JNI_TRUE;
+}
+
+// JNI function to report the sample format the streams negotiated as an oboe::AudioFormat value, or 0 if not running
+extern "C" JNIEXPORT jint JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeGetStreamFormat(JNIEnv *env, jobject /* this */) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    if (engine == nullptr || !outputStream) {
+        return static_cast<jint>(oboe::AudioFormat::Unspecified);
+    }
+    return static_cast<jint>(outputStream->getFormat());
+}
+
+// JNI function to choose how the input channels are filtered (InputChannelMode); applies while running
+extern "C" JNIEXPORT void JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeSetInputChannelMode(JNIEnv *env, jobject /* this */,
+                                                                              jint mode) {
+    if (mode != static_cast<jint>(InputChannelMode::Stereo) && mode != static_cast<jint>(InputChannelMode::Mono) &&
+        mode != static_cast<jint>(InputChannelMode::Auto)) {
+        LOGE("Unknown input channel mode %d", mode);
+        return;
+    }
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    if (engine != nullptr) {
+        engine->setInputChannelMode(static_cast<InputChannelMode>(mode));
+    }
+}
+
+// JNI function to set each ear's maximum power output in dBFS; applies while running
+extern "C" JNIEXPORT void JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeSetOutputCeilings(JNIEnv *env, jobject /* this */,
+                                                                            jfloat leftDb, jfloat rightDb) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    if (engine != nullptr) {
+        engine->setOutputCeilings(leftDb, rightDb);
+    }
+}
+
+// JNI function to turn noise reduction on or off with its maximum attenuation in dB; applies while running
+extern "C" JNIEXPORT void JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeSetNoiseReduction(JNIEnv *env, jobject /* this */,
+                                                                            jboolean enabled, jfloat depthDb) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    if (engine != nullptr) {
+        engine->setNoiseReduction(enabled, depthDb);
+    }
+}
+
+// JNI function to set the squelch kneepoint in dBFS, ratio and hysteresis in dB; applies while running
+extern "C" JNIEXPORT void JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeSetSquelch(JNIEnv *env, jobject /* this */,
+                                                                     jfloat kneepointDb, jfloat ratio,
+                                                                     jfloat hysteresisDb) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    if (engine != nullptr) {
+        engine->setSquelch(kneepointDb, ratio, hysteresisDb);
+    }
+}
+
+// JNI function to turn feedback cancellation on or off with its probe noise level in dBFS; applies while running
+extern "C" JNIEXPORT void JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeSetFeedbackCancellation(JNIEnv *env, jobject /* this */,
+                                                                                  jboolean enabled, jfloat probeNoiseDb) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    if (engine != nullptr) {
+        engine->setFeedbackCancellation(enabled, probeNoiseDb);
+    }
+}
+
+// JNI function to report whether the bands are currently split once for both ears
+extern "C" JNIEXPORT jboolean JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeIsMonoInputActive(JNIEnv *env, jobject /* this */) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    return engine != nullptr && engine->isMonoInputActive() ? JNI_TRUE : JNI_FALSE;
+}
+
+// JNI function to report the output buffer size in bursts the tuner has settled on, or 0 if not running
+extern "C" JNIEXPORT jint JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeGetBufferBursts(JNIEnv *env, jobject /* this */) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
+    return engine != nullptr ? engine->getBufferBursts() : 0;
+}
+
 // JNI function to stop audio processing
 extern "C" JNIEXPORT void JNICALL
 Java_com_auditapp_hearingamp_AudioProcessingService_nativeStopAudioProcessing(JNIEnv *env, jobject /* this */) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
     if (engine) {
         engine->stopProcessing();
+        engine->logStatistics();
+        engine->attachStreams(nullptr, nullptr);
 
+        // Stop and close output stream first: in full-duplex mode its callback reads the input stream
+        if (outputStream) {
+            LOGD("Stopping output stream with sample rate: %d, channels: %d", outputStream->getSampleRate(), outputStream->getChannelCount());
+            outputStream->requestStop();
+            outputStream->close();
+            outputStream.reset();
+        }
         // Stop and close input stream
         if (inputStream) {
             LOGD("Stopping input stream with sample rate: %d, channels: %d", inputStream->getSampleRate(), inputStream->getChannelCount());
@@ -457,13 +1219,6 @@ Java_com_auditapp_hearingamp_AudioProcessingService_nativeStopAudioProcessing(JN
             inputStream->close();
             inputStream.reset();
         }
-        // Stop and close output stream
-        if (outputStream) {
-            LOGD("Stopping output stream with sample rate: %d, channels: %d", outputStream->getSampleRate(), outputStream->getChannelCount());
-            outputStream->requestStop();
-            outputStream->close();
-            outputStream.reset();
-        }
         delete engine;
         engine = nullptr;
         LOGD("Audio processing stopped and cleaned up");
@@ -475,6 +1230,7 @@ Java_com_auditapp_hearingamp_AudioProcessingService_nativeStopAudioProcessing(JN
 // JNI function to start processing (without reinitializing streams)
 extern "C" JNIEXPORT void JNICALL
 Java_com_auditapp_hearingamp_AudioProcessingService_nativeStartProcessing(JNIEnv *env, jobject /* this */) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
     if (engine != nullptr) {
         LOGD("Starting audio processing");
         engine->startProcessing();
@@ -483,12 +1239,13 @@ Java_com_auditapp_hearingamp_AudioProcessingService_nativeStartProcessing(JNIEnv
     }
 }
 
-// JNI function to stop processing (without closing streams)
+// JNI function to pause processing (without closing streams); the streams output silence until resumed
 extern "C" JNIEXPORT void JNICALL
 Java_com_auditapp_hearingamp_AudioProcessingService_nativeStopProcessing(JNIEnv *env, jobject /* this */) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
     if (engine) {
         engine->stopProcessing();
-        LOGD("Audio processing stopped");
+        LOGD("Audio processing paused; streams stay open");
     } else {
         LOGW("Engine is already stopped or not initialized");
     }
@@ -503,24 +1260,47 @@ Java_com_auditapp_hearingamp_AudioProcessingService_nativeUpdateAudioParams(JNIE
                                                                             jfloatArray rightGains,
                                                                             jfloatArray ratios,
                                                                             jfloatArray attacks,
-                                                                            jfloatArray releases) {
+                                                                            jfloatArray releases,
+                                                                            jfloatArray expansionThresholds,
+                                                                            jfloatArray expansionRatios,
+                                                                            jfloatArray limitThresholds) {
+    std::lock_guard<std::mutex> lock(gEngineMutex);
     if (engine == nullptr) {
         LOGE("Engine is not initialized");
         return;
     }
 
-    // Check if array lengths match the number of bands
-    if (env->GetArrayLength(leftThresholds) != NUM_BANDS ||
-        env->GetArrayLength(rightThresholds) != NUM_BANDS ||
-        env->GetArrayLength(leftGains) != NUM_BANDS ||
-        env->GetArrayLength(rightGains) != NUM_BANDS ||
-        env->GetArrayLength(ratios) != NUM_BANDS ||
-        env->GetArrayLength(attacks) != NUM_BANDS ||
-        env->GetArrayLength(releases) != NUM_BANDS) {
-        LOGE("Invalid array length in updateAudioParams");
+    // Check if array lengths match the engine's number of bands
+    const int bandCount = engine->getBandCount();
+    if (env->GetArrayLength(leftThresholds) != bandCount ||
+        env->GetArrayLength(rightThresholds) != bandCount ||
+        env->GetArrayLength(leftGains) != bandCount ||
+        env->GetArrayLength(rightGains) != bandCount ||
+        env->GetArrayLength(ratios) != bandCount ||
+        env->GetArrayLength(attacks) != bandCount ||
+        env->GetArrayLength(releases) != bandCount ||
+        (expansionThresholds != nullptr && env->GetArrayLength(expansionThresholds) != bandCount) ||
+        (expansionRatios != nullptr && env->GetArrayLength(expansionRatios) != bandCount) ||
+        (limitThresholds != nullptr && env->GetArrayLength(limitThresholds) != bandCount)) {
+        LOGE("Invalid array length in updateAudioParams, expected %d bands", bandCount);
         return;
     }
 
+    // The optional curve segments default to no expansion and no limiting
+    std::array<float, MAX_BANDS> expansionThreshold, expansionRatio, limitThreshold;
+    expansionThreshold.fill(WDRC_MIN_LEVEL_DB);
+    expansionRatio.fill(1.0f);
+    limitThreshold.fill(WDRC_MAX_LEVEL_DB);
+    if (expansionThresholds != nullptr) {
+        env->GetFloatArrayRegion(expansionThresholds, 0, bandCount, expansionThreshold.data());
+    }
+    if (expansionRatios != nullptr) {
+        env->GetFloatArrayRegion(expansionRatios, 0, bandCount, expansionRatio.data());
+    }
+    if (limitThresholds != nullptr) {
+        env->GetFloatArrayRegion(limitThresholds, 0, bandCount, limitThreshold.data());
+    }
+
     // Get pointers to the Java arrays
     jfloat* leftThresholdPtr = env->GetFloatArrayElements(leftThresholds, nullptr);
     jfloat* rightThresholdPtr = env->GetFloatArrayElements(rightThresholds, nullptr);
@@ -536,29 +1316,37 @@ Java_com_auditapp_hearingamp_AudioProcessingService_nativeUpdateAudioParams(JNIE
     }
 
     // Prepare WDRC parameters for left and right ears
-    std::array<WDRCParams, NUM_BANDS> leftParams, rightParams;
-    for (int i = 0; i < NUM_BANDS; ++i) {
+    std::array<WDRCParams, MAX_BANDS> leftParams, rightParams;
+    for (int i = 0; i < bandCount; ++i) {
         leftParams[i] = {
                 leftThresholdPtr[i],
                 ratioPtr[i],
                 attackPtr[i],
                 releasePtr[i],
-                leftGainPtr[i]
+                leftGainPtr[i],
+                expansionThreshold[i],
+                expansionRatio[i],
+                limitThreshold[i]
         };
         rightParams[i] = {
                 rightThresholdPtr[i],
                 ratioPtr[i],
                 attackPtr[i],
                 releasePtr[i],
-                rightGainPtr[i]
+                rightGainPtr[i],
+                expansionThreshold[i],
+                expansionRatio[i],
+                limitThreshold[i]
         };
         LOGD("Band %d: Left Threshold=%.2f, Right Threshold=%.2f, Ratio=%.2f, Attack=%.2f, Release=%.2f, Left Gain=%.2f, Right Gain=%.2f",
              i, leftParams[i].threshold, rightParams[i].threshold, leftParams[i].ratio,
              leftParams[i].attack_time, leftParams[i].release_time, leftParams[i].gain, rightParams[i].gain);
+        LOGD("Band %d: Expansion below %.2f dB at %.2f:1, limiting above %.2f dB",
+             i, expansionThreshold[i], expansionRatio[i], limitThreshold[i]);
     }
 
     // Update the engine with new parameters
-    engine->updateParams(leftParams, rightParams);
+    engine->updateParams(leftParams.data(), rightParams.data(), bandCount);
 
     // Release the Java array elements
     env->ReleaseFloatArrayElements(leftThresholds, leftThresholdPtr, JNI_ABORT);
@@ -570,4 +1358,33 @@ Java_com_auditapp_hearingamp_AudioProcessingService_nativeUpdateAudioParams(JNIE
     env->ReleaseFloatArrayElements(releases, releasePtr, JNI_ABORT);
 
     LOGD("Audio processing parameters updated for both ears");
-}
\ No newline at end of file
+}
+
+// JNI function to measure processing cost offline and return the largest sustainable band count
+// for the given filter bank type, WOLA frame size and internal resampling choice. The cost of each
+// candidate band count is logged per callback and per band.
+extern "C" JNIEXPORT jint JNICALL
+Java_com_auditapp_hearingamp_AudioProcessingService_nativeChooseBandCount(JNIEnv *env, jobject /* this */,
+                                                                          jint filterBankType,
+                                                                          jint wolaFftSize,
+                                                                          jboolean internalResampling,
+                                                                          jfloat maxDeadlineFraction) {
+    if (!isValidFilterBankType(filterBankType)) {
+        LOGE("Unknown filter bank type %d", filterBankType);
+        return MIN_BANDS;
+    }
+    if (!isValidWolaFftSize(wolaFftSize)) {
+        LOGE("WOLA FFT size %d is not a power of two from %d to %d", wolaFftSize, MIN_WOLA_FFT_SIZE, MAX_WOLA_FFT_SIZE);
+        return MIN_BANDS;
+    }
+    const int chosen = chooseSustainableBandCount(
+            FRAMES_PER_CALLBACK, DEFAULT_SAMPLE_RATE, DEFAULT_CHANNEL_COUNT, maxDeadlineFraction, 100,
+            static_cast<FilterBankType>(filterBankType), wolaFftSize, internalResampling,
+            [](const ProcessingCost& cost) {
+                LOGI("%d bands: %.0f ns/callback (worst %.0f), %.0f ns/band, %.1f%% of the %d-frame deadline",
+                     cost.bandCount, cost.nanosPerCallback, cost.worstNanos, cost.nanosPerBand,
+                     cost.deadlineFraction * 100.0, FRAMES_PER_CALLBACK);
+            });
+    LOGI("Largest sustainable band count: %d", chosen);
+    return chosen;
+}
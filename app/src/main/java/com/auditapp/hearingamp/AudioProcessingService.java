@@ -2,27 +2,117 @@ package com.auditapp.hearingamp;
 
 import android.app.Service;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.os.Binder;
+import android.os.Build;
 import android.os.IBinder;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
 
 import java.util.Arrays;
-import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class AudioProcessingService extends Service {
     private static final String TAG = "AudioProcessingService";
+    private static final String TUNING_PREFERENCES = "AudioDeviceTuning";
     private boolean isProcessing = false;
+    private boolean isStandby = false;         // Paused with the engine and streams still open
+    private boolean standbyOutdated = false;   // A setter changed the configuration since the engine was started
+    private ScheduledFuture<?> idleRelease;
+    private boolean fullDuplexEnabled = true;
+    private int filterBankType = FILTER_BANK_BANDPASS;
+    private int wolaFftSize = DEFAULT_WOLA_FFT_SIZE;
+    private boolean internalResamplingEnabled = false;
+    private boolean nativeFormatEnabled = true;
+    private int inputChannelMode = INPUT_CHANNELS_AUTO;
+    private float limiterLookAheadMillis = DEFAULT_LIMITER_LOOK_AHEAD_MILLIS;
+    private float leftOutputCeilingDb = 0.0f, rightOutputCeilingDb = 0.0f;  // dBFS; 0 is full scale
+    private float feedbackDelayMillis = DEFAULT_FEEDBACK_DELAY_MILLIS;
+    private float feedbackPathMillis = DEFAULT_FEEDBACK_PATH_MILLIS;
+    private boolean feedbackCancellationEnabled = false;
+    private boolean noiseReductionEnabled = false;
+    private float noiseReductionDepthDb = DEFAULT_NOISE_REDUCTION_DEPTH_DB;
+    private float squelchKneepointDb = SQUELCH_OFF;
+    private float squelchRatio = DEFAULT_SQUELCH_RATIO;
+    private float squelchHysteresisDb = DEFAULT_SQUELCH_HYSTERESIS_DB;
+    private float probeNoiseDb = PROBE_NOISE_OFF;
+    private float[] bandBoundaries = null;  // null selects the default four bands
+    private int[] controlIntervals = null;  // null computes WDRC gains every sample
     private float[] storedLeftThresholds, storedRightThresholds, storedLeftGains, storedRightGains, storedRatios, storedAttacks, storedReleases;
-    private ExecutorService executorService = Executors.newSingleThreadExecutor();
+    private float[] storedExpansionThresholds, storedExpansionRatios, storedLimitThresholds;  // null for none
+    private ScheduledExecutorService executorService = Executors.newSingleThreadScheduledExecutor();
 
     public static final String ACTION_PERMISSIONS_REQUIRED = "com.auditapp.hearingamp.ACTION_PERMISSIONS_REQUIRED";
     public static final String ACTION_PROCESSING_ERROR = "com.auditapp.hearingamp.ACTION_PROCESSING_ERROR";
 
+    // Band splitting methods; values match FilterBankType in the native code
+    public static final int FILTER_BANK_BANDPASS = 0;
+    public static final int FILTER_BANK_CROSSOVER = 1;
+    public static final int FILTER_BANK_WOLA = 2;
+
+    // WOLA frame size in samples; must be a power of two from 32 to 512
+    public static final int DEFAULT_WOLA_FFT_SIZE = 128;
+
+    // How the input channels are filtered; values match InputChannelMode in the native code
+    public static final int INPUT_CHANNELS_STEREO = 0;
+    public static final int INPUT_CHANNELS_MONO = 1;
+    public static final int INPUT_CHANNELS_AUTO = 2;
+
+    // How far the output limiter looks ahead of each sample; this is added to the latency
+    public static final float DEFAULT_LIMITER_LOOK_AHEAD_MILLIS = 1.0f;
+
+    // Feedback path the canceller models: a pure delay, then an adaptive filter of the given length
+    public static final float DEFAULT_FEEDBACK_DELAY_MILLIS = 5.0f;
+    public static final float DEFAULT_FEEDBACK_PATH_MILLIS = 20.0f;
+
+    // Most noise reduction turns a band down, in dB
+    public static final float DEFAULT_NOISE_REDUCTION_DEPTH_DB = 12.0f;
+
+    // Squelch kneepoint that turns the squelch off, and the default expansion below the kneepoint
+    public static final float SQUELCH_OFF = Float.NEGATIVE_INFINITY;
+    public static final float DEFAULT_SQUELCH_RATIO = 2.0f;
+    public static final float DEFAULT_SQUELCH_HYSTERESIS_DB = 6.0f;
+
+    // Probe noise level that turns the probe noise off
+    public static final float PROBE_NOISE_OFF = Float.NEGATIVE_INFINITY;
+
+    // Sample formats getStreamFormat() reports; values match oboe::AudioFormat
+    public static final int STREAM_FORMAT_NONE = 0;
+    public static final int STREAM_FORMAT_I16 = 1;
+    public static final int STREAM_FORMAT_FLOAT = 2;
+
+    // How long stopProcessing() keeps the streams open on silence before releasing the audio device
+    public static final long IDLE_RELEASE_TIMEOUT_MILLIS = 60000;
+
+    // Slots of the getPerformanceCounters() snapshot; values match PerformanceCounter in the native code.
+    // Counts are cumulative since processing started.
+    public static final int STAT_CALLBACKS = 0;
+    public static final int STAT_TOTAL_CALLBACK_NANOS = 1;
+    public static final int STAT_WORST_CALLBACK_NANOS = 2;
+    public static final int STAT_RING_OVERFLOWS = 3;
+    public static final int STAT_RING_UNDERFLOWS = 4;
+    public static final int STAT_DUPLEX_UNDERRUNS = 5;
+    public static final int STAT_RING_FILL_FRAMES = 6;
+    public static final int STAT_RING_CAPACITY_FRAMES = 7;
+    public static final int STAT_INPUT_XRUNS = 8;        // -1 if the device does not report XRuns
+    public static final int STAT_OUTPUT_XRUNS = 9;
+    public static final int STAT_LATENCY_MICROS = 10;    // -1 until the streams report timestamps
+    public static final int STAT_DROPPED_TELEMETRY = 11;
+    public static final int STAT_STREAM_RECOVERIES = 12;
+    public static final int STAT_LAST_RESTORE_MICROS = 13;  // -1 until the streams have been recovered
+    public static final int STAT_HISTOGRAM = 14;         // First of STAT_HISTOGRAM_BUCKETS callback duration counts
+    public static final int STAT_HISTOGRAM_BUCKETS = 12;
+    public static final int STAT_COUNT = STAT_HISTOGRAM + STAT_HISTOGRAM_BUCKETS;
+
+    // Histogram bucket 0 counts callbacks shorter than this; each following bucket spans twice the
+    // previous one, and the last holds everything longer
+    public static final long HISTOGRAM_FIRST_BUCKET_NANOS = 16000;
+
     private final IBinder mBinder = new LocalBinder();
 
     public class LocalBinder extends Binder {
@@ -35,28 +125,69 @@ public class AudioProcessingService extends Service {
         System.loadLibrary("hearingamp");
     }
 
-    private native int nativeStartAudioProcessing();
+    private native int nativeStartAudioProcessing(boolean fullDuplex, int filterBankType, int wolaFftSize,
+                                                  boolean internalResampling, float[] bandBoundaries,
+                                                  int[] controlIntervals, int initialBufferBursts,
+                                                  boolean nativeFormat, float limiterLookAheadMillis,
+                                                  float feedbackDelayMillis, float feedbackPathMillis);
     private native void nativeStopAudioProcessing();
     private native void nativeStartProcessing();
     private native void nativeStopProcessing();
     private native void nativeUpdateAudioParams(float[] leftThresholds, float[] rightThresholds,
                                                 float[] leftGains, float[] rightGains,
-                                                float[] ratios, float[] attacks, float[] releases);
+                                                float[] ratios, float[] attacks, float[] releases,
+                                                float[] expansionThresholds, float[] expansionRatios,
+                                                float[] limitThresholds);
+    private native double nativeGetLatencyMillis();
+    private native int nativeGetBufferBursts();
+    private native int nativeGetStreamFormat();
+    private native void nativeSetInputChannelMode(int mode);
+    private native boolean nativeIsMonoInputActive();
+    private native void nativeSetOutputCeilings(float leftDb, float rightDb);
+    private native void nativeSetFeedbackCancellation(boolean enabled, float probeNoiseDb);
+    private native void nativeSetNoiseReduction(boolean enabled, float depthDb);
+    private native void nativeSetSquelch(float kneepointDb, float ratio, float hysteresisDb);
+    private native boolean nativeGetPerformanceCounters(long[] counters);
+    private native boolean nativeMeasureRoundTripLatency(int repetitions, double[] result);
+    private native int nativeChooseBandCount(int filterBankType, int wolaFftSize, boolean internalResampling,
+                                             float maxDeadlineFraction);
 
     @Override
     public IBinder onBind(Intent intent) {
         return mBinder;
     }
 
-    public boolean startProcessing() {
+    // Starts processing, or resumes it within one buffer if the engine is still on standby
+    public synchronized boolean startProcessing() {
         Log.d(TAG, "startProcessing called");
+        if (isStandby) {
+            cancelIdleRelease();
+            if (!standbyOutdated) {
+                nativeStartProcessing();
+                isStandby = false;
+                isProcessing = true;
+                Log.d(TAG, "Audio processing resumed from standby");
+                return true;
+            }
+            releaseEngine();
+        }
         if (!isProcessing) {
             if (checkPermission()) {
-                int result = nativeStartAudioProcessing();
+                int initialBufferBursts = getSharedPreferences(TUNING_PREFERENCES, MODE_PRIVATE)
+                        .getInt(bufferBurstsKey(), 0);
+                int result = nativeStartAudioProcessing(fullDuplexEnabled, filterBankType, wolaFftSize,
+                        internalResamplingEnabled, bandBoundaries, controlIntervals, initialBufferBursts,
+                        nativeFormatEnabled, limiterLookAheadMillis, feedbackDelayMillis, feedbackPathMillis);
                 if (result == 0) {
                     isProcessing = true;
-                    Log.d(TAG, "Audio processing started successfully");
+                    standbyOutdated = false;
+                    Log.d(TAG, "Audio processing started successfully, stream format " + nativeGetStreamFormat());
                     applyStoredParams();  // Apply stored parameters
+                    nativeSetInputChannelMode(inputChannelMode);
+                    nativeSetOutputCeilings(leftOutputCeilingDb, rightOutputCeilingDb);
+                    nativeSetFeedbackCancellation(feedbackCancellationEnabled, probeNoiseDb);
+                    nativeSetNoiseReduction(noiseReductionEnabled, noiseReductionDepthDb);
+                    nativeSetSquelch(squelchKneepointDb, squelchRatio, squelchHysteresisDb);
                     nativeStartProcessing();  // Call the native method to start processing
                     return true;
                 } else {
@@ -74,16 +205,252 @@ public class AudioProcessingService extends Service {
         return false;
     }
 
-    public void stopProcessing() {
+    // Pauses processing but keeps the streams open on silence, so that startProcessing() resumes at
+    // once. The audio device is released after IDLE_RELEASE_TIMEOUT_MILLIS without a restart.
+    public synchronized void stopProcessing() {
         Log.d(TAG, "stopProcessing called");
-        executorService.execute(() -> {
-            if (isProcessing) {
-                nativeStopProcessing();  // Call the native method to stop processing
-                nativeStopAudioProcessing();  // Call the native method to clean up resources
-                isProcessing = false;
-                Log.d(TAG, "Audio processing stopped");
-            }
-        });
+        if (isProcessing) {
+            nativeStopProcessing();  // Call the native method to stop processing
+            isProcessing = false;
+            isStandby = true;
+            idleRelease = executorService.schedule(this::releaseEngine, IDLE_RELEASE_TIMEOUT_MILLIS,
+                    TimeUnit.MILLISECONDS);
+            Log.d(TAG, "Audio processing paused");
+        }
+    }
+
+    // Closes the streams and frees the native engine if it is on standby
+    private synchronized void releaseEngine() {
+        if (isStandby) {
+            saveBufferBursts(nativeGetBufferBursts());
+            nativeStopAudioProcessing();  // Call the native method to clean up resources
+            isStandby = false;
+            Log.d(TAG, "Audio processing stopped and audio device released");
+        }
+    }
+
+    private void cancelIdleRelease() {
+        if (idleRelease != null) {
+            idleRelease.cancel(false);
+            idleRelease = null;
+        }
+    }
+
+    // Selects full-duplex (single callback) or two-callback streaming for the next start.
+    // The native engine falls back to two callbacks if full-duplex cannot be opened.
+    public synchronized void setFullDuplexEnabled(boolean enabled) {
+        this.fullDuplexEnabled = enabled;
+        standbyOutdated = true;
+    }
+
+    // Selects overlapping bandpass filters (FILTER_BANK_BANDPASS), a crossover tree whose bands sum
+    // back to a flat response (FILTER_BANK_CROSSOVER) or an FFT filter bank whose cost does not grow
+    // with the band count (FILTER_BANK_WOLA) for the next start
+    public synchronized void setFilterBankType(int type) {
+        this.filterBankType = type;
+        standbyOutdated = true;
+    }
+
+    // Sets the FILTER_BANK_WOLA frame size for the next start. Larger frames resolve low bands more
+    // finely but add their length in samples to the latency (128 samples is 2.7 ms at 48 kHz).
+    public synchronized void setWolaFftSize(int fftSize) {
+        this.wolaFftSize = fftSize;
+        standbyOutdated = true;
+    }
+
+    // Lets the next start run the DSP at the lowest fraction of the stream rate that still carries the
+    // highest band (24 kHz for an 8 kHz top band at 48 kHz), roughly halving the per-sample work at
+    // the cost of about 1.3 ms of resampling latency
+    public synchronized void setInternalResampling(boolean enabled) {
+        this.internalResamplingEnabled = enabled;
+        standbyOutdated = true;
+    }
+
+    // Lets the next start open the streams in the device's native sample format (usually 16-bit
+    // integers) and convert inside the callback, instead of having the framework convert to float,
+    // which can cost the low-latency path. Falls back to float if the native format cannot be used.
+    public synchronized void setNativeFormatEnabled(boolean enabled) {
+        this.nativeFormatEnabled = enabled;
+        standbyOutdated = true;
+    }
+
+    // Returns the sample format the running streams negotiated (STREAM_FORMAT_I16 or
+    // STREAM_FORMAT_FLOAT), or STREAM_FORMAT_NONE if the streams are closed
+    public int getStreamFormat() {
+        if (!isProcessing && !isStandby) {
+            return STREAM_FORMAT_NONE;
+        }
+        return nativeGetStreamFormat();
+    }
+
+    // Filters each input channel for its own ear (INPUT_CHANNELS_STEREO), only the left channel for
+    // both ears (INPUT_CHANNELS_MONO), or switches between the two when the channels carry the same
+    // signal (INPUT_CHANNELS_AUTO, the default). Mono input halves the filter bank cost; each ear
+    // keeps its own WDRC. Applies at once, also while running.
+    public synchronized void setInputChannelMode(int mode) {
+        this.inputChannelMode = mode;
+        if (isProcessing || isStandby) {
+            nativeSetInputChannelMode(mode);
+        }
+    }
+
+    // Returns whether the running engine currently filters the input once for both ears
+    public boolean isMonoInputActive() {
+        return (isProcessing || isStandby) && nativeIsMonoInputActive();
+    }
+
+    // Sets each ear's maximum power output (MPO) as a peak level in dBFS, at most 0 (full scale) and
+    // no lower than -60. A look-ahead limiter turns the output down just before peaks that would exceed
+    // it rather than clipping them. Applies at once, also while running.
+    public synchronized void setOutputCeilings(float leftDb, float rightDb) {
+        this.leftOutputCeilingDb = leftDb;
+        this.rightOutputCeilingDb = rightDb;
+        if (isProcessing || isStandby) {
+            nativeSetOutputCeilings(leftDb, rightDb);
+        }
+    }
+
+    // Turns per-band noise reduction on or off. While on, each band's steady background noise level is
+    // tracked and bands carrying mostly noise are turned down, by at most depthDb (0 to 40,
+    // DEFAULT_NOISE_REDUCTION_DEPTH_DB by default), while bands carrying speech keep their gain.
+    // Turning it on takes about a second and a half to learn the noise. Applies at once, also while
+    // running.
+    public synchronized void setNoiseReduction(boolean enabled, float depthDb) {
+        this.noiseReductionEnabled = enabled;
+        this.noiseReductionDepthDb = depthDb;
+        if (isProcessing || isStandby) {
+            nativeSetNoiseReduction(enabled, depthDb);
+        }
+    }
+
+    // Sets the squelch, which keeps microphone and room noise in quiet surroundings from being
+    // amplified. Each band whose level falls below kneepointDb (dBFS; SQUELCH_OFF, the default, for
+    // none) is turned down by ratio - 1 dB (1 to 10) per dB it lies below, and is not turned back up
+    // until its level is hysteresisDb (0 to 20) above the kneepoint, so noise near the kneepoint does
+    // not flutter. Applies at once, also while running.
+    public synchronized void setSquelch(float kneepointDb, float ratio, float hysteresisDb) {
+        this.squelchKneepointDb = kneepointDb;
+        this.squelchRatio = ratio;
+        this.squelchHysteresisDb = hysteresisDb;
+        if (isProcessing || isStandby) {
+            nativeSetSquelch(kneepointDb, ratio, hysteresisDb);
+        }
+    }
+
+    // Turns adaptive feedback cancellation on or off. While on, the output leaking back into each ear's
+    // microphone is estimated and subtracted before it can build up into howling, so higher gains stay
+    // stable. probeNoiseDb mixes white noise at that RMS level in dBFS (around -50) into the output to
+    // help the canceller tell feedback from sound that really reaches the microphone; PROBE_NOISE_OFF
+    // for none. Turning it on starts adapting from scratch. Applies at once, also while running.
+    public synchronized void setFeedbackCancellation(boolean enabled, float probeNoiseDb) {
+        this.feedbackCancellationEnabled = enabled;
+        this.probeNoiseDb = probeNoiseDb;
+        if (isProcessing || isStandby) {
+            nativeSetFeedbackCancellation(enabled, probeNoiseDb);
+        }
+    }
+
+    // Sets, for the next start, the feedback path the canceller models: delayMillis of pure delay from
+    // output to microphone, no longer than the real round trip through the device (at most about
+    // 80 ms), followed by lengthMillis (at most about 21 ms at 48 kHz) of adaptive filter. Longer
+    // paths cancel more reverberant leakage at a higher cost and slower adaptation.
+    public synchronized void setFeedbackPath(float delayMillis, float lengthMillis) {
+        this.feedbackDelayMillis = delayMillis;
+        this.feedbackPathMillis = lengthMillis;
+        standbyOutdated = true;
+    }
+
+    // Sets, for the next start, how far ahead the output limiter looks in milliseconds (at most about
+    // 10 ms at 48 kHz). Longer look-aheads ramp the gain down more gently before a peak but add their
+    // length to the latency; 0 limits with no added delay at the cost of some distortion on transients.
+    public synchronized void setLimiterLookAheadMillis(float millis) {
+        this.limiterLookAheadMillis = millis;
+        standbyOutdated = true;
+    }
+
+    // Sets the band layout for the next start as bandCount + 1 ascending boundaries in Hz
+    // (4 to 16 bands), or null for the default bands. Parameter arrays passed to updateParams
+    // must then have one entry per band.
+    public synchronized void setBandBoundaries(float[] boundaries) {
+        this.bandBoundaries = boundaries != null ? boundaries.clone() : null;
+        standbyOutdated = true;
+    }
+
+    // Sets, for the next start, how many samples each band's WDRC envelope and gain are held for
+    // (1 to 32, one entry per band), with the gain ramped linearly in between; low bands tolerate
+    // coarser intervals. null computes them every sample. Ignored by FILTER_BANK_WOLA.
+    public synchronized void setControlIntervals(int[] intervals) {
+        this.controlIntervals = intervals != null ? intervals.clone() : null;
+        standbyOutdated = true;
+    }
+
+    // Measures the processing cost of 4 to 16 bands with the selected filter bank type on this device
+    // and returns the largest band count whose callback time stays below the given fraction of the
+    // callback period.
+    // This times up to seven band counts for 100 ms each, so call it off the main thread.
+    public int chooseSustainableBandCount(float maxDeadlineFraction) {
+        // Read the configuration under the lock but measure outside it, so the setters are not held up
+        int type, fftSize;
+        boolean resampling;
+        synchronized (this) {
+            type = filterBankType;
+            fftSize = wolaFftSize;
+            resampling = internalResamplingEnabled;
+        }
+        return nativeChooseBandCount(type, fftSize, resampling, maxDeadlineFraction);
+    }
+
+    // Returns the measured mic-to-speaker latency in milliseconds, or -1 if not yet available
+    public double getLatencyMillis() {
+        if (!isProcessing && !isStandby) {
+            return -1;
+        }
+        return nativeGetLatencyMillis();
+    }
+
+    // Copies a snapshot of the native performance counters into counters, which must hold at least
+    // STAT_COUNT entries, without allocating. Returns false if no engine is running or on standby.
+    public boolean getPerformanceCounters(long[] counters) {
+        if (!isProcessing && !isStandby) {
+            return false;
+        }
+        return nativeGetPerformanceCounters(counters);
+    }
+
+    // Measures the actual round-trip latency while processing runs: for each repetition the amplified
+    // output is replaced for half a second by a quiet noise-like probe, which the microphone must pick up
+    // (earpieces held near it, or a loopback adapter). Blocks for about repetitions / 2 seconds plus the
+    // analysis, so call it off the main thread. Returns null if no engine is running or on standby, or
+    // the measurement could not complete; repetitions must be 1 to 20.
+    public LatencyMeasurement measureRoundTripLatency(int repetitions) {
+        if (!isProcessing && !isStandby) {
+            return null;
+        }
+        double[] result = new double[7];
+        if (!nativeMeasureRoundTripLatency(repetitions, result)) {
+            Log.e(TAG, "Round-trip latency measurement failed");
+            return null;
+        }
+        LatencyMeasurement measurement = new LatencyMeasurement((int) result[0], (int) result[1],
+                result[2], result[3], result[4], result[5], result[6]);
+        Log.i(TAG, "Round-trip latency: " + measurement);
+        return measurement;
+    }
+
+    // The native engine tunes its output buffer to the smallest size that plays without glitches; the
+    // result is saved so the next start begins there. Keyed by model because preferences can be
+    // restored from a backup onto a different phone.
+    private String bufferBurstsKey() {
+        return "bufferBursts_" + Build.MANUFACTURER + "_" + Build.MODEL;
+    }
+
+    private void saveBufferBursts(int bursts) {
+        if (bursts > 0) {
+            SharedPreferences.Editor editor = getSharedPreferences(TUNING_PREFERENCES, MODE_PRIVATE).edit();
+            editor.putInt(bufferBurstsKey(), bursts);
+            editor.apply();
+            Log.d(TAG, "Saved output buffer size of " + bursts + " bursts");
+        }
     }
 
     private boolean checkPermission() {
@@ -100,16 +467,20 @@ public class AudioProcessingService extends Service {
             Log.d(TAG, "Ratios: " + Arrays.toString(storedRatios));
             Log.d(TAG, "Attacks: " + Arrays.toString(storedAttacks));
             Log.d(TAG, "Releases: " + Arrays.toString(storedReleases));
-            nativeUpdateAudioParams(storedLeftThresholds, storedRightThresholds, storedLeftGains, storedRightGains, storedRatios, storedAttacks, storedReleases);
+            Log.d(TAG, "Expansion Thresholds: " + Arrays.toString(storedExpansionThresholds));
+            Log.d(TAG, "Expansion Ratios: " + Arrays.toString(storedExpansionRatios));
+            Log.d(TAG, "Limit Thresholds: " + Arrays.toString(storedLimitThresholds));
+            nativeUpdateAudioParams(storedLeftThresholds, storedRightThresholds, storedLeftGains, storedRightGains, storedRatios, storedAttacks, storedReleases,
+                    storedExpansionThresholds, storedExpansionRatios, storedLimitThresholds);
             Log.d(TAG, "Stored audio processing parameters applied");
         } else {
             Log.w(TAG, "No stored parameters to apply");
         }
     }
 
-    public void updateParams(float[] leftThresholds, float[] rightThresholds,
-                             float[] leftGains, float[] rightGains,
-                             float[] ratios, float[] attacks, float[] releases) {
+    public synchronized void updateParams(float[] leftThresholds, float[] rightThresholds,
+                                          float[] leftGains, float[] rightGains,
+                                          float[] ratios, float[] attacks, float[] releases) {
         // Store parameters
         this.storedLeftThresholds = leftThresholds;
         this.storedRightThresholds = rightThresholds;
@@ -119,17 +490,35 @@ public class AudioProcessingService extends Service {
         this.storedAttacks = attacks;
         this.storedReleases = releases;
 
-        if (isProcessing) {
+        if (isProcessing || isStandby) {
             applyStoredParams();
         } else {
             Log.d(TAG, "Parameters stored. Will be applied when processing starts.");
         }
     }
 
+    // Adds segments around the compression curve of each band: below its expansion threshold (dB)
+    // the gain falls by expansionRatio - 1 dB per dB, keeping low-level noise down, and above its
+    // limit threshold (dB) the output level stops rising. Pass null arrays to leave a segment out.
+    // Takes effect with the current parameters, or with the next updateParams().
+    public synchronized void setGainCurveSegments(float[] expansionThresholds, float[] expansionRatios,
+                                                  float[] limitThresholds) {
+        this.storedExpansionThresholds = expansionThresholds;
+        this.storedExpansionRatios = expansionRatios;
+        this.storedLimitThresholds = limitThresholds;
+        if ((isProcessing || isStandby) && storedLeftThresholds != null) {
+            applyStoredParams();
+        }
+    }
+
     @Override
     public void onDestroy() {
         Log.d(TAG, "onDestroy called");
         stopProcessing();
+        synchronized (this) {
+            cancelIdleRelease();
+        }
+        executorService.execute(this::releaseEngine);
         executorService.shutdown();
         try {
             if (!executorService.awaitTermination(800, TimeUnit.MILLISECONDS)) {
@@ -0,0 +1,72 @@
+package com.auditapp.hearingamp;
+
+import java.util.Locale;
+
+// Result of AudioProcessingService.measureRoundTripLatency(). Times are in milliseconds; the
+// round trip statistics cover only the repetitions whose probe was clearly detected.
+public class LatencyMeasurement {
+    private final int repetitions;
+    private final int validRepetitions;
+    private final double meanRoundTripMillis;
+    private final double minRoundTripMillis;
+    private final double maxRoundTripMillis;
+    private final double jitterMillis;
+    private final double processingMillis;
+
+    public LatencyMeasurement(int repetitions, int validRepetitions, double meanRoundTripMillis,
+                              double minRoundTripMillis, double maxRoundTripMillis, double jitterMillis,
+                              double processingMillis) {
+        this.repetitions = repetitions;
+        this.validRepetitions = validRepetitions;
+        this.meanRoundTripMillis = meanRoundTripMillis;
+        this.minRoundTripMillis = minRoundTripMillis;
+        this.maxRoundTripMillis = maxRoundTripMillis;
+        this.jitterMillis = jitterMillis;
+        this.processingMillis = processingMillis;
+    }
+
+    public int getRepetitions() {
+        return repetitions;
+    }
+
+    // Repetitions whose probe stood out of the noise; the other values are meaningless when this is 0
+    public int getValidRepetitions() {
+        return validRepetitions;
+    }
+
+    // Output to input through the device, measured without the DSP
+    public double getMeanRoundTripMillis() {
+        return meanRoundTripMillis;
+    }
+
+    public double getMinRoundTripMillis() {
+        return minRoundTripMillis;
+    }
+
+    public double getMaxRoundTripMillis() {
+        return maxRoundTripMillis;
+    }
+
+    // Standard deviation of the round trip across repetitions
+    public double getJitterMillis() {
+        return jitterMillis;
+    }
+
+    // Latency the DSP adds on top (resampling and the WOLA frame), which the probe bypasses
+    public double getProcessingMillis() {
+        return processingMillis;
+    }
+
+    // What a listener hears: the round trip plus the processing
+    public double getMicToEarMillis() {
+        return meanRoundTripMillis + processingMillis;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%.2f ms round trip (min %.2f, max %.2f, jitter %.2f) + %.2f ms processing, %d/%d repetitions",
+                meanRoundTripMillis, minRoundTripMillis, maxRoundTripMillis, jitterMillis, processingMillis,
+                validRepetitions, repetitions);
+    }
+}
@@ -12,6 +12,7 @@ import android.content.pm.PackageManager;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.widget.Button;
+import android.widget.TextView;
 import android.widget.ToggleButton;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
@@ -29,9 +30,16 @@ public class RealTimeAmplificationActivity extends AppCompatActivity {
     private static final int PERMISSION_REQUEST_RECORD_AUDIO = 1;
     private ToggleButton toggleAmplification;
     private Button btnReturnToTitle;
+    private TextView diagnosticsTextView;
     private boolean isReturningToTitle = false;
     private ExecutorService executorService = Executors.newSingleThreadExecutor();
     private static final long DEBOUNCE_TIME = 500; // milliseconds
+    private static final long LATENCY_REPORT_DELAY = 1000; // milliseconds
+    private static final long DIAGNOSTICS_POLL_INTERVAL = 500; // milliseconds
+    private final long[] performanceCounters = new long[AudioProcessingService.STAT_COUNT];
+    // One instance of each, so removeCallbacks() finds whatever is pending on the toggle
+    private final Runnable reportLatencyTask = this::reportLatency;
+    private final Runnable pollDiagnosticsTask = this::pollDiagnostics;
     private long lastToggleTime = 0;
 
     private AudioProcessingService mService;
@@ -68,6 +76,7 @@ public class RealTimeAmplificationActivity extends AppCompatActivity {
 
         toggleAmplification = findViewById(R.id.toggleAmplification);
         btnReturnToTitle = findViewById(R.id.btnReturnToTitle);
+        diagnosticsTextView = findViewById(R.id.diagnosticsTextView);
 
         toggleAmplification.setOnCheckedChangeListener((buttonView, isChecked) -> {
             handleAmplificationToggle(isChecked);
@@ -153,6 +162,9 @@ public class RealTimeAmplificationActivity extends AppCompatActivity {
                         runOnUiThread(() -> {
                             Log.d(TAG, "Service started successfully");
                             Toast.makeText(this, getString(R.string.amplification_started), Toast.LENGTH_SHORT).show();
+                            cancelDiagnostics();
+                            toggleAmplification.postDelayed(reportLatencyTask, LATENCY_REPORT_DELAY);
+                            toggleAmplification.post(pollDiagnosticsTask);
                         });
                     } else {
                         throw new Exception("Service failed to start processing");
@@ -174,6 +186,79 @@ public class RealTimeAmplificationActivity extends AppCompatActivity {
         });
     }
 
+    // Stream timestamps need a moment to settle, so latency is read after playback has started
+    private void reportLatency() {
+        if (mBound && toggleAmplification.isChecked() && !executorService.isShutdown()) {
+            executorService.execute(() -> {
+                double latencyMillis = mService.getLatencyMillis();
+                Log.i(TAG, "Mic-to-speaker latency: " + latencyMillis + " ms");
+            });
+        }
+    }
+
+    // Refresh the diagnostics panel from the native counters while amplification is on.
+    // Counters are read on the executor, which also starts and stops the service.
+    private void pollDiagnostics() {
+        if (mBound && toggleAmplification.isChecked() && !executorService.isShutdown()) {
+            executorService.execute(() -> {
+                if (mService.getPerformanceCounters(performanceCounters)) {
+                    String text = formatDiagnostics(performanceCounters);
+                    runOnUiThread(() -> diagnosticsTextView.setText(text));
+                }
+            });
+            toggleAmplification.postDelayed(pollDiagnosticsTask, DIAGNOSTICS_POLL_INTERVAL);
+        }
+    }
+
+    // Drop a pending latency report and poll, so a quick stop and start never leaves two poll chains
+    private void cancelDiagnostics() {
+        toggleAmplification.removeCallbacks(reportLatencyTask);
+        toggleAmplification.removeCallbacks(pollDiagnosticsTask);
+    }
+
+    private String formatDiagnostics(long[] counters) {
+        long callbacks = counters[AudioProcessingService.STAT_CALLBACKS];
+        double meanMicros = callbacks > 0
+                ? counters[AudioProcessingService.STAT_TOTAL_CALLBACK_NANOS] / 1000.0 / callbacks : 0.0;
+        double worstMicros = counters[AudioProcessingService.STAT_WORST_CALLBACK_NANOS] / 1000.0;
+        long latencyMicros = counters[AudioProcessingService.STAT_LATENCY_MICROS];
+        String latency = latencyMicros >= 0
+                ? getString(R.string.diagnostics_latency_millis, latencyMicros / 1000.0)
+                : getString(R.string.diagnostics_latency_unknown);
+        long restoreMicros = counters[AudioProcessingService.STAT_LAST_RESTORE_MICROS];
+        String restore = restoreMicros >= 0
+                ? getString(R.string.diagnostics_latency_millis, restoreMicros / 1000.0)
+                : getString(R.string.diagnostics_latency_unknown);
+
+        // Non-empty histogram buckets as "<limit µs:count", the last one as ">=limit µs:count"
+        StringBuilder histogram = new StringBuilder();
+        long limitNanos = AudioProcessingService.HISTOGRAM_FIRST_BUCKET_NANOS;
+        for (int bucket = 0; bucket < AudioProcessingService.STAT_HISTOGRAM_BUCKETS; ++bucket, limitNanos *= 2) {
+            long count = counters[AudioProcessingService.STAT_HISTOGRAM + bucket];
+            if (count == 0) {
+                continue;
+            }
+            boolean last = bucket == AudioProcessingService.STAT_HISTOGRAM_BUCKETS - 1;
+            histogram.append(histogram.length() > 0 ? " " : "")
+                    .append(last ? ">=" : "<")
+                    .append(last ? limitNanos / 2000 : limitNanos / 1000)
+                    .append(':')
+                    .append(count);
+        }
+
+        return getString(R.string.diagnostics_format,
+                callbacks, meanMicros, worstMicros,
+                counters[AudioProcessingService.STAT_RING_OVERFLOWS],
+                counters[AudioProcessingService.STAT_RING_UNDERFLOWS],
+                counters[AudioProcessingService.STAT_DUPLEX_UNDERRUNS],
+                counters[AudioProcessingService.STAT_INPUT_XRUNS],
+                counters[AudioProcessingService.STAT_OUTPUT_XRUNS],
+                counters[AudioProcessingService.STAT_RING_FILL_FRAMES],
+                counters[AudioProcessingService.STAT_RING_CAPACITY_FRAMES],
+                latency, histogram.toString(),
+                counters[AudioProcessingService.STAT_STREAM_RECOVERIES], restore);
+    }
+
     private float[] stringToFloatArray(String str) {
         String[] items = str.replaceAll("\\[", "").replaceAll("\\]", "").replaceAll("\\s", "").split(",");
         float[] results = new float[items.length];
@@ -189,6 +274,7 @@ public class RealTimeAmplificationActivity extends AppCompatActivity {
 
     private void stopAmplification() {
         Log.d(TAG, "Stopping amplification");
+        cancelDiagnostics();
         executorService.execute(() -> {
             if (mBound) {
                 mService.stopProcessing();
@@ -214,6 +300,7 @@ public class RealTimeAmplificationActivity extends AppCompatActivity {
             checkAndRequestAudioPermission();
         } else {
             stopAmplification();
+            diagnosticsTextView.setText("");
         }
     }
 
@@ -223,6 +310,7 @@ public class RealTimeAmplificationActivity extends AppCompatActivity {
         if (toggleAmplification.isChecked()) {
             stopAmplification();
         }
+        cancelDiagnostics();
         executorService.shutdown();
         try {
             if (!executorService.awaitTermination(500, TimeUnit.MILLISECONDS)) {
@@ -0,0 +1,121 @@
+/**
+ * Fails if AudioProcessor::process() touches the heap.
+ *
+ * Global operator new/delete are replaced with counting versions that are armed only while the
+ * real-time path runs, so allocations made by prepare() and the test itself are ignored.
+ */
+
+#include <atomic>
+#include <cstdlib>
+#include <iterator>
+#include <new>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "TestHarness.h"
+
+static std::atomic<bool> gCountAllocations{false};
+static std::atomic<int> gAllocationCount{0};
+
+void* operator new(std::size_t size) {
+    if (gCountAllocations.load(std::memory_order_relaxed)) {
+        gAllocationCount.fetch_add(1, std::memory_order_relaxed);
+    }
+    void* pointer = std::malloc(size == 0 ? 1 : size);
+    if (!pointer) {
+        throw std::bad_alloc();
+    }
+    return pointer;
+}
+
+void operator delete(void* pointer) noexcept {
+    if (pointer && gCountAllocations.load(std::memory_order_relaxed)) {
+        gAllocationCount.fetch_add(1, std::memory_order_relaxed);
+    }
+    std::free(pointer);
+}
+
+void operator delete(void* pointer, std::size_t) noexcept {
+    operator delete(pointer);
+}
+
+static void checkProcessDoesNotAllocate(AudioProcessor& processor) {
+    constexpr int32_t kChannelCount = 2;
+    constexpr int32_t kMaxFrames = 192;
+
+    processor.prepare(kMaxFrames);
+
+    std::vector<float> input(kMaxFrames * kChannelCount);
+    std::vector<float> output(kMaxFrames * kChannelCount);
+    for (size_t i = 0; i < input.size(); ++i) {
+        input[i] = 0.5f * std::sin(0.05f * static_cast<float>(i));
+    }
+
+    // Burst sizes a device may deliver, including odd sizes and the maximum
+    const int32_t burstSizes[] = {16, 1, 48, 96, 37, kMaxFrames};
+
+    gAllocationCount = 0;
+    gCountAllocations = true;
+    for (int repeat = 0; repeat < 100; ++repeat) {
+        for (int32_t frames : burstSizes) {
+            processor.process(input.data(), output.data(), frames, kChannelCount);
+            processor.process(output.data(), output.data(), frames, kChannelCount);
+        }
+    }
+    gCountAllocations = false;
+
+    EXPECT_TRUE(gAllocationCount.load() == 0);
+    EXPECT_TRUE(processor.getBlocksProcessed() == 100 * 2 * std::size(burstSizes));
+}
+
+int main() {
+    AudioProcessor defaultProcessor;
+    checkProcessDoesNotAllocate(defaultProcessor);
+
+    // The largest layout must run in the same fixed storage
+    BandEdges edges[MAX_BANDS];
+    makeLogSpacedBandEdges(MAX_BANDS, 125.0f, 10000.0f, edges);
+    AudioProcessor largeProcessor(edges, MAX_BANDS);
+    checkProcessDoesNotAllocate(largeProcessor);
+    AudioProcessor crossoverProcessor(edges, MAX_BANDS, FilterBankType::Crossover);
+    checkProcessDoesNotAllocate(crossoverProcessor);
+    AudioProcessor wolaProcessor(edges, MAX_BANDS, FilterBankType::Wola, MAX_WOLA_FFT_SIZE);
+    checkProcessDoesNotAllocate(wolaProcessor);
+
+    // Control-rate WDRC with intervals that do not divide every burst size
+    AudioProcessor controlRateProcessor;
+    const int intervals[DEFAULT_NUM_BANDS] = {32, 16, 8, 3};
+    controlRateProcessor.setControlIntervals(intervals, DEFAULT_NUM_BANDS);
+    checkProcessDoesNotAllocate(controlRateProcessor);
+
+    // Resampling to a lower internal rate, with stream blocks that are not multiples of the factor
+    AudioProcessor resamplingProcessor;
+    resamplingProcessor.setSampleRate(44100, true);
+    checkProcessDoesNotAllocate(resamplingProcessor);
+
+    // Noise reduction with the IIR and the WOLA banks
+    AudioProcessor noiseReductionProcessor(edges, MAX_BANDS);
+    noiseReductionProcessor.setNoiseReductionEnabled(true);
+    checkProcessDoesNotAllocate(noiseReductionProcessor);
+    AudioProcessor wolaNoiseReductionProcessor(edges, MAX_BANDS, FilterBankType::Wola, MAX_WOLA_FFT_SIZE);
+    wolaNoiseReductionProcessor.setNoiseReductionEnabled(true);
+    checkProcessDoesNotAllocate(wolaNoiseReductionProcessor);
+
+    // Squelch on top of noise reduction with the IIR and the WOLA banks
+    AudioProcessor squelchProcessor(edges, MAX_BANDS);
+    squelchProcessor.setNoiseReductionEnabled(true);
+    squelchProcessor.setSquelch(-20.0f, 3.0f, 6.0f);
+    checkProcessDoesNotAllocate(squelchProcessor);
+    AudioProcessor wolaSquelchProcessor(edges, MAX_BANDS, FilterBankType::Wola, MAX_WOLA_FFT_SIZE);
+    wolaSquelchProcessor.setSquelch(-20.0f, 3.0f, 6.0f);
+    checkProcessDoesNotAllocate(wolaSquelchProcessor);
+
+    // Feedback cancellation with the longest path and probe noise
+    AudioProcessor feedbackProcessor;
+    feedbackProcessor.setFeedbackPath(0.005f, 1.0f);
+    feedbackProcessor.setFeedbackCancellationEnabled(true);
+    feedbackProcessor.setProbeNoiseLevelDb(-50.0f);
+    checkProcessDoesNotAllocate(feedbackProcessor);
+
+    return TEST_RESULT();
+}
@@ -0,0 +1,161 @@
+/**
+ * Checks that the AudioRingBuffer moves samples intact through bulk copies that wrap around its
+ * storage, counts overflows and underflows instead of blocking, reports its fill level, drops
+ * writes at the limit set at runtime, and keeps samples in order when a producer and a consumer
+ * thread race.
+ */
+
+#include <algorithm>
+#include <cstdint>
+#include <thread>
+#include <vector>
+
+#include "AudioRingBuffer.h"
+#include "TestHarness.h"
+
+static void checkWraparound() {
+    AudioRingBuffer ring(12);
+    EXPECT_TRUE(ring.capacity() == 16);
+    EXPECT_TRUE(ring.limit() == 16);
+
+    // Blocks of 7 against 16 slots start at every offset, so most calls copy in two parts
+    float block[7];
+    float received[7];
+    float next = 0.0f;
+    float expected = 0.0f;
+    bool intact = true;
+    for (int round = 0; round < 100; ++round) {
+        for (float& sample : block) {
+            sample = next++;
+        }
+        EXPECT_TRUE(ring.write(block, 7) == 7);
+        EXPECT_TRUE(ring.read(received, 7) == 7);
+        for (float sample : received) {
+            intact = intact && sample == expected++;
+        }
+    }
+    EXPECT_TRUE(intact);
+    EXPECT_TRUE(ring.size() == 0);
+    EXPECT_TRUE(ring.overflowCount() == 0);
+    EXPECT_TRUE(ring.underflowCount() == 0);
+}
+
+static void checkOverflowAndUnderflow() {
+    AudioRingBuffer ring(8);
+    std::vector<float> data(12);
+    for (size_t i = 0; i < data.size(); ++i) {
+        data[i] = static_cast<float>(i);
+    }
+
+    // Reading an empty ring returns nothing and counts one underflow per short read
+    float received[12];
+    EXPECT_TRUE(ring.read(received, 4) == 0);
+    EXPECT_TRUE(ring.underflowCount() == 1);
+
+    // A write that does not fit stores what does and counts one overflow; a full ring takes nothing
+    EXPECT_TRUE(ring.write(data.data(), 12) == 8);
+    EXPECT_TRUE(ring.overflowCount() == 1);
+    EXPECT_TRUE(ring.write(data.data(), 1) == 0);
+    EXPECT_TRUE(ring.overflowCount() == 2);
+    EXPECT_TRUE(ring.size() == 8);
+
+    // The oldest samples survive; a short read returns what is left and counts an underflow
+    EXPECT_TRUE(ring.read(received, 12) == 8);
+    for (int i = 0; i < 8; ++i) {
+        EXPECT_TRUE(received[i] == static_cast<float>(i));
+    }
+    EXPECT_TRUE(ring.underflowCount() == 2);
+    EXPECT_TRUE(ring.overflowCount() == 2);
+}
+
+static void checkFillLevel() {
+    AudioRingBuffer ring(16);
+    const std::vector<float> data(10, 1.0f);
+    float received[16];
+    EXPECT_TRUE(ring.size() == 0);
+    ring.write(data.data(), 10);
+    EXPECT_TRUE(ring.size() == 10);
+    ring.read(received, 3);
+    EXPECT_TRUE(ring.size() == 7);
+    ring.write(data.data(), 5);
+    EXPECT_TRUE(ring.size() == 12);
+    ring.read(received, 12);
+    EXPECT_TRUE(ring.size() == 0);
+
+    // discard() empties the ring without counting an underflow
+    ring.write(data.data(), 6);
+    EXPECT_TRUE(ring.discard() == 6);
+    EXPECT_TRUE(ring.size() == 0);
+    EXPECT_TRUE(ring.underflowCount() == 0);
+}
+
+static void checkLimit() {
+    AudioRingBuffer ring(16);
+    const std::vector<float> data(16, 1.0f);
+    float received[16];
+
+    // Writes stop at the limit, not at the capacity
+    ring.setLimit(6);
+    EXPECT_TRUE(ring.limit() == 6);
+    EXPECT_TRUE(ring.write(data.data(), 10) == 6);
+    EXPECT_TRUE(ring.overflowCount() == 1);
+
+    // Lowering the limit below the fill level keeps what is queued but takes nothing more
+    ring.setLimit(4);
+    EXPECT_TRUE(ring.size() == 6);
+    EXPECT_TRUE(ring.write(data.data(), 1) == 0);
+    EXPECT_TRUE(ring.read(received, 3) == 3);
+    EXPECT_TRUE(ring.write(data.data(), 4) == 1);
+
+    // Raising it makes room again, up to the capacity at most
+    ring.setLimit(100);
+    EXPECT_TRUE(ring.limit() == ring.capacity());
+    EXPECT_TRUE(ring.write(data.data(), 16) == 12);
+    EXPECT_TRUE(ring.size() == 16);
+}
+
+static void checkConcurrentProducerAndConsumer() {
+    constexpr int64_t kSampleCount = 2000000;
+    constexpr size_t kBlock = 48;
+    AudioRingBuffer ring(256);
+
+    // The producer writes a counting sequence, wrapped to stay exact in a float, and retries what
+    // did not fit, so nothing is lost
+    std::thread producer([&ring] {
+        float block[kBlock];
+        int64_t next = 0;
+        while (next < kSampleCount) {
+            const size_t count = static_cast<size_t>(std::min<int64_t>(kBlock, kSampleCount - next));
+            for (size_t i = 0; i < count; ++i) {
+                block[i] = static_cast<float>((next + static_cast<int64_t>(i)) % (1 << 20));
+            }
+            next += static_cast<int64_t>(ring.write(block, count));
+        }
+    });
+
+    // Reads of a different size must see every sample once, in order
+    float block[37];
+    int64_t received = 0;
+    bool inOrder = true;
+    while (received < kSampleCount) {
+        const size_t count = ring.read(block, 37);
+        for (size_t i = 0; i < count; ++i) {
+            inOrder = inOrder && block[i] == static_cast<float>(received % (1 << 20));
+            ++received;
+        }
+    }
+    producer.join();
+
+    EXPECT_TRUE(inOrder);
+    EXPECT_TRUE(received == kSampleCount);
+    EXPECT_TRUE(ring.size() == 0);
+}
+
+int main() {
+    checkWraparound();
+    checkOverflowAndUnderflow();
+    checkFillLevel();
+    checkLimit();
+    checkConcurrentProducerAndConsumer();
+    return TEST_RESULT();
+}
@@ -0,0 +1,31 @@
+/**
+ * Timing helpers for the host-side native benchmarks.
+ */
+
+#ifndef HEARINGAMP_BENCHMARKUTILS_H
+#define HEARINGAMP_BENCHMARKUTILS_H
+
+#include <chrono>
+#include <cstdio>
+
+// Keeps the optimizer from discarding benchmark results
+inline volatile float gBenchmarkSink = 0.0f;
+
+// Run body() repeatedly for about minSeconds and return how many calls per second it sustained
+template <typename Body>
+double measureCallsPerSecond(Body&& body, double minSeconds = 0.5) {
+    using Clock = std::chrono::steady_clock;
+    long calls = 0;
+    const Clock::time_point start = Clock::now();
+    double elapsed = 0.0;
+    do {
+        for (int i = 0; i < 1000; ++i) {
+            body();
+        }
+        calls += 1000;
+        elapsed = std::chrono::duration<double>(Clock::now() - start).count();
+    } while (elapsed < minSeconds);
+    return calls / elapsed;
+}
+
+#endif // HEARINGAMP_BENCHMARKUTILS_H
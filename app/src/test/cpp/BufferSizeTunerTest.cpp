@@ -0,0 +1,69 @@
+/**
+ * Runs the BufferSizeTuner against simulated devices that glitch whenever the buffer is smaller
+ * than some stable size, and checks that it climbs to that size quickly, comes down from an
+ * oversized start, and backs off instead of repeatedly probing below the stable size.
+ */
+
+#include "BufferSizeTuner.h"
+#include "TestHarness.h"
+
+struct Run {
+    int finalBursts;
+    int glitchyIntervals;
+};
+
+static Run simulate(int stableBursts, int maxBursts, int initialBursts, int intervals) {
+    BufferSizeTuner tuner(maxBursts, initialBursts);
+    Run run{tuner.getBursts(), 0};
+    for (int interval = 0; interval < intervals; ++interval) {
+        const bool glitch = tuner.getBursts() < stableBursts;
+        run.glitchyIntervals += glitch ? 1 : 0;
+        run.finalBursts = tuner.update(glitch ? 3 : 0);
+    }
+    return run;
+}
+
+static void checkClimbsFromSmallest() {
+    // One glitchy interval per missing burst, then it holds
+    const Run run = simulate(3, 8, 1, 30);
+    EXPECT_TRUE(run.finalBursts == 3);
+    EXPECT_TRUE(run.glitchyIntervals == 2);
+}
+
+static void checkShrinksFromSavedSize() {
+    const int intervals = 5 * BufferSizeTuner::kInitialStableIntervals;
+    const Run run = simulate(1, 8, 4, intervals);
+    EXPECT_TRUE(run.finalBursts == 1);
+    EXPECT_TRUE(run.glitchyIntervals == 0);
+}
+
+static void checkBacksOff() {
+    // An hour of 250 ms intervals on a device that needs 2 bursts: probes below it must thin out
+    const Run run = simulate(2, 8, 2, 14400);
+    EXPECT_TRUE(run.finalBursts >= 2);
+    EXPECT_TRUE(run.glitchyIntervals <= 10);
+}
+
+static void checkLimits() {
+    BufferSizeTuner tuner(3, 10);
+    EXPECT_TRUE(tuner.getBursts() == 3);
+    for (int interval = 0; interval < 5; ++interval) {
+        tuner.update(1);
+    }
+    EXPECT_TRUE(tuner.getBursts() == 3);
+
+    BufferSizeTuner smallest(4, 0);
+    EXPECT_TRUE(smallest.getBursts() == 1);
+    for (int interval = 0; interval < 10 * BufferSizeTuner::kInitialStableIntervals; ++interval) {
+        smallest.update(0);
+    }
+    EXPECT_TRUE(smallest.getBursts() == 1);
+}
+
+int main() {
+    checkClimbsFromSmallest();
+    checkShrinksFromSavedSize();
+    checkBacksOff();
+    checkLimits();
+    return TEST_RESULT();
+}
@@ -0,0 +1,56 @@
+/**
+ * Checks that CallbackStatistics sorts callback durations into the documented power-of-two
+ * buckets and keeps the count, total and worst case consistent with what was recorded.
+ */
+
+#include <cstdint>
+
+#include "CallbackStatistics.h"
+#include "TestHarness.h"
+
+static void checkBuckets() {
+    EXPECT_TRUE(CallbackStatistics::bucketFor(0) == 0);
+    EXPECT_TRUE(CallbackStatistics::bucketFor(15999) == 0);
+    EXPECT_TRUE(CallbackStatistics::bucketFor(16000) == 1);
+    EXPECT_TRUE(CallbackStatistics::bucketFor(31999) == 1);
+    EXPECT_TRUE(CallbackStatistics::bucketFor(32000) == 2);
+
+    // Each bucket ends where the next begins, and the last one is open-ended
+    for (int bucket = 0; bucket < CallbackStatistics::kHistogramBuckets - 1; ++bucket) {
+        const int64_t limit = CallbackStatistics::bucketLimitNanos(bucket);
+        EXPECT_TRUE(CallbackStatistics::bucketFor(limit - 1) == bucket);
+        EXPECT_TRUE(CallbackStatistics::bucketFor(limit) == bucket + 1);
+    }
+    EXPECT_TRUE(CallbackStatistics::bucketFor(16384000) == CallbackStatistics::kHistogramBuckets - 1);
+    EXPECT_TRUE(CallbackStatistics::bucketFor(INT64_C(10000000000)) == CallbackStatistics::kHistogramBuckets - 1);
+}
+
+static void checkRecord() {
+    CallbackStatistics statistics;
+    const int64_t durations[] = {5000, 12000, 20000, 250000, 9000, 40000000};
+    int64_t total = 0;
+    for (int64_t nanos : durations) {
+        statistics.record(nanos);
+        total += nanos;
+    }
+
+    EXPECT_TRUE(statistics.getCallbackCount() == 6);
+    EXPECT_TRUE(statistics.getTotalNanos() == static_cast<uint64_t>(total));
+    EXPECT_TRUE(statistics.getWorstNanos() == 40000000);
+    EXPECT_TRUE(statistics.getBucketCount(0) == 3);
+    EXPECT_TRUE(statistics.getBucketCount(1) == 1);
+    EXPECT_TRUE(statistics.getBucketCount(CallbackStatistics::bucketFor(250000)) == 1);
+    EXPECT_TRUE(statistics.getBucketCount(CallbackStatistics::kHistogramBuckets - 1) == 1);
+
+    uint64_t histogramTotal = 0;
+    for (int bucket = 0; bucket < CallbackStatistics::kHistogramBuckets; ++bucket) {
+        histogramTotal += statistics.getBucketCount(bucket);
+    }
+    EXPECT_TRUE(histogramTotal == statistics.getCallbackCount());
+}
+
+int main() {
+    checkBuckets();
+    checkRecord();
+    return TEST_RESULT();
+}
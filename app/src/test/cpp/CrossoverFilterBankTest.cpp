@@ -0,0 +1,100 @@
+/**
+ * Checks that the CrossoverFilterBank bands sum to a flat magnitude response, that each band
+ * dominates at its own centre frequency, and that the ears keep independent state, for the
+ * default layout and for odd and maximum band counts.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <complex>
+#include <vector>
+
+#include "CrossoverFilterBank.h"
+#include "TestHarness.h"
+
+constexpr int32_t kImpulseLength = 16384;
+
+// Impulse responses of every band of the left ear, and of the summed left output
+struct ImpulseResponses {
+    std::vector<std::vector<float>> bands;
+    std::vector<float> sum;
+};
+
+// Run an impulse through the bank in blocks of varying size
+static ImpulseResponses measureImpulseResponses(CrossoverFilterBank& bank) {
+    const int bandCount = bank.getBandCount();
+    const int laneCount = bank.getLaneCount();
+    std::vector<float> left(kImpulseLength, 0.0f);
+    std::vector<float> right(kImpulseLength, 0.0f);
+    left[0] = 1.0f;
+
+    ImpulseResponses responses;
+    responses.bands.assign(bandCount, std::vector<float>(kImpulseLength));
+    responses.sum.resize(kImpulseLength);
+    std::vector<float> rightSum(kImpulseLength);
+    std::vector<float> bandBlock(64 * laneCount);
+    const int32_t blockSizes[] = {16, 1, 37, 64};
+    int32_t offset = 0;
+    for (int block = 0; offset < kImpulseLength; ++block) {
+        const int32_t frames = std::min(blockSizes[block % 4], kImpulseLength - offset);
+        const float* earInput[NUM_EARS] = {left.data() + offset, right.data() + offset};
+        float* earOutput[NUM_EARS] = {responses.sum.data() + offset, rightSum.data() + offset};
+        bank.processBlock(earInput, bandBlock.data(), frames);
+        for (int32_t frame = 0; frame < frames; ++frame) {
+            for (int band = 0; band < bandCount; ++band) {
+                responses.bands[band][offset + frame] = bandBlock[frame * laneCount + band];
+                // Silent right ear must stay silent in every band
+                EXPECT_TRUE(bandBlock[frame * laneCount + bank.getLanesPerEar() + band] == 0.0f);
+            }
+        }
+        bank.sumBands(bandBlock.data(), frames, earOutput);
+        offset += frames;
+    }
+    EXPECT_TRUE(std::all_of(rightSum.begin(), rightSum.end(), [](float sample) { return sample == 0.0f; }));
+    return responses;
+}
+
+// Magnitude in dB of an impulse response at frequency
+static double magnitudeDb(const std::vector<float>& impulseResponse, double frequency) {
+    const double w = 2.0 * M_PI * frequency / DEFAULT_SAMPLE_RATE;
+    std::complex<double> response = 0.0;
+    for (size_t n = 0; n < impulseResponse.size(); ++n) {
+        response += static_cast<double>(impulseResponse[n]) * std::polar(1.0, -w * static_cast<double>(n));
+    }
+    return 20.0 * std::log10(std::abs(response));
+}
+
+static void checkLayout(const BandEdges* edges, int bandCount) {
+    CrossoverFilterBank bank(DEFAULT_SAMPLE_RATE, edges, bandCount);
+    ImpulseResponses responses = measureImpulseResponses(bank);
+
+    // Unity-gain sum is flat from 20 Hz to 20 kHz, including at and between crossovers
+    for (double frequency = 20.0; frequency < 20000.0; frequency *= 1.05) {
+        EXPECT_NEAR(magnitudeDb(responses.sum, frequency), 0.0, 0.01);
+    }
+    for (int split = 0; split < bandCount - 1; ++split) {
+        const double crossover = CrossoverFilterBank::crossoverFrequency(edges[split], edges[split + 1]);
+        EXPECT_NEAR(magnitudeDb(responses.sum, crossover), 0.0, 0.01);
+    }
+
+    // Each band is the loudest one at its geometric centre
+    for (int band = 0; band < bandCount; ++band) {
+        const double centre = std::sqrt(edges[band].low * edges[band].high);
+        const double ownLevel = magnitudeDb(responses.bands[band], centre);
+        for (int other = 0; other < bandCount; ++other) {
+            if (other != band) {
+                EXPECT_TRUE(magnitudeDb(responses.bands[other], centre) < ownLevel);
+            }
+        }
+    }
+}
+
+int main() {
+    checkLayout(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS);
+    for (int bandCount : {7, MAX_BANDS}) {
+        BandEdges edges[MAX_BANDS];
+        makeLogSpacedBandEdges(bandCount, 125.0f, 10000.0f, edges);
+        checkLayout(edges, bandCount);
+    }
+    return TEST_RESULT();
+}
@@ -0,0 +1,165 @@
+/**
+ * Measures the FeedbackCanceller at 16-frame callbacks for feedback paths of 5, 10 and 20 ms against
+ * a time-domain NLMS filter of the same length, for both ears, and the whole AudioProcessor callback
+ * with cancellation off and on. Results are in nanoseconds per callback next to the share of the
+ * callback deadline they use.
+ *
+ * The output is white noise and the microphone that noise through a decaying path, so both filters
+ * adapt throughout.
+ */
+
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "BenchmarkUtils.h"
+#include "FeedbackCanceller.h"
+
+constexpr int32_t kFramesPerCallback = 16;
+constexpr int32_t kTotalFrames = DEFAULT_SAMPLE_RATE;
+constexpr int32_t kBulkDelayFrames = 240;
+
+static std::vector<float> makeNoise(uint32_t seed, float amplitude) {
+    std::vector<float> noise(kTotalFrames);
+    uint32_t state = seed;
+    for (int32_t i = 0; i < kTotalFrames; ++i) {
+        state = state * 1664525u + 1013904223u;
+        noise[i] = amplitude * (static_cast<float>(state >> 8) / 8388608.0f - 1.0f);
+    }
+    return noise;
+}
+
+// The output through a short decaying path, kBulkDelayFrames late
+static std::vector<float> makeMicrophone(const std::vector<float>& output) {
+    std::vector<float> microphone(kTotalFrames, 0.0f);
+    for (int32_t n = kBulkDelayFrames + 64; n < kTotalFrames; ++n) {
+        for (int32_t j = 0; j < 64; ++j) {
+            microphone[n] += 0.3f * std::exp(-j / 10.0f) * output[n - kBulkDelayFrames - j];
+        }
+    }
+    return microphone;
+}
+
+// Sample-by-sample NLMS over the same taps, the cost the partitioned filter avoids
+class TimeDomainNlms {
+public:
+    explicit TimeDomainNlms(int32_t taps) : mTaps(taps) {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            mWeights[ear].assign(taps, 0.0f);
+            mHistory[ear].assign(2 * (taps + kBulkDelayFrames), 0.0f);
+        }
+    }
+
+    void process(float* const* microphone, const float* const* output, int32_t numFrames) {
+        const int32_t length = mTaps + kBulkDelayFrames;
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            float* weights = mWeights[ear].data();
+            float* history = mHistory[ear].data();
+            int32_t position = mPosition;
+            float power = mPower[ear];
+            for (int32_t frame = 0; frame < numFrames; ++frame) {
+                // The history is written twice so the taps are always contiguous
+                history[position] = output[ear][frame];
+                history[position + length] = output[ear][frame];
+                const float* reference = history + position + length - kBulkDelayFrames;
+                const float newest = reference[0];
+                const float oldest = reference[-(mTaps - 1)];
+                power += newest * newest;
+                float estimate = 0.0f;
+                for (int32_t j = 0; j < mTaps; ++j) {
+                    estimate += weights[j] * reference[-j];
+                }
+                const float error = microphone[ear][frame] - estimate;
+                const float step = FeedbackCanceller::kStepSize * error / (power + 1e-3f);
+                for (int32_t j = 0; j < mTaps; ++j) {
+                    weights[j] += step * reference[-j];
+                }
+                power -= oldest * oldest;
+                microphone[ear][frame] = error;
+                position = position + 1 < length ? position + 1 : 0;
+            }
+            mPower[ear] = power;
+        }
+        mPosition = (mPosition + numFrames) % (mTaps + kBulkDelayFrames);
+    }
+
+private:
+    int32_t mTaps;
+    std::vector<float> mWeights[NUM_EARS];
+    std::vector<float> mHistory[NUM_EARS];
+    float mPower[NUM_EARS] = {};
+    int32_t mPosition = 0;
+};
+
+// Nanoseconds per callback of stage(microphone, output), each call on the next block of input
+template <typename Stage>
+static double measureNanos(const std::vector<float>* microphone, const std::vector<float>* output, Stage&& stage) {
+    std::vector<float> left(kFramesPerCallback);
+    std::vector<float> right(kFramesPerCallback);
+    float* earSamples[NUM_EARS] = {left.data(), right.data()};
+    int32_t offset = 0;
+    const double callsPerSecond = measureCallsPerSecond([&]() {
+        std::copy(microphone[0].begin() + offset, microphone[0].begin() + offset + kFramesPerCallback, left.begin());
+        std::copy(microphone[1].begin() + offset, microphone[1].begin() + offset + kFramesPerCallback, right.begin());
+        const float* reference[NUM_EARS] = {output[0].data() + offset, output[1].data() + offset};
+        stage(earSamples, reference);
+        offset = (offset + kFramesPerCallback) % kTotalFrames;
+        gBenchmarkSink = left[0];
+    });
+    return 1e9 / callsPerSecond;
+}
+
+static double measureProcessorNanos(bool cancelFeedback) {
+    AudioProcessor processor;
+    processor.prepare(kFramesPerCallback);
+    processor.setFeedbackPath(0.005f, 0.02f);
+    processor.setFeedbackCancellationEnabled(cancelFeedback);
+    processor.setProbeNoiseLevelDb(-50.0f);
+    const std::vector<float> input = makeNoise(3, 0.1f);
+    std::vector<float> block(kFramesPerCallback * 2);
+    int32_t offset = 0;
+    const double callsPerSecond = measureCallsPerSecond([&]() {
+        for (int32_t frame = 0; frame < kFramesPerCallback; ++frame) {
+            block[frame * 2] = input[offset + frame];
+            block[frame * 2 + 1] = input[offset + frame];
+        }
+        processor.process(block.data(), block.data(), kFramesPerCallback, 2);
+        offset = (offset + kFramesPerCallback) % kTotalFrames;
+        gBenchmarkSink = block[0];
+    });
+    return 1e9 / callsPerSecond;
+}
+
+int main() {
+    const std::vector<float> output[NUM_EARS] = {makeNoise(1, 0.3f), makeNoise(2, 0.3f)};
+    const std::vector<float> microphone[NUM_EARS] = {makeMicrophone(output[0]), makeMicrophone(output[1])};
+    const double deadlineNanos = 1e9 * kFramesPerCallback / DEFAULT_SAMPLE_RATE;
+
+    std::printf("%d ears, %d-frame callbacks (deadline %.0f ns)\n", NUM_EARS, kFramesPerCallback, deadlineNanos);
+    for (float pathSeconds : {0.005f, 0.01f, 0.02f}) {
+        const int32_t taps = static_cast<int32_t>(std::lround(pathSeconds * DEFAULT_SAMPLE_RATE));
+        FeedbackCanceller canceller;
+        canceller.configure(taps, kBulkDelayFrames);
+        const double partitionedNanos = measureNanos(microphone, output, [&](float* const* ears, const float* const* reference) {
+            canceller.cancel(ears, kFramesPerCallback);
+            canceller.addReference(reference, kFramesPerCallback);
+        });
+        TimeDomainNlms nlms(taps);
+        const double timeDomainNanos = measureNanos(microphone, output, [&](float* const* ears, const float* const* reference) {
+            nlms.process(ears, reference, kFramesPerCallback);
+        });
+        std::printf("  %4d taps  partitioned %9.1f ns/callback %6.2f%% of deadline, "
+                    "time domain %9.1f ns/callback %6.2f%% of deadline\n",
+                    taps, partitionedNanos, 100.0 * partitionedNanos / deadlineNanos,
+                    timeDomainNanos, 100.0 * timeDomainNanos / deadlineNanos);
+    }
+
+    std::printf("AudioProcessor, default fitting, 20 ms path\n");
+    for (bool cancelFeedback : {false, true}) {
+        const double nanos = measureProcessorNanos(cancelFeedback);
+        std::printf("  %-24s %9.1f ns/callback %6.2f%% of deadline\n",
+                    cancelFeedback ? "cancellation + probe" : "no cancellation", nanos, 100.0 * nanos / deadlineNanos);
+    }
+    return 0;
+}
@@ -0,0 +1,185 @@
+/**
+ * Checks the FeedbackCanceller against simulated feedback paths: with white noise at the outputs it
+ * identifies each ear's path, delayed by more than the bulk delay, and cancels the feedback by more
+ * than 25 dB whatever the burst size; it adds nothing while the output is silent; and the probe
+ * noise has the requested level. An AudioProcessor with enough gain to howl through a leaky path
+ * comes back to the level it has without the path once feedback cancellation with probe noise is on.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "FeedbackCanceller.h"
+#include "TestHarness.h"
+
+static constexpr int32_t kSampleRate = 48000;
+static constexpr int32_t kPathDelayFrames = 300;
+static constexpr int32_t kPathTaps = 256;
+
+// A decaying random impulse response of kPathTaps taps with the given peak
+static std::vector<float> makePath(uint32_t seed, float peak) {
+    std::vector<float> path(kPathTaps);
+    uint32_t state = seed;
+    for (int32_t i = 0; i < kPathTaps; ++i) {
+        state = state * 1664525u + 1013904223u;
+        const float noise = static_cast<float>(state >> 8) / 8388608.0f - 1.0f;
+        path[i] = peak * noise * std::exp(-static_cast<float>(i) / 40.0f);
+    }
+    return path;
+}
+
+static std::vector<float> makeNoise(int32_t frames, uint32_t seed, float amplitude) {
+    std::vector<float> noise(frames);
+    uint32_t state = seed;
+    for (int32_t i = 0; i < frames; ++i) {
+        state = state * 1664525u + 1013904223u;
+        noise[i] = amplitude * (static_cast<float>(state >> 8) / 8388608.0f - 1.0f);
+    }
+    return noise;
+}
+
+// Microphone signal: the output through the path, kPathDelayFrames late, plus near-end noise
+static std::vector<float> makeMicrophone(const std::vector<float>& output, const std::vector<float>& path,
+                                         const std::vector<float>& nearEnd) {
+    std::vector<float> microphone = nearEnd;
+    for (size_t n = kPathDelayFrames; n < output.size(); ++n) {
+        const size_t taps = std::min<size_t>(kPathTaps, n - kPathDelayFrames + 1);
+        for (size_t j = 0; j < taps; ++j) {
+            microphone[n] += path[j] * output[n - kPathDelayFrames - j];
+        }
+    }
+    return microphone;
+}
+
+static double energy(const std::vector<float>& signal, size_t begin, size_t end) {
+    double sum = 0.0;
+    for (size_t i = begin; i < end; ++i) {
+        sum += static_cast<double>(signal[i]) * signal[i];
+    }
+    return sum;
+}
+
+static void checkIdentifiesPath(int32_t burstFrames) {
+    const int32_t frames = 4 * kSampleRate;
+    const std::vector<float> paths[NUM_EARS] = {makePath(7, 0.5f), makePath(8, 0.3f)};
+    const std::vector<float> output[NUM_EARS] = {makeNoise(frames, 1, 0.3f), makeNoise(frames, 2, 0.3f)};
+    const std::vector<float> nearEnd[NUM_EARS] = {makeNoise(frames, 3, 0.001f), makeNoise(frames, 4, 0.001f)};
+    const std::vector<float> microphone[NUM_EARS] = {makeMicrophone(output[0], paths[0], nearEnd[0]),
+                                                     makeMicrophone(output[1], paths[1], nearEnd[1])};
+
+    FeedbackCanceller canceller;
+    canceller.configure(kSampleRate / 50, 240);
+    EXPECT_TRUE(canceller.getFilterFrames() == 960);
+    EXPECT_TRUE(canceller.getMaxBlockFrames() >= burstFrames);
+    std::vector<float> cancelled[NUM_EARS] = {microphone[0], microphone[1]};
+    for (int32_t offset = 0; offset < frames; offset += burstFrames) {
+        const int32_t count = std::min(burstFrames, frames - offset);
+        float* input[NUM_EARS] = {cancelled[0].data() + offset, cancelled[1].data() + offset};
+        const float* reference[NUM_EARS] = {output[0].data() + offset, output[1].data() + offset};
+        canceller.cancel(input, count);
+        canceller.addReference(reference, count);
+    }
+
+    // Over the last half second: feedback attenuation and how well each path was identified
+    const size_t begin = frames - kSampleRate / 2;
+    std::vector<float> taps(canceller.getFilterFrames());
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        const double attenuationDb = 10.0 * std::log10(energy(microphone[ear], begin, frames) /
+                                                       energy(cancelled[ear], begin, frames));
+        EXPECT_TRUE(attenuationDb > 25.0);
+
+        canceller.getImpulseResponse(ear, taps.data());
+        const int32_t lag = kPathDelayFrames - canceller.getBulkDelayFrames();
+        double errorEnergy = 0.0;
+        double pathEnergy = 0.0;
+        for (int32_t i = 0; i < canceller.getFilterFrames(); ++i) {
+            const float expected = i >= lag && i - lag < kPathTaps ? paths[ear][i - lag] : 0.0f;
+            errorEnergy += (taps[i] - expected) * (taps[i] - expected);
+            pathEnergy += expected * expected;
+        }
+        EXPECT_TRUE(10.0 * std::log10(errorEnergy / pathEnergy) < -20.0);
+    }
+}
+
+static void checkSilenceAndProbeNoise() {
+    FeedbackCanceller canceller;
+    std::vector<float> left(1024, 0.0f);
+    std::vector<float> right(1024, 0.0f);
+    float* ears[NUM_EARS] = {left.data(), right.data()};
+
+    // Nothing to cancel without an output
+    for (size_t i = 0; i < left.size(); ++i) {
+        left[i] = 0.1f * std::sin(0.1f * i);
+    }
+    const std::vector<float> original = left;
+    canceller.cancel(ears, 1024);
+    canceller.addReference(ears, 1024);
+    EXPECT_TRUE(left == original);
+
+    // Probe noise at -40 dBFS RMS, different in each ear
+    std::fill(left.begin(), left.end(), 0.0f);
+    canceller.addProbeNoise(ears, 1024, 0.01f);
+    EXPECT_NEAR(std::sqrt(energy(left, 0, left.size()) / left.size()), 0.01, 0.001);
+    EXPECT_NEAR(std::sqrt(energy(right, 0, right.size()) / right.size()), 0.01, 0.001);
+    EXPECT_TRUE(left != right);
+}
+
+// Close the loop around an AudioProcessor through paths of the given peak; returns the left output
+// RMS level over the last second
+static float runClosedLoop(float pathPeak, bool cancelFeedback) {
+    const int32_t frames = 6 * kSampleRate;
+    const int32_t burstFrames = 96;
+    const std::vector<float> paths[NUM_EARS] = {makePath(11, pathPeak), makePath(12, pathPeak)};
+    const std::vector<float> speech = makeNoise(frames, 5, 0.01f);
+
+    AudioProcessor processor;
+    processor.setInputChannelMode(InputChannelMode::Stereo);
+    processor.prepare(burstFrames);
+    processor.setFeedbackPath(0.005f, 0.02f);
+    processor.setFeedbackCancellationEnabled(cancelFeedback);
+    processor.setProbeNoiseLevelDb(-50.0f);
+
+    // The stream round trip is kPathDelayFrames, the acoustic path adds the taps
+    std::vector<float> output[NUM_EARS] = {std::vector<float>(frames, 0.0f), std::vector<float>(frames, 0.0f)};
+    std::vector<float> block(burstFrames * 2);
+    for (int32_t offset = 0; offset + burstFrames <= frames; offset += burstFrames) {
+        for (int32_t frame = 0; frame < burstFrames; ++frame) {
+            const int32_t n = offset + frame;
+            for (int ear = 0; ear < NUM_EARS; ++ear) {
+                float feedback = 0.0f;
+                for (int32_t j = 0; j < kPathTaps && n - kPathDelayFrames - j >= 0; ++j) {
+                    feedback += paths[ear][j] * output[ear][n - kPathDelayFrames - j];
+                }
+                block[frame * 2 + ear] = speech[n] + feedback;
+            }
+        }
+        processor.process(block.data(), block.data(), burstFrames, 2);
+        for (int32_t frame = 0; frame < burstFrames; ++frame) {
+            output[0][offset + frame] = block[frame * 2];
+            output[1][offset + frame] = block[frame * 2 + 1];
+        }
+    }
+    return static_cast<float>(std::sqrt(energy(output[0], frames - kSampleRate, frames) / kSampleRate));
+}
+
+static void checkClosedLoopStaysStable() {
+    const float openLevel = runClosedLoop(0.0f, false);
+    const float howlingLevel = runClosedLoop(0.4f, false);
+    const float cancelledLevel = runClosedLoop(0.4f, true);
+    EXPECT_TRUE(howlingLevel > 10.0f * openLevel);
+    EXPECT_TRUE(cancelledLevel < 1.25f * openLevel);
+
+    // Cancellation leaves the processor alone when there is nothing to cancel
+    EXPECT_TRUE(runClosedLoop(0.0f, true) < 1.25f * openLevel);
+}
+
+int main() {
+    checkIdentifiesPath(16);
+    checkIdentifiesPath(37);
+    checkIdentifiesPath(192);
+    checkSilenceAndProbeNoise();
+    checkClosedLoopStaysStable();
+    return TEST_RESULT();
+}
@@ -0,0 +1,101 @@
+/**
+ * Reports filter bank throughput, in ear-samples per second, for each SIMD backend available on
+ * the host, alongside the original single shared BandpassFilter array for comparison. The SIMD
+ * backends and the CrossoverFilterBank (split plus summing) are also timed at larger band counts.
+ */
+
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+#include "BandpassFilter.h"
+#include "BenchmarkUtils.h"
+#include "CrossoverFilterBank.h"
+#include "FilterBank.h"
+
+constexpr int kFrames = 4096;
+
+// Interleaved stereo test signal
+static std::vector<float> makeInput() {
+    std::vector<float> input(kFrames * NUM_EARS);
+    for (size_t i = 0; i < input.size(); ++i) {
+        input[i] = 0.3f * std::sin(0.013f * i) + 0.1f * std::sin(0.31f * i);
+    }
+    return input;
+}
+
+template <SimdBackend backend>
+static void benchmarkBackend(const char* name, const std::vector<float>& input, int bandCount) {
+    BandEdges edges[MAX_BANDS];
+    makeLogSpacedBandEdges(bandCount, 250.0f, 8000.0f, edges);
+    FilterBank bank(DEFAULT_SAMPLE_RATE, edges, bandCount);
+    std::vector<float> left(kFrames);
+    std::vector<float> right(kFrames);
+    for (int i = 0; i < kFrames; ++i) {
+        left[i] = input[i * NUM_EARS];
+        right[i] = input[i * NUM_EARS + 1];
+    }
+    const float* earInput[NUM_EARS] = {left.data(), right.data()};
+    std::vector<float> bandBlock(kFrames * bank.getLaneCount());
+    double callsPerSecond = measureCallsPerSecond([&]() {
+        bank.processBlock<backend>(earInput, bandBlock.data(), kFrames);
+        gBenchmarkSink = gBenchmarkSink + bandBlock[0] + bandBlock.back();
+    }, 0.5);
+    std::printf("%-20s %2d bands %8.2f M ear-samples/s\n", name, bandCount, callsPerSecond * kFrames * NUM_EARS / 1e6);
+}
+
+// Includes sumBands(), since the crossover needs its allpasses there to reconstruct
+static void benchmarkCrossover(const std::vector<float>& input, int bandCount) {
+    BandEdges edges[MAX_BANDS];
+    makeLogSpacedBandEdges(bandCount, 250.0f, 8000.0f, edges);
+    CrossoverFilterBank bank(DEFAULT_SAMPLE_RATE, edges, bandCount);
+    std::vector<float> earBuffers(kFrames * NUM_EARS);
+    for (int i = 0; i < kFrames; ++i) {
+        earBuffers[i] = input[i * NUM_EARS];
+        earBuffers[kFrames + i] = input[i * NUM_EARS + 1];
+    }
+    const float* earInput[NUM_EARS] = {earBuffers.data(), earBuffers.data() + kFrames};
+    std::vector<float> outputBuffers(kFrames * NUM_EARS);
+    float* earOutput[NUM_EARS] = {outputBuffers.data(), outputBuffers.data() + kFrames};
+    std::vector<float> bandBlock(kFrames * bank.getLaneCount());
+    double callsPerSecond = measureCallsPerSecond([&]() {
+        bank.processBlock(earInput, bandBlock.data(), kFrames);
+        bank.sumBands(bandBlock.data(), kFrames, earOutput);
+        gBenchmarkSink = gBenchmarkSink + outputBuffers[0] + outputBuffers.back();
+    }, 0.5);
+    std::printf("%-20s %2d bands %8.2f M ear-samples/s\n", "Crossover + sum", bandCount, callsPerSecond * kFrames * NUM_EARS / 1e6);
+}
+
+static void benchmarkSharedBandpass(const std::vector<float>& input) {
+    std::vector<BandpassFilter> filters;
+    for (const BandEdges& edges : DEFAULT_BAND_EDGES) {
+        filters.emplace_back(DEFAULT_SAMPLE_RATE, edges.low, edges.high);
+    }
+    double callsPerSecond = measureCallsPerSecond([&]() {
+        float sum = 0.0f;
+        for (int i = 0; i < kFrames * NUM_EARS; ++i) {
+            for (BandpassFilter& filter : filters) {
+                sum += filter.process(input[i]);
+            }
+        }
+        gBenchmarkSink = gBenchmarkSink + sum;
+    }, 0.5);
+    std::printf("%-20s %2d bands %8.2f M ear-samples/s\n", "BandpassFilter", DEFAULT_NUM_BANDS, callsPerSecond * kFrames * NUM_EARS / 1e6);
+}
+
+int main() {
+    const std::vector<float> input = makeInput();
+    std::printf("%d ears; BandpassFilter is the original shared filter array\n", NUM_EARS);
+    benchmarkSharedBandpass(input);
+    for (int bandCount = MIN_BANDS; bandCount <= MAX_BANDS; bandCount += 4) {
+        benchmarkBackend<SimdBackend::Scalar>("FilterBank scalar", input, bandCount);
+#if defined(HEARINGAMP_HAS_SSE)
+        benchmarkBackend<SimdBackend::Sse>("FilterBank SSE", input, bandCount);
+#endif
+#if defined(HEARINGAMP_HAS_NEON)
+        benchmarkBackend<SimdBackend::Neon>("FilterBank NEON", input, bandCount);
+#endif
+        benchmarkCrossover(input, bandCount);
+    }
+    return 0;
+}
@@ -0,0 +1,62 @@
+/**
+ * Compares the biquad filter banks with the WOLA filter bank at 4, 8 and 16 bands: processor cost
+ * per 16-frame callback, as measured by measureProcessingCost(), and latency, as the delay of the
+ * peak of the processor's impulse response. The biquad banks grow with the band count while the
+ * WOLA cost stays fixed and its latency follows the frame size.
+ */
+
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "ProcessingCost.h"
+
+constexpr int32_t kFramesPerCallback = 16;
+constexpr int32_t kChannelCount = 2;
+
+// Frames from an impulse to the largest output sample
+static int measurePeakDelay(int bandCount, FilterBankType type, int wolaFftSize) {
+    BandEdges edges[MAX_BANDS];
+    makeLogSpacedBandEdges(bandCount, 250.0f, 8000.0f, edges);
+    AudioProcessor processor(edges, bandCount, type, wolaFftSize);
+    processor.prepare(kFramesPerCallback);
+
+    // Small enough to stay below every compression threshold
+    constexpr int32_t kLength = 2048;
+    std::vector<float> input(kLength * kChannelCount, 0.0f);
+    std::vector<float> output(input.size());
+    input[0] = input[1] = 0.001f;
+    for (int32_t offset = 0; offset < kLength; offset += kFramesPerCallback) {
+        processor.process(input.data() + offset * kChannelCount, output.data() + offset * kChannelCount,
+                          kFramesPerCallback, kChannelCount);
+    }
+    int peakFrame = 0;
+    for (int32_t frame = 1; frame < kLength; ++frame) {
+        if (std::abs(output[frame * kChannelCount]) > std::abs(output[peakFrame * kChannelCount])) {
+            peakFrame = frame;
+        }
+    }
+    return peakFrame;
+}
+
+static void report(const char* name, int bandCount, FilterBankType type, int wolaFftSize = DEFAULT_WOLA_FFT_SIZE) {
+    ProcessingCost cost = measureProcessingCost(bandCount, kFramesPerCallback, DEFAULT_SAMPLE_RATE, kChannelCount,
+                                                300, type, wolaFftSize);
+    const int delay = measurePeakDelay(bandCount, type, wolaFftSize);
+    std::printf("  %-12s %2d bands %9.1f ns/callback %6.2f%% of deadline %4d frames (%5.2f ms) latency\n",
+                name, bandCount, cost.nanosPerCallback, cost.deadlineFraction * 100.0,
+                delay, delay * 1000.0 / DEFAULT_SAMPLE_RATE);
+}
+
+int main() {
+    std::printf("%d frames x %d channels at %d Hz\n", kFramesPerCallback, kChannelCount, DEFAULT_SAMPLE_RATE);
+    for (int bandCount : {4, 8, 16}) {
+        report("Bandpass", bandCount, FilterBankType::Bandpass);
+        report("Crossover", bandCount, FilterBankType::Crossover);
+        report("WOLA 64", bandCount, FilterBankType::Wola, 64);
+        report("WOLA 128", bandCount, FilterBankType::Wola, 128);
+        report("WOLA 256", bandCount, FilterBankType::Wola, 256);
+    }
+    return 0;
+}
@@ -0,0 +1,108 @@
+/**
+ * Checks that every FilterBank backend matches the scalar BandpassFilter reference and that the
+ * left and right ears keep independent filter state, for the default layout and for band counts
+ * that do and do not fill whole vectors.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <vector>
+
+#include "BandpassFilter.h"
+#include "FilterBank.h"
+#include "TestHarness.h"
+
+// Run the bank over a signal in blocks of varying size and return the lane-interleaved output
+template <SimdBackend backend>
+static std::vector<float> filterInBlocks(FilterBank& bank, const std::vector<float>& left,
+                                         const std::vector<float>& right) {
+    const int32_t totalFrames = static_cast<int32_t>(left.size());
+    const int laneCount = bank.getLaneCount();
+    std::vector<float> bandBlock(totalFrames * laneCount);
+    const int32_t blockSizes[] = {16, 1, 37, 64};
+    int32_t offset = 0;
+    for (int block = 0; offset < totalFrames; ++block) {
+        const int32_t frames = std::min(blockSizes[block % 4], totalFrames - offset);
+        const float* earInput[NUM_EARS] = {left.data() + offset, right.data() + offset};
+        bank.processBlock<backend>(earInput, bandBlock.data() + offset * laneCount, frames);
+        offset += frames;
+    }
+    return bandBlock;
+}
+
+template <SimdBackend backend>
+static void checkAgainstReference(const BandEdges* edges, int bandCount) {
+    FilterBank bank(DEFAULT_SAMPLE_RATE, edges, bandCount);
+    EXPECT_TRUE(bank.getLanesPerEar() % FilterBank::kLanesPerVector == 0);
+    std::vector<BandpassFilter> reference;
+    for (int ear = 0; ear < NUM_EARS; ++ear) {
+        for (int band = 0; band < bandCount; ++band) {
+            reference.emplace_back(DEFAULT_SAMPLE_RATE, edges[band].low, edges[band].high);
+        }
+    }
+
+    // Different signals per ear so any state sharing shows up
+    std::vector<float> left(4800);
+    std::vector<float> right(4800);
+    for (size_t i = 0; i < left.size(); ++i) {
+        left[i] = 0.5f * std::sin(0.07f * i) + 0.2f * std::sin(0.9f * i);
+        right[i] = (i % 97 == 0) ? 1.0f : 0.0f;
+    }
+
+    std::vector<float> bandBlock = filterInBlocks<backend>(bank, left, right);
+    const int laneCount = bank.getLaneCount();
+    for (size_t frame = 0; frame < left.size(); ++frame) {
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            const float input = ear == 0 ? left[frame] : right[frame];
+            for (int band = 0; band < bank.getLanesPerEar(); ++band) {
+                const float output = bandBlock[frame * laneCount + ear * bank.getLanesPerEar() + band];
+                if (band < bandCount) {
+                    EXPECT_NEAR(output, reference[ear * bandCount + band].process(input), 1e-4);
+                } else {
+                    EXPECT_TRUE(output == 0.0f);  // Padding lanes stay silent
+                }
+            }
+        }
+    }
+}
+
+template <SimdBackend backend>
+static void checkEarsAreIndependent(const BandEdges* edges, int bandCount) {
+    FilterBank bank(DEFAULT_SAMPLE_RATE, edges, bandCount);
+    std::vector<float> left(1000);
+    std::vector<float> right(1000, 0.0f);
+    for (size_t i = 0; i < left.size(); ++i) {
+        left[i] = std::sin(0.05f * i);
+    }
+
+    std::vector<float> bandBlock = filterInBlocks<backend>(bank, left, right);
+    for (size_t frame = 0; frame < left.size(); ++frame) {
+        for (int band = 0; band < bandCount; ++band) {
+            EXPECT_TRUE(bandBlock[frame * bank.getLaneCount() + bank.getLanesPerEar() + band] == 0.0f);
+        }
+    }
+}
+
+template <SimdBackend backend>
+static void checkBackend() {
+    checkAgainstReference<backend>(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS);
+    checkEarsAreIndependent<backend>(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS);
+    for (int bandCount : {7, MAX_BANDS}) {
+        BandEdges edges[MAX_BANDS];
+        makeLogSpacedBandEdges(bandCount, 125.0f, 10000.0f, edges);
+        EXPECT_TRUE(isValidBandLayout(edges, bandCount, DEFAULT_SAMPLE_RATE));
+        checkAgainstReference<backend>(edges, bandCount);
+        checkEarsAreIndependent<backend>(edges, bandCount);
+    }
+}
+
+int main() {
+    checkBackend<SimdBackend::Scalar>();
+#if defined(HEARINGAMP_HAS_SSE)
+    checkBackend<SimdBackend::Sse>();
+#endif
+#if defined(HEARINGAMP_HAS_NEON)
+    checkBackend<SimdBackend::Neon>();
+#endif
+    return TEST_RESULT();
+}
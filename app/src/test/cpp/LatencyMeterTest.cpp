@@ -0,0 +1,120 @@
+/**
+ * Drives the LatencyMeter through a simulated round trip: whatever it writes comes back as input
+ * after a known delay, attenuated and buried in noise, possibly inverted and with a delay that
+ * varies between repetitions. The measured latency and jitter must match the simulation, and
+ * noise without any echo of the probe must not produce a measurement.
+ */
+
+#include <cmath>
+#include <cstdint>
+#include <random>
+#include <vector>
+
+#include "LatencyMeter.h"
+#include "TestHarness.h"
+
+static constexpr int32_t kSampleRate = 48000;
+static constexpr int32_t kChannelCount = 2;
+
+// The sequence is maximal length: its circular autocorrelation is kMlsLength at lag 0 and -1 elsewhere
+static void checkSequence() {
+    LatencyMeter meter;
+    const auto& sequence = meter.getSequence();
+    bool flat = true;
+    for (int lag = 0; lag < LatencyMeter::kMlsLength; lag += 37) {
+        double sum = 0.0;
+        for (int i = 0; i < LatencyMeter::kMlsLength; ++i) {
+            sum += sequence[i] * sequence[(i + lag) % LatencyMeter::kMlsLength];
+        }
+        flat = flat && sum == (lag == 0 ? LatencyMeter::kMlsLength : -1.0);
+    }
+    EXPECT_TRUE(flat);
+}
+
+// Run a measurement where output written at frame n returns as input at frame n + delay(repetition)
+// scaled by gain, plus white noise. Processing is in place, as in full-duplex mode.
+static LatencyMeter::Result simulate(int repetitions, int32_t delayFrames, int32_t delayStep, float gain,
+                                     float noiseLevel, int32_t blockFrames) {
+    LatencyMeter meter;
+    EXPECT_TRUE(meter.start(kSampleRate, repetitions));
+    EXPECT_TRUE(!meter.start(kSampleRate, repetitions));
+
+    const int32_t periodFrames = static_cast<int32_t>(LatencyMeter::kPeriodSeconds * kSampleRate);
+    const int32_t maxDelay = delayFrames + delayStep * repetitions;
+    std::vector<float> returned(static_cast<size_t>(periodFrames) * (repetitions + 1) + maxDelay + blockFrames, 0.0f);
+    std::vector<float> block(blockFrames * kChannelCount);
+    std::mt19937 random(7);
+    std::normal_distribution<float> noise(0.0f, noiseLevel);
+
+    int32_t position = 0;
+    while (meter.isMeasuring()) {
+        for (int32_t frame = 0; frame < blockFrames; ++frame) {
+            const float sample = returned[position + frame] + noise(random);
+            for (int32_t channel = 0; channel < kChannelCount; ++channel) {
+                block[frame * kChannelCount + channel] = sample;
+            }
+        }
+        meter.process(block.data(), block.data(), blockFrames, kChannelCount);
+        for (int32_t frame = 0; frame < blockFrames; ++frame) {
+            const int32_t delay = delayFrames + delayStep * ((position + frame) / periodFrames);
+            returned[position + frame + delay] += gain * block[frame * kChannelCount];
+        }
+        position += blockFrames;
+    }
+    EXPECT_TRUE(meter.isFinished());
+    LatencyMeter::Result result = meter.analyse();
+    EXPECT_TRUE(!meter.isMeasuring() && !meter.isFinished());
+    return result;
+}
+
+static void checkConstantDelay() {
+    const LatencyMeter::Result result = simulate(5, 1234, 0, 0.05f, 0.01f, 192);
+    EXPECT_TRUE(result.repetitions == 5);
+    EXPECT_TRUE(result.validRepetitions == 5);
+    EXPECT_NEAR(result.meanMillis, 1234 * 1000.0 / kSampleRate, 1e-9);
+    EXPECT_NEAR(result.minMillis, result.maxMillis, 1e-9);
+    EXPECT_NEAR(result.jitterMillis, 0.0, 1e-9);
+}
+
+// An inverting path, odd block sizes and a delay that grows by 48 frames per repetition
+static void checkVaryingDelay() {
+    const LatencyMeter::Result result = simulate(4, 4800, 48, -0.02f, 0.01f, 37);
+    EXPECT_TRUE(result.validRepetitions == 4);
+    const double step = 48 * 1000.0 / kSampleRate;
+    EXPECT_NEAR(result.minMillis, 100.0, 1e-9);
+    EXPECT_NEAR(result.maxMillis, 100.0 + 3 * step, 1e-9);
+    EXPECT_NEAR(result.meanMillis, 100.0 + 1.5 * step, 1e-9);
+    EXPECT_NEAR(result.jitterMillis, step * std::sqrt(1.25), 1e-9);
+}
+
+static void checkNoEcho() {
+    const LatencyMeter::Result result = simulate(3, 1000, 0, 0.0f, 0.05f, 192);
+    EXPECT_TRUE(result.validRepetitions == 0);
+}
+
+static void checkArguments() {
+    LatencyMeter meter;
+    EXPECT_TRUE(!meter.start(kSampleRate, 0));
+    EXPECT_TRUE(!meter.start(kSampleRate, LatencyMeter::kMaxRepetitions + 1));
+    EXPECT_TRUE(!meter.start(0, 5));
+    EXPECT_TRUE(!meter.isMeasuring());
+
+    // Idle, the meter outputs silence and analyse() reports nothing
+    std::vector<float> block(64 * kChannelCount, 1.0f);
+    meter.process(block.data(), block.data(), 64, kChannelCount);
+    bool silent = true;
+    for (float sample : block) {
+        silent = silent && sample == 0.0f;
+    }
+    EXPECT_TRUE(silent);
+    EXPECT_TRUE(meter.analyse().validRepetitions == 0);
+}
+
+int main() {
+    checkSequence();
+    checkConstantDelay();
+    checkVaryingDelay();
+    checkNoEcho();
+    checkArguments();
+    return TEST_RESULT();
+}
@@ -0,0 +1,145 @@
+/**
+ * Checks the mono input path: the MonoDetector enters mono only after several identical windows,
+ * leaves it in the block where the channels start to differ and ignores silence, and an
+ * AudioProcessor that splits the bands once for both ears produces exactly the output of one that
+ * splits each ear separately, across switches in both directions.
+ */
+
+#include <cmath>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "MonoDetector.h"
+#include "TestHarness.h"
+
+static constexpr int32_t kSampleRate = 48000;
+static constexpr int32_t kBlockFrames = 192;
+static constexpr int32_t kWindowFrames = kSampleRate / 10;
+
+// Feed blocks of a tone, with the right channel scaled by rightGain plus extra of an unrelated tone,
+// and return the detector's decision after each block
+static std::vector<bool> detect(MonoDetector& detector, int blocks, float amplitude, float rightGain, float extra) {
+    std::vector<float> left(kBlockFrames);
+    std::vector<float> right(kBlockFrames);
+    std::vector<bool> decisions;
+    for (int block = 0; block < blocks; ++block) {
+        for (int32_t frame = 0; frame < kBlockFrames; ++frame) {
+            const float t = static_cast<float>(block * kBlockFrames + frame) / kSampleRate;
+            left[frame] = amplitude * std::sin(2.0f * static_cast<float>(M_PI) * 440.0f * t);
+            right[frame] = rightGain * left[frame] + extra * std::sin(2.0f * static_cast<float>(M_PI) * 1700.0f * t);
+        }
+        decisions.push_back(detector.process(left.data(), right.data(), kBlockFrames));
+    }
+    return decisions;
+}
+
+static void checkDetector() {
+    const int blocksPerWindow = kWindowFrames / kBlockFrames;
+    MonoDetector detector(kWindowFrames);
+
+    // Identical channels: mono once kWindowsToEnterMono windows have passed, not before
+    std::vector<bool> decisions = detect(detector, (MonoDetector::kWindowsToEnterMono + 1) * blocksPerWindow, 0.3f, 1.0f, 0.0f);
+    EXPECT_TRUE(!decisions[MonoDetector::kWindowsToEnterMono * blocksPerWindow - 2]);
+    EXPECT_TRUE(decisions.back());
+
+    // A slightly different level (-40 dB of difference) still counts as mono
+    decisions = detect(detector, blocksPerWindow, 0.3f, 0.99f, 0.0f);
+    EXPECT_TRUE(decisions.back());
+
+    // Silence decides nothing in either direction
+    decisions = detect(detector, 20 * blocksPerWindow, 0.0f, 1.0f, 1e-7f);
+    EXPECT_TRUE(decisions.back());
+
+    // A real second channel ends mono in the first block it appears in
+    decisions = detect(detector, 1, 0.3f, 1.0f, 0.05f);
+    EXPECT_TRUE(!decisions[0]);
+    EXPECT_TRUE(!detector.isMono());
+
+    // Different channels never enter mono
+    MonoDetector stereo(kWindowFrames);
+    decisions = detect(stereo, 20 * blocksPerWindow, 0.3f, 0.5f, 0.1f);
+    bool everMono = false;
+    for (bool mono : decisions) {
+        everMono = everMono || mono;
+    }
+    EXPECT_TRUE(!everMono);
+}
+
+// Interleaved stereo input: identical channels for the first half, then the right channel gets
+// its own tone on top
+static std::vector<float> makeInput(int32_t frames) {
+    std::vector<float> input(frames * 2);
+    uint32_t noiseState = 99;
+    for (int32_t frame = 0; frame < frames; ++frame) {
+        noiseState = noiseState * 1664525u + 1013904223u;
+        const float noise = static_cast<float>(noiseState >> 8) / 8388608.0f - 1.0f;
+        const float t = static_cast<float>(frame) / kSampleRate;
+        const float common = 0.2f * std::sin(2.0f * static_cast<float>(M_PI) * 300.0f * t) + 0.05f * noise;
+        input[frame * 2] = common;
+        input[frame * 2 + 1] = common + (frame >= frames / 2 ? 0.1f * std::sin(2.0f * static_cast<float>(M_PI) * 2500.0f * t) : 0.0f);
+    }
+    return input;
+}
+
+static void checkProcessorMatchesStereo(FilterBankType type) {
+    const int32_t frames = kSampleRate * 2;
+    const std::vector<float> input = makeInput(frames);
+
+    AudioProcessor stereo(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, type);
+    AudioProcessor automatic(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, type);
+    stereo.setInputChannelMode(InputChannelMode::Stereo);
+    stereo.prepare(kBlockFrames);
+    automatic.prepare(kBlockFrames);
+
+    std::vector<float> expected(kBlockFrames * 2);
+    std::vector<float> actual(kBlockFrames * 2);
+    bool wentMono = false;
+    bool monoAtEnd = true;
+    float largestDifference = 0.0f;
+    for (int32_t offset = 0; offset + kBlockFrames <= frames; offset += kBlockFrames) {
+        stereo.process(input.data() + offset * 2, expected.data(), kBlockFrames, 2);
+        automatic.process(input.data() + offset * 2, actual.data(), kBlockFrames, 2);
+        wentMono = wentMono || automatic.isMonoInputActive();
+        monoAtEnd = automatic.isMonoInputActive();
+        for (size_t i = 0; i < actual.size(); ++i) {
+            largestDifference = std::max(largestDifference, std::fabs(actual[i] - expected[i]));
+        }
+    }
+    EXPECT_TRUE(!stereo.isMonoInputActive());
+    EXPECT_TRUE(wentMono);
+    EXPECT_TRUE(!monoAtEnd);
+    EXPECT_TRUE(largestDifference == 0.0f);
+}
+
+// Forced mono ignores the right channel: both ears hear the left one through their own WDRC
+static void checkForcedMono() {
+    AudioProcessor processor;
+    processor.setInputChannelMode(InputChannelMode::Mono);
+    processor.prepare(kBlockFrames);
+    std::vector<float> block(kBlockFrames * 2);
+    for (int32_t frame = 0; frame < kBlockFrames; ++frame) {
+        block[frame * 2] = 0.2f * std::sin(0.05f * frame);
+        block[frame * 2 + 1] = 0.0f;
+    }
+    processor.process(block.data(), block.data(), kBlockFrames, 2);
+    EXPECT_TRUE(processor.isMonoInputActive());
+    float largestDifference = 0.0f;
+    for (int32_t frame = 0; frame < kBlockFrames; ++frame) {
+        largestDifference = std::max(largestDifference, std::fabs(block[frame * 2] - block[frame * 2 + 1]));
+    }
+    EXPECT_TRUE(largestDifference == 0.0f);
+
+    // The WOLA bank has nothing to share and never reports mono
+    AudioProcessor wola(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, FilterBankType::Wola);
+    wola.setInputChannelMode(InputChannelMode::Mono);
+    wola.process(block.data(), block.data(), kBlockFrames, 2);
+    EXPECT_TRUE(!wola.isMonoInputActive());
+}
+
+int main() {
+    checkDetector();
+    checkProcessorMatchesStereo(FilterBankType::Bandpass);
+    checkProcessorMatchesStereo(FilterBankType::Crossover);
+    checkForcedMono();
+    return TEST_RESULT();
+}
@@ -0,0 +1,170 @@
+/**
+ * Checks the NoiseReducer: the noise floor it tracks on a band envelope settles near the noise level
+ * and follows a rise in it within a window, while short loud bursts neither raise it nor lose their
+ * gain; and in an AudioProcessor with each filter bank it improves the signal-to-noise ratio of
+ * syllable-like tones in stationary noise, measured by phase inversion, without turning the tones
+ * down much.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "NoiseReducer.h"
+#include "TestHarness.h"
+
+static constexpr int32_t kSampleRate = 48000;
+static constexpr int32_t kBlockFrames = 64;
+
+static std::vector<float> makeNoise(int32_t frames, uint32_t seed, float amplitude) {
+    std::vector<float> noise(frames);
+    uint32_t state = seed;
+    for (int32_t i = 0; i < frames; ++i) {
+        state = state * 1664525u + 1013904223u;
+        noise[i] = amplitude * (static_cast<float>(state >> 8) / 8388608.0f - 1.0f);
+    }
+    return noise;
+}
+
+static double energy(const std::vector<float>& signal, size_t begin, size_t end) {
+    double sum = 0.0;
+    for (size_t i = begin; i < end; ++i) {
+        sum += static_cast<double>(signal[i]) * signal[i];
+    }
+    return sum;
+}
+
+static void checkTracksNoiseFloor() {
+    // Noise whose level rises by 10 dB after three seconds, with 100 ms bursts 20 dB louder every second
+    const int32_t frames = 6 * kSampleRate;
+    std::vector<float> input = makeNoise(frames, 1, 0.01f);
+    for (int32_t i = 0; i < frames; ++i) {
+        if (i >= 3 * kSampleRate) {
+            input[i] *= std::sqrt(10.0f);
+        }
+        if (i % kSampleRate < kSampleRate / 10) {
+            input[i] *= 10.0f;
+        }
+    }
+
+    // Both ears get the same envelope, followed like WDRC does with 10 ms attack and 100 ms release
+    const float alphaAttack = std::exp(-1.0f / (kSampleRate * 0.01f));
+    const float alphaRelease = std::exp(-1.0f / (kSampleRate * 0.1f));
+    NoiseReducer reducer(kSampleRate);
+    NoiseReducer::EarGains envelopes{};
+    float envelope = 0.0f;
+    double meanLevel[2] = {};      // Mean envelope of the noise alone before and after the rise
+    int32_t meanFrames[2] = {};
+    float noiseLevel[2] = {};      // Noise level estimated at the end of each level
+    float smallestBurstGain = 1.0f;
+    float largestNoiseGain = 0.0f;
+    for (int32_t offset = 0; offset < frames; offset += kBlockFrames) {
+        for (int32_t i = offset; i < offset + kBlockFrames; ++i) {
+            const float level = std::abs(input[i]);
+            const float alpha = level > envelope ? alphaAttack : alphaRelease;
+            envelope = alpha * envelope + (1.0f - alpha) * level;
+            const int half = i < 3 * kSampleRate ? 0 : 1;
+            if (i % kSampleRate >= kSampleRate / 2) {
+                meanLevel[half] += envelope;
+                ++meanFrames[half];
+            }
+        }
+        envelopes[0][0] = envelopes[1][0] = envelope;
+        reducer.update(envelopes, 1, kBlockFrames, 0.0f);
+
+        const int32_t end = offset + kBlockFrames;
+        const int32_t position = end % kSampleRate;
+        if (end == 3 * kSampleRate - kBlockFrames || end == 6 * kSampleRate - kBlockFrames) {
+            noiseLevel[end < 3 * kSampleRate ? 0 : 1] = reducer.getNoiseLevel(0, 0);
+        }
+        if (end > kSampleRate + kSampleRate / 2 && position > kSampleRate / 40 && position <= kSampleRate / 10) {
+            smallestBurstGain = std::min(smallestBurstGain, reducer.getGains()[0][0]);
+        }
+        if (end > kSampleRate && end < 3 * kSampleRate && position > kSampleRate / 2) {
+            largestNoiseGain = std::max(largestNoiseGain, reducer.getGains()[1][0]);
+        }
+    }
+    // The estimate sits within 3 dB of the noise at both levels, so the noise alone gets no gain
+    // and the bursts nearly all of it
+    for (int half = 0; half < 2; ++half) {
+        EXPECT_NEAR(20.0 * std::log10(noiseLevel[half] / (meanLevel[half] / meanFrames[half])), 0.0, 3.0);
+    }
+    EXPECT_TRUE(smallestBurstGain > 0.9f);
+    EXPECT_TRUE(largestNoiseGain < 0.3f);
+}
+
+// Syllable-like speech stand-in: three tones gated on and off at 4 Hz, with a half-second pause
+// every two seconds
+static std::vector<float> makeSyllables(int32_t frames) {
+    std::vector<float> signal(frames);
+    for (int32_t i = 0; i < frames; ++i) {
+        const float t = static_cast<float>(i) / kSampleRate;
+        const float gate = std::sin(2.0f * static_cast<float>(M_PI) * 4.0f * t);
+        const bool pause = std::fmod(t, 2.0f) > 1.5f;
+        const float envelope = pause || gate < 0.0f ? 0.0f : gate;
+        signal[i] = 0.05f * envelope * (std::sin(2.0f * static_cast<float>(M_PI) * 500.0f * t)
+                                        + 0.7f * std::sin(2.0f * static_cast<float>(M_PI) * 1200.0f * t)
+                                        + 0.5f * std::sin(2.0f * static_cast<float>(M_PI) * 2500.0f * t));
+    }
+    return signal;
+}
+
+// Left output of a fresh processor for the given mono input
+static std::vector<float> run(FilterBankType type, bool reduceNoise, const std::vector<float>& input) {
+    AudioProcessor processor(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, type);
+    processor.prepare(kBlockFrames);
+    processor.setNoiseReductionEnabled(reduceNoise);
+    std::vector<float> block(kBlockFrames * 2);
+    std::vector<float> output(input.size());
+    for (size_t offset = 0; offset + kBlockFrames <= input.size(); offset += kBlockFrames) {
+        for (int32_t frame = 0; frame < kBlockFrames; ++frame) {
+            block[frame * 2] = block[frame * 2 + 1] = input[offset + frame];
+        }
+        processor.process(block.data(), block.data(), kBlockFrames, 2);
+        for (int32_t frame = 0; frame < kBlockFrames; ++frame) {
+            output[offset + frame] = block[frame * 2];
+        }
+    }
+    return output;
+}
+
+static void checkImprovesSignalToNoiseRatio(FilterBankType type) {
+    const int32_t frames = 8 * kSampleRate;
+    const std::vector<float> speech = makeSyllables(frames);
+    const std::vector<float> noise = makeNoise(frames, 2, 0.03f);
+    std::vector<float> sum(frames);
+    std::vector<float> difference(frames);
+    for (int32_t i = 0; i < frames; ++i) {
+        sum[i] = speech[i] + noise[i];
+        difference[i] = speech[i] - noise[i];
+    }
+
+    // Phase inversion: half the sum of the two outputs is the processed speech, half the difference
+    // the processed noise, each under the gains the mixture produced. Measured after the first window.
+    const size_t begin = 2 * kSampleRate;
+    double snrDb[2];
+    double speechEnergy[2];
+    for (bool reduceNoise : {false, true}) {
+        const std::vector<float> outputSum = run(type, reduceNoise, sum);
+        const std::vector<float> outputDifference = run(type, reduceNoise, difference);
+        std::vector<float> processedSpeech(frames);
+        std::vector<float> processedNoise(frames);
+        for (int32_t i = 0; i < frames; ++i) {
+            processedSpeech[i] = 0.5f * (outputSum[i] + outputDifference[i]);
+            processedNoise[i] = 0.5f * (outputSum[i] - outputDifference[i]);
+        }
+        speechEnergy[reduceNoise] = energy(processedSpeech, begin, frames);
+        snrDb[reduceNoise] = 10.0 * std::log10(speechEnergy[reduceNoise] / energy(processedNoise, begin, frames));
+    }
+    EXPECT_TRUE(snrDb[1] - snrDb[0] > 4.0);
+    EXPECT_TRUE(10.0 * std::log10(speechEnergy[0] / speechEnergy[1]) < 2.0);
+}
+
+int main() {
+    checkTracksNoiseFloor();
+    checkImprovesSignalToNoiseRatio(FilterBankType::Bandpass);
+    checkImprovesSignalToNoiseRatio(FilterBankType::Crossover);
+    checkImprovesSignalToNoiseRatio(FilterBankType::Wola);
+    return TEST_RESULT();
+}
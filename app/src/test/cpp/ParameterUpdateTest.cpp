@@ -0,0 +1,124 @@
+/**
+ * Checks that parameter sets cross the TripleBuffer whole while a writer publishes at full speed,
+ * and that new WDRC coefficients are approached gradually rather than in one step.
+ */
+
+#include <algorithm>
+#include <array>
+#include <atomic>
+#include <cmath>
+#include <thread>
+
+#include "TestHarness.h"
+#include "TripleBuffer.h"
+#include "WDRC.h"
+
+// Large enough that a torn copy would be caught
+struct Payload {
+    std::array<int, 64> values;
+};
+
+static void checkReaderNeverSeesTornValues() {
+    constexpr int kPublishCount = 200000;
+    Payload initial;
+    initial.values.fill(0);
+    TripleBuffer<Payload> buffer(initial);
+    std::atomic<bool> writerDone{false};
+
+    std::thread writer([&]() {
+        for (int value = 1; value <= kPublishCount; ++value) {
+            buffer.writeBuffer().values.fill(value);
+            buffer.publish();
+        }
+        writerDone = true;
+    });
+
+    int torn = 0;
+    int wentBackwards = 0;
+    int lastSeen = 0;
+    for (;;) {
+        const bool done = writerDone.load();
+        buffer.update();
+        const Payload& payload = buffer.readBuffer();
+        for (int value : payload.values) {
+            torn += value != payload.values[0] ? 1 : 0;
+        }
+        wentBackwards += payload.values[0] < lastSeen ? 1 : 0;
+        lastSeen = payload.values[0];
+        if (done) {
+            break;
+        }
+    }
+    writer.join();
+    buffer.update();
+
+    EXPECT_TRUE(torn == 0);
+    EXPECT_TRUE(wentBackwards == 0);
+    EXPECT_TRUE(buffer.readBuffer().values[0] == kPublishCount);
+}
+
+static void checkGainGlidesToTarget() {
+    const WDRCParams quiet = {-40.0f, 3.0f, 0.01f, 0.1f, 0.0f};
+    const WDRCParams loud = {-30.0f, 2.0f, 0.01f, 0.1f, 20.0f};
+    WDRCCoefficients current = computeWDRCCoefficients(quiet, 48000.0f);
+    const WDRCCoefficients target = computeWDRCCoefficients(loud, 48000.0f);
+
+    // 16-frame blocks with the 20 ms glide used by AudioProcessor
+    const float amount = 16.0f / (0.02f * 48000.0f);
+    float previousGainDb = 0.0f;
+    float largestStepDb = 0.0f;
+    int blocks = 0;
+    while (!smoothWDRCCoefficients(current, target, amount) && blocks < 10000) {
+        const float gainDb = 20.0f * std::log10(current.gainLinear);
+        largestStepDb = std::max(largestStepDb, std::abs(gainDb - previousGainDb));
+        previousGainDb = gainDb;
+        ++blocks;
+    }
+
+    EXPECT_TRUE(blocks > 10);
+    EXPECT_TRUE(blocks < 1000);
+    EXPECT_TRUE(largestStepDb < 0.5f);
+    EXPECT_NEAR(current.gainLinear, target.gainLinear, 1e-6);
+    EXPECT_NEAR(current.thresholdLinear, target.thresholdLinear, 1e-6);
+    EXPECT_NEAR(current.compressionExponent, target.compressionExponent, 1e-6);
+}
+
+// A new curve shape is applied gradually, from the gliding curve, until the target's table takes over
+static void checkCurveGlidesToTable() {
+    const WDRCParams plain = {-40.0f, 3.0f, 0.01f, 0.1f, 10.0f};
+    WDRCParams expanded = plain;
+    expanded.expansion_threshold = -60.0f;
+    expanded.expansion_ratio = 3.0f;
+    WDRCCoefficients current = computeWDRCCoefficients(plain, 48000.0f);
+    const WDRCCoefficients target = computeWDRCCoefficients(expanded, 48000.0f);
+
+    // A level 20 dB below the kneepoint, which loses 40 dB of gain
+    const float envelope = 1e-4f;
+    const float amount = 16.0f / (0.02f * 48000.0f);
+    float previousGainDb = 20.0f * std::log10(lookupWDRCGain(current, envelope));
+    float largestStepDb = 0.0f;
+    bool followedCurve = true;
+    int blocks = 0;
+    while (!smoothWDRCCoefficients(current, target, amount) && blocks < 10000) {
+        followedCurve = followedCurve && !current.gainTableValid
+                        && lookupWDRCGain(current, envelope) == computeWDRCGain(current, envelope);
+        const float gainDb = 20.0f * std::log10(lookupWDRCGain(current, envelope));
+        largestStepDb = std::max(largestStepDb, std::abs(gainDb - previousGainDb));
+        previousGainDb = gainDb;
+        ++blocks;
+    }
+
+    EXPECT_TRUE(blocks > 10);
+    EXPECT_TRUE(blocks < 1000);
+    EXPECT_TRUE(followedCurve);
+    EXPECT_TRUE(largestStepDb < 1.0f);
+    EXPECT_TRUE(current.gainTableValid);
+    EXPECT_TRUE(current.gainTable.gains == target.gainTable.gains);
+}
+
+int main() {
+    checkReaderNeverSeesTornValues();
+    checkGainGlidesToTarget();
+    checkCurveGlidesToTable();
+    return TEST_RESULT();
+}
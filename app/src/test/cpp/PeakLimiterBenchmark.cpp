@@ -0,0 +1,79 @@
+/**
+ * Measures the cost of the PeakLimiter output stage against the hard clamp it replaced, for both
+ * ears at typical callback sizes and several look-aheads. Results are in nanoseconds per callback.
+ *
+ * The input is a second of noise bursts that are amplified past full scale about half the time,
+ * played through callback by callback, so the window maximum queue sees both rising and falling
+ * peaks and the gain attacks and releases throughout.
+ */
+
+#include <algorithm>
+#include <cstdio>
+#include <vector>
+
+#include "BenchmarkUtils.h"
+#include "PeakLimiter.h"
+
+constexpr int32_t kTotalFrames = DEFAULT_SAMPLE_RATE;
+constexpr float kGain = 2.5f;
+
+static std::vector<float> makeBursts(uint32_t seed) {
+    std::vector<float> signal(kTotalFrames);
+    uint32_t state = seed;
+    auto next = [&state]() {
+        state = state * 1664525u + 1013904223u;
+        return static_cast<float>(state >> 8) / 16777216.0f;
+    };
+    float level = 0.0f;
+    for (int32_t frame = 0; frame < kTotalFrames; ++frame) {
+        if (frame % 480 == 0) {
+            level = 0.8f * next();
+        }
+        signal[frame] = level * (2.0f * next() - 1.0f);
+    }
+    return signal;
+}
+
+// Nanoseconds per callback of stage(earSamples, numFrames), each call on the next block of input
+template <typename Stage>
+static double measureNanos(const std::vector<float>* input, int32_t numFrames, Stage&& stage) {
+    std::vector<float> left(numFrames);
+    std::vector<float> right(numFrames);
+    float* earSamples[NUM_EARS] = {left.data(), right.data()};
+    int32_t offset = 0;
+    const double callsPerSecond = measureCallsPerSecond([&]() {
+        std::copy(input[0].begin() + offset, input[0].begin() + offset + numFrames, left.begin());
+        std::copy(input[1].begin() + offset, input[1].begin() + offset + numFrames, right.begin());
+        stage(earSamples, numFrames);
+        offset = (offset + numFrames) % (kTotalFrames - numFrames);
+        gBenchmarkSink = left[0];
+    });
+    return 1e9 / callsPerSecond;
+}
+
+int main() {
+    const std::vector<float> input[NUM_EARS] = {makeBursts(1), makeBursts(2)};
+
+    for (int32_t numFrames : {16, 64, 192}) {
+        std::printf("%d frames x %d ears\n", numFrames, NUM_EARS);
+        const double clampNanos = measureNanos(input, numFrames, [](float* const* earSamples, int32_t frames) {
+            for (int ear = 0; ear < NUM_EARS; ++ear) {
+                for (int32_t frame = 0; frame < frames; ++frame) {
+                    earSamples[ear][frame] = std::clamp(earSamples[ear][frame] * kGain, -1.0f, 1.0f);
+                }
+            }
+        });
+        std::printf("  %-22s %8.1f ns/callback\n", "hard clamp", clampNanos);
+        for (float lookAhead : {0.0f, 0.001f, 0.005f}) {
+            PeakLimiter limiter(DEFAULT_SAMPLE_RATE, lookAhead);
+            limiter.setCeiling(0, 0.5f);
+            const double limiterNanos = measureNanos(input, numFrames, [&](float* const* earSamples, int32_t frames) {
+                limiter.process(earSamples, frames, kGain);
+            });
+            char name[32];
+            std::snprintf(name, sizeof(name), "limiter, %d-frame ahead", limiter.getLatencyFrames());
+            std::printf("  %-22s %8.1f ns/callback\n", name, limiterNanos);
+        }
+    }
+    return 0;
+}
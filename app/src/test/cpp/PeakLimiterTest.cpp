@@ -0,0 +1,169 @@
+/**
+ * Checks the PeakLimiter: loud transients and bursts never take an ear past its ceiling and are
+ * ramped down rather than clipped, at every look-ahead including none; a steady loud tone comes out
+ * as the same tone scaled to the ceiling; quiet audio passes unchanged after exactly
+ * getLatencyFrames(); and a lowered ceiling holds from the next block.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <vector>
+
+#include "PeakLimiter.h"
+#include "TestHarness.h"
+
+static constexpr int32_t kSampleRate = 48000;
+static constexpr float kGain = 2.5f;
+
+// Run both ears through the limiter in blocks of blockFrames and return the limited signals
+static std::vector<std::vector<float>> run(PeakLimiter& limiter, const std::vector<std::vector<float>>& input,
+                                           int32_t blockFrames) {
+    std::vector<std::vector<float>> output = input;
+    const int32_t frames = static_cast<int32_t>(input[0].size());
+    for (int32_t offset = 0; offset < frames; offset += blockFrames) {
+        float* earSamples[NUM_EARS] = {output[0].data() + offset, output[1].data() + offset};
+        limiter.process(earSamples, std::min(blockFrames, frames - offset), kGain);
+    }
+    return output;
+}
+
+// Noise bursts of random level up to 12 dB over full scale once amplified, with isolated clicks
+static std::vector<float> makeBursts(int32_t frames, uint32_t seed) {
+    std::vector<float> signal(frames);
+    uint32_t state = seed;
+    auto next = [&state]() {
+        state = state * 1664525u + 1013904223u;
+        return static_cast<float>(state >> 8) / 16777216.0f;
+    };
+    float level = 0.0f;
+    for (int32_t frame = 0; frame < frames; ++frame) {
+        if (frame % 480 == 0) {
+            level = 1.6f * next() * next();
+        }
+        signal[frame] = level * (2.0f * next() - 1.0f);
+        if (frame % 4801 == 100) {
+            signal[frame] = next() < 0.5f ? 4.0f : -4.0f;
+        }
+    }
+    return signal;
+}
+
+static void checkNeverExceedsCeiling() {
+    const std::vector<std::vector<float>> input = {makeBursts(kSampleRate * 2, 1), makeBursts(kSampleRate * 2, 2)};
+    const float ceilings[NUM_EARS] = {0.5f, 0.2f};
+    for (float lookAhead : {0.0f, 0.001f, 0.005f}) {
+        for (int32_t blockFrames : {16, 37, 192}) {
+            PeakLimiter limiter(kSampleRate, lookAhead);
+            limiter.setCeiling(0, ceilings[0]);
+            limiter.setCeiling(1, ceilings[1]);
+            const std::vector<std::vector<float>> output = run(limiter, input, blockFrames);
+            const int32_t latency = limiter.getLatencyFrames();
+            const float maxStep = 1.0f / static_cast<float>(latency + 1);
+            for (int ear = 0; ear < NUM_EARS; ++ear) {
+                float peak = 0.0f;
+                float largestGainStep = 0.0f;
+                float previousGain = -1.0f;
+                for (size_t frame = latency; frame < output[ear].size(); ++frame) {
+                    peak = std::max(peak, std::abs(output[ear][frame]));
+                    // The gain applied to each delayed frame falls by at most 1 / window per frame, so
+                    // the waveform is ramped down, never flattened against the ceiling
+                    const float in = kGain * input[ear][frame - latency];
+                    const float gainApplied = std::abs(in) > 0.01f ? output[ear][frame] / in : -1.0f;
+                    if (previousGain >= 0.0f && gainApplied >= 0.0f) {
+                        largestGainStep = std::max(largestGainStep, previousGain - gainApplied);
+                    }
+                    previousGain = gainApplied;
+                }
+                EXPECT_TRUE(peak <= ceilings[ear]);
+                EXPECT_TRUE(peak > 0.9f * ceilings[ear]);
+                if (latency > 0) {
+                    EXPECT_NEAR(largestGainStep, 0.0f, maxStep * 1.001f);
+                }
+            }
+        }
+    }
+}
+
+static void checkSteadyToneIsScaled() {
+    const int32_t frames = kSampleRate;
+    std::vector<std::vector<float>> input(NUM_EARS, std::vector<float>(frames));
+    for (int32_t frame = 0; frame < frames; ++frame) {
+        input[0][frame] = 0.8f * std::sin(2.0f * static_cast<float>(M_PI) * 440.0f * frame / kSampleRate);
+        input[1][frame] = 0.1f * input[0][frame];
+    }
+    PeakLimiter limiter(kSampleRate);
+    limiter.setCeiling(0, 0.5f);
+    const std::vector<std::vector<float>> output = run(limiter, input, 64);
+    const int32_t latency = limiter.getLatencyFrames();
+
+    // Once settled the louder ear is the tone at a quarter of its level, the quiet one untouched
+    float largestError[NUM_EARS] = {};
+    for (int32_t frame = frames / 2; frame < frames; ++frame) {
+        const float delayed = kGain * input[0][frame - latency];
+        largestError[0] = std::max(largestError[0], std::abs(output[0][frame] - 0.25f * delayed));
+        largestError[1] = std::max(largestError[1], std::abs(output[1][frame] - kGain * input[1][frame - latency]));
+    }
+    EXPECT_NEAR(largestError[0], 0.0f, 0.005f);
+    EXPECT_NEAR(largestError[1], 0.0f, 1e-6f);
+}
+
+static void checkLatency() {
+    for (float lookAhead : {0.0f, 0.001f, 0.004f}) {
+        PeakLimiter limiter(kSampleRate, lookAhead);
+        EXPECT_TRUE(limiter.getLatencyFrames() == static_cast<int32_t>(std::lround(lookAhead * kSampleRate)));
+        std::vector<std::vector<float>> input(NUM_EARS, std::vector<float>(1024, 0.0f));
+        input[0][10] = 0.1f;
+        input[1][20] = -0.2f;
+        const std::vector<std::vector<float>> output = run(limiter, input, 16);
+        const int32_t latency = limiter.getLatencyFrames();
+        EXPECT_NEAR(output[0][10 + latency], 0.25f, 1e-6f);
+        EXPECT_NEAR(output[1][20 + latency], -0.5f, 1e-6f);
+    }
+
+    // The look-ahead is capped by the fixed storage
+    PeakLimiter longest(kSampleRate, 1.0f);
+    EXPECT_TRUE(longest.getLatencyFrames() == PeakLimiter::kMaxLookAheadFrames);
+}
+
+static void checkLoweredCeiling() {
+    PeakLimiter limiter(kSampleRate);
+    const int32_t latency = limiter.getLatencyFrames();
+    const int32_t blockFrames = 64;
+    const size_t switchOffset = 100 * blockFrames;
+    std::vector<std::vector<float>> input(NUM_EARS, std::vector<float>(2 * switchOffset));
+    for (size_t frame = 0; frame < input[0].size(); ++frame) {
+        input[0][frame] = 0.35f * std::sin(0.05f * frame);
+        input[1][frame] = input[0][frame];
+    }
+    std::vector<std::vector<float>> output = input;
+    float peakBefore = 0.0f;
+    float peakAfter = 0.0f;
+    for (size_t offset = 0; offset + blockFrames <= input[0].size(); offset += blockFrames) {
+        if (offset == switchOffset) {
+            limiter.setCeiling(0, 0.1f);
+        }
+        float* earSamples[NUM_EARS] = {output[0].data() + offset, output[1].data() + offset};
+        limiter.process(earSamples, blockFrames, kGain);
+        for (int32_t frame = 0; frame < blockFrames; ++frame) {
+            float& peak = offset + frame < switchOffset + latency ? peakBefore : peakAfter;
+            peak = std::max(peak, std::abs(earSamples[0][frame]));
+        }
+    }
+    EXPECT_TRUE(peakBefore > 0.8f);
+    EXPECT_TRUE(peakAfter <= 0.1f);
+    EXPECT_NEAR(limiter.getCeiling(0), 0.1f, 1e-7f);
+
+    // Ceilings stay within kMinCeiling..1
+    limiter.setCeiling(1, 2.0f);
+    EXPECT_TRUE(limiter.getCeiling(1) == 1.0f);
+    limiter.setCeiling(1, 0.0f);
+    EXPECT_TRUE(limiter.getCeiling(1) == PeakLimiter::kMinCeiling);
+}
+
+int main() {
+    checkNeverExceedsCeiling();
+    checkSteadyToneIsScaled();
+    checkLatency();
+    checkLoweredCeiling();
+    return TEST_RESULT();
+}
@@ -0,0 +1,161 @@
+/**
+ * Checks that the PolyphaseResampler picks the lowest internal rate that still carries the top
+ * band, passes in-band audio through with its stated latency for block sizes that are not
+ * multiples of the factor, delays an impulse by exactly that latency including the frames the
+ * output FIFO is primed with, and rejects content that would alias, and that the AudioProcessor
+ * reports the rates and latency it actually runs with.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "PolyphaseResampler.h"
+#include "TestHarness.h"
+
+static std::vector<float> makeTone(float frequency, float sampleRate, int32_t length) {
+    std::vector<float> tone(length);
+    for (int32_t i = 0; i < length; ++i) {
+        tone[i] = 0.5f * std::sin(2.0f * static_cast<float>(M_PI) * frequency * i / sampleRate);
+    }
+    return tone;
+}
+
+static void checkChooseFactor() {
+    EXPECT_TRUE(PolyphaseResampler::chooseFactor(8000.0f, 48000) == 2);
+    EXPECT_TRUE(PolyphaseResampler::chooseFactor(8000.0f, 44100) == 2);
+    EXPECT_TRUE(PolyphaseResampler::chooseFactor(5000.0f, 48000) == 4);
+    EXPECT_TRUE(PolyphaseResampler::chooseFactor(8000.0f, 16000) == 1);
+    EXPECT_TRUE(PolyphaseResampler::chooseFactor(16000.0f, 48000) == 1);
+}
+
+// Decimate and interpolate a tone in blocks of varying size; the output must be the delayed input
+static void checkRoundTrip(int factor, float frequency) {
+    PolyphaseResampler resampler(factor);
+    resampler.prepare(192);
+    const std::vector<float> left = makeTone(frequency, DEFAULT_SAMPLE_RATE, 9600);
+    const std::vector<float> right = makeTone(0.5f * frequency, DEFAULT_SAMPLE_RATE, 9600);
+    std::vector<float> leftOutput(left.size());
+    std::vector<float> rightOutput(right.size());
+    std::vector<float> internalBuffer(2 * NUM_EARS * PolyphaseResampler::maxDecimatedFrames(192, factor));
+    const int32_t internalStride = PolyphaseResampler::maxDecimatedFrames(192, factor);
+    float* internalInput[NUM_EARS] = {internalBuffer.data(), internalBuffer.data() + internalStride};
+    float* internalOutput[NUM_EARS] = {internalBuffer.data() + 2 * internalStride, internalBuffer.data() + 3 * internalStride};
+
+    const int32_t blockSizes[] = {16, 1, 37, 64, 192, 3};
+    int32_t offset = 0;
+    for (int block = 0; offset < static_cast<int32_t>(left.size()); ++block) {
+        const int32_t frames = std::min(blockSizes[block % 6], static_cast<int32_t>(left.size()) - offset);
+        const float* earInput[NUM_EARS] = {left.data() + offset, right.data() + offset};
+        float* earOutput[NUM_EARS] = {leftOutput.data() + offset, rightOutput.data() + offset};
+        const int32_t produced = resampler.decimate(earInput, frames, internalInput);
+        EXPECT_TRUE(produced <= PolyphaseResampler::maxDecimatedFrames(frames, factor));
+        for (int ear = 0; ear < NUM_EARS; ++ear) {
+            std::copy(internalInput[ear], internalInput[ear] + produced, internalOutput[ear]);
+        }
+        resampler.interpolate(internalOutput, produced, earOutput, frames);
+        offset += frames;
+    }
+
+    const int latency = resampler.getLatencyFrames();
+    for (size_t frame = 1000; frame < left.size(); ++frame) {
+        EXPECT_NEAR(leftOutput[frame], left[frame - latency], 0.01);
+        EXPECT_NEAR(rightOutput[frame], right[frame - latency], 0.01);
+    }
+}
+
+// An impulse must peak exactly getLatencyFrames() later whatever the block size, and that latency
+// must include the FIFO priming on top of the filters' delay
+static void checkImpulseDelay(int factor, int32_t blockFrames) {
+    PolyphaseResampler resampler(factor);
+    resampler.prepare(blockFrames);
+    EXPECT_TRUE(resampler.getFifoPrimingFrames() == factor - 1);
+    EXPECT_TRUE(resampler.getLatencyFrames() == factor * PolyphaseResampler::kTapsPerPhase - 1);
+
+    constexpr int32_t kImpulseFrame = 100;
+    const int32_t length = kImpulseFrame + 2 * factor * PolyphaseResampler::kTapsPerPhase + 2 * blockFrames;
+    std::vector<float> input(length, 0.0f);
+    std::vector<float> output(length, 0.0f);
+    input[kImpulseFrame] = 1.0f;
+    const int32_t internalStride = PolyphaseResampler::maxDecimatedFrames(blockFrames, factor);
+    std::vector<float> internalBuffer(NUM_EARS * internalStride);
+    std::vector<float> discarded(blockFrames);
+    float* internal[NUM_EARS] = {internalBuffer.data(), internalBuffer.data() + internalStride};
+    for (int32_t offset = 0; offset < length; offset += blockFrames) {
+        const int32_t frames = std::min(blockFrames, length - offset);
+        const float* earInput[NUM_EARS] = {input.data() + offset, input.data() + offset};
+        float* earOutput[NUM_EARS] = {output.data() + offset, discarded.data()};
+        const int32_t produced = resampler.decimate(earInput, frames, internal);
+        resampler.interpolate(internal, produced, earOutput, frames);
+    }
+    const auto peak = std::max_element(output.begin(), output.end(),
+                                       [](float a, float b) { return std::abs(a) < std::abs(b); });
+    EXPECT_TRUE(peak - output.begin() == kImpulseFrame + resampler.getLatencyFrames());
+}
+
+// A tone above the internal Nyquist frequency must not fold back into the bands
+static void checkAliasRejection(int factor) {
+    PolyphaseResampler resampler(factor);
+    resampler.prepare(4800);
+    const float internalRate = static_cast<float>(DEFAULT_SAMPLE_RATE) / factor;
+    const std::vector<float> tone = makeTone(0.6f * internalRate, DEFAULT_SAMPLE_RATE, 4800);
+    std::vector<float> internalBuffer(NUM_EARS * 4800);
+    const float* earInput[NUM_EARS] = {tone.data(), tone.data()};
+    float* internalOutput[NUM_EARS] = {internalBuffer.data(), internalBuffer.data() + 4800};
+    const int32_t produced = resampler.decimate(earInput, 4800, internalOutput);
+    float peak = 0.0f;
+    for (int32_t frame = produced / 2; frame < produced; ++frame) {
+        peak = std::max(peak, std::abs(internalOutput[0][frame]));
+    }
+    EXPECT_TRUE(peak < 0.5f * 0.01f);
+}
+
+// An impulse small enough to stay linear must come out after the reported latency
+static void checkProcessorRates(int32_t streamRate, bool resampling, FilterBankType type, int expectedFactor) {
+    AudioProcessor processor(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, type);
+    processor.setSampleRate(streamRate, resampling);
+    processor.prepare(16);
+    EXPECT_TRUE(processor.getSampleRate() == streamRate);
+    EXPECT_TRUE(processor.getResampleFactor() == expectedFactor);
+    EXPECT_NEAR(processor.getProcessingSampleRate(), static_cast<float>(streamRate) / expectedFactor, 1e-3);
+
+    constexpr int32_t kLength = 2048;
+    std::vector<float> input(2 * kLength, 0.0f);
+    std::vector<float> output(input.size());
+    input[0] = input[1] = 0.001f;
+    for (int32_t offset = 0; offset < kLength; offset += 16) {
+        processor.process(input.data() + 2 * offset, output.data() + 2 * offset, 16, 2);
+    }
+    int peakFrame = 0;
+    for (int32_t frame = 1; frame < kLength; ++frame) {
+        if (std::abs(output[2 * frame]) > std::abs(output[2 * peakFrame])) {
+            peakFrame = frame;
+        }
+    }
+    if (type == FilterBankType::Wola) {
+        EXPECT_NEAR(peakFrame, processor.getProcessingLatencyFrames(), 2);
+    } else {
+        // The IIR banks add their group delay on top
+        EXPECT_TRUE(peakFrame >= processor.getProcessingLatencyFrames());
+        EXPECT_TRUE(peakFrame < processor.getProcessingLatencyFrames() + 16);
+    }
+}
+
+int main() {
+    checkChooseFactor();
+    for (int factor = 2; factor <= PolyphaseResampler::kMaxFactor; ++factor) {
+        checkRoundTrip(factor, 0.3f * DEFAULT_SAMPLE_RATE / factor);
+        for (int32_t blockFrames : {1, 16, 37, 192}) {
+            checkImpulseDelay(factor, blockFrames);
+        }
+        checkAliasRejection(factor);
+    }
+    checkProcessorRates(48000, false, FilterBankType::Bandpass, 1);
+    checkProcessorRates(48000, true, FilterBankType::Bandpass, 2);
+    checkProcessorRates(44100, true, FilterBankType::Crossover, 2);
+    checkProcessorRates(16000, true, FilterBankType::Bandpass, 1);
+    checkProcessorRates(48000, true, FilterBankType::Wola, 2);
+    checkProcessorRates(16000, false, FilterBankType::Wola, 1);
+    return TEST_RESULT();
+}
@@ -0,0 +1,35 @@
+/**
+ * Reports AudioProcessor cost per callback and per band for each supported band count and filter
+ * bank type, with and without internal resampling, as measured by measureProcessingCost(), and the
+ * band count a device would pick from it.
+ */
+
+#include <cstdio>
+
+#include "DspConstants.h"
+#include "ProcessingCost.h"
+
+int main() {
+    constexpr int32_t kFramesPerCallback = 16;
+    constexpr int32_t kChannelCount = 2;
+
+    for (FilterBankType type : {FilterBankType::Bandpass, FilterBankType::Crossover}) {
+        for (bool resampling : {false, true}) {
+            std::printf("%s%s, %d frames x %d channels at %d Hz\n",
+                        type == FilterBankType::Crossover ? "Crossover" : "Bandpass",
+                        resampling ? " with internal resampling" : "", kFramesPerCallback, kChannelCount,
+                        DEFAULT_SAMPLE_RATE);
+            for (int bandCount = MIN_BANDS; bandCount <= MAX_BANDS; bandCount += 4) {
+                ProcessingCost cost = measureProcessingCost(bandCount, kFramesPerCallback, DEFAULT_SAMPLE_RATE,
+                                                            kChannelCount, 500, type, DEFAULT_WOLA_FFT_SIZE, resampling);
+                std::printf("  %2d bands %9.1f ns/callback (worst %9.1f) %7.1f ns/band %6.2f%% of deadline\n",
+                            bandCount, cost.nanosPerCallback, cost.worstNanos, cost.nanosPerBand,
+                            cost.deadlineFraction * 100.0);
+            }
+            std::printf("  Sustainable at 50%% of deadline: %d bands\n",
+                        chooseSustainableBandCount(kFramesPerCallback, DEFAULT_SAMPLE_RATE, kChannelCount, 0.5, 200,
+                                                   type, DEFAULT_WOLA_FFT_SIZE, resampling));
+        }
+    }
+    return 0;
+}
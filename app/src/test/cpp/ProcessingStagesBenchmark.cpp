@@ -0,0 +1,100 @@
+/**
+ * Times each AudioProcessor pipeline stage separately, and the whole pipeline, at typical
+ * callback sizes, with the bands split per ear and, for mono input, once for both ears. Results
+ * are in nanoseconds per callback so they can be compared directly with the callback deadline
+ * (333 us for 16 frames at 48 kHz).
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "BenchmarkUtils.h"
+#include "FilterBank.h"
+#include "PeakLimiter.h"
+#include "ProcessingStages.h"
+#include "WDRC.h"
+
+static void benchmarkBlockSize(int32_t numFrames) {
+    constexpr int32_t kChannelCount = 2;
+    std::vector<float> interleaved(numFrames * kChannelCount);
+    for (size_t i = 0; i < interleaved.size(); ++i) {
+        interleaved[i] = 0.3f * std::sin(0.013f * i) + 0.1f * std::sin(0.31f * i);
+    }
+    std::vector<float> output(interleaved.size());
+    std::vector<float> earInputBuffer(NUM_EARS * numFrames);
+    std::vector<float> earOutputBuffer(NUM_EARS * numFrames);
+    FilterBank bank(DEFAULT_SAMPLE_RATE, DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS);
+    const int laneCount = bank.getLaneCount();
+    std::vector<float> bandBuffer(laneCount * numFrames);
+    float* earInput[NUM_EARS] = {earInputBuffer.data(), earInputBuffer.data() + numFrames};
+    float* earOutput[NUM_EARS] = {earOutputBuffer.data(), earOutputBuffer.data() + numFrames};
+
+    WDRCCoefficients coefficients = computeWDRCCoefficients({-40.0f, 3.0f, 0.01f, 0.1f, 10.0f}, DEFAULT_SAMPLE_RATE);
+    float envelopes[FilterBank::kMaxLanes] = {};
+    AudioProcessor processor;
+    processor.setInputChannelMode(InputChannelMode::Stereo);
+    processor.prepare(numFrames);
+    AudioProcessor monoProcessor;
+    monoProcessor.setInputChannelMode(InputChannelMode::Mono);
+    monoProcessor.prepare(numFrames);
+
+    auto report = [](const char* stage, double callsPerSecond) {
+        std::printf("  %-20s %9.1f ns/callback\n", stage, 1e9 / callsPerSecond);
+    };
+
+    std::printf("%d frames x %d channels, %d bands\n", numFrames, kChannelCount, DEFAULT_NUM_BANDS);
+    report("deinterleave", measureCallsPerSecond([&]() {
+        gBenchmarkSink = deinterleave(interleaved.data(), numFrames, kChannelCount, earInput);
+    }));
+    report("filter bank", measureCallsPerSecond([&]() {
+        bank.processBlock(earInput, bandBuffer.data(), numFrames);
+        gBenchmarkSink = bandBuffer[0];
+    }));
+    // Gain is applied in place, so each run restarts from the same filtered block (copy included)
+    bank.processBlock(earInput, bandBuffer.data(), numFrames);
+    const std::vector<float> filtered = bandBuffer;
+    report("envelope + gain", measureCallsPerSecond([&]() {
+        std::copy(filtered.begin(), filtered.end(), bandBuffer.begin());
+        for (int lane = 0; lane < laneCount; ++lane) {
+            applyWDRCBlock(bandBuffer.data() + lane, numFrames, laneCount, envelopes[lane], coefficients);
+        }
+        gBenchmarkSink = bandBuffer[0];
+    }));
+    report("sum bands", measureCallsPerSecond([&]() {
+        sumBands(bandBuffer.data(), numFrames, laneCount, bank.getLanesPerEar(), DEFAULT_NUM_BANDS, earOutput);
+        gBenchmarkSink = earOutput[0][0];
+    }));
+    // The limiter also works in place, so it restarts from the same summed block
+    const std::vector<float> summed = earOutputBuffer;
+    PeakLimiter limiter;
+    report("limiter", measureCallsPerSecond([&]() {
+        std::copy(summed.begin(), summed.end(), earOutputBuffer.begin());
+        limiter.process(earOutput, numFrames, 2.5f);
+        gBenchmarkSink = earOutput[0][0];
+    }));
+    report("interleave", measureCallsPerSecond([&]() {
+        gBenchmarkSink = interleave(earOutput, numFrames, output.data(), kChannelCount);
+    }));
+    report("filter bank, mono", measureCallsPerSecond([&]() {
+        bank.processBlock(earInput, bandBuffer.data(), numFrames, true);
+        gBenchmarkSink = bandBuffer[0];
+    }));
+    report("full pipeline", measureCallsPerSecond([&]() {
+        processor.process(interleaved.data(), output.data(), numFrames, kChannelCount);
+        gBenchmarkSink = output[0];
+    }));
+    report("full pipeline, mono", measureCallsPerSecond([&]() {
+        monoProcessor.process(interleaved.data(), output.data(), numFrames, kChannelCount);
+        gBenchmarkSink = output[0];
+    }));
+}
+
+int main() {
+    for (int32_t numFrames : {16, 64, 192}) {
+        benchmarkBlockSize(numFrames);
+    }
+    return 0;
+}
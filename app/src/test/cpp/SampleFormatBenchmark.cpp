@@ -0,0 +1,68 @@
+/**
+ * Compares a full-duplex callback on float streams, processed in place, with the same callback on
+ * int16 streams, which converts to float and back at its edges. Results are in nanoseconds per
+ * callback next to the share of the callback deadline they use.
+ *
+ * Conversion happens inside the callback and buffers nothing, so it adds no latency of its own;
+ * what int16 negotiation saves in latency comes from the device (no framework conversion, the MMAP
+ * path) and can only be measured there, with measureRoundTripLatency() for each format.
+ */
+
+#include <cmath>
+#include <cstdint>
+#include <cstdio>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "BenchmarkUtils.h"
+#include "SampleFormat.h"
+
+constexpr int32_t kChannelCount = 2;
+
+// One full-duplex callback as the engine runs it: convert in, process, convert out
+template <typename Sample>
+static void runCallback(AudioProcessor& processor, Sample* data, float* conversion, int32_t numFrames) {
+    using Format = SampleFormat<Sample>;
+    const size_t samples = static_cast<size_t>(numFrames) * kChannelCount;
+    float* work = Format::workBuffer(data, conversion);
+    const float* input = Format::toFloat(data, work, samples);
+    processor.process(input, work, numFrames, kChannelCount);
+    Format::fromFloat(work, data, samples);
+}
+
+// Time callbacks on a fresh copy of the input each time (copy included, the same for both formats)
+template <typename Sample>
+static double measureNanos(const std::vector<Sample>& input, int32_t numFrames) {
+    AudioProcessor processor;
+    processor.prepare(numFrames);
+    std::vector<Sample> data(input.size());
+    std::vector<float> conversion(input.size());
+    const double callsPerSecond = measureCallsPerSecond([&]() {
+        std::copy(input.begin(), input.end(), data.begin());
+        runCallback(processor, data.data(), conversion.data(), numFrames);
+        gBenchmarkSink = static_cast<float>(data[0]);
+    });
+    return 1e9 / callsPerSecond;
+}
+
+int main() {
+    for (int32_t numFrames : {16, 64, 192}) {
+        const size_t samples = static_cast<size_t>(numFrames) * kChannelCount;
+        std::vector<float> floatInput(samples);
+        std::vector<int16_t> int16Input(samples);
+        for (size_t i = 0; i < samples; ++i) {
+            floatInput[i] = 0.3f * std::sin(0.013f * i) + 0.1f * std::sin(0.31f * i);
+        }
+        SampleFormat<int16_t>::fromFloat(floatInput.data(), int16Input.data(), samples);
+
+        const double deadlineNanos = 1e9 * numFrames / DEFAULT_SAMPLE_RATE;
+        const double floatNanos = measureNanos(floatInput, numFrames);
+        const double int16Nanos = measureNanos(int16Input, numFrames);
+        std::printf("%d frames x %d channels, deadline %.0f ns\n", numFrames, kChannelCount, deadlineNanos);
+        std::printf("  float in place  %9.1f ns/callback (%4.1f%% of deadline)\n",
+                    floatNanos, 100.0 * floatNanos / deadlineNanos);
+        std::printf("  int16 converted %9.1f ns/callback (%4.1f%% of deadline, %+.1f ns conversion)\n",
+                    int16Nanos, 100.0 * int16Nanos / deadlineNanos, int16Nanos - floatNanos);
+    }
+    return 0;
+}
@@ -0,0 +1,64 @@
+/**
+ * Checks the edge conversions of SampleFormat: every int16 value survives the trip through float
+ * unchanged, float output rounds to the nearest step and saturates instead of wrapping, and float
+ * streams are processed in place without copies.
+ */
+
+#include <cstdint>
+#include <vector>
+
+#include "SampleFormat.h"
+#include "TestHarness.h"
+
+static void checkInt16RoundTrip() {
+    std::vector<int16_t> samples;
+    for (int32_t value = -32768; value <= 32767; ++value) {
+        samples.push_back(static_cast<int16_t>(value));
+    }
+    std::vector<float> scratch(samples.size());
+    const float* converted = SampleFormat<int16_t>::toFloat(samples.data(), scratch.data(), samples.size());
+    EXPECT_TRUE(converted == scratch.data());
+    EXPECT_NEAR(converted[0], -1.0f, 0.0f);
+    EXPECT_NEAR(converted[32768], 0.0f, 0.0f);
+
+    std::vector<int16_t> restored(samples.size());
+    SampleFormat<int16_t>::fromFloat(converted, restored.data(), restored.size());
+    EXPECT_TRUE(restored == samples);
+}
+
+static void checkInt16RoundingAndSaturation() {
+    const float input[] = {0.4f / 32768.0f, 0.6f / 32768.0f, -0.6f / 32768.0f, 1.0f, 1.5f, -1.0f, -7.0f, 0.5f};
+    const int16_t expected[] = {0, 1, -1, 32767, 32767, -32768, -32768, 16384};
+    int16_t output[8];
+    SampleFormat<int16_t>::fromFloat(input, output, 8);
+    bool matches = true;
+    for (int i = 0; i < 8; ++i) {
+        matches = matches && output[i] == expected[i];
+    }
+    EXPECT_TRUE(matches);
+
+    SampleFormat<int16_t>::fill(output, 8);
+    EXPECT_TRUE(output[0] == 0 && output[7] == 0);
+}
+
+static void checkFloatInPlace() {
+    float samples[4] = {0.25f, -0.5f, 2.0f, -3.0f};
+    float scratch[4] = {};
+    EXPECT_TRUE(SampleFormat<float>::toFloat(samples, scratch, 4) == samples);
+    EXPECT_TRUE(SampleFormat<float>::workBuffer(samples, scratch) == samples);
+
+    // Float is passed through unclipped, as before
+    SampleFormat<float>::fromFloat(samples, samples, 4);
+    EXPECT_NEAR(samples[2], 2.0f, 0.0f);
+
+    const float other[4] = {1.0f, 2.0f, 3.0f, 4.0f};
+    SampleFormat<float>::fromFloat(other, samples, 4);
+    EXPECT_NEAR(samples[3], 4.0f, 0.0f);
+}
+
+int main() {
+    checkInt16RoundTrip();
+    checkInt16RoundingAndSaturation();
+    checkFloatInPlace();
+    return TEST_RESULT();
+}
@@ -0,0 +1,109 @@
+/**
+ * Feeds long stretches of silence and near-silence after loud noise and reports the callback cost
+ * second by second, to show it stays flat while filter states and envelopes decay toward zero.
+ *
+ * Each run plays half a second of noise at -20 dBFS, then ten seconds of digital silence, then ten
+ * seconds of noise so faint its samples are themselves subnormal, in 16-frame callbacks. The
+ * AudioProcessor runs with each filter bank type and the squelch on; the bare FilterBank is also run
+ * with and without ScopedFlushDenormals, to show the slow path the processor avoids on this host.
+ * Results are in nanoseconds per callback, averaged over the loud half-second and over every other
+ * quiet second, with the slowest quiet second relative to the loud input.
+ */
+
+#include <algorithm>
+#include <chrono>
+#include <cstdio>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "BenchmarkUtils.h"
+#include "FilterBank.h"
+#include "FlushDenormals.h"
+
+constexpr int32_t kFramesPerCallback = 16;
+constexpr int32_t kChannelCount = 2;
+constexpr int kNoiseCallbacks = DEFAULT_SAMPLE_RATE / 2 / kFramesPerCallback;
+constexpr int kCallbacksPerSecond = DEFAULT_SAMPLE_RATE / kFramesPerCallback;
+constexpr int kSeconds = 20;
+
+// Interleaved stereo input of the callback number index: loud noise, then silence, then near-silence
+static void makeCallback(int index, float* block) {
+    static uint32_t state = 1;
+    const int quietIndex = index - kNoiseCallbacks;
+    const float amplitude = quietIndex < 0 ? 0.1f : quietIndex < 10 * kCallbacksPerSecond ? 0.0f : 1e-39f;
+    for (int32_t i = 0; i < kFramesPerCallback * kChannelCount; ++i) {
+        state = state * 1664525u + 1013904223u;
+        block[i] = amplitude * (static_cast<float>(state >> 8) / 8388608.0f - 1.0f);
+    }
+}
+
+// Run callback(block) over the whole input and print the mean cost of each quiet second
+template <typename Callback>
+static void report(const char* name, Callback&& callback) {
+    using Clock = std::chrono::steady_clock;
+    std::vector<float> block(kFramesPerCallback * kChannelCount);
+    // Mean nanoseconds per callback over callbacks [begin, begin + count)
+    auto measure = [&](int begin, int count) {
+        double nanos = 0.0;
+        for (int index = begin; index < begin + count; ++index) {
+            makeCallback(index, block.data());
+            const Clock::time_point start = Clock::now();
+            callback(block.data());
+            nanos += std::chrono::duration<double, std::nano>(Clock::now() - start).count();
+            gBenchmarkSink = block[0];
+        }
+        return nanos / count;
+    };
+    const double loudNanos = measure(0, kNoiseCallbacks);
+    double secondNanos[kSeconds];
+    for (int second = 0; second < kSeconds; ++second) {
+        secondNanos[second] = measure(kNoiseCallbacks + second * kCallbacksPerSecond, kCallbacksPerSecond);
+    }
+    std::printf("  %-24s %7.0f |", name, loudNanos);
+    for (int second = 0; second < kSeconds; second += 2) {
+        std::printf(" %7.0f", secondNanos[second]);
+    }
+    std::printf(" | %5.2f\n", *std::max_element(secondNanos, secondNanos + kSeconds) / loudNanos);
+}
+
+static void reportProcessor(const char* name, FilterBankType type) {
+    AudioProcessor processor(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, type);
+    processor.prepare(kFramesPerCallback);
+    processor.setSquelch(-70.0f, 2.0f, 6.0f);
+    report(name, [&](float* block) {
+        processor.process(block, block, kFramesPerCallback, kChannelCount);
+    });
+}
+
+static void reportFilterBank(const char* name, bool flush) {
+    FilterBank bank(DEFAULT_SAMPLE_RATE, DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS);
+    std::vector<float> left(kFramesPerCallback);
+    std::vector<float> right(kFramesPerCallback);
+    std::vector<float> bandBlock(kFramesPerCallback * bank.getLaneCount());
+    const float* earInput[NUM_EARS] = {left.data(), right.data()};
+    report(name, [&](float* block) {
+        for (int32_t frame = 0; frame < kFramesPerCallback; ++frame) {
+            left[frame] = block[frame * kChannelCount];
+            right[frame] = block[frame * kChannelCount + 1];
+        }
+        if (flush) {
+            ScopedFlushDenormals flushDenormals;
+            bank.processBlock(earInput, bandBlock.data(), kFramesPerCallback);
+        } else {
+            bank.processBlock(earInput, bandBlock.data(), kFramesPerCallback);
+        }
+        block[0] = bandBlock[0];
+    });
+}
+
+int main() {
+    std::printf("%d-frame callbacks at %d Hz, flush to zero %s on this host\n", kFramesPerCallback,
+                DEFAULT_SAMPLE_RATE, ScopedFlushDenormals::isSupported() ? "supported" : "not supported");
+    std::printf("  ns/callback:               loud | every other second, 10 s silent then 10 s subnormal | slowest/loud\n");
+    reportProcessor("AudioProcessor bandpass", FilterBankType::Bandpass);
+    reportProcessor("AudioProcessor crossover", FilterBankType::Crossover);
+    reportProcessor("AudioProcessor WOLA", FilterBankType::Wola);
+    reportFilterBank("FilterBank, flushed", true);
+    reportFilterBank("FilterBank, subnormals", false);
+    return 0;
+}
@@ -0,0 +1,149 @@
+/**
+ * Checks the Squelch: a band closes below the kneepoint and stays closed for envelopes hovering
+ * within the hysteresis, expanding at the set ratio down to kMinGain and opening without a step; in
+ * an AudioProcessor with each filter bank it turns low-level noise down while leaving a louder tone
+ * alone. Also checks that ScopedFlushDenormals flushes subnormal results and restores the mode.
+ */
+
+#include <cmath>
+#include <limits>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "FlushDenormals.h"
+#include "Squelch.h"
+#include "TestHarness.h"
+
+static constexpr int32_t kSampleRate = 48000;
+static constexpr int32_t kBlockFrames = 64;
+
+static float dbToLevel(float db) {
+    return std::pow(10.0f, db / 20.0f);
+}
+
+static float levelToDb(float level) {
+    return 20.0f * std::log10(level);
+}
+
+static void checkHysteresis() {
+    // Knee at -60 dBFS, ratio 3 and 10 dB of hysteresis, so bands open again at -50 dBFS
+    Squelch squelch;
+    EXPECT_TRUE(!squelch.isEnabled());
+    squelch.setParameters(-60.0f, 3.0f, 10.0f);
+    EXPECT_TRUE(squelch.isEnabled());
+    Squelch::EarGains envelopes{};
+    auto update = [&](float levelDb) {
+        envelopes[0][0] = envelopes[1][0] = dbToLevel(levelDb);
+        squelch.update(envelopes, 1);
+    };
+
+    // Above the knee the band is open at unity gain
+    update(-55.0f);
+    EXPECT_TRUE(!squelch.isClosed(0, 0));
+    EXPECT_NEAR(squelch.getGains()[0][0], 1.0, 1e-6);
+
+    // Below it the band closes, 2 dB of gain per dB below the opening level
+    update(-65.0f);
+    EXPECT_TRUE(squelch.isClosed(0, 0));
+    EXPECT_TRUE(squelch.isClosed(1, 0));
+    EXPECT_NEAR(levelToDb(squelch.getGains()[0][0]), -30.0, 0.2);
+
+    // Hovering between the knee and the opening level it stays closed, following the ratio
+    for (int block = 0; block < 100; ++block) {
+        const float levelDb = block % 2 == 0 ? -58.0f : -52.0f;
+        update(levelDb);
+        EXPECT_TRUE(squelch.isClosed(0, 0));
+        EXPECT_NEAR(levelToDb(squelch.getGains()[0][0]), 2.0f * (levelDb + 50.0f), 0.2);
+    }
+
+    // Reaching the opening level releases it, where the closed gain had climbed back to 1
+    update(-50.5f);
+    EXPECT_NEAR(levelToDb(squelch.getGains()[0][0]), -1.0, 0.2);
+    update(-49.5f);
+    EXPECT_TRUE(!squelch.isClosed(0, 0));
+    EXPECT_NEAR(squelch.getGains()[0][0], 1.0, 1e-6);
+    update(-58.0f);
+    EXPECT_TRUE(!squelch.isClosed(0, 0));
+
+    // Silence and envelopes decayed to subnormals stop at the floor
+    update(-200.0f);
+    EXPECT_NEAR(squelch.getGains()[0][0], Squelch::kMinGain, 1e-6);
+    envelopes[0][0] = envelopes[1][0] = 0.0f;
+    squelch.update(envelopes, 1);
+    EXPECT_NEAR(squelch.getGains()[1][0], Squelch::kMinGain, 1e-6);
+
+    // Turning it off opens every band at the next update
+    squelch.setParameters(-std::numeric_limits<float>::infinity(), 3.0f, 10.0f);
+    EXPECT_TRUE(!squelch.isEnabled());
+    squelch.update(envelopes, 1);
+    EXPECT_TRUE(!squelch.isClosed(0, 0));
+    EXPECT_NEAR(squelch.getGains()[0][0], 1.0, 1e-6);
+}
+
+static std::vector<float> makeNoise(int32_t frames, float amplitude) {
+    std::vector<float> noise(frames);
+    uint32_t state = 1;
+    for (int32_t i = 0; i < frames; ++i) {
+        state = state * 1664525u + 1013904223u;
+        noise[i] = amplitude * (static_cast<float>(state >> 8) / 8388608.0f - 1.0f);
+    }
+    return noise;
+}
+
+// Energy of the left output over the last second, for the given mono input
+static double outputEnergy(FilterBankType type, bool squelch, const std::vector<float>& input) {
+    AudioProcessor processor(DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, type);
+    processor.prepare(kBlockFrames);
+    if (squelch) {
+        processor.setSquelch(-50.0f, 3.0f, 6.0f);
+    }
+    EXPECT_TRUE(processor.isSquelchEnabled() == squelch);
+    std::vector<float> block(kBlockFrames * 2);
+    double sum = 0.0;
+    for (size_t offset = 0; offset + kBlockFrames <= input.size(); offset += kBlockFrames) {
+        for (int32_t frame = 0; frame < kBlockFrames; ++frame) {
+            block[frame * 2] = block[frame * 2 + 1] = input[offset + frame];
+        }
+        processor.process(block.data(), block.data(), kBlockFrames, 2);
+        for (int32_t frame = 0; frame < kBlockFrames && offset + kSampleRate >= input.size(); ++frame) {
+            sum += static_cast<double>(block[frame * 2]) * block[frame * 2];
+        }
+    }
+    return sum;
+}
+
+static void checkAttenuatesLowLevelNoise(FilterBankType type) {
+    const int32_t frames = 2 * kSampleRate;
+    // White noise around -75 dBFS lies well below the kneepoint in every band
+    const std::vector<float> noise = makeNoise(frames, 0.0003f);
+    EXPECT_TRUE(10.0 * std::log10(outputEnergy(type, false, noise) / outputEnergy(type, true, noise)) > 20.0);
+
+    // A 1 kHz tone at -20 dBFS keeps its band open
+    std::vector<float> tone(frames);
+    for (int32_t i = 0; i < frames; ++i) {
+        tone[i] = 0.1f * std::sin(2.0f * static_cast<float>(M_PI) * 1000.0f * i / kSampleRate);
+    }
+    EXPECT_NEAR(10.0 * std::log10(outputEnergy(type, false, tone) / outputEnergy(type, true, tone)), 0.0, 0.5);
+}
+
+static void checkFlushesDenormals() {
+    volatile float smallest = std::numeric_limits<float>::min();
+    volatile float half = 0.5f;
+    {
+        ScopedFlushDenormals flushDenormals;
+        const float product = smallest * half;
+        EXPECT_TRUE(!ScopedFlushDenormals::isSupported() || product == 0.0f);
+    }
+    // Outside the scope gradual underflow is back
+    const float product = smallest * half;
+    EXPECT_TRUE(product > 0.0f);
+}
+
+int main() {
+    checkHysteresis();
+    checkAttenuatesLowLevelNoise(FilterBankType::Bandpass);
+    checkAttenuatesLowLevelNoise(FilterBankType::Crossover);
+    checkAttenuatesLowLevelNoise(FilterBankType::Wola);
+    checkFlushesDenormals();
+    return TEST_RESULT();
+}
@@ -0,0 +1,186 @@
+/**
+ * Drives StreamRecovery against fake streams that can be told to fail or to block while reopening,
+ * the way Oboe streams do while a new route comes up. Checks that disconnect reports are merged,
+ * failed reopens are retried and eventually given up, stopping never waits for a stuck reopen to
+ * succeed, and that the AudioProcessor carries its filter and envelope state across reopened streams.
+ */
+
+#include <algorithm>
+#include <atomic>
+#include <chrono>
+#include <cmath>
+#include <thread>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "StreamRecovery.h"
+#include "TestHarness.h"
+
+class FakeStreams : public RecoverableStreams {
+public:
+    explicit FakeStreams(int failuresBeforeSuccess = 0, bool blockUntilStopped = false)
+            : mFailuresLeft(failuresBeforeSuccess),
+              mBlockUntilStopped(blockUntilStopped) {}
+
+    bool reopenStreams() override {
+        mReopens.fetch_add(1);
+        if (mBlockUntilStopped) {
+            const StreamRecovery* recovery;
+            while ((recovery = mRecovery.load()) == nullptr || !recovery->isStopping()) {
+                std::this_thread::sleep_for(std::chrono::milliseconds(1));
+            }
+            return false;
+        }
+        std::this_thread::sleep_for(std::chrono::milliseconds(5));
+        return mFailuresLeft.fetch_sub(1) <= 0;
+    }
+
+    void attach(const StreamRecovery* recovery) {
+        mRecovery = recovery;
+    }
+
+    int reopens() const {
+        return mReopens.load();
+    }
+
+private:
+    std::atomic<int> mReopens{0};
+    std::atomic<int> mFailuresLeft;
+    const bool mBlockUntilStopped;
+    std::atomic<const StreamRecovery*> mRecovery{nullptr};
+};
+
+// Poll until the recovery has settled, giving up after the timeout
+static bool waitUntilIdle(const StreamRecovery& recovery, std::chrono::milliseconds timeout) {
+    const auto deadline = std::chrono::steady_clock::now() + timeout;
+    while (recovery.isRecovering()) {
+        if (std::chrono::steady_clock::now() > deadline) {
+            return false;
+        }
+        std::this_thread::sleep_for(std::chrono::milliseconds(1));
+    }
+    return true;
+}
+
+static void checkReopensOnce() {
+    FakeStreams streams;
+    StreamRecovery recovery(streams);
+    EXPECT_TRUE(recovery.getLastRestoreMicros() == -1);
+
+    // Input and output both report the disconnect
+    recovery.requestRecovery();
+    recovery.requestRecovery();
+    EXPECT_TRUE(recovery.isRecovering());
+    EXPECT_TRUE(waitUntilIdle(recovery, std::chrono::seconds(2)));
+    EXPECT_TRUE(streams.reopens() == 1);
+    EXPECT_TRUE(recovery.getRecoveryCount() == 1);
+    EXPECT_TRUE(recovery.getFailureCount() == 0);
+
+    // The restore time covers the settle delay and the reopen itself
+    const int64_t restoreMicros = recovery.getLastRestoreMicros();
+    EXPECT_TRUE(restoreMicros >= std::chrono::microseconds(StreamRecovery::kSettleDelay).count() + 5000);
+    EXPECT_TRUE(restoreMicros < 1000000);
+
+    // A later disconnect is a new recovery
+    recovery.requestRecovery();
+    EXPECT_TRUE(waitUntilIdle(recovery, std::chrono::seconds(2)));
+    EXPECT_TRUE(streams.reopens() == 2);
+    EXPECT_TRUE(recovery.getRecoveryCount() == 2);
+}
+
+static void checkRetriesFailedReopens() {
+    FakeStreams streams(2);
+    StreamRecovery recovery(streams);
+    recovery.requestRecovery();
+    EXPECT_TRUE(waitUntilIdle(recovery, std::chrono::seconds(5)));
+    EXPECT_TRUE(streams.reopens() == 3);
+    EXPECT_TRUE(recovery.getRecoveryCount() == 1);
+    EXPECT_TRUE(recovery.getFailureCount() == 0);
+
+    // Two retry delays passed before the streams came back
+    EXPECT_TRUE(recovery.getLastRestoreMicros() >= 2 * std::chrono::microseconds(StreamRecovery::kRetryDelay).count());
+}
+
+static void checkGivesUp() {
+    FakeStreams streams(StreamRecovery::kMaxAttempts + 10);
+    StreamRecovery recovery(streams);
+    recovery.requestRecovery();
+    EXPECT_TRUE(waitUntilIdle(recovery, std::chrono::seconds(5)));
+    EXPECT_TRUE(streams.reopens() == StreamRecovery::kMaxAttempts);
+    EXPECT_TRUE(recovery.getRecoveryCount() == 0);
+    EXPECT_TRUE(recovery.getFailureCount() == 1);
+    EXPECT_TRUE(recovery.getLastRestoreMicros() == -1);
+}
+
+static void checkStopDuringReopen() {
+    FakeStreams streams(0, true);
+    StreamRecovery recovery(streams);
+    streams.attach(&recovery);
+    recovery.requestRecovery();
+    while (streams.reopens() == 0) {
+        std::this_thread::sleep_for(std::chrono::milliseconds(1));
+    }
+
+    const auto stopStart = std::chrono::steady_clock::now();
+    recovery.stop();
+    EXPECT_TRUE(std::chrono::steady_clock::now() - stopStart < std::chrono::seconds(1));
+    EXPECT_TRUE(streams.reopens() == 1);
+    EXPECT_TRUE(recovery.getRecoveryCount() == 0);
+    EXPECT_TRUE(recovery.getFailureCount() == 0);
+
+    // Requests after stopping are ignored
+    recovery.requestRecovery();
+    EXPECT_TRUE(!recovery.isRecovering());
+}
+
+// A processor whose streams were reopened at the same rate continues exactly where it left off
+static void checkProcessorKeepsState() {
+    constexpr int32_t kSampleRate = 48000;
+    constexpr int32_t kChannelCount = 2;
+    constexpr int32_t kFrames = 192;
+
+    AudioProcessor uninterrupted;
+    AudioProcessor reopened;
+    uninterrupted.setSampleRate(kSampleRate, false);
+    reopened.setSampleRate(kSampleRate, false);
+    uninterrupted.prepare(kFrames);
+    reopened.prepare(kFrames);
+
+    std::vector<float> input(kFrames * kChannelCount);
+    std::vector<float> expected(input.size());
+    std::vector<float> actual(input.size());
+    float largestDifference = 0.0f;
+    for (int block = 0; block < 40; ++block) {
+        if (block == 20) {
+            // Same rate, same or smaller callbacks: nothing is redesigned
+            EXPECT_TRUE(reopened.reconfigure(kSampleRate, false, kFrames / 2));
+            EXPECT_TRUE(reopened.getMaxFramesPerCallback() == kFrames);
+        }
+        for (int32_t frame = 0; frame < kFrames; ++frame) {
+            const float sample = 0.3f * std::sin(0.07f * static_cast<float>(block * kFrames + frame));
+            input[frame * kChannelCount] = sample;
+            input[frame * kChannelCount + 1] = -sample;
+        }
+        uninterrupted.process(input.data(), expected.data(), kFrames, kChannelCount);
+        reopened.process(input.data(), actual.data(), kFrames, kChannelCount);
+        for (size_t i = 0; i < actual.size(); ++i) {
+            largestDifference = std::max(largestDifference, std::fabs(actual[i] - expected[i]));
+        }
+    }
+    EXPECT_TRUE(largestDifference == 0.0f);
+
+    // Larger callbacks only grow the scratch buffers; a new rate redesigns everything
+    EXPECT_TRUE(reopened.reconfigure(kSampleRate, false, 2 * kFrames));
+    EXPECT_TRUE(reopened.getMaxFramesPerCallback() == 2 * kFrames);
+    EXPECT_TRUE(!reopened.reconfigure(44100, false, kFrames));
+    EXPECT_TRUE(reopened.getSampleRate() == 44100);
+}
+
+int main() {
+    checkReopensOnce();
+    checkRetriesFailedReopens();
+    checkGivesUp();
+    checkStopDuringReopen();
+    checkProcessorKeepsState();
+    return TEST_RESULT();
+}
@@ -0,0 +1,98 @@
+/**
+ * Checks that the TelemetryQueue hands events back in order, drops and counts events instead of
+ * overwriting when full, and loses nothing uncounted when a producer and a consumer thread race.
+ */
+
+#include <cstdint>
+#include <thread>
+
+#include "TelemetryQueue.h"
+#include "TestHarness.h"
+
+static TelemetryEvent makeEvent(int64_t sequence) {
+    return {TelemetryEventType::RingUnderflow, static_cast<int32_t>(sequence % 192), sequence, sequence};
+}
+
+static void checkOrderAndWraparound() {
+    TelemetryQueue queue(6);
+    EXPECT_TRUE(queue.capacity() == 8);
+
+    TelemetryEvent event;
+    EXPECT_TRUE(!queue.pop(event));
+
+    // Interleave pushes and pops so the positions wrap around the storage many times
+    int64_t pushed = 0;
+    int64_t popped = 0;
+    bool inOrder = true;
+    for (int round = 0; round < 100; ++round) {
+        for (int i = 0; i < 5; ++i) {
+            EXPECT_TRUE(queue.push(makeEvent(pushed++)));
+        }
+        for (int i = 0; i < 5; ++i) {
+            EXPECT_TRUE(queue.pop(event));
+            inOrder = inOrder && event.value == popped && event.timestampNanos == popped
+                      && event.frames == popped % 192 && event.type == TelemetryEventType::RingUnderflow;
+            ++popped;
+        }
+    }
+    EXPECT_TRUE(inOrder);
+    EXPECT_TRUE(queue.size() == 0);
+    EXPECT_TRUE(queue.droppedCount() == 0);
+}
+
+static void checkDropsWhenFull() {
+    TelemetryQueue queue(4);
+    for (int64_t i = 0; i < 10; ++i) {
+        EXPECT_TRUE(queue.push(makeEvent(i)) == (i < 4));
+    }
+    EXPECT_TRUE(queue.size() == 4);
+    EXPECT_TRUE(queue.droppedCount() == 6);
+
+    // The oldest events survive; the overflowing ones are the ones lost
+    TelemetryEvent event;
+    for (int64_t i = 0; i < 4; ++i) {
+        EXPECT_TRUE(queue.pop(event));
+        EXPECT_TRUE(event.value == i);
+    }
+    EXPECT_TRUE(!queue.pop(event));
+    EXPECT_TRUE(queue.push(makeEvent(10)));
+}
+
+static void checkConcurrentProducerAndConsumer() {
+    constexpr int64_t kEventCount = 200000;
+    TelemetryQueue queue(64);
+
+    std::thread producer([&queue] {
+        for (int64_t i = 0; i < kEventCount; ++i) {
+            queue.push(makeEvent(i));
+        }
+    });
+
+    // Whatever is received must be increasing and intact; everything else must be counted as dropped
+    int64_t received = 0;
+    int64_t last = -1;
+    bool intact = true;
+    TelemetryEvent event;
+    while (true) {
+        if (queue.pop(event)) {
+            intact = intact && event.value > last && event.timestampNanos == event.value
+                     && event.frames == event.value % 192;
+            last = event.value;
+            ++received;
+        } else if (received + static_cast<int64_t>(queue.droppedCount()) == kEventCount) {
+            break;
+        }
+    }
+    producer.join();
+
+    EXPECT_TRUE(intact);
+    EXPECT_TRUE(received > 0);
+    EXPECT_TRUE(received + static_cast<int64_t>(queue.droppedCount()) == kEventCount);
+}
+
+int main() {
+    checkOrderAndWraparound();
+    checkDropsWhenFull();
+    checkConcurrentProducerAndConsumer();
+    return TEST_RESULT();
+}
@@ -0,0 +1,44 @@
+/**
+ * Minimal assertion helpers for the host-side native tests.
+ *
+ * Each test is a standalone executable; failed expectations are printed and counted, and
+ * TEST_RESULT() turns the count into the process exit code so ctest can report it.
+ */
+
+#ifndef HEARINGAMP_TESTHARNESS_H
+#define HEARINGAMP_TESTHARNESS_H
+
+#include <cmath>
+#include <cstdio>
+
+inline int& testFailureCount() {
+    static int failures = 0;
+    return failures;
+}
+
+#define EXPECT_TRUE(condition)                                                        \
+    do {                                                                              \
+        if (!(condition)) {                                                           \
+            std::printf("%s:%d: expected %s\n", __FILE__, __LINE__, #condition);      \
+            ++testFailureCount();                                                     \
+        }                                                                             \
+    } while (0)
+
+#define EXPECT_NEAR(actual, expected, tolerance)                                      \
+    do {                                                                              \
+        double actualValue = (actual);                                                \
+        double expectedValue = (expected);                                            \
+        if (!(std::fabs(actualValue - expectedValue) <= (tolerance))) {               \
+            std::printf("%s:%d: expected %s = %g to be within %g of %g\n", __FILE__,  \
+                        __LINE__, #actual, actualValue, (double) (tolerance),         \
+                        expectedValue);                                               \
+            ++testFailureCount();                                                     \
+        }                                                                             \
+    } while (0)
+
+#define TEST_RESULT()                                                                 \
+    (std::printf(testFailureCount() == 0 ? "PASSED\n" : "FAILED (%d)\n",              \
+                 testFailureCount()),                                                 \
+     testFailureCount() == 0 ? 0 : 1)
+
+#endif // HEARINGAMP_TESTHARNESS_H
@@ -0,0 +1,112 @@
+/**
+ * Reports what control-rate WDRC saves and costs: time spent in the envelope and gain stage per
+ * 16-frame callback for each control interval, against the per-sample applyWDRCBlock, and how far
+ * the output deviates from that per-sample reference as a signal-to-deviation ratio in dB.
+ *
+ * The input is the default four-band split of amplitude-modulated noise, so the envelopes keep
+ * attacking and releasing as they would on speech.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+#include "BenchmarkUtils.h"
+#include "FilterBank.h"
+#include "WDRC.h"
+
+constexpr int32_t kFramesPerCallback = 16;
+constexpr int32_t kTotalFrames = DEFAULT_SAMPLE_RATE;
+
+// Lane-interleaved band block of a second of syllable-rate modulated noise
+static std::vector<float> makeBandBlock(FilterBank& bank) {
+    std::vector<float> left(kTotalFrames);
+    std::vector<float> right(kTotalFrames);
+    uint32_t noiseState = 12345;
+    for (int32_t i = 0; i < kTotalFrames; ++i) {
+        noiseState = noiseState * 1664525u + 1013904223u;
+        const float noise = static_cast<float>(noiseState >> 8) / 8388608.0f - 1.0f;
+        const float syllable = 0.5f + 0.5f * std::sin(2.0f * static_cast<float>(M_PI) * 4.0f * i / DEFAULT_SAMPLE_RATE);
+        left[i] = 0.3f * syllable * syllable * noise;
+        right[i] = 0.5f * left[i];
+    }
+    std::vector<float> bandBlock(kTotalFrames * bank.getLaneCount());
+    const float* earInput[NUM_EARS] = {left.data(), right.data()};
+    bank.processBlock(earInput, bandBlock.data(), kTotalFrames);
+    return bandBlock;
+}
+
+// Compress every band lane of the block in callback-sized pieces
+static void compress(std::vector<float>& bandBlock, int laneCount, int32_t interval,
+                     const WDRCCoefficients& coefficients) {
+    float envelopes[FilterBank::kMaxLanes] = {};
+    WDRCControlState states[FilterBank::kMaxLanes];
+    for (WDRCControlState& state : states) {
+        state.reset(coefficients.gainLinear);
+    }
+    for (int32_t offset = 0; offset < kTotalFrames; offset += kFramesPerCallback) {
+        float* block = bandBlock.data() + offset * laneCount;
+        for (int lane = 0; lane < laneCount; ++lane) {
+            if (interval > 1) {
+                applyWDRCBlockInterpolated(block + lane, kFramesPerCallback, laneCount, interval,
+                                           envelopes[lane], states[lane], coefficients);
+            } else {
+                applyWDRCBlock(block + lane, kFramesPerCallback, laneCount, envelopes[lane], coefficients);
+            }
+        }
+    }
+}
+
+int main() {
+    FilterBank bank(DEFAULT_SAMPLE_RATE, DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS);
+    const int laneCount = bank.getLaneCount();
+    const std::vector<float> filtered = makeBandBlock(bank);
+    const WDRCParams params = {-40.0f, 3.0f, 0.01f, 0.1f, 10.0f};
+
+    std::vector<float> reference = filtered;
+    compress(reference, laneCount, 1, computeWDRCCoefficients(params, DEFAULT_SAMPLE_RATE));
+    double referenceEnergy = 0.0;
+    for (float sample : reference) {
+        referenceEnergy += static_cast<double>(sample) * sample;
+    }
+
+    std::printf("%d bands x %d ears, %d-frame callbacks\n", DEFAULT_NUM_BANDS, NUM_EARS, kFramesPerCallback);
+    double perSampleNanos = 0.0;
+    for (int32_t interval : {1, 2, 4, 8, 16, 32}) {
+        const WDRCCoefficients coefficients = computeWDRCCoefficients(params, static_cast<float>(DEFAULT_SAMPLE_RATE) / interval);
+
+        // Time one callback's worth of every lane; the copy restores the input and is included
+        std::vector<float> block(filtered.begin(), filtered.begin() + kFramesPerCallback * laneCount);
+        float envelopes[FilterBank::kMaxLanes] = {};
+        WDRCControlState states[FilterBank::kMaxLanes];
+        const double callsPerSecond = measureCallsPerSecond([&]() {
+            std::copy(filtered.begin(), filtered.begin() + kFramesPerCallback * laneCount, block.begin());
+            for (int lane = 0; lane < laneCount; ++lane) {
+                if (interval > 1) {
+                    applyWDRCBlockInterpolated(block.data() + lane, kFramesPerCallback, laneCount, interval,
+                                               envelopes[lane], states[lane], coefficients);
+                } else {
+                    applyWDRCBlock(block.data() + lane, kFramesPerCallback, laneCount, envelopes[lane], coefficients);
+                }
+            }
+            gBenchmarkSink = block[0];
+        });
+        const double nanos = 1e9 / callsPerSecond;
+        if (interval == 1) {
+            perSampleNanos = nanos;
+        }
+
+        std::vector<float> output = filtered;
+        compress(output, laneCount, interval, coefficients);
+        double deviationEnergy = 0.0;
+        for (size_t i = 0; i < output.size(); ++i) {
+            const double deviation = static_cast<double>(output[i]) - reference[i];
+            deviationEnergy += deviation * deviation;
+        }
+        const double deviationDb = deviationEnergy > 0.0 ? 10.0 * std::log10(referenceEnergy / deviationEnergy) : INFINITY;
+        std::printf("  interval %2d %8.1f ns/callback (%5.1f%% saved) %6.1f dB signal-to-deviation\n",
+                    interval, nanos, 100.0 * (1.0 - nanos / perSampleNanos), deviationDb);
+    }
+    return 0;
+}
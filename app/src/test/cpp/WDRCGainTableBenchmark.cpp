@@ -0,0 +1,82 @@
+/**
+ * Compares the per-sample cost of the envelope and gain stage when the gain comes from the
+ * precomputed WDRCGainTable with computing the curve for every sample, as the audio thread does
+ * only while parameters glide. Results are in nanoseconds per 16-frame callback for a single-knee
+ * fitting and for one with expansion and limiting, whose extra segments cost the table nothing.
+ *
+ * The input is the default four-band split of amplitude-modulated noise, played through callback
+ * by callback, so the envelopes sweep across all segments of the curves.
+ */
+
+#include <cmath>
+#include <cstdio>
+#include <vector>
+
+#include "BenchmarkUtils.h"
+#include "FilterBank.h"
+#include "WDRC.h"
+
+constexpr int32_t kFramesPerCallback = 16;
+constexpr int32_t kTotalFrames = DEFAULT_SAMPLE_RATE;
+
+// Lane-interleaved band block of a second of syllable-rate modulated noise, 60 dB of level range
+static std::vector<float> makeBandBlock(FilterBank& bank) {
+    std::vector<float> left(kTotalFrames);
+    std::vector<float> right(kTotalFrames);
+    uint32_t noiseState = 12345;
+    for (int32_t i = 0; i < kTotalFrames; ++i) {
+        noiseState = noiseState * 1664525u + 1013904223u;
+        const float noise = static_cast<float>(noiseState >> 8) / 8388608.0f - 1.0f;
+        const float syllable = 0.5f + 0.5f * std::sin(2.0f * static_cast<float>(M_PI) * 4.0f * i / DEFAULT_SAMPLE_RATE);
+        left[i] = 0.3f * std::pow(syllable, 6.0f) * noise;
+        right[i] = 0.5f * left[i];
+    }
+    std::vector<float> bandBlock(kTotalFrames * bank.getLaneCount());
+    const float* earInput[NUM_EARS] = {left.data(), right.data()};
+    bank.processBlock(earInput, bandBlock.data(), kTotalFrames);
+    return bandBlock;
+}
+
+// Nanoseconds per callback of applyWDRCBlock over every lane, stepping through the input
+static double measureNanos(const std::vector<float>& filtered, int laneCount, const WDRCCoefficients& coefficients) {
+    std::vector<float> block(kFramesPerCallback * laneCount);
+    float envelopes[FilterBank::kMaxLanes] = {};
+    int32_t offset = 0;
+    const double callsPerSecond = measureCallsPerSecond([&]() {
+        const auto source = filtered.begin() + offset * laneCount;
+        std::copy(source, source + kFramesPerCallback * laneCount, block.begin());
+        for (int lane = 0; lane < laneCount; ++lane) {
+            applyWDRCBlock(block.data() + lane, kFramesPerCallback, laneCount, envelopes[lane], coefficients);
+        }
+        offset = (offset + kFramesPerCallback) % kTotalFrames;
+        gBenchmarkSink = block[0];
+    });
+    return 1e9 / callsPerSecond;
+}
+
+int main() {
+    FilterBank bank(DEFAULT_SAMPLE_RATE, DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS);
+    const int laneCount = bank.getLaneCount();
+    const std::vector<float> filtered = makeBandBlock(bank);
+
+    WDRCParams multiKnee = {-40.0f, 3.0f, 0.01f, 0.1f, 20.0f};
+    multiKnee.expansion_threshold = -65.0f;
+    multiKnee.expansion_ratio = 2.0f;
+    multiKnee.limit_threshold = -15.0f;
+    const struct {
+        const char* name;
+        WDRCParams params;
+    } fittings[] = {{"single knee", {-40.0f, 3.0f, 0.01f, 0.1f, 10.0f}}, {"multi-knee", multiKnee}};
+
+    std::printf("%d bands x %d ears, %d-frame callbacks\n", DEFAULT_NUM_BANDS, NUM_EARS, kFramesPerCallback);
+    for (const auto& fitting : fittings) {
+        const WDRCCoefficients table = computeWDRCCoefficients(fitting.params, DEFAULT_SAMPLE_RATE);
+        WDRCCoefficients curve = table;
+        curve.gainTableValid = false;
+        const double tableNanos = measureNanos(filtered, laneCount, table);
+        const double curveNanos = measureNanos(filtered, laneCount, curve);
+        std::printf("  %-12s table %7.1f ns/callback, curve per sample %7.1f ns/callback (%4.1f%% saved)\n",
+                    fitting.name, tableNanos, curveNanos, 100.0 * (1.0 - tableNanos / curveNanos));
+    }
+    return 0;
+}
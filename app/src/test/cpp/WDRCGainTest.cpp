@@ -0,0 +1,212 @@
+/**
+ * Checks the precomputed, log-domain WDRC gain against the direct std::pow formula it replaces,
+ * the expansion and limiting segments of the curve, the gain table the audio thread reads against
+ * the curve it samples, and that the control-rate WDRC matches the per-sample law at an interval
+ * of 1, settles to the same level at coarser intervals and gives the same output whatever the
+ * callback size.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <vector>
+
+#include "AudioProcessor.h"
+#include "FastMath.h"
+#include "TestHarness.h"
+#include "WDRC.h"
+
+// The original per-sample gain law
+static float referenceGain(const WDRCParams& params, float envelope) {
+    float gainLinear = std::pow(10.0f, params.gain / 20.0f);
+    float thresholdLinear = std::pow(10.0f, params.threshold / 20.0f);
+    float compressionGain = 1.0f;
+    if (envelope > thresholdLinear) {
+        compressionGain = std::pow(envelope / thresholdLinear, 1.0f / params.ratio - 1.0f);
+    }
+    return gainLinear * compressionGain;
+}
+
+static double toDb(double linear) {
+    return 20.0 * std::log10(linear);
+}
+
+static double rmsDb(const std::vector<float>& samples, size_t from) {
+    double sum = 0.0;
+    for (size_t i = from; i < samples.size(); ++i) {
+        sum += static_cast<double>(samples[i]) * samples[i];
+    }
+    return 10.0 * std::log10(sum / static_cast<double>(samples.size() - from));
+}
+
+static void checkControlRate() {
+    const WDRCParams params = {-40.0f, 3.0f, 0.005f, 0.05f, 10.0f};
+    std::vector<float> signal(48000);
+    for (size_t i = 0; i < signal.size(); ++i) {
+        // Level steps up halfway through so attack and release both run
+        const float amplitude = i < signal.size() / 2 ? 0.01f : 0.3f;
+        signal[i] = amplitude * std::sin(0.0713f * static_cast<float>(i));
+    }
+
+    // An interval of 1 is the per-sample law
+    const WDRCCoefficients perSample = computeWDRCCoefficients(params, 48000.0f);
+    std::vector<float> reference = signal;
+    std::vector<float> interpolated = signal;
+    float referenceEnvelope = 0.0f;
+    float envelope = 0.0f;
+    WDRCControlState state;
+    state.reset(perSample.gainLinear);
+    applyWDRCBlock(reference.data(), static_cast<int32_t>(reference.size()), 1, referenceEnvelope, perSample);
+    applyWDRCBlockInterpolated(interpolated.data(), static_cast<int32_t>(interpolated.size()), 1, 1,
+                               envelope, state, perSample);
+    for (size_t i = 0; i < signal.size(); ++i) {
+        EXPECT_NEAR(interpolated[i], reference[i], 1e-5);
+    }
+
+    // Coarser intervals, over blocks that are not multiples of them, settle close to the same level.
+    // Averaging over the sub-block lowers the envelope's ripple, so the longest interval
+    // (a third of this tone's period) compresses about 1 dB less.
+    const struct {
+        int32_t interval;
+        double toleranceDb;
+    } intervals[] = {{4, 0.1}, {8, 0.1}, {32, 1.5}};
+    for (const auto& [interval, toleranceDb] : intervals) {
+        const WDRCCoefficients controlRate = computeWDRCCoefficients(params, 48000.0f / interval);
+        std::vector<float> output = signal;
+        envelope = 0.0f;
+        state.reset(controlRate.gainLinear);
+        for (size_t offset = 0; offset < output.size(); offset += 96) {
+            applyWDRCBlockInterpolated(output.data() + offset, 96, 1, interval, envelope, state, controlRate);
+        }
+        EXPECT_NEAR(rmsDb(output, 40000), rmsDb(reference, 40000), toleranceDb);
+    }
+}
+
+// Control points land every interval frames across callbacks, so 16-frame callbacks and 480-frame
+// ones, neither a multiple of every interval, give the same output
+static void checkControlRateIgnoresCallbackSize(int interval) {
+    constexpr int32_t kFrames = 48000;
+    std::vector<float> input(2 * kFrames);
+    for (int32_t i = 0; i < kFrames; ++i) {
+        const float amplitude = i < kFrames / 2 ? 0.01f : 0.3f;
+        input[2 * i] = amplitude * std::sin(0.0713f * static_cast<float>(i));
+        input[2 * i + 1] = 0.5f * amplitude * std::sin(0.0311f * static_cast<float>(i));
+    }
+    const int intervals[DEFAULT_NUM_BANDS] = {interval, interval, interval, interval};
+    std::vector<float> outputs[2];
+    const int32_t callbackFrames[2] = {16, 480};
+    for (int run = 0; run < 2; ++run) {
+        AudioProcessor processor;
+        processor.prepare(callbackFrames[run]);
+        EXPECT_TRUE(processor.setControlIntervals(intervals, DEFAULT_NUM_BANDS));
+        outputs[run].resize(input.size());
+        for (int32_t offset = 0; offset < kFrames; offset += callbackFrames[run]) {
+            processor.process(input.data() + 2 * offset, outputs[run].data() + 2 * offset, callbackFrames[run], 2);
+        }
+    }
+    for (size_t i = 0; i < input.size(); ++i) {
+        EXPECT_NEAR(outputs[0][i], outputs[1][i], 1e-5);
+    }
+}
+
+// Expansion below the noise kneepoint, compression above the threshold, a fixed output level above
+// the limiting kneepoint, and kneepoints out of order put back in order
+static void checkCurveSegments() {
+    WDRCParams params = {-40.0f, 3.0f, 0.01f, 0.1f, 20.0f};
+    params.expansion_threshold = -70.0f;
+    params.expansion_ratio = 2.0f;
+    params.limit_threshold = -10.0f;
+    const WDRCCoefficients c = computeWDRCCoefficients(params, 48000.0f);
+    auto gainDbAt = [&](double levelDb) {
+        return toDb(computeWDRCGain(c, static_cast<float>(std::pow(10.0, levelDb / 20.0))));
+    };
+    EXPECT_NEAR(gainDbAt(-55.0), 20.0, 1e-3);
+    EXPECT_NEAR(gainDbAt(-80.0), 10.0, 1e-3);         // 2:1 expansion: 1 dB less gain per dB below -70
+    EXPECT_NEAR(gainDbAt(-25.0), 20.0 - 10.0, 1e-3);  // 3:1 compression: 15 dB above threshold costs 10 dB
+    EXPECT_NEAR(-5.0 + gainDbAt(-5.0), -10.0 + gainDbAt(-10.0), 1e-3);
+    EXPECT_NEAR(0.0 + gainDbAt(0.0), -10.0 + gainDbAt(-10.0), 1e-3);
+
+    params.expansion_threshold = -30.0f;
+    params.limit_threshold = -50.0f;
+    const WDRCCoefficients ordered = computeWDRCCoefficients(params, 48000.0f);
+    EXPECT_NEAR(toDb(computeWDRCGain(ordered, 0.01f)), 20.0, 1e-3);
+}
+
+// The table matches the curve within 0.05 dB away from the kneepoints, where linear interpolation
+// rounds the corner off a little, and within 0.5 dB at them
+static void checkGainTable(const WDRCParams& params) {
+    const WDRCCoefficients c = computeWDRCCoefficients(params, 48000.0f);
+    const float knees[] = {params.expansion_threshold, params.threshold, params.limit_threshold};
+    double worstDb = 0.0;
+    double worstAwayFromKneesDb = 0.0;
+    for (float envelope = 2e-6f; envelope < 15.0f; envelope *= 1.003f) {
+        const double levelDb = toDb(envelope);
+        const double errorDb = std::abs(toDb(lookupWDRCGain(c, envelope)) - toDb(computeWDRCGain(c, envelope)));
+        worstDb = std::max(worstDb, errorDb);
+        bool nearKnee = false;
+        for (float knee : knees) {
+            nearKnee = nearKnee || std::abs(levelDb - knee) < 1.0;
+        }
+        if (!nearKnee) {
+            worstAwayFromKneesDb = std::max(worstAwayFromKneesDb, errorDb);
+        }
+    }
+    EXPECT_TRUE(worstDb < 0.5);
+    EXPECT_TRUE(worstAwayFromKneesDb < 0.05);
+
+    // Beyond the table the gain at its ends holds
+    EXPECT_NEAR(lookupWDRCGain(c, 0.0f), c.gainTable.gains[0], 0.0);
+    EXPECT_NEAR(lookupWDRCGain(c, 1000.0f), c.gainTable.gains[WDRCGainTable::kSize - 1], 0.0);
+}
+
+static void checkControlIntervalValidation() {
+    AudioProcessor processor;
+    const int intervals[DEFAULT_NUM_BANDS] = {32, 16, 8, 4};
+    EXPECT_TRUE(processor.setControlIntervals(intervals, DEFAULT_NUM_BANDS));
+    EXPECT_TRUE(!processor.setControlIntervals(intervals, DEFAULT_NUM_BANDS - 1));
+    const int tooShort[DEFAULT_NUM_BANDS] = {8, 0, 8, 8};
+    EXPECT_TRUE(!processor.setControlIntervals(tooShort, DEFAULT_NUM_BANDS));
+    const int tooLong[DEFAULT_NUM_BANDS] = {8, 8, MAX_CONTROL_INTERVAL + 1, 8};
+    EXPECT_TRUE(!processor.setControlIntervals(tooLong, DEFAULT_NUM_BANDS));
+}
+
+int main() {
+    // Fast log2/exp2 over the range of levels and gains the engine produces
+    for (float x = 1e-7f; x < 4.0f; x *= 1.07f) {
+        EXPECT_NEAR(fastLog2(x), std::log2(x), 1e-5);
+    }
+    for (float x = -40.0f; x < 10.0f; x += 0.013f) {
+        EXPECT_NEAR(fastExp2(x) / std::exp2(x), 1.0, 1e-6);
+    }
+
+    // Gain within 0.001 dB of the reference for a spread of fittings
+    const WDRCParams fittings[] = {
+            {-40.0f, 3.0f, 0.01f, 0.1f, 10.0f},
+            {-25.0f, 4.5f, 0.005f, 0.05f, 25.0f},
+            {-60.0f, 1.5f, 0.02f, 0.2f, 0.0f},
+            {-10.0f, 1.0f, 0.01f, 0.1f, -6.0f},
+    };
+    for (const WDRCParams& params : fittings) {
+        WDRCCoefficients coefficients = computeWDRCCoefficients(params, 48000.0f);
+        EXPECT_NEAR(coefficients.alphaAttack, std::exp(-1.0f / (48000.0f * params.attack_time)), 1e-7);
+        EXPECT_NEAR(coefficients.alphaRelease, std::exp(-1.0f / (48000.0f * params.release_time)), 1e-7);
+        for (float envelope = 1e-6f; envelope < 2.0f; envelope *= 1.05f) {
+            EXPECT_NEAR(toDb(computeWDRCGain(coefficients, envelope)), toDb(referenceGain(params, envelope)), 1e-3);
+        }
+    }
+
+    checkCurveSegments();
+    for (const WDRCParams& params : fittings) {
+        checkGainTable(params);
+    }
+    WDRCParams multiKnee = {-40.0f, 3.0f, 0.01f, 0.1f, 20.0f};
+    multiKnee.expansion_threshold = -70.0f;
+    multiKnee.expansion_ratio = 3.0f;
+    multiKnee.limit_threshold = -10.0f;
+    checkGainTable(multiKnee);
+
+    checkControlRate();
+    checkControlRateIgnoresCallbackSize(32);
+    checkControlRateIgnoresCallbackSize(12);
+    checkControlIntervalValidation();
+    return TEST_RESULT();
+}
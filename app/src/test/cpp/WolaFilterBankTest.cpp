@@ -0,0 +1,144 @@
+/**
+ * Checks the Fft against a direct DFT, that the WolaFilterBank reconstructs its input exactly
+ * (delayed by its latency) at unity gain for every frame size, and that band gains reach only
+ * their own band and ear.
+ */
+
+#include <algorithm>
+#include <cmath>
+#include <complex>
+#include <vector>
+
+#include "Fft.h"
+#include "TestHarness.h"
+#include "WolaFilterBank.h"
+
+static void checkFftAgainstDft(int size) {
+    std::vector<float> real(size);
+    std::vector<float> imag(size);
+    for (int n = 0; n < size; ++n) {
+        real[n] = std::sin(0.3f * n) + (n % 5 == 0 ? 0.5f : 0.0f);
+        imag[n] = std::cos(1.7f * n);
+    }
+    const std::vector<float> originalReal = real;
+    const std::vector<float> originalImag = imag;
+
+    Fft fft(size);
+    fft.forward(real.data(), imag.data());
+    for (int k = 0; k < size; ++k) {
+        std::complex<double> expected = 0.0;
+        for (int n = 0; n < size; ++n) {
+            expected += std::complex<double>(originalReal[n], originalImag[n]) * std::polar(1.0, -2.0 * M_PI * k * n / size);
+        }
+        EXPECT_NEAR(real[k], expected.real(), 1e-3 * size);
+        EXPECT_NEAR(imag[k], expected.imag(), 1e-3 * size);
+    }
+
+    // Unscaled round trip multiplies by the size
+    fft.inverse(real.data(), imag.data());
+    for (int n = 0; n < size; ++n) {
+        EXPECT_NEAR(real[n] / size, originalReal[n], 1e-4);
+        EXPECT_NEAR(imag[n] / size, originalImag[n], 1e-4);
+    }
+}
+
+// Coefficients for a fixed linear gain that never compresses
+static WolaFilterBank::EarCoefficients makeFixedGains(float gainDb, float frameRate) {
+    WolaFilterBank::EarCoefficients coefficients{};
+    for (auto& earCoefficients : coefficients) {
+        earCoefficients.fill(computeWDRCCoefficients({60.0f, 1.0f, 0.01f, 0.1f, gainDb}, frameRate));
+    }
+    return coefficients;
+}
+
+// Run both ears through the bank in blocks of varying size
+static void processInBlocks(WolaFilterBank& bank, const std::vector<float>& left, const std::vector<float>& right,
+                            const WolaFilterBank::EarCoefficients& coefficients,
+                            std::vector<float>& leftOutput, std::vector<float>& rightOutput) {
+    const int32_t totalFrames = static_cast<int32_t>(left.size());
+    leftOutput.assign(totalFrames, 0.0f);
+    rightOutput.assign(totalFrames, 0.0f);
+    WolaFilterBank::EarEnvelopes envelopes{};
+    const int32_t blockSizes[] = {16, 1, 37, 64, 192};
+    int32_t offset = 0;
+    for (int block = 0; offset < totalFrames; ++block) {
+        const int32_t frames = std::min(blockSizes[block % 5], totalFrames - offset);
+        const float* earInput[NUM_EARS] = {left.data() + offset, right.data() + offset};
+        float* earOutput[NUM_EARS] = {leftOutput.data() + offset, rightOutput.data() + offset};
+        bank.processBlock(earInput, earOutput, frames, envelopes, coefficients);
+        offset += frames;
+    }
+}
+
+static void checkUnityReconstruction(int fftSize) {
+    WolaFilterBank bank(DEFAULT_SAMPLE_RATE, DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, fftSize);
+    EXPECT_TRUE(bank.getHopSize() * 2 == fftSize);
+
+    // Different signals per ear so any mixing between the packed ears shows up
+    std::vector<float> left(4800);
+    std::vector<float> right(4800);
+    for (size_t i = 0; i < left.size(); ++i) {
+        left[i] = 0.5f * std::sin(0.07f * i) + 0.2f * std::sin(0.9f * i);
+        right[i] = (i % 97 == 0) ? 1.0f : 0.0f;
+    }
+    std::vector<float> leftOutput;
+    std::vector<float> rightOutput;
+    processInBlocks(bank, left, right, makeFixedGains(0.0f, bank.getFrameRate()), leftOutput, rightOutput);
+
+    const int latency = bank.getLatencyFrames();
+    for (int frame = 0; frame < latency; ++frame) {
+        EXPECT_NEAR(leftOutput[frame], 0.0, 1e-5);
+        EXPECT_NEAR(rightOutput[frame], 0.0, 1e-5);
+    }
+    for (size_t frame = latency; frame < left.size(); ++frame) {
+        EXPECT_NEAR(leftOutput[frame], left[frame - latency], 1e-4);
+        EXPECT_NEAR(rightOutput[frame], right[frame - latency], 1e-4);
+    }
+}
+
+// Peak of the last 1000 output frames of a tone, well after the start-up transient
+static float settledPeak(const std::vector<float>& output) {
+    float peak = 0.0f;
+    for (size_t frame = output.size() - 1000; frame < output.size(); ++frame) {
+        peak = std::max(peak, std::abs(output[frame]));
+    }
+    return peak;
+}
+
+static void checkBandGainsStayInTheirBand() {
+    constexpr int kFftSize = 256;
+    WolaFilterBank bank(DEFAULT_SAMPLE_RATE, DEFAULT_BAND_EDGES.data(), DEFAULT_NUM_BANDS, kFftSize);
+
+    // +12 dB on the left ear's lowest band only
+    WolaFilterBank::EarCoefficients coefficients = makeFixedGains(0.0f, bank.getFrameRate());
+    coefficients[0][0] = computeWDRCCoefficients({60.0f, 1.0f, 0.01f, 0.1f, 12.0f}, bank.getFrameRate());
+    const float boost = std::pow(10.0f, 12.0f / 20.0f);
+
+    // Tones centred on a bin, two bins away from the band edge so little leaks across it
+    for (int bin : {3, 50}) {
+        const float frequency = bin * static_cast<float>(DEFAULT_SAMPLE_RATE) / kFftSize;
+        std::vector<float> tone(9600);
+        for (size_t i = 0; i < tone.size(); ++i) {
+            tone[i] = 0.1f * std::sin(2.0f * static_cast<float>(M_PI) * frequency * i / DEFAULT_SAMPLE_RATE);
+        }
+        bank.reset();
+        std::vector<float> leftOutput;
+        std::vector<float> rightOutput;
+        processInBlocks(bank, tone, tone, coefficients, leftOutput, rightOutput);
+
+        const float expectedLeft = bin == 3 ? 0.1f * boost : 0.1f;
+        EXPECT_NEAR(settledPeak(leftOutput), expectedLeft, 0.03 * expectedLeft);
+        EXPECT_NEAR(settledPeak(rightOutput), 0.1, 0.003);
+    }
+}
+
+int main() {
+    for (int size : {2, 8, 64, Fft::kMaxSize}) {
+        checkFftAgainstDft(size);
+    }
+    for (int fftSize = MIN_WOLA_FFT_SIZE; fftSize <= MAX_WOLA_FFT_SIZE; fftSize *= 2) {
+        checkUnityReconstruction(fftSize);
+    }
+    checkBandGainsStayInTheirBand();
+    return TEST_RESULT();
+}